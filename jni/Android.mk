@@ -17,6 +17,9 @@ OPENCV_INSTALL_MODULES := on
 
 include $(OPENCV_HOME)/sdk/native/jni/OpenCV.mk
 
+# the stitching module is built from the sources below : its headers must come before the SDK ones.
+LOCAL_C_INCLUDES := $(LOCAL_PATH)/opencv2/modules/stitching/include $(LOCAL_C_INCLUDES)
+
 LOCAL_MODULE    := jniwrapper
 LOCAL_SRC_FILES := jniwrapper.cpp \
 					opencv2/modules/stitching/src/autocalib.cpp \
@@ -30,11 +33,12 @@ LOCAL_SRC_FILES := jniwrapper.cpp \
 					opencv2/modules/stitching/src/stitcher.cpp \
 LOCAL_LDLIBS +=  -llog -ldl
 
-include $(BUILD_SHARED_LIBRARY)
-
+# OpenMP is used by the parallel features finder : flags must be set before building.
 LOCAL_CFLAGS += -O3 -fopenmp -ftree-vectorize -mvectorize-with-neon-quad -mfpu=neon
 LOCAL_LDFLAGS +=-O3 -fopenmp -ftree-vectorize -mvectorize-with-neon-quad -mfpu=neon
 
+include $(BUILD_SHARED_LIBRARY)
+
 APP_PLATFORM := android-17
 APP_OPTIM:= release
 
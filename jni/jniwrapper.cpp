@@ -64,6 +64,61 @@
 #include "tools.cpp"
 
 
+/*******************
+ * CALLBACKS
+ ******************/
+
+/** java VM, and the StitcherWrapper told about the progress **/
+static JavaVM *_vm = NULL;
+static jobject _listener = NULL;
+static jmethodID _onProgress = NULL;
+static jmethodID _onStageDone = NULL;
+
+/**
+ * @return JNI environment of the current thread, or NULL if it isn't attached to the VM.
+ */
+static JNIEnv *getEnv()
+{
+	JNIEnv *env = NULL;
+	if (_vm == NULL || _vm->GetEnv((void **) &env, JNI_VERSION_1_6) != JNI_OK)
+		return NULL;
+	return env;
+}
+
+/**
+ * A listener that threw must not leave a pending exception under the native code : the exception is logged and cleared.
+ */
+static void clearListenerException(JNIEnv *env)
+{
+	if (env->ExceptionCheck())
+	{
+		__android_log_print(ANDROID_LOG_ERROR, "jniwrapper", "exception thrown by the stitching listener");
+		env->ExceptionDescribe();
+		env->ExceptionClear();
+	}
+}
+
+static void onProgress(int progress)
+{
+	JNIEnv *env = getEnv();
+	if (env != NULL && _listener != NULL)
+	{
+		env->CallVoidMethod(_listener, _onProgress, progress);
+		clearListenerException(env);
+	}
+}
+
+static void onStageDone(int stage)
+{
+	JNIEnv *env = getEnv();
+	if (env != NULL && _listener != NULL)
+	{
+		env->CallVoidMethod(_listener, _onStageDone, stage);
+		clearListenerException(env);
+	}
+}
+
+
 //TODO : cleanup function.
 //TODO : add memory usage to debug logs.
 //@bug : out of memory when compositing with more than 5 images.
@@ -77,20 +132,19 @@ extern "C"
 {
         //================ REGISTRATION STEPS ============================
         /**
-         * Init the stitcher. Fetch and store parameters, images and their respective rotation.
+         * Init the stitcher. Fetch and store parameters, images and the pairs of images to match.
          * @param compositionFile Result file when panorama is store.
          * @param files Base path images.
-         * @param orientations Pitch, yaw and roll of images.
+         * @param matchingPairs Pairs of images to match, flattened as {i0, j0, i1, j1, ...}.
          */
         JNIEXPORT jint JNICALL
         Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_newStitcher
-        (JNIEnv* env, jobject obj, jstring compositionFile, jobjectArray files, jobjectArray matchingMask)
+        (JNIEnv* env, jobject obj, jstring compositionFile, jobjectArray files, jintArray matchingPairs)
         {
 
         		jstring tmpFileName;
 				const char* path;
 				_nbImages = env->GetArrayLength(files);
-                jintArray matchingMaskLine;
 
 #ifdef DEBUG
                 int64 t = getTickCount();
@@ -101,30 +155,43 @@ extern "C"
 
                 _matchingMask = Mat::zeros(_nbImages, _nbImages, CV_8U);
 
+                // Build the matching mask from the pairs list, in a single JNI copy.
+                int nbPairs = env->GetArrayLength(matchingPairs) / 2;
+                jint* pairs = env->GetIntArrayElements(matchingPairs, 0);
+                for (int p = 0; p < nbPairs; ++p)
+                {
+                	int i = pairs[2*p];
+                	int j = pairs[2*p+1];
+                	if (i < 0 || j < 0 || i >= _nbImages || j >= _nbImages)
+                	{
+                		__android_log_print(ANDROID_LOG_ERROR, TAG, "Invalid matching pair (%d, %d)", i, j);
+                		continue;
+                	}
+                	_matchingMask.at<uchar>(i, j) = 1;
+                }
+                env->ReleaseIntArrayElements(matchingPairs, pairs, JNI_ABORT);
+#ifdef DEBUG
+                __android_log_print(ANDROID_LOG_INFO, TAG, "Stored %d matching pairs", nbPairs);
+#endif
+
                 // Fetch and convert images path from jstring to string.
+                _imagesPath.clear();
                 for (int i = 0; i < _nbImages; ++i)
                 {
                 	tmpFileName = (jstring) env->GetObjectArrayElement(files, i);
-					matchingMaskLine = (jintArray)env->GetObjectArrayElement(matchingMask, i);
-				    int *matchingMaskElement=env->GetIntArrayElements(matchingMaskLine, 0);
-				    for(int j=0; j<_nbImages; ++j)
-				    {
-				    	_matchingMask.at<uchar>(i, j) = (uchar)matchingMaskElement[j];
-					}
-
-
 					path = env->GetStringUTFChars(tmpFileName, 0);
 					_imagesPath.push_back(path);
 #ifdef DEBUG
 					__android_log_print(ANDROID_LOG_INFO, TAG, "Store path #%d : %s", i + 1, path);
 #endif
 					env->ReleaseStringUTFChars(tmpFileName, path);
+					env->DeleteLocalRef(tmpFileName);
                 }
 
                 // Path to store panorama is the last element.
                 path = env->GetStringUTFChars(compositionFile, 0);
                 _resultPath = path;
-                env->ReleaseStringUTFChars(tmpFileName, path);
+                env->ReleaseStringUTFChars(compositionFile, path);
 #ifdef DEBUG
                 __android_log_print(ANDROID_LOG_INFO, TAG, "Stitcher initialized  (%f sec)", ((getTickCount() - t) / getTickFrequency()));
 #endif
@@ -190,6 +257,69 @@ extern "C"
 				return getProgress();
 		}
 
+		// register the StitcherWrapper to be told about the progress and the end of each stage
+		JNIEXPORT void JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_registerListener
+		(JNIEnv* env, jobject obj)
+		{
+			env->GetJavaVM(&_vm);
+			if (_listener != NULL)
+				env->DeleteGlobalRef(_listener);
+			_listener = env->NewGlobalRef(obj);
+
+			jclass clazz = env->GetObjectClass(obj);
+			_onProgress = env->GetMethodID(clazz, "onNativeProgress", "(I)V");
+			_onStageDone = env->GetMethodID(clazz, "onNativeStageDone", "(I)V");
+			env->DeleteLocalRef(clazz);
+
+			_progressCallback = onProgress;
+			_stageCallback = onStageDone;
+		}
+
+		// get wall time of each stage of the last stitching [s]
+		JNIEXPORT jdoubleArray JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getStageTimes
+		(JNIEnv* env, jobject obj)
+		{
+			jdoubleArray times = env->NewDoubleArray(NB_STAGES);
+			env->SetDoubleArrayRegion(times, 0, NB_STAGES, getStageTimes());
+			return times;
+		}
+
+		// get number of features found in each input image
+		JNIEXPORT jintArray JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getFeatureCounts
+		(JNIEnv* env, jobject obj)
+		{
+			const vector<int> &counts = getFeatureCounts();
+			jintArray result = env->NewIntArray(counts.size());
+			if (!counts.empty())
+				env->SetIntArrayRegion(result, 0, counts.size(), &counts[0]);
+			return result;
+		}
+
+		JNIEXPORT jint JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getMatchedPairs
+		(JNIEnv* env, jobject obj)
+		{
+			return getMatchedPairs();
+		}
+
+		JNIEXPORT jint JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getBundleAdjusterIterations
+		(JNIEnv* env, jobject obj)
+		{
+			return getBundleAdjusterIterations();
+		}
+
+		// get high water mark of the resident memory of the whole process (VmHWM) [kB]
+		JNIEXPORT jint JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getProcessPeakMemory
+		(JNIEnv* env, jobject obj)
+		{
+			return getProcessPeakMemory();
+		}
+
 		// get indices of used images in the panorama.
 		JNIEXPORT jintArray JNICALL
 		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getUsedIndices
@@ -217,6 +347,107 @@ extern "C"
 			return indices;
 		}
 
+		//================ INCREMENTAL SESSION ============================
+		// start a new session, dropping the previous one.
+		JNIEXPORT void JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_newSession
+		(JNIEnv* env, jobject obj)
+		{
+			startSession();
+		}
+
+		/**
+		 * Decode a captured jpeg, find its features and match them with its previous neighbors.
+		 * @param jpegData Jpeg bytes, as given by the camera.
+		 * @param orientation Rotation to apply to the decoded image.
+		 * @param file Path where the jpeg is stored.
+		 * @param neighbors Indices of the previously added images to match with.
+		 */
+		JNIEXPORT jint JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_addSessionImage
+		(JNIEnv* env, jobject obj, jbyteArray jpegData, jint orientation, jstring file, jintArray neighbors)
+		{
+			int length = env->GetArrayLength(jpegData);
+			jbyte* bytes = env->GetByteArrayElements(jpegData, 0);
+			Mat image = imdecode(Mat(1, length, CV_8U, bytes), CV_LOAD_IMAGE_COLOR);
+			env->ReleaseByteArrayElements(jpegData, bytes, JNI_ABORT);
+
+			if (image.empty())
+			{
+				__android_log_print(ANDROID_LOG_ERROR, TAG, "Could not decode session image");
+				return -1;
+			}
+			rotateMat(image, orientation);
+
+			int nbNeighbors = env->GetArrayLength(neighbors);
+			jint* ids = env->GetIntArrayElements(neighbors, 0);
+			vector<int> neighborsIds(ids, ids + nbNeighbors);
+			env->ReleaseIntArrayElements(neighbors, ids, JNI_ABORT);
+
+			const char* path = env->GetStringUTFChars(file, 0);
+			string imagePath = path;
+			env->ReleaseStringUTFChars(file, path);
+
+			return sessionAddImage(image, imagePath, neighborsIds);
+		}
+
+		// count of images added to the current session.
+		JNIEXPORT jint JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getSessionSize
+		(JNIEnv* env, jobject obj)
+		{
+			return getSessionSize();
+		}
+
+		// compose the panorama from the current session.
+		JNIEXPORT jint JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_composeSession
+		(JNIEnv* env, jobject obj, jstring compositionFile)
+		{
+			const char* path = env->GetStringUTFChars(compositionFile, 0);
+			string resultPath = path;
+			env->ReleaseStringUTFChars(compositionFile, path);
+
+			return composeSession(resultPath);
+		}
+
+		/**
+		 * Initialize cameras from the sensors instead of estimating them from features.
+		 * @param orientations Pitch, yaw and roll of each image, flattened. Empty to disable.
+		 * @param hfov Horizontal field of view of the camera.
+		 */
+		JNIEXPORT void JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_setCameraPriors
+		(JNIEnv* env, jobject obj, jfloatArray orientations, jfloat hfov)
+		{
+			int nbImages = env->GetArrayLength(orientations) / 3;
+			vector<Vec3f> priors(nbImages);
+			jfloat* angles = env->GetFloatArrayElements(orientations, 0);
+			for (int i = 0; i < nbImages; ++i)
+			{
+				priors[i] = Vec3f(angles[3*i], angles[3*i+1], angles[3*i+2]);
+			}
+			env->ReleaseFloatArrayElements(orientations, angles, JNI_ABORT);
+
+			setCameraPriors(priors, hfov);
+		}
+
+		// set the number of workers finding features
+		JNIEXPORT void JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_setFinderThreads
+		(JNIEnv* env, jobject obj, jint nbThreads)
+		{
+			setFinderThreads(nbThreads);
+		}
+
+		// set the compose resolution and the height of the composited bands
+		JNIEXPORT void JNICALL
+		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_setComposeBands
+		(JNIEnv* env, jobject obj, jdouble megapix, jint bandHeight)
+		{
+			setComposeBands(megapix, bandHeight);
+		}
+
 		JNIEXPORT jdouble JNICALL
 		Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_getWorkingResolution
 		(JNIEnv* env, jobject obj)
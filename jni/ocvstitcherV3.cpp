@@ -44,6 +44,7 @@
 #include <iostream>
 #include <fstream>
 #include <string>
+#include <omp.h>
 
 #include <opencv2/highgui/highgui.hpp>
 #include <opencv2/opencv_modules.hpp>
@@ -78,6 +79,14 @@ int COMPENSATOR_STEP = 20;
 int SEAM_STEP = 10;
 int COMPOSITOR_STEP = 30;
 
+/** stitching stages, in order **/
+enum Stage
+{
+	STAGE_FINDER, STAGE_MATCHER, STAGE_ESTIMATOR, STAGE_ADJUSTER,
+	STAGE_WARPER, STAGE_COMPENSATOR, STAGE_SEAM, STAGE_COMPOSITOR,
+	NB_STAGES
+};
+
 
 /*************
  * PARAMETERS
@@ -146,6 +155,24 @@ float blend_strength = 5;
 Size ORB_GRID_SIZE = Size(1,1);
 size_t ORB_FEATURES_N = 3500;
 
+/** max number of workers finding features at the same time. Each one holds a full resolution image. **/
+int MAX_FINDER_THREADS = 4;
+
+/** number of workers finding features. 1 means serial mode. **/
+int finder_threads = 1;
+
+/** height of the bands composited at once [px]. 0 composites the whole panorama at once. **/
+int compose_band_height = 0;
+
+/** Max iterations of the bundle adjuster when cameras are initialized from sensors. **/
+int PRIOR_BA_MAX_ITER = 100;
+
+/**
+ * Max mean reprojection error of the cameras built from the sensors, before adjustment, as an angle [deg].
+ * Above it, the sensors don't describe the captures and cameras are estimated from features only.
+ **/
+float PRIOR_MAX_ERROR = 10.0f;
+
 /*************
  * ATTRIBUTES
  ************/
@@ -166,15 +193,370 @@ static Mat _matchingMask;
 /** indices of used images **/
 vector<int> _indices;
 
+/** pitch, yaw and roll of each image given by the sensors [deg]. Empty if cameras must be estimated from features. **/
+static vector<Vec3f> _priorOrientations;
+
+/** horizontal field of view of the camera, along the longest side of the images [deg] **/
+static float _priorHFov = 0;
+
 float _progressStep = 1;
 
+/*************
+ * TELEMETRY
+ ************/
+
+/** wall time spent in each stage by the last stitching [s] **/
+static double _stageTimes[NB_STAGES];
+
+/** start of the current stage, in ticks **/
+static int64 _stageStart = 0;
+
+/** number of features found in each input image **/
+static vector<int> _featureCounts;
+
+/** number of image pairs matched with enough confidence **/
+static int _matchedPairs = 0;
+
+/** number of iterations of the bundle adjuster **/
+static int _baIterations = 0;
+
+/**
+ * high water mark of the resident memory of the whole process since it started (VmHWM) [kB]. -1 if unknown.
+ * Includes the java heap and all that was loaded before the stitching : it bounds the stitcher memory, it doesn't measure it.
+ **/
+static int _processPeakMemory = -1;
+
+/** called from the stitching thread when the progress changes, and when a stage ends. Set by the JNI layer. **/
+void (*_progressCallback)(int progress) = NULL;
+void (*_stageCallback)(int stage) = NULL;
+
+/**
+ * Set the compose resolution, and the height of the bands composited at once.
+ * @param megapix - resolution of each image in the panorama [Mpx].
+ * @param bandHeight - height of the bands [px]. 0 composites the whole panorama at once.
+ */
+void setComposeBands(double megapix, int bandHeight)
+{
+	compose_megapix = megapix;
+	compose_band_height = max(0, bandHeight);
+}
+
+/**
+ * Set the number of workers used to find features. 1 means serial mode.
+ * The value is bounded by MAX_FINDER_THREADS.
+ */
+void setFinderThreads(int nbThreads)
+{
+	finder_threads = max(1, min(nbThreads, MAX_FINDER_THREADS));
+}
+
+/**
+ * High water mark of the resident memory of the whole process, read from /proc [kB].
+ * @return -1 if it can't be read.
+ */
+static int readProcessPeakMemory()
+{
+	ifstream status("/proc/self/status");
+	string line;
+	while (getline(status, line))
+	{
+		if (line.compare(0, 6, "VmHWM:") == 0)
+			return atoi(line.c_str() + 6);
+	}
+	return -1;
+}
+
+/**
+ * Clear the telemetry, and start timing the first stage.
+ */
+static void resetTelemetry()
+{
+	for (int i = 0; i < NB_STAGES; ++i)
+		_stageTimes[i] = 0;
+	_featureCounts.clear();
+	_matchedPairs = 0;
+	_baIterations = 0;
+	_processPeakMemory = readProcessPeakMemory();
+	_stageStart = getTickCount();
+}
+
+/**
+ * Tell the listener about the current progress. Must only be called from the thread that started the stitching,
+ * which is the master thread of the parallel regions.
+ */
+static void notifyProgress()
+{
+	if (_progressCallback != NULL)
+		_progressCallback((int)_progress);
+}
+
+/**
+ * Account the time elapsed since the end of the previous stage to the given one, and start timing the next one.
+ * @param notify - if the listener should be told about the end of the stage.
+ */
+static void endStage(int stage, bool notify = true)
+{
+	int64 now = getTickCount();
+	_stageTimes[stage] += (now - _stageStart) / getTickFrequency();
+	_stageStart = now;
+	_processPeakMemory = max(_processPeakMemory, readProcessPeakMemory());
+
+	if (notify)
+	{
+		notifyProgress();
+		if (_stageCallback != NULL)
+			_stageCallback(stage);
+	}
+}
+
+/**
+ * @return wall time spent in each stage by the last stitching [s].
+ */
+const double *getStageTimes()
+{
+	return _stageTimes;
+}
+
+const vector<int> &getFeatureCounts()
+{
+	return _featureCounts;
+}
+
+int getMatchedPairs()
+{
+	return _matchedPairs;
+}
+
+int getBundleAdjusterIterations()
+{
+	return _baIterations;
+}
+
+int getProcessPeakMemory()
+{
+	return _processPeakMemory;
+}
+
+/**
+ * Find the features of the given image at working scale, and store its downscaled copy for seam finding.
+ * Only writes at index i of the output vectors, so it can be called concurrently for different images.
+ */
+static void findImageFeatures(int i, const Mat &full_img, FeaturesFinder &finder, double work_scale, double seam_scale,
+		vector<ImageFeatures> &features, vector<Mat> &images, vector<Size> &full_img_sizes)
+{
+    Mat img;
+    full_img_sizes[i] = full_img.size();
+
+    if (work_megapix < 0)
+        img = full_img;
+    else
+        resize(full_img, img, Size(), work_scale, work_scale);
+
+    finder(img, features[i]);
+    features[i].img_idx = i;
+	__android_log_print(ANDROID_LOG_INFO, TAG, "Features in image #%d ; %d", i+1,features[i].keypoints.size());
+
+    resize(full_img, img, Size(), seam_scale, seam_scale);
+    images[i] = img.clone();
+
+#pragma omp atomic
+    _progress+=_progressStep;
+}
+
+/**
+ * Initialize cameras from the sensors orientations instead of estimating them from features.
+ * Pass an empty vector to disable.
+ * @param orientations Pitch, yaw and roll of each image [deg].
+ * @param hfov Horizontal field of view of the camera [deg].
+ */
+void setCameraPriors(const vector<Vec3f> &orientations, float hfov)
+{
+	_priorOrientations = orientations;
+	_priorHFov = hfov;
+}
+
+/**
+ * Rotation from camera to world frame, given the sensors angles.
+ * Camera frame is x right, y down, z forward : with positive signs, a positive yaw turns the camera right,
+ * a positive pitch turns it up, and a positive roll turns it clockwise as seen from behind.
+ * @param signs - signs of the pitch, yaw and roll.
+ */
+static Mat eulerToRotation(const Vec3f &orientation, const Vec3f &signs)
+{
+	double pitch = signs[0] * orientation[0] * CV_PI / 180.0;
+	double yaw = signs[1] * orientation[1] * CV_PI / 180.0;
+	double roll = signs[2] * orientation[2] * CV_PI / 180.0;
+
+	Mat_<float> Rx = (Mat_<float>(3, 3) <<
+			1, 0, 0,
+			0, cos(pitch), -sin(pitch),
+			0, sin(pitch), cos(pitch));
+	Mat_<float> Ry = (Mat_<float>(3, 3) <<
+			cos(yaw), 0, sin(yaw),
+			0, 1, 0,
+			-sin(yaw), 0, cos(yaw));
+	Mat_<float> Rz = (Mat_<float>(3, 3) <<
+			cos(roll), -sin(roll), 0,
+			sin(roll), cos(roll), 0,
+			0, 0, 1);
+
+	return Mat(Ry * Rx * Rz);
+}
+
+/**
+ * Mean reprojection error of the inlier matches given the cameras, measured as BundleAdjusterReproj does :
+ * each keypoint is projected in the other image of its pair through both cameras.
+ * Pairs the bundle adjuster ignores, below conf_thresh, are ignored.
+ * @return mean error [px at work scale], DBL_MAX if there is no inlier or if a keypoint falls behind a camera.
+ */
+static double getReprojectionError(const vector<ImageFeatures> &features, const vector<MatchesInfo> &pairwise_matches,
+		const vector<CameraParams> &cameras)
+{
+	int nbCameras = static_cast<int>(cameras.size());
+	double sum = 0;
+	int count = 0;
+	for (int i = 0; i < nbCameras; ++i)
+	{
+		for (int j = i + 1; j < nbCameras; ++j)
+		{
+			const MatchesInfo &info = pairwise_matches[i * nbCameras + j];
+			if (info.confidence <= conf_thresh)
+				continue;
+
+			Mat_<double> K1, K2, R1, R2;
+			cameras[i].K().convertTo(K1, CV_64F);
+			cameras[j].K().convertTo(K2, CV_64F);
+			cameras[i].R.convertTo(R1, CV_64F);
+			cameras[j].R.convertTo(R2, CV_64F);
+			Mat_<double> H = K2 * R2.t() * R1 * K1.inv();
+
+			for (size_t k = 0; k < info.matches.size(); ++k)
+			{
+				if (!info.inliers_mask[k])
+					continue;
+
+				const DMatch &m = info.matches[k];
+				Point2f p1 = features[i].keypoints[m.queryIdx].pt;
+				Point2f p2 = features[j].keypoints[m.trainIdx].pt;
+				double x = H(0,0)*p1.x + H(0,1)*p1.y + H(0,2);
+				double y = H(1,0)*p1.x + H(1,1)*p1.y + H(1,2);
+				double z = H(2,0)*p1.x + H(2,1)*p1.y + H(2,2);
+				if (z <= 0)
+					return DBL_MAX;
+
+				sum += sqrt((p2.x - x/z) * (p2.x - x/z) + (p2.y - y/z) * (p2.y - y/z));
+				++count;
+			}
+		}
+	}
+	return (count > 0 ? sum / count : DBL_MAX);
+}
+
+/**
+ * Estimate cameras from the pairwise homographies, as the pipeline does without priors.
+ */
+static void estimateCameras(const vector<ImageFeatures> &features, const vector<MatchesInfo> &pairwise_matches,
+		vector<CameraParams> &cameras)
+{
+	HomographyBasedEstimator estimator;
+	estimator(features, pairwise_matches, cameras);
+	for (size_t i = 0; i < cameras.size(); ++i)
+	{
+		Mat R;
+		cameras[i].R.convertTo(R, CV_32F);
+		cameras[i].R = R;
+	}
+}
+
+/**
+ * Build cameras from sensors orientations and field of view, with the given signs of the angles.
+ * @return false if priors don't cover the used images.
+ */
+static bool buildPriorCameras(const vector<ImageFeatures> &features, const Vec3f &signs, vector<CameraParams> &cameras)
+{
+	cameras.resize(features.size());
+	for (size_t i = 0; i < features.size(); ++i)
+	{
+		int idx = _indices[i];
+		if (idx < 0 || idx >= static_cast<int>(_priorOrientations.size()))
+			return false;
+
+		Size sz = features[i].img_size;
+		cameras[i].focal = 0.5 * max(sz.width, sz.height) / tan(0.5 * _priorHFov * CV_PI / 180.0);
+		cameras[i].aspect = 1;
+		cameras[i].ppx = 0.5 * sz.width;
+		cameras[i].ppy = 0.5 * sz.height;
+		cameras[i].R = eulerToRotation(_priorOrientations[idx], signs);
+	}
+	return true;
+}
+
+/**
+ * Build initial cameras from sensors orientations and field of view.
+ * How the sensors angles map to the camera frame depends on how the device is held : instead of trusting
+ * a fixed convention, the signs of the three angles are checked against the inlier matches, and the
+ * combination with the lowest reprojection error is kept.
+ * @return false if priors don't cover the used images, or if even the best signs don't fit the matches.
+ */
+static bool initCamerasFromPriors(const vector<ImageFeatures> &features, const vector<MatchesInfo> &pairwise_matches,
+		vector<CameraParams> &cameras)
+{
+	if (_priorOrientations.empty() || _priorHFov <= 0)
+		return false;
+
+	double bestError = DBL_MAX;
+	Vec3f bestSigns;
+	vector<CameraParams> candidate;
+	for (int s = 0; s < 8; ++s)
+	{
+		Vec3f signs((s & 1) ? -1.0f : 1.0f, (s & 2) ? -1.0f : 1.0f, (s & 4) ? -1.0f : 1.0f);
+		if (!buildPriorCameras(features, signs, candidate))
+			return false;
+
+		double error = getReprojectionError(features, pairwise_matches, candidate);
+		if (error < bestError)
+		{
+			bestError = error;
+			bestSigns = signs;
+			cameras = candidate;
+		}
+	}
+	if (bestError == DBL_MAX)
+		return false;
+
+	double angularError = atan(bestError / cameras[0].focal) * 180.0 / CV_PI;
+	__android_log_print(ANDROID_LOG_INFO, TAG, "sensors signs (%.0f, %.0f, %.0f), reprojection error %f px (%f deg)",
+			bestSigns[0], bestSigns[1], bestSigns[2], bestError, angularError);
+	return angularError <= PRIOR_MAX_ERROR;
+}
+
+/**
+ * @return false if the bundle adjuster didn't converge from the sensors priors : it used all its iterations,
+ * or gave invalid cameras.
+ */
+static bool isPriorAdjustmentValid(const vector<CameraParams> &cameras)
+{
+	if (_baIterations >= PRIOR_BA_MAX_ITER)
+		return false;
+
+	for (size_t i = 0; i < cameras.size(); ++i)
+	{
+		if (!(cameras[i].focal > 0) || !checkRange(cameras[i].R))
+			return false;
+	}
+	return true;
+}
+
+static int composeFromFeatures(vector<ImageFeatures> &features, vector<MatchesInfo> &pairwise_matches,
+		vector<Mat> &images, vector<Size> &full_img_sizes, double work_scale, double seam_scale);
+
 int composePanorama()
 {
 	_progress = 0;
+	resetTelemetry();
 
 #if ENABLE_LOG
 	__android_log_print(ANDROID_LOG_INFO, TAG, "Compose panorama...");
-    int64 app_start_time = getTickCount();
 #endif
 
     cv::setBreakOnError(true);
@@ -187,8 +569,7 @@ int composePanorama()
         return -1;
     }
 
-    double work_scale = 1, seam_scale = 1, compose_scale = 1;
-    bool is_work_scale_set = false, is_seam_scale_set = false, is_compose_scale_set = false;
+    double work_scale = 1, seam_scale = 1;
 
     // ================ Finding features... ==================
 #if ENABLE_LOG
@@ -197,59 +578,71 @@ int composePanorama()
 #endif
 
     _progressStep = ((float)FINDER_STEP / (float)_nbImages);
-    Ptr<FeaturesFinder> finder = new OrbFeaturesFinder(ORB_GRID_SIZE, ORB_FEATURES_N);
-    Mat full_img, img;
+    Mat full_img;
     vector<ImageFeatures> features(_nbImages);
     vector<Mat> images(_nbImages);
     vector<Size> full_img_sizes(_nbImages);
-    double seam_work_aspect = 1;
 
-    for (int i = 0; i < _nbImages; ++i)
+    // First image is processed alone : it gives the working and seam scales of all the others.
+    full_img = imread(_imagesPath[0]);
+    if (full_img.empty())
+    {
+    	__android_log_print(ANDROID_LOG_ERROR, TAG, "Can't open image %s", _imagesPath[0].c_str());
+        return -1;
+    }
+    if (work_megapix < 0)
+    {
+        work_scale = 1;
+    }
+    else
     {
-        full_img = imread(_imagesPath[i]);
-        full_img_sizes[i] = full_img.size();
+        work_scale = min(1.0, sqrt(work_megapix * 1e6 / full_img.size().area()));
+    }
+    seam_scale = min(1.0, sqrt(seam_megapix * 1e6 / full_img.size().area()));
 
-        if (full_img.empty())
-        {
-        	__android_log_print(ANDROID_LOG_ERROR, TAG, "Can't open image %s", _imagesPath[i].c_str());
-            return -1;
-        }
-        if (work_megapix < 0)
-        {
-            img = full_img;
-            work_scale = 1;
-            is_work_scale_set = true;
-        }
-        else
+    {
+        Ptr<FeaturesFinder> finder = new OrbFeaturesFinder(ORB_GRID_SIZE, ORB_FEATURES_N);
+        findImageFeatures(0, full_img, *finder, work_scale, seam_scale, features, images, full_img_sizes);
+        notifyProgress();
+        finder->collectGarbage();
+    }
+    full_img.release();
+
+    // Remaining images are spread over the workers, each one owning its finder.
+    int nbThreads = max(1, min(finder_threads, _nbImages - 1));
+    volatile bool failed = false;
+#pragma omp parallel num_threads(nbThreads)
+    {
+        Ptr<FeaturesFinder> finder = new OrbFeaturesFinder(ORB_GRID_SIZE, ORB_FEATURES_N);
+        Mat worker_full_img;
+
+#pragma omp for schedule(dynamic)
+        for (int i = 1; i < _nbImages; ++i)
         {
-            if (!is_work_scale_set)
+            if (failed)
+                continue;
+
+            worker_full_img = imread(_imagesPath[i]);
+            if (worker_full_img.empty())
             {
-                work_scale = min(1.0, sqrt(work_megapix * 1e6 / full_img.size().area()));
-                is_work_scale_set = true;
+            	__android_log_print(ANDROID_LOG_ERROR, TAG, "Can't open image %s", _imagesPath[i].c_str());
+                failed = true;
+                continue;
             }
-            resize(full_img, img, Size(), work_scale, work_scale);
-        }
-        if (!is_seam_scale_set)
-        {
-            seam_scale = min(1.0, sqrt(seam_megapix * 1e6 / full_img.size().area()));
-            seam_work_aspect = seam_scale / work_scale;
-            is_seam_scale_set = true;
-        }
-
-        (*finder)(img, features[i]);
-        features[i].img_idx = i;
-        LOGLN("Features in image #" << i+1 << ": " << features[i].keypoints.size());
-    	__android_log_print(ANDROID_LOG_INFO, TAG, "Features in image #%d ; %d", i+1,features[i].keypoints.size());
+            findImageFeatures(i, worker_full_img, *finder, work_scale, seam_scale, features, images, full_img_sizes);
 
-        resize(full_img, img, Size(), seam_scale, seam_scale);
-        images[i] = img.clone();
+            // the workers are not attached to the VM : the master reports the images done by all threads so far.
+            if (omp_get_thread_num() == 0)
+                notifyProgress();
+        }
 
-        _progress+=_progressStep;
+        finder->collectGarbage();
+        worker_full_img.release();
     }
 
-    finder->collectGarbage();
-    full_img.release();
-    img.release();
+    if (failed)
+        return -1;
+    endStage(STAGE_FINDER);
 
 	__android_log_print(ANDROID_LOG_INFO, TAG, "Finding features, time: %f sec",((getTickCount() - t) / getTickFrequency()));
 
@@ -265,11 +658,187 @@ int composePanorama()
     matcher(features, pairwise_matches, _matchingMask);
     matcher.collectGarbage();
     _progress+=MATCHER_STEP;
+    endStage(STAGE_MATCHER);
 
     LOGLN("Pairwise matching, time: " << ((getTickCount() - t) / getTickFrequency()) << " sec");
 	__android_log_print(ANDROID_LOG_INFO, TAG, "Pairwise matching, time: %f sec",((getTickCount() - t) / getTickFrequency()));
 
+    return composeFromFeatures(features, pairwise_matches, images, full_img_sizes, work_scale, seam_scale);
+}
+
+/**
+ * Width of the blending area, for a panorama of the given size.
+ */
+static float getBlendWidth(Size dst_sz)
+{
+    return sqrt(static_cast<float>(dst_sz.area())) * blend_strength / 100.f;
+}
+
+/**
+ * Create the blender used for a panorama of the given size. It still has to be prepared.
+ */
+static Ptr<Blender> createBlender(Size dst_sz)
+{
+    Ptr<Blender> blender = Blender::createDefault(blend_type, try_cuda);
+    float blend_width = getBlendWidth(dst_sz);
+    if (blend_width < 1.f)
+        blender = Blender::createDefault(Blender::NO, try_cuda);
+    else if (blend_type == Blender::MULTI_BAND)
+    {
+		MultiBandBlender* mb = dynamic_cast<MultiBandBlender*>(static_cast<Blender*>(blender));
+        mb->setNumBands(static_cast<int>(ceil(log(blend_width)/log(2.)) - 1.));
+        LOGLN("Multi-band blender, number of bands: " << mb->numBands());
+    }
+    else if (blend_type == Blender::FEATHER)
+    {
+		FeatherBlender* fb = dynamic_cast<FeatherBlender*>(static_cast<Blender*>(blender));
+        fb->setSharpness(1.f/blend_width);
+        LOGLN("Feather blender, sharpness: " << fb->sharpness());
+    }
+    return blender;
+}
+
+/**
+ * Rows blended above and below each band, so that the band is blended as in the whole panorama :
+ * feather weights saturate at blend_width from the mask borders, and the kernel of the coarsest level
+ * of the multi-band pyramid reaches 2^(bands+1) rows.
+ */
+static int getBandMargin(Size dst_sz)
+{
+    float blend_width = getBlendWidth(dst_sz);
+    if (blend_width < 1.f)
+        return 0;
+    if (blend_type == Blender::MULTI_BAND)
+    {
+        int num_bands = max(0, static_cast<int>(ceil(log(blend_width)/log(2.)) - 1.));
+        return 1 << (num_bands + 1);
+    }
+    return cvCeil(blend_width);
+}
+
+/**
+ * Read an image at compose resolution, warp it, compensate its exposure and cut its mask along the seam.
+ * img_warped keeps the type of the image (CV_8UC3).
+ */
+static void warpForCompose(int img_idx, double compose_scale, Ptr<RotationWarper> &warper,
+		const CameraParams &camera, Ptr<ExposureCompensator> &compensator, Point corner,
+		const Mat &seam_mask_warped, Mat &img_warped, Mat &mask_warped)
+{
+    Mat full_img, img, mask, dilated_mask, seam_mask;
+
+    // Read image and resize it if necessary
+    full_img = imread(_imagesPath[img_idx]);
+    if (abs(compose_scale - 1) > 1e-1)
+        resize(full_img, img, Size(), compose_scale, compose_scale);
+    else
+        img = full_img;
+    full_img.release();
+    Size img_size = img.size();
+
+    Mat K;
+    camera.K().convertTo(K, CV_32F);
+
+    // Warp the current image
+    warper->warp(img, K, camera.R, INTER_LINEAR, BORDER_REFLECT, img_warped);
+    img.release();
+
+    // Warp the current image mask
+    mask.create(img_size, CV_8U);
+    mask.setTo(Scalar::all(255));
+    warper->warp(mask, K, camera.R, INTER_NEAREST, BORDER_CONSTANT, mask_warped);
+    mask.release();
+
+    // Compensate exposure
+    compensator->apply(img_idx, corner, img_warped, mask_warped);
+
+    dilate(seam_mask_warped, dilated_mask, Mat());
+    resize(dilated_mask, seam_mask, mask_warped.size());
+    mask_warped = seam_mask & mask_warped;
+}
+
+/**
+ * Composite the panorama band by band, into an 8 bits result.
+ * Each band is blended with a margin of rows above and below it, so that seams between bands don't show.
+ * Bands are at least 4 margins high, so that a row is blended at most 1.5 times on average.
+ * Only the 16 bits blender buffers are bounded by the band height : the 8 bits result holds the whole
+ * panorama, and each image crossing the current band is kept warped in full, until the bands move past it.
+ */
+static void composeBands(double compose_scale, Ptr<RotationWarper> &warper,
+		const vector<CameraParams> &cameras, Ptr<ExposureCompensator> &compensator,
+		const vector<Point> &corners, const vector<Size> &sizes, const vector<Mat> &masks_warped, Mat &result)
+{
+    Rect dst_roi = resultRoi(corners, sizes);
+    int margin = getBandMargin(dst_roi.size());
+    int band_height = max(compose_band_height, 4 * margin);
+    int nb_bands = (dst_roi.height + band_height - 1) / band_height;
+
+    result.create(dst_roi.size(), CV_8UC3);
+    result.setTo(Scalar::all(0));
+
+    vector<Mat> imgs_warped(_nbImages);
+    vector<Mat> masks_band(_nbImages);
+    Mat img_band_s, band_result, band_mask;
+    _progressStep = (float)COMPOSITOR_STEP/(float)nb_bands;
+    for (int b = 0; b < nb_bands; ++b)
+    {
+        int top = dst_roi.y + b * band_height;
+        int bottom = min(dst_roi.br().y, top + band_height);
+        int ext_top = max(dst_roi.y, top - margin);
+        int ext_bottom = min(dst_roi.br().y, bottom + margin);
+        Rect ext_roi(dst_roi.x, ext_top, dst_roi.width, ext_bottom - ext_top);
+
+    	__android_log_print(ANDROID_LOG_INFO, TAG, "Compositing band #%i/%i" , b+1, nb_bands );
+
+        // Release the images above the band before warping new ones, they won't be used anymore
+        for (int img_idx = 0; img_idx < _nbImages; ++img_idx)
+        {
+            if (corners[img_idx].y + sizes[img_idx].height <= ext_top)
+            {
+                imgs_warped[img_idx].release();
+                masks_band[img_idx].release();
+            }
+        }
+
+        Ptr<Blender> blender = createBlender(dst_roi.size());
+        blender->prepare(ext_roi);
+        for (int img_idx = 0; img_idx < _nbImages; ++img_idx)
+        {
+            Rect img_roi(corners[img_idx], sizes[img_idx]);
+            Rect inter = img_roi & ext_roi;
+            if (inter.area() == 0)
+                continue;
 
+            if (imgs_warped[img_idx].empty())
+            {
+                warpForCompose(img_idx, compose_scale, warper, cameras[img_idx], compensator,
+                		corners[img_idx], masks_warped[img_idx], imgs_warped[img_idx], masks_band[img_idx]);
+            }
+
+            // Blend the part of the current image lying in the band
+            Rect local(inter.tl() - corners[img_idx], inter.size());
+            imgs_warped[img_idx](local).convertTo(img_band_s, CV_16S);
+            blender->feed(img_band_s, masks_band[img_idx](local), inter.tl());
+        }
+
+        blender->blend(band_result, band_mask);
+        Mat dst_band = result(Rect(0, top - dst_roi.y, dst_roi.width, bottom - top));
+        band_result(Rect(0, top - ext_top, dst_roi.width, bottom - top)).convertTo(dst_band, CV_8U);
+        _progress+=_progressStep;
+        notifyProgress();
+    }
+}
+
+/**
+ * Registration and compositing steps, once features of all images have been found and matched.
+ * _imagesPath must contain the paths of the images the features come from.
+ */
+static int composeFromFeatures(vector<ImageFeatures> &features, vector<MatchesInfo> &pairwise_matches,
+		vector<Mat> &images, vector<Size> &full_img_sizes, double work_scale, double seam_scale)
+{
+    double compose_scale = 1;
+    double seam_work_aspect = seam_scale / work_scale;
+    int64 app_start_time = getTickCount();
+    int64 t = app_start_time;
 
     // Check if we should save matches graph
     if (save_graph)
@@ -279,6 +848,17 @@ int composePanorama()
         f << matchesGraphAsString(_imagesPath, pairwise_matches, conf_thresh);
     }
 
+    // Features and confident pairs of all the input images
+    int nb_inputs = static_cast<int>(features.size());
+    _featureCounts.resize(nb_inputs);
+    for (int i = 0; i < nb_inputs; ++i)
+        _featureCounts[i] = static_cast<int>(features[i].keypoints.size());
+    _matchedPairs = 0;
+    for (int i = 0; i < nb_inputs; ++i)
+        for (int j = i + 1; j < nb_inputs; ++j)
+            if (pairwise_matches[i * nb_inputs + j].confidence > conf_thresh)
+                _matchedPairs++;
+
     // Leave only images we are sure are from the same panorama
     _indices = leaveBiggestComponent(features, pairwise_matches, conf_thresh);
 
@@ -308,11 +888,17 @@ int composePanorama()
         return -1;
     }
     // ================ estimate homography... ==================
-	__android_log_print(ANDROID_LOG_INFO, TAG, "estimate homography");
-
-    HomographyBasedEstimator estimator;
     vector<CameraParams> cameras;
-    estimator(features, pairwise_matches, cameras);
+    bool use_priors = initCamerasFromPriors(features, pairwise_matches, cameras);
+    if (use_priors)
+    {
+    	__android_log_print(ANDROID_LOG_INFO, TAG, "initialize cameras from sensors");
+    }
+    else
+    {
+    	__android_log_print(ANDROID_LOG_INFO, TAG, "estimate homography");
+        estimateCameras(features, pairwise_matches, cameras);
+    }
 
 
     for (size_t i = 0; i < cameras.size(); ++i)
@@ -326,6 +912,7 @@ int composePanorama()
 
     }
     _progress+=ESTIMATOR_STEP;
+    endStage(STAGE_ESTIMATOR);
 
     // ================ adjuster... ==================
     Ptr<detail::BundleAdjusterBase> adjuster;
@@ -344,10 +931,40 @@ int composePanorama()
     if (ba_refine_mask[3] == 'x') refine_mask(1,1) = 1;
     if (ba_refine_mask[4] == 'x') refine_mask(1,2) = 1;
     adjuster->setRefinementMask(refine_mask);
+    if (use_priors)
+    {
+        // cameras are already close to the solution.
+        adjuster->setTermCriteria(cvTermCriteria(CV_TERMCRIT_EPS + CV_TERMCRIT_ITER, PRIOR_BA_MAX_ITER, DBL_EPSILON));
+    }
 	__android_log_print(ANDROID_LOG_INFO, TAG, "adjusting bundle..");
 
     (*adjuster)(features, pairwise_matches, cameras);
+    _baIterations = lastBundleAdjustmentIterations();
+
+    if (use_priors)
+    {
+    	// the adjustment from the sensors is only kept if it explains the matches at least as well
+    	// as the one from the homography estimate, with the default criteria.
+        double priorError = (isPriorAdjustmentValid(cameras) ?
+        		getReprojectionError(features, pairwise_matches, cameras) : DBL_MAX);
+
+        vector<CameraParams> estimated;
+        estimateCameras(features, pairwise_matches, estimated);
+        adjuster->setTermCriteria(cvTermCriteria(CV_TERMCRIT_EPS + CV_TERMCRIT_ITER, 1000, DBL_EPSILON));
+        (*adjuster)(features, pairwise_matches, estimated);
+        _baIterations += lastBundleAdjustmentIterations();
+        double estimatedError = getReprojectionError(features, pairwise_matches, estimated);
+
+    	__android_log_print(ANDROID_LOG_INFO, TAG, "reprojection error from sensors %f px, from homography %f px",
+    			priorError, estimatedError);
+        if (estimatedError < priorError)
+        {
+        	__android_log_print(ANDROID_LOG_WARN, TAG, "adjustment from sensors is worse, keep homography");
+        	cameras = estimated;
+        }
+    }
     _progress+=ADJUSTER_STEP;
+    endStage(STAGE_ADJUSTER);
 
 
     // Find median focal length
@@ -479,6 +1096,7 @@ int composePanorama()
 
         warper->warp(masks[i], K, cameras[i].R, INTER_NEAREST, BORDER_CONSTANT, masks_warped[i]);
         _progress+=_progressStep;
+        notifyProgress();
     }
 
     vector<Mat> images_warped_f(_nbImages);
@@ -486,6 +1104,7 @@ int composePanorama()
         images_warped[i].convertTo(images_warped_f[i], CV_32F);
 
     images_warped.clear();
+    endStage(STAGE_WARPER);
 
     LOGLN("Warping images, time: " << ((getTickCount() - t) / getTickFrequency()) << " sec");
 	__android_log_print(ANDROID_LOG_INFO, TAG, "Warping images, time: %f sec" ,((getTickCount() - t) / getTickFrequency()) );
@@ -498,6 +1117,7 @@ int composePanorama()
     //compensator->feed(corners, images_warped, masks_warped);
     compensator->feed(corners, images_warped_f, masks_warped);
     _progress+=COMPENSATOR_STEP;
+    endStage(STAGE_COMPENSATOR);
 
     Ptr<SeamFinder> seam_finder;
     if (seam_find_type == "no")
@@ -538,6 +1158,7 @@ int composePanorama()
 
     seam_finder->find(images_warped_f, corners, masks_warped);
     _progress+=SEAM_STEP;
+    endStage(STAGE_SEAM);
 
     // Release unused memory
     images.clear();
@@ -552,121 +1173,83 @@ int composePanorama()
     t = getTickCount();
 #endif
 
-    Mat img_warped, img_warped_s;
-    Mat dilated_mask, seam_mask, mask, mask_warped;
-    Ptr<Blender> blender;
-    //double compose_seam_aspect = 1;
-    double compose_work_aspect = 1;
-    _progressStep = (float)COMPOSITOR_STEP/(float)_nbImages;
-    for (int img_idx = 0; img_idx < _nbImages; ++img_idx)
-    {
-        LOGLN("Compositing image #" << indices[img_idx]+1);
-    	__android_log_print(ANDROID_LOG_INFO, TAG, "Compositing image #%i" , _indices[img_idx]+1 );
-
-        // Read image and resize it if necessary
-        full_img = imread(_imagesPath[img_idx]);
-        if (!is_compose_scale_set)
-        {
-            if (compose_megapix > 0)
-                compose_scale = min(1.0, sqrt(compose_megapix * 1e6 / full_img.size().area()));
-            is_compose_scale_set = true;
+    // Update the scale, the intrinsics, corners and sizes to the compose resolution
+    if (compose_megapix > 0)
+        compose_scale = min(1.0, sqrt(compose_megapix * 1e6 / full_img_sizes[0].area()));
 
-            // Compute relative scales
-            //compose_seam_aspect = compose_scale / seam_scale;
-            compose_work_aspect = compose_scale / work_scale;
+    // Compute relative scales
+    //compose_seam_aspect = compose_scale / seam_scale;
+    double compose_work_aspect = compose_scale / work_scale;
 
-            // Update warped image scale
-            warped_image_scale *= static_cast<float>(compose_work_aspect);
-            warper = warper_creator->create(warped_image_scale);
+    // Update warped image scale
+    warped_image_scale *= static_cast<float>(compose_work_aspect);
+    warper = warper_creator->create(warped_image_scale);
 
-            // Update corners and sizes
-            for (int i = 0; i < _nbImages; ++i)
-            {
-                // Update intrinsics
-                cameras[i].focal *= compose_work_aspect;
-                cameras[i].ppx *= compose_work_aspect;
-                cameras[i].ppy *= compose_work_aspect;
-
-                // Update corner and size
-                Size sz = full_img_sizes[i];
-                if (std::abs(compose_scale - 1) > 1e-1)
-                {
-                    sz.width = cvRound(full_img_sizes[i].width * compose_scale);
-                    sz.height = cvRound(full_img_sizes[i].height * compose_scale);
-                }
-
-                Mat K;
-                cameras[i].K().convertTo(K, CV_32F);
-                Rect roi = warper->warpRoi(sz, K, cameras[i].R);
-                corners[i] = roi.tl();
-                sizes[i] = roi.size();
-            }
+    // Update corners and sizes
+    for (int i = 0; i < _nbImages; ++i)
+    {
+        // Update intrinsics
+        cameras[i].focal *= compose_work_aspect;
+        cameras[i].ppx *= compose_work_aspect;
+        cameras[i].ppy *= compose_work_aspect;
+
+        // Update corner and size
+        Size sz = full_img_sizes[i];
+        if (std::abs(compose_scale - 1) > 1e-1)
+        {
+            sz.width = cvRound(full_img_sizes[i].width * compose_scale);
+            sz.height = cvRound(full_img_sizes[i].height * compose_scale);
         }
-        if (abs(compose_scale - 1) > 1e-1)
-            resize(full_img, img, Size(), compose_scale, compose_scale);
-        else
-            img = full_img;
-        full_img.release();
-        Size img_size = img.size();
 
         Mat K;
-        cameras[img_idx].K().convertTo(K, CV_32F);
-
-        // Warp the current image
-        warper->warp(img, K, cameras[img_idx].R, INTER_LINEAR, BORDER_REFLECT, img_warped);
-        img.release();
-
-        // Warp the current image mask
-        mask.create(img_size, CV_8U);
-        mask.setTo(Scalar::all(255));
-        warper->warp(mask, K, cameras[img_idx].R, INTER_NEAREST, BORDER_CONSTANT, mask_warped);
-        mask.release();
-
-        // Compensate exposure
-        compensator->apply(img_idx, corners[img_idx], img_warped, mask_warped);
+        cameras[i].K().convertTo(K, CV_32F);
+        Rect roi = warper->warpRoi(sz, K, cameras[i].R);
+        corners[i] = roi.tl();
+        sizes[i] = roi.size();
+    }
 
-        img_warped.convertTo(img_warped_s, CV_16S);
-        img_warped.release();
+    Mat result;
+    if (compose_band_height > 0)
+    {
+        composeBands(compose_scale, warper, cameras, compensator, corners, sizes, masks_warped, result);
+    }
+    else
+    {
+        Mat img_warped, img_warped_s, mask_warped;
+        Ptr<Blender> blender;
+        _progressStep = (float)COMPOSITOR_STEP/(float)_nbImages;
+        for (int img_idx = 0; img_idx < _nbImages; ++img_idx)
+        {
+            LOGLN("Compositing image #" << indices[img_idx]+1);
+        	__android_log_print(ANDROID_LOG_INFO, TAG, "Compositing image #%i" , _indices[img_idx]+1 );
 
-        dilate(masks_warped[img_idx], dilated_mask, Mat());
-        resize(dilated_mask, seam_mask, mask_warped.size());
-        mask_warped = seam_mask & mask_warped;
+            warpForCompose(img_idx, compose_scale, warper, cameras[img_idx], compensator,
+            		corners[img_idx], masks_warped[img_idx], img_warped, mask_warped);
+            img_warped.convertTo(img_warped_s, CV_16S);
+            img_warped.release();
 
-        if (!blender)
-        {
-            blender = Blender::createDefault(blend_type, try_cuda);
-            Size dst_sz = resultRoi(corners, sizes).size();
-            float blend_width = sqrt(static_cast<float>(dst_sz.area())) * blend_strength / 100.f;
-            if (blend_width < 1.f)
-                blender = Blender::createDefault(Blender::NO, try_cuda);
-            else if (blend_type == Blender::MULTI_BAND)
-            {
-				MultiBandBlender* mb = dynamic_cast<MultiBandBlender*>(static_cast<Blender*>(blender));
-                mb->setNumBands(static_cast<int>(ceil(log(blend_width)/log(2.)) - 1.));
-                LOGLN("Multi-band blender, number of bands: " << mb->numBands());
-            }
-            else if (blend_type == Blender::FEATHER)
+            if (!blender)
             {
-				FeatherBlender* fb = dynamic_cast<FeatherBlender*>(static_cast<Blender*>(blender));
-                fb->setSharpness(1.f/blend_width);
-                LOGLN("Feather blender, sharpness: " << fb->sharpness());
+                blender = createBlender(resultRoi(corners, sizes).size());
+                blender->prepare(corners, sizes);
             }
-            blender->prepare(corners, sizes);
+
+            // Blend the current image
+            blender->feed(img_warped_s, mask_warped, corners[img_idx]);
+            _progress+=_progressStep;
+            notifyProgress();
         }
 
-        // Blend the current image
-        blender->feed(img_warped_s, mask_warped, corners[img_idx]);
-        _progress+=_progressStep;
+        Mat result_mask;
+        blender->blend(result, result_mask);
     }
 
-    Mat result, result_mask;
-    blender->blend(result, result_mask);
-
     LOGLN("Compositing, time: " << ((getTickCount() - t) / getTickFrequency()) << " sec");
 	__android_log_print(ANDROID_LOG_INFO, TAG, "Compositing, time:%f sec ",((getTickCount() - t) / getTickFrequency()));
 
 
     imwrite(_resultPath, result);
+    endStage(STAGE_COMPOSITOR);
 
     LOGLN("Finished, total time: " << ((getTickCount() - app_start_time) / getTickFrequency()) << " sec");
 	__android_log_print(ANDROID_LOG_INFO, TAG, "Finished, total time:%f sec ",((getTickCount() - t) / getTickFrequency()));
@@ -675,6 +1258,144 @@ int composePanorama()
 }
 
 
+/*************
+ * INCREMENTAL SESSION
+ ************/
+
+/** features, seam images, full sizes and paths of the images pushed so far **/
+static vector<ImageFeatures> _sessionFeatures;
+static vector<Mat> _sessionImages;
+static vector<Size> _sessionSizes;
+static vector<String> _sessionPaths;
+
+/** matches between each pushed image and its previous neighbors **/
+static vector<MatchesInfo> _sessionMatches;
+
+/** scales given by the first pushed image **/
+static double _sessionWorkScale = 1;
+static double _sessionSeamScale = 1;
+
+static Ptr<FeaturesFinder> _sessionFinder;
+static Ptr<FeaturesMatcher> _sessionMatcher;
+
+/**
+ * Start a new incremental session, dropping the previous one.
+ * Images are pushed while they are captured, so only registration and compositing remain at the end.
+ */
+void startSession()
+{
+	_sessionFeatures.clear();
+	_sessionImages.clear();
+	_sessionSizes.clear();
+	_sessionPaths.clear();
+	_sessionMatches.clear();
+	_sessionFinder = new OrbFeaturesFinder(ORB_GRID_SIZE, ORB_FEATURES_N);
+	_sessionMatcher = new BestOf2NearestMatcher(try_cuda, match_conf);
+}
+
+/**
+ * Find features of a new image, and match them against the given previously pushed images.
+ * @param full_img Decoded image, already rotated.
+ * @param path Path to the image file, read again at compositing time.
+ * @param neighbors Indices of the pushed images to match with.
+ */
+int sessionAddImage(const Mat &full_img, const string &path, const vector<int> &neighbors)
+{
+	if (full_img.empty() || !_sessionFinder)
+		return -1;
+
+	int i = static_cast<int>(_sessionFeatures.size());
+	if (i == 0)
+	{
+		resetTelemetry();
+		_sessionWorkScale = (work_megapix < 0 ? 1 : min(1.0, sqrt(work_megapix * 1e6 / full_img.size().area())));
+		_sessionSeamScale = min(1.0, sqrt(seam_megapix * 1e6 / full_img.size().area()));
+	}
+	// time between two captures is not accounted
+	_stageStart = getTickCount();
+
+	_sessionFeatures.resize(i + 1);
+	_sessionImages.resize(i + 1);
+	_sessionSizes.resize(i + 1);
+	findImageFeatures(i, full_img, *_sessionFinder, _sessionWorkScale, _sessionSeamScale,
+			_sessionFeatures, _sessionImages, _sessionSizes);
+	_sessionPaths.push_back(path);
+	endStage(STAGE_FINDER, false);
+
+	for (size_t k = 0; k < neighbors.size(); ++k)
+	{
+		int n = neighbors[k];
+		if (n < 0 || n >= i)
+			continue;
+		if (_sessionFeatures[n].keypoints.empty() || _sessionFeatures[i].keypoints.empty())
+			continue;
+
+		MatchesInfo info;
+		(*_sessionMatcher)(_sessionFeatures[n], _sessionFeatures[i], info);
+		info.src_img_idx = n;
+		info.dst_img_idx = i;
+		_sessionMatches.push_back(info);
+	}
+	endStage(STAGE_MATCHER, false);
+	__android_log_print(ANDROID_LOG_INFO, TAG, "Session image #%d added, %d neighbors", i+1, (int)neighbors.size());
+	return 0;
+}
+
+/**
+ * @return count of images pushed in the current session.
+ */
+int getSessionSize()
+{
+	return static_cast<int>(_sessionFeatures.size());
+}
+
+/**
+ * Compose the panorama from the images of the current session, then drop the session.
+ * @param resultPath Where to store the panorama.
+ */
+int composeSession(const string &resultPath)
+{
+	_progress = FINDER_STEP + MATCHER_STEP;
+	_stageStart = getTickCount();
+	cv::setBreakOnError(true);
+
+	_nbImages = getSessionSize();
+	if (_nbImages < 2)
+	{
+		__android_log_print(ANDROID_LOG_ERROR, TAG, "Need more images");
+		return -1;
+	}
+
+	// Rebuild the whole matches table, in the same layout as the batch matcher.
+	vector<MatchesInfo> pairwise_matches(_nbImages * _nbImages);
+	for (size_t k = 0; k < _sessionMatches.size(); ++k)
+	{
+		const MatchesInfo &info = _sessionMatches[k];
+		int pair_idx = info.src_img_idx * _nbImages + info.dst_img_idx;
+		int dual_pair_idx = info.dst_img_idx * _nbImages + info.src_img_idx;
+
+		pairwise_matches[pair_idx] = info;
+		pairwise_matches[dual_pair_idx] = info;
+		pairwise_matches[dual_pair_idx].src_img_idx = info.dst_img_idx;
+		pairwise_matches[dual_pair_idx].dst_img_idx = info.src_img_idx;
+		if (!info.H.empty())
+			pairwise_matches[dual_pair_idx].H = info.H.inv();
+		for (size_t j = 0; j < pairwise_matches[dual_pair_idx].matches.size(); ++j)
+			std::swap(pairwise_matches[dual_pair_idx].matches[j].queryIdx,
+					pairwise_matches[dual_pair_idx].matches[j].trainIdx);
+	}
+	_sessionMatches.clear();
+
+	_imagesPath = _sessionPaths;
+	_resultPath = resultPath;
+
+	int res = composeFromFeatures(_sessionFeatures, pairwise_matches, _sessionImages, _sessionSizes,
+			_sessionWorkScale, _sessionSeamScale);
+
+	startSession();
+	return res;
+}
+
 #ifdef TO_REMOVE
 /* Warp images. */
 int warpImages()
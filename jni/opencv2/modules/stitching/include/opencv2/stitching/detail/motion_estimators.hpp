@@ -199,6 +199,9 @@ std::vector<int> CV_EXPORTS leaveBiggestComponent(std::vector<ImageFeatures> &fe
 void CV_EXPORTS findMaxSpanningTree(int num_images, const std::vector<MatchesInfo> &pairwise_matches,
                                     Graph &span_tree, std::vector<int> &centers);
 
+// Returns the number of iterations done by the last bundle adjustment
+int CV_EXPORTS lastBundleAdjustmentIterations();
+
 } // namespace detail
 } // namespace cv
 
@@ -169,6 +169,14 @@ void HomographyBasedEstimator::estimate(const vector<ImageFeatures> &features, c
 
 //////////////////////////////////////////////////////////////////////////////
 
+static int last_ba_iterations = 0;
+
+int lastBundleAdjustmentIterations()
+{
+    return last_ba_iterations;
+}
+
+
 void BundleAdjusterBase::estimate(const vector<ImageFeatures> &features,
                                   const vector<MatchesInfo> &pairwise_matches,
                                   vector<CameraParams> &cameras)
@@ -244,6 +252,7 @@ void BundleAdjusterBase::estimate(const vector<ImageFeatures> &features,
     LOGLN_CHAT("");
     LOGLN_CHAT("Bundle adjustment, final RMS error: " << sqrt(err.dot(err) / total_num_matches_));
     LOGLN_CHAT("Bundle adjustment, iterations done: " << iter);
+    last_ba_iterations = iter;
 
     obtainRefinedCameraParams(cameras);
 
@@ -19,6 +19,136 @@
 #include <opencv2/stitching/detail/warpers.hpp>
 #include <opencv2/stitching/warpers.hpp>
 
+/**
+ * rotates a matrix by the given angle, in place.
+ * Only multiples of 90 degrees are supported.
+ */
+static void rotateMat(Mat &image, int angle)
+{
+	switch(angle)
+	{
+	case 0:
+	case 360 :
+	case -360 :
+		break;
+	case 90:
+	case -270 :
+		cv::transpose(image, image);
+		cv::flip(image, image, 1);
+		break;
+	case 180 :
+	case -180 :
+		cv::transpose(image, image);
+		cv::flip(image, image, 1);
+		cv::transpose(image, image);
+		break;
+	case 270 :
+	case -90 :
+		cv::flip(image, image, 1);
+		cv::transpose(image, image);
+		break;
+	default:
+		__android_log_print(ANDROID_LOG_ERROR, TAG, "unsupported rotation angle : %d", angle);
+
+
+	}
+}
+
+/** operation codes of the post-processing pipeline, see PostProcessing.java **/
+#define OP_PAD 1
+#define OP_RESIZE 2
+#define OP_ROTATE 3
+#define OP_CROP 4
+
+/** jpeg markers **/
+#define M_SOI 0xd8
+#define M_APP0 0xe0
+#define M_APP1 0xe1
+
+/**
+ * Apply a list of operations to an image, in order.
+ * Each operation code is followed by its arguments.
+ * @return false if the list is malformed.
+ */
+static bool applyOperations(Mat &image, const jint *ops, int length)
+{
+	Mat tmp;
+	int i = 0;
+	while (i < length)
+	{
+		int op = ops[i++];
+		int nbArgs = (op == OP_ROTATE ? 1 : (op == OP_RESIZE ? 2 : 4));
+		if (op < OP_PAD || op > OP_CROP || i + nbArgs > length)
+		{
+			__android_log_print(ANDROID_LOG_ERROR, TAG, "malformed post-processing operation %d", op);
+			return false;
+		}
+		const jint *args = ops + i;
+		i += nbArgs;
+
+		switch(op)
+		{
+		case OP_PAD :
+			copyMakeBorder(image, tmp, args[1], args[3], args[0], args[2], BORDER_CONSTANT, 0);
+			image = tmp;
+			break;
+		case OP_RESIZE :
+			if (image.cols != args[0] || image.rows != args[1])
+			{
+				__android_log_print(ANDROID_LOG_INFO, TAG, "resizing to %dx%d", args[0], args[1]);
+				cv::resize(image, tmp, Size(args[0], args[1]));
+				image = tmp;
+			}
+			break;
+		case OP_ROTATE :
+			rotateMat(image, args[0]);
+			break;
+		case OP_CROP :
+		{
+			Rect roi = Rect(args[0], args[1], args[2], args[3]) & Rect(0, 0, image.cols, image.rows);
+			image = image(roi).clone();
+			break;
+		}
+		}
+		tmp = Mat();
+	}
+	return true;
+}
+
+/**
+ * Encode an image as jpeg, and write it with the given XMP segment.
+ * The XMP segment is inserted after the JFIF header, so the image is only encoded once.
+ * @param xmpSection - content of the APP1 segment, without marker and length. May be NULL.
+ * @return false if the image could not be encoded or written.
+ */
+static bool writeJpeg(const char *path, const Mat &image, const jbyte *xmpSection, int xmpLength)
+{
+	vector<uchar> buffer;
+	if (!imencode(".jpg", image, buffer) || buffer.size() < 4 || buffer[1] != M_SOI)
+		return false;
+
+	// keep the JFIF segment first, as required by its specification
+	size_t headerEnd = 2;
+	if (buffer[2] == 0xff && buffer[3] == M_APP0 && buffer.size() > 6)
+		headerEnd = 4 + ((buffer[4] << 8) | buffer[5]);
+
+	ofstream out(path, ios::out | ios::binary);
+	if (!out)
+		return false;
+
+	out.write((const char *) &buffer[0], headerEnd);
+	if (xmpSection != NULL && xmpLength > 0)
+	{
+		int length = xmpLength + 2;
+		char header[4] = { (char) 0xff, (char) M_APP1, (char) (length >> 8), (char) (length & 0xff) };
+		out.write(header, 4);
+		out.write((const char *) xmpSection, xmpLength);
+	}
+	out.write((const char *) &buffer[headerEnd], buffer.size() - headerEnd);
+	out.close();
+	return !out.fail();
+}
+
 extern "C"
 {
 /**
@@ -82,33 +212,7 @@ extern "C"
 			}
 
 			//perform rotation
-			switch(angle)
-			{
-			case 0:
-			case 360 :
-			case -360 :
-				break;
-			case 90:
-			case -270 :
-				cv::transpose(image, image);
-				cv::flip(image, image, 1);
-				break;
-			case 180 :
-			case -180 :
-				cv::transpose(image, image);
-				cv::flip(image, image, 1);
-				cv::transpose(image, image);
-				break;
-			case 270 :
-			case -90 :
-				cv::flip(image, image, 1);
-				cv::transpose(image, image);
-				break;
-			default:
-				__android_log_print(ANDROID_LOG_ERROR, TAG, "unsupported rotation angle : %d", angle);
-
-
-			}
+			rotateMat(image, angle);
 
 			imwrite(path, image);
 
@@ -151,4 +255,54 @@ extern "C"
 			return 0;
 
 		}
+	/**
+	 * decode an image once, apply a list of operations, and encode it once with its XMP segment.
+	 *
+	 * postProcess (jstring imageSrc, jstring imageDst, jintArray operations, jbyteArray xmpSection)
+	 */
+	JNIEXPORT jint JNICALL
+	Java_fr_ensicaen_panandroid_stitcher_StitcherWrapper_postProcess
+	(JNIEnv* env, jclass clazz, jstring imageSrc, jstring imageDst, jintArray operations, jbyteArray xmpSection)
+	{
+		const char* src = env->GetStringUTFChars(imageSrc, 0);
+		const char* dst = env->GetStringUTFChars(imageDst, 0);
+		int res = 0;
+
+		Mat image = imread(src, CV_LOAD_IMAGE_COLOR);
+		if(! image.data )                              // Check for invalid input
+		{
+			__android_log_print(ANDROID_LOG_ERROR, TAG, "Could not open or find the image %s", src);
+			res = -1;
+		}
+
+		if (res == 0 && operations != NULL)
+		{
+			jint *ops = env->GetIntArrayElements(operations, 0);
+			if (!applyOperations(image, ops, env->GetArrayLength(operations)))
+				res = -1;
+			env->ReleaseIntArrayElements(operations, ops, JNI_ABORT);
+		}
+
+		if (res == 0)
+		{
+			jbyte *xmp = NULL;
+			int xmpLength = 0;
+			if (xmpSection != NULL)
+			{
+				xmp = env->GetByteArrayElements(xmpSection, 0);
+				xmpLength = env->GetArrayLength(xmpSection);
+			}
+			if (!writeJpeg(dst, image, xmp, xmpLength))
+			{
+				__android_log_print(ANDROID_LOG_ERROR, TAG, "Could not write the image %s", dst);
+				res = -1;
+			}
+			if (xmp != NULL)
+				env->ReleaseByteArrayElements(xmpSection, xmp, JNI_ABORT);
+		}
+
+		env->ReleaseStringUTFChars(imageSrc, src);
+		env->ReleaseStringUTFChars(imageDst, dst);
+		return res;
+	}
 }
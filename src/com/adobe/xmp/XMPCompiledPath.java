@@ -0,0 +1,35 @@
+// =================================================================================================
+// ADOBE SYSTEMS INCORPORATED
+// Copyright 2006 Adobe Systems Incorporated
+// All Rights Reserved
+//
+// NOTICE:  Adobe permits you to use, modify, and distribute this file in accordance with the terms
+// of the Adobe license agreement accompanying it.
+// =================================================================================================
+
+package com.adobe.xmp;
+
+
+/**
+ * A property path that has already been parsed and checked against the schema registry, 
+ * created by {@link XMPPathFactory#compilePath(String, String)}. 
+ * It can be passed to the <code>XMPMeta</code> methods instead of the schema namespace 
+ * and the property path, so that repeated accesses to the same property skip the parsing.
+ * <p>
+ * A compiled path is a read-only handle: it cannot be modified through this interface, 
+ * and can be shared between threads and <code>XMPMeta</code> objects. It reflects the schema registry at the time it was compiled: 
+ * compile it again after an alias has been registered or a namespace has been deleted.
+ */
+public interface XMPCompiledPath
+{
+	/**
+	 * @return Returns the schema namespace the path has been compiled with.
+	 */
+	String getSchemaNS();
+	
+	
+	/**
+	 * @return Returns the property path the path has been compiled from.
+	 */
+	String getPropPath();
+}
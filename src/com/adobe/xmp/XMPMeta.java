@@ -61,6 +61,19 @@ public interface XMPMeta extends Cloneable
 	XMPProperty getProperty(String schemaNS, String propName) throws XMPException;
 
 	
+	/**
+	 * Same as {@link XMPMeta#getProperty(String, String)}, but the path has been compiled once
+	 * with {@link XMPPathFactory#compilePath(String, String)}. Use it when the same property
+	 * is accessed in many <code>XMPMeta</code> objects.
+	 * 
+	 * @param path The compiled path of the property.
+	 * @return Returns a <code>XMPProperty</code> containing the value and the options or
+	 *         <code>null</code> if the property does not exist.
+	 * @throws XMPException Wraps all errors and exceptions that may occur.
+	 */
+	XMPProperty getProperty(XMPCompiledPath path) throws XMPException;
+
+	
 	/**
 	 * Provides access to items within an array. The index is passed as an integer, you need not
 	 * worry about the path string syntax for array items, convert a loop index to a string, etc.
@@ -214,6 +227,32 @@ public interface XMPMeta extends Cloneable
 			Object propValue) throws XMPException;
 
 	
+	/**
+	 * Same as {@link XMPMeta#setProperty(String, String, Object, PropertyOptions)}, but the
+	 * path has been compiled once with {@link XMPPathFactory#compilePath(String, String)}.
+	 * 
+	 * @param path The compiled path of the property.
+	 * @param propValue the value for the property. Has the same usage as in 
+	 * 		  <code>setProperty()</code>.
+	 * @param options Option flags describing the property.
+	 * @throws XMPException Wraps all errors and exceptions that may occur.
+	 */
+	void setProperty(
+		XMPCompiledPath path, 
+		Object propValue, 
+		PropertyOptions options) throws XMPException;
+
+	
+	/**
+	 * @see XMPMeta#setProperty(XMPCompiledPath, Object, PropertyOptions)
+	 *  
+	 * @param path The compiled path of the property
+	 * @param propValue the value for the property   
+	 * @throws XMPException Wraps all errors and exceptions
+	 */
+	void setProperty(XMPCompiledPath path, Object propValue) throws XMPException;
+
+	
 	/**
 	 * Replaces an item within an array. The index is passed as an integer, you need not worry about
 	 * the path string syntax for array items, convert a loop index to a string, etc. The array
@@ -455,6 +494,15 @@ public interface XMPMeta extends Cloneable
 	 */
 	void deleteProperty(String schemaNS, String propName);
 
+	
+	/**
+	 * Deletes the given XMP subtree rooted at the property with the compiled path. 
+	 * It is not an error if the property does not exist.
+	 * 
+	 * @param path The compiled path of the property.
+	 */
+	void deleteProperty(XMPCompiledPath path);
+
 
 	/**
 	 * Deletes the given XMP subtree rooted at the given array item. It is not an error if the array
@@ -517,6 +565,15 @@ public interface XMPMeta extends Cloneable
 	 */
 	boolean doesPropertyExist(String schemaNS, String propName);
 
+	
+	/**
+	 * Returns whether the property with the compiled path exists.
+	 * 
+	 * @param path The compiled path of the property.
+	 * @return Returns true if the property exists.
+	 */
+	boolean doesPropertyExist(XMPCompiledPath path);
+
 
 	/**
 	 * Tells if the array item exists.
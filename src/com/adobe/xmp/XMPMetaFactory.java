@@ -12,10 +12,12 @@ package com.adobe.xmp;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import com.adobe.xmp.impl.ByteBuffer;
 import com.adobe.xmp.impl.XMPMetaImpl;
 import com.adobe.xmp.impl.XMPMetaParser;
 import com.adobe.xmp.impl.XMPSchemaRegistryImpl;
 import com.adobe.xmp.impl.XMPSerializerHelper;
+import com.adobe.xmp.impl.xpath.XMPPathParser;
 import com.adobe.xmp.options.ParseOptions;
 import com.adobe.xmp.options.SerializeOptions;
 
@@ -207,6 +209,25 @@ public final class XMPMetaFactory
 	}
 
 
+	/**
+	 * Serializes an <code>XMPMeta</code>-object as UTF-8 encoded RDF at the end of a byte buffer.
+	 * The buffer is not cleared: bytes appended before, like a file format header, are kept.
+	 * A buffer reused for many serializations avoids most of the allocations.
+	 * 
+	 * @param xmp a metadata object 
+	 * @param buffer the buffer to append the serialized RDF to.
+	 * @param options Options to control the serialization (see {@link SerializeOptions}).
+	 *        The encoding must be UTF-8.
+	 * @throws XMPException on serializsation errors.
+	 */
+	public static void serializeToBuffer(XMPMeta xmp, ByteBuffer buffer, 
+			SerializeOptions options) throws XMPException
+	{
+		assertImplementation(xmp);
+		XMPSerializerHelper.serialize((XMPMetaImpl) xmp, buffer, options);
+	}
+
+
 	/**
 	 * Serializes an <code>XMPMeta</code>-object as RDF into a string. <em>Note:</em> Encoding
 	 * is ignored when serializing to a string.
@@ -245,6 +266,7 @@ public final class XMPMetaFactory
 	public static void reset()
 	{
 		schema = new XMPSchemaRegistryImpl();
+		XMPPathParser.clearCache();
 	}
 	
 	
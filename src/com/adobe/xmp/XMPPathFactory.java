@@ -232,6 +232,35 @@ public final class XMPPathFactory
 	}
 	
 	
+	/**
+	 * Compiles a property path once, so that it can be used again and again with the
+	 * <code>XMPMeta</code> methods taking an {@link XMPCompiledPath} without being parsed
+	 * each time. The compiled path is independent of any <code>XMPMeta</code> object and 
+	 * can be shared between threads.
+	 * 
+	 * @param schemaNS The namespace URI for the property. Has the same usage as in 
+	 * 		  <code>XMPMeta.getProperty()</code>.
+	 * @param propName The name of the property. May be a general path expression.
+	 * 		  Has the same usage as in <code>XMPMeta.getProperty()</code>.
+	 * @return Returns the compiled path.
+	 * @throws XMPException If the namespace or the path is invalid.
+	 */
+	public static XMPCompiledPath compilePath(String schemaNS, String propName)
+			throws XMPException
+	{
+		if (schemaNS == null  ||  schemaNS.length() == 0)
+		{
+			throw new XMPException("Empty schema namespace URI", XMPError.BADPARAM);
+		}
+		if (propName == null  ||  propName.length() == 0)
+		{
+			throw new XMPException("Empty property name", XMPError.BADPARAM);
+		}
+		
+		return XMPPathParser.compileXPath(schemaNS, propName);
+	}
+	
+	
 	/**
 	 * ParameterAsserts that a qualifier namespace is set.
 	 * @param qualNS a qualifier namespace
@@ -131,14 +131,31 @@ public class ByteBuffer
 	}
 
 
-//	/**
-//	 * <em>Note:</em> Only the byte up to length are valid!
-//	 * @return Returns the inner byte buffer.
-//	 */
-//	public byte[] getBuffer()
-//	{
-//		return buffer;
-//	}
+	/**
+	 * <em>Note:</em> Only the byte up to length are valid!
+	 * @return Returns the inner byte buffer.
+	 */
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+
+	
+	/**
+	 * Drops the bytes after the given length. The inner byte array is kept, 
+	 * so that the buffer can be reused without allocating.
+	 * 
+	 * @param newLength the new length, must not exceed the current length
+	 */
+	public void truncate(int newLength)
+	{
+		if (newLength < 0  ||  newLength > length)
+		{
+			throw new IndexOutOfBoundsException("The length exceeds the valid buffer area");
+		}
+		length = newLength;
+		encoding = null;
+	}
 
 	
 	/**
@@ -319,7 +336,7 @@ public class ByteBuffer
 		if (requestedLength > buffer.length)
 		{
 			byte[] oldBuf = buffer;
-			buffer = new byte[oldBuf.length * 2];
+			buffer = new byte[Math.max(oldBuf.length * 2, requestedLength)];
 			System.arraycopy(oldBuf, 0, buffer, 0, oldBuf.length);
 		}
 	}
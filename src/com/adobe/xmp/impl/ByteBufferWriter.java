@@ -0,0 +1,145 @@
+// =================================================================================================
+// ADOBE SYSTEMS INCORPORATED
+// Copyright 2006 Adobe Systems Incorporated
+// All Rights Reserved
+//
+// NOTICE:  Adobe permits you to use, modify, and distribute this file in accordance with the terms
+// of the Adobe license agreement accompanying it.
+// =================================================================================================
+
+package com.adobe.xmp.impl;
+
+import java.io.Writer;
+
+
+/**
+ * A <code>Writer</code> that encodes the chars as UTF-8 straight into a <code>ByteBuffer</code>,
+ * without any intermediate char or byte buffer.
+ */
+final class ByteBufferWriter extends Writer
+{
+	/** the buffer the bytes are appended to */
+	private final ByteBuffer buffer;
+	/** a high surrogate waiting for its low surrogate, or 0 */
+	private char highSurrogate = 0;
+
+
+	/**
+	 * @param buffer the buffer to append the UTF-8 bytes to
+	 */
+	ByteBufferWriter(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+
+	/**
+	 * @see java.io.Writer#write(int)
+	 */
+	public void write(int c)
+	{
+		writeChar((char) c);
+	}
+
+
+	/**
+	 * @see java.io.Writer#write(String)
+	 */
+	public void write(String str)
+	{
+		write(str, 0, str.length());
+	}
+
+
+	/**
+	 * @see java.io.Writer#write(String, int, int)
+	 */
+	public void write(String str, int off, int len)
+	{
+		for (int i = off; i < off + len; i++)
+		{
+			writeChar(str.charAt(i));
+		}
+	}
+
+
+	/**
+	 * @see java.io.Writer#write(char[], int, int)
+	 */
+	public void write(char[] cbuf, int off, int len)
+	{
+		for (int i = off; i < off + len; i++)
+		{
+			writeChar(cbuf[i]);
+		}
+	}
+
+
+	/**
+	 * Nothing to flush, the bytes are written immediately.
+	 * @see java.io.Writer#flush()
+	 */
+	public void flush()
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * @see java.io.Writer#close()
+	 */
+	public void close()
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * Encodes one UTF-16 char. Surrogate pairs are combined to a single 4 byte sequence,
+	 * unpaired surrogates are replaced by '?' like the JDK encoder does.
+	 *
+	 * @param c a char
+	 */
+	private void writeChar(char c)
+	{
+		if (highSurrogate != 0)
+		{
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (c >= 0xDC00  &&  c <= 0xDFFF)
+			{
+				int cp = 0x10000 + ((high - 0xD800) << 10) + (c - 0xDC00);
+				buffer.append((byte) (0xF0 | (cp >> 18)));
+				buffer.append((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				buffer.append((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				buffer.append((byte) (0x80 | (cp & 0x3F)));
+				return;
+			}
+			buffer.append((byte) '?');
+		}
+
+		if (c < 0x80)
+		{
+			buffer.append((byte) c);
+		}
+		else if (c < 0x800)
+		{
+			buffer.append((byte) (0xC0 | (c >> 6)));
+			buffer.append((byte) (0x80 | (c & 0x3F)));
+		}
+		else if (c >= 0xD800  &&  c <= 0xDBFF)
+		{
+			highSurrogate = c;
+		}
+		else if (c >= 0xDC00  &&  c <= 0xDFFF)
+		{
+			buffer.append((byte) '?');
+		}
+		else
+		{
+			buffer.append((byte) (0xE0 | (c >> 12)));
+			buffer.append((byte) (0x80 | ((c >> 6) & 0x3F)));
+			buffer.append((byte) (0x80 | (c & 0x3F)));
+		}
+	}
+}
@@ -985,9 +985,31 @@ public class ParseRDF implements XMPError, XMPConst
 	 */
 	private static XMPNode addChildNode(XMPMetaImpl xmp, XMPNode xmpParent, Node xmlNode,
 			String value, boolean isTopLevel) throws XMPException
+	{
+		return addChildNode(xmp, xmpParent, xmlNode.getNamespaceURI(), xmlNode.getPrefix(),
+			xmlNode.getLocalName(), value, isTopLevel);
+	}
+
+
+	/**
+	 * Adds a child node, the XML node is given by its namespace, prefix and local name.
+	 * Used by {@link ParseRDFStream}, that has no DOM nodes.
+	 *  
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param namespace the namespace URI of the XML node
+	 * @param xmlPrefix the prefix of the XML node, can be <code>null</code>
+	 * @param localName the local name of the XML node
+	 * @param value Node value	
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @return Returns the newly created child node.
+	 * @throws XMPException thown on parsing errors
+	 */
+	static XMPNode addChildNode(XMPMetaImpl xmp, XMPNode xmpParent, String namespace,
+			String xmlPrefix, String localName, String value, boolean isTopLevel)
+			throws XMPException
 	{
 		XMPSchemaRegistry registry = XMPMetaFactory.getSchemaRegistry();
-		String namespace = xmlNode.getNamespaceURI();
 		String childName;
 		if (namespace != null)
 		{
@@ -1000,10 +1022,11 @@ public class ParseRDF implements XMPError, XMPConst
 			String prefix = registry.getNamespacePrefix(namespace);
 			if (prefix == null)
 			{
-				prefix = xmlNode.getPrefix() != null ? xmlNode.getPrefix() : DEFAULT_PREFIX;
+				prefix = xmlPrefix != null ? xmlPrefix : DEFAULT_PREFIX;
 				prefix = registry.registerNamespace(namespace, prefix);
+				xmp.setHasUnknownNamespaces(true);
 			}
-			childName = prefix + xmlNode.getLocalName();
+			childName = prefix + localName;
 		}
 		else
 		{
@@ -1088,7 +1111,7 @@ public class ParseRDF implements XMPError, XMPConst
 	 * @return Returns the newly created child node.
 	 * @throws XMPException thown on parsing errors
 	 */
-	private static XMPNode addQualifierNode(XMPNode xmpParent, String name, String value)
+	static XMPNode addQualifierNode(XMPNode xmpParent, String name, String value)
 			throws XMPException
 	{
 		boolean isLang = XML_LANG.equals(name);
@@ -1113,7 +1136,7 @@ public class ParseRDF implements XMPError, XMPConst
 	 * @param xmpParent the parent xmp node
 	 * @throws XMPException thown on parsing errors
 	 */
-	private static void fixupQualifiedNode(XMPNode xmpParent) throws XMPException
+	static void fixupQualifiedNode(XMPNode xmpParent) throws XMPException
 	{
 		assert xmpParent.getOptions().isStruct()  &&  xmpParent.hasChildren();
 
@@ -1204,7 +1227,7 @@ public class ParseRDF implements XMPError, XMPConst
 	 * @param term the term id
 	 * @return Return true if the term is a property element name.
 	 */
-	private static boolean isPropertyElementName(int term)
+	static boolean isPropertyElementName(int term)
 	{
 		if (term == RDFTERM_DESCRIPTION  ||  isOldTerm(term))
 		{
@@ -1266,6 +1289,20 @@ public class ParseRDF implements XMPError, XMPConst
 			namespace = NS_RDF; 
 		}
 		
+		return getRDFTermKind(namespace, localName);
+	}
+
+
+	/**
+	 * Determines the ID for a certain RDF Term, given by its namespace and local name.
+	 * Unqualified rdf:about and rdf:ID attributes have to be resolved by the caller. 
+	 * 
+	 * @param namespace the namespace URI of the node 
+	 * @param localName the local name of the node 
+	 * @return Returns the term ID.
+	 */
+	static int getRDFTermKind(String namespace, String localName)
+	{
 		if (NS_RDF.equals(namespace))
 		{
 			if ("li".equals(localName))
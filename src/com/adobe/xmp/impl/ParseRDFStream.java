@@ -0,0 +1,1151 @@
+// =================================================================================================
+// ADOBE SYSTEMS INCORPORATED
+// Copyright 2006 Adobe Systems Incorporated
+// All Rights Reserved
+//
+// NOTICE:  Adobe permits you to use, modify, and distribute this file in accordance with the terms
+// of the Adobe license agreement accompanying it.
+// =================================================================================================
+
+package com.adobe.xmp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.adobe.xmp.XMPConst;
+import com.adobe.xmp.XMPError;
+import com.adobe.xmp.XMPException;
+
+
+/**
+ * Streaming counterpart of {@link ParseRDF}: the XMP tree is built directly from the SAX events,
+ * no DOM is created.
+ * <p>
+ * Only the RDF forms written by the XMP toolkits are handled: rdf:Description node elements
+ * with property attributes, literal, resource, parseType="Resource" and empty property elements.
+ * Everything else (typed top level nodes, other parseTypes, CDATA sections, processing
+ * instructions inside the RDF, ...) and all errors stop the parsing with an
+ * <code>XMPException</code>. The caller then parses the packet again with the DOM parser,
+ * which either handles the packet or reports the proper error.
+ * <p>
+ * The nodes are created by the same methods as in {@link ParseRDF},
+ * so both parsers build the same tree.
+ */
+class ParseRDFStream extends DefaultHandler implements LexicalHandler, XMPConst
+{
+	/** SAX property to register a lexical handler */
+	private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+	/** the rdf:RDF element has not been found yet */
+	private static final int STATE_SEARCHING = 0;
+	/** within the rdf:RDF element */
+	private static final int STATE_IN_RDF = 1;
+	/** the rdf:RDF element has been parsed, the rest of the document is ignored */
+	private static final int STATE_DONE = 2;
+
+	/** the rdf:RDF element, contains node elements */
+	private static final int FRAME_RDF = 0;
+	/** a node element or a parseType="Resource" property, contains property elements */
+	private static final int FRAME_NODE = 1;
+	/** a property element that has only rdf:ID and xml:lang attributes,
+	 * its kind is known at the first child element or at its end */
+	private static final int FRAME_PENDING = 2;
+	/** a resource property element, contains a single node element */
+	private static final int FRAME_RESOURCE = 3;
+	/** a literal property element, contains only text */
+	private static final int FRAME_LITERAL = 4;
+	/** an empty property element */
+	private static final int FRAME_EMPTY = 5;
+
+	/** no processing at the end of the node */
+	private static final int POST_NONE = 0;
+	/** fixup the rdf:value of a parseType="Resource" property */
+	private static final int POST_FIXUP = 1;
+	/** fixup the rdf:value or detect the alt-text array of a resource property */
+	private static final int POST_RESOURCE = 2;
+
+	/** the SAX Parser Factory, options are set */
+	private static SAXParserFactory factory = createSAXParserFactory();
+
+	/** the xmp metadata object that is generated */
+	private XMPMetaImpl xmp = new XMPMetaImpl();
+	/** flag if the rdf:RDF element has to be within an x:xmpmeta element */
+	private boolean xmpmetaRequired;
+	/** the content of the last xpacket processing instruction before the rdf:RDF element */
+	private String packetHeader = null;
+	/** one of the <code>STATE_</code> constants */
+	private int state = STATE_SEARCHING;
+	/** the depth of the current element outside of the rdf:RDF element */
+	private int outerDepth = 0;
+	/** the depth of the x:xmpmeta element, -1 if not within one */
+	private int xmpmetaDepth = -1;
+	/** flag if the element that is about to start declares namespaces */
+	private boolean hasNamespaceDecls = false;
+	/** the open elements within the rdf:RDF element */
+	private ArrayList frames = new ArrayList();
+
+
+	/**
+	 * An open XML element within the rdf:RDF element.
+	 */
+	private static class Frame
+	{
+		/** one of the <code>FRAME_</code> constants */
+		int kind;
+		/** the xmp node the children are added to */
+		XMPNode node;
+		/** Flag if the children are top-level nodes */
+		boolean isTopLevel;
+		/** one of the <code>POST_</code> constants */
+		int post = POST_NONE;
+		/** flag if the single node element of a resource property has been found */
+		boolean found = false;
+		/** namespace, prefix and local name of a property element */
+		String namespace;
+		String prefix;
+		String localName;
+		String qName;
+		/** the attributes of a pending property element, <code>null</code> if there are none */
+		Attributes attributes;
+		/** the text content of a pending or literal property element,
+		 * <code>null</code> if there is none */
+		StringBuffer text;
+	}
+
+
+	/**
+	 * Hidden constructor, use {@link #parse(InputSource, boolean)}.
+	 * @param xmpmetaRequired flag if the rdf:RDF element has to be within an x:xmpmeta element
+	 */
+	private ParseRDFStream(boolean xmpmetaRequired)
+	{
+		this.xmpmetaRequired = xmpmetaRequired;
+	}
+
+
+	/**
+	 * Parses the packet into an XMP metadata object, without normalisation.
+	 *
+	 * @param source an <code>InputSource</code>
+	 * @param xmpmetaRequired flag if the rdf:RDF element has to be within an x:xmpmeta element
+	 * @return Returns the XMP metadata object with its packet header,
+	 * 		or <code>null</code> if the document has no rdf:RDF element.
+	 * @throws XMPException Thrown if the packet is invalid or not supported by the
+	 * 		streaming parser, the caller shall fall back to the DOM parser.
+	 */
+	static XMPMetaImpl parse(InputSource source, boolean xmpmetaRequired) throws XMPException
+	{
+		ParseRDFStream handler = new ParseRDFStream(xmpmetaRequired);
+		try
+		{
+			XMLReader reader = factory.newSAXParser().getXMLReader();
+			reader.setContentHandler(handler);
+			reader.setErrorHandler(handler);
+			try
+			{
+				reader.setProperty(LEXICAL_HANDLER, handler);
+			}
+			catch (SAXException e)
+			{
+				// the parser does not report CDATA sections, they are read as text
+			}
+			reader.parse(source);
+		}
+		catch (SAXException e)
+		{
+			if (e.getException() instanceof XMPException)
+			{
+				throw (XMPException) e.getException();
+			}
+			throw new XMPException("XML parsing failure", XMPError.BADXML, e);
+		}
+		catch (ParserConfigurationException e)
+		{
+			throw new XMPException("XML Parser not correctly configured",
+					XMPError.UNKNOWN, e);
+		}
+		catch (IOException e)
+		{
+			throw new XMPException("Error reading the XML-file", XMPError.BADSTREAM, e);
+		}
+
+		if (handler.state != STATE_DONE)
+		{
+			// no appropriate root node found
+			return null;
+		}
+		handler.xmp.setPacketHeader(handler.packetHeader);
+		return handler.xmp;
+	}
+
+
+	/**
+	 * @see DefaultHandler#startPrefixMapping(String, String)
+	 */
+	public void startPrefixMapping(String prefix, String uri)
+	{
+		hasNamespaceDecls = true;
+	}
+
+
+	/**
+	 * @see DefaultHandler#startElement(String, String, String, Attributes)
+	 */
+	public void startElement(String uri, String localName, String qName, Attributes attributes)
+			throws SAXException
+	{
+		try
+		{
+			switch (state)
+			{
+				case STATE_SEARCHING:
+					findRootNode(uri, localName, attributes);
+					break;
+
+				case STATE_IN_RDF:
+					Frame parent = (Frame) frames.get(frames.size() - 1);
+					switch (parent.kind)
+					{
+						case FRAME_RDF:
+							startNodeElement(parent.node, uri, localName, attributes, true);
+							break;
+
+						case FRAME_NODE:
+							startPropertyElement(parent, uri, localName, qName, attributes);
+							break;
+
+						case FRAME_PENDING:
+							startResourcePropertyElement(parent);
+							startResourceChild(parent, uri, localName, attributes);
+							break;
+
+						case FRAME_RESOURCE:
+							startResourceChild(parent, uri, localName, attributes);
+							break;
+
+						default:
+							throw unsupported("Element within a literal or empty property element");
+					}
+					break;
+
+				default:
+					// ignore the rest of the document
+					break;
+			}
+		}
+		catch (XMPException e)
+		{
+			throw new SAXException(e);
+		}
+		finally
+		{
+			hasNamespaceDecls = false;
+		}
+	}
+
+
+	/**
+	 * @see DefaultHandler#endElement(String, String, String)
+	 */
+	public void endElement(String uri, String localName, String qName) throws SAXException
+	{
+		if (state == STATE_SEARCHING)
+		{
+			outerDepth--;
+			if (isXmpmeta(uri, localName))
+			{
+				// the DOM parser stops searching at an x:xmpmeta element without rdf:RDF
+				throw unsupported("x:xmpmeta element without rdf:RDF");
+			}
+			return;
+		}
+		else if (state == STATE_DONE)
+		{
+			return;
+		}
+
+		Frame frame = (Frame) frames.remove(frames.size() - 1);
+		try
+		{
+			switch (frame.kind)
+			{
+				case FRAME_RDF:
+					state = STATE_DONE;
+					break;
+
+				case FRAME_NODE:
+					if (frame.node.getHasValueChild())
+					{
+						ParseRDF.fixupQualifiedNode(frame.node);
+					}
+					else if (frame.post == POST_RESOURCE  &&
+							 frame.node.getOptions().isArrayAlternate())
+					{
+						XMPNodeUtils.detectAltText(frame.node);
+					}
+					break;
+
+				case FRAME_PENDING:
+					if (frame.text != null)
+					{
+						endLiteralPropertyElement(frame);
+					}
+					else
+					{
+						emptyPropertyElement(frame, frame.attributes);
+					}
+					break;
+
+				case FRAME_RESOURCE:
+					if (!frame.found)
+					{
+						throw unsupported("Missing child of resource property element");
+					}
+					break;
+
+				case FRAME_LITERAL:
+					frame.node.setValue(frame.text != null ? frame.text.toString() : "");
+					break;
+
+				default:
+					break;
+			}
+		}
+		catch (XMPException e)
+		{
+			throw new SAXException(e);
+		}
+	}
+
+
+	/**
+	 * @see DefaultHandler#characters(char[], int, int)
+	 */
+	public void characters(char[] ch, int start, int length) throws SAXException
+	{
+		if (state != STATE_IN_RDF)
+		{
+			return;
+		}
+
+		Frame frame = (Frame) frames.get(frames.size() - 1);
+		switch (frame.kind)
+		{
+			case FRAME_PENDING:
+			case FRAME_LITERAL:
+				if (frame.text == null)
+				{
+					frame.text = new StringBuffer(length);
+				}
+				frame.text.append(ch, start, length);
+				break;
+
+			case FRAME_EMPTY:
+				throw unsupported("Nested content within an empty property element");
+
+			default:
+				for (int i = start; i < start + length; i++)
+				{
+					if (!Character.isWhitespace(ch[i]))
+					{
+						throw unsupported("Text between node or property elements");
+					}
+				}
+				break;
+		}
+	}
+
+
+	/**
+	 * @see DefaultHandler#ignorableWhitespace(char[], int, int)
+	 */
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+	{
+		characters(ch, start, length);
+	}
+
+
+	/**
+	 * @see DefaultHandler#processingInstruction(String, String)
+	 */
+	public void processingInstruction(String target, String data) throws SAXException
+	{
+		if (state == STATE_SEARCHING  &&  XMP_PI.equals(target))
+		{
+			packetHeader = data;
+		}
+		else if (state == STATE_IN_RDF)
+		{
+			throw unsupported("Processing instruction within rdf:RDF");
+		}
+	}
+
+
+	/**
+	 * @see LexicalHandler#startCDATA()
+	 */
+	public void startCDATA() throws SAXException
+	{
+		if (state == STATE_IN_RDF)
+		{
+			// the DOM parser keeps CDATA sections apart from text
+			throw unsupported("CDATA section within rdf:RDF");
+		}
+	}
+
+
+	/**
+	 * @see LexicalHandler#endCDATA()
+	 */
+	public void endCDATA()
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * @see LexicalHandler#startDTD(String, String, String)
+	 */
+	public void startDTD(String name, String publicId, String systemId)
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * @see LexicalHandler#endDTD()
+	 */
+	public void endDTD()
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * @see LexicalHandler#startEntity(String)
+	 */
+	public void startEntity(String name)
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * @see LexicalHandler#endEntity(String)
+	 */
+	public void endEntity(String name)
+	{
+		// EMPTY
+	}
+
+
+	/**
+	 * @see LexicalHandler#comment(char[], int, int)
+	 */
+	public void comment(char[] ch, int start, int length)
+	{
+		// EMPTY, comments are ignored like in the DOM parser
+	}
+
+
+	/**
+	 * Looks for the rdf:RDF element the same way as
+	 * <code>XMPMetaParser#findRootNode()</code>: the first rdf:RDF element in document order,
+	 * within an x:xmpmeta element if required.
+	 *
+	 * @param uri the namespace of the element
+	 * @param localName the local name of the element
+	 * @param attributes the attributes of the element
+	 * @throws XMPException Thrown if the rdf:RDF element has no attributes
+	 */
+	private void findRootNode(String uri, String localName, Attributes attributes)
+			throws XMPException
+	{
+		if (isXmpmeta(uri, localName))
+		{
+			if (xmpmetaDepth < 0)
+			{
+				xmpmetaDepth = outerDepth;
+			}
+		}
+		else if ((!xmpmetaRequired  ||  xmpmetaDepth >= 0)  &&
+				 "RDF".equals(localName)  &&  NS_RDF.equals(uri))
+		{
+			if (attributes.getLength() == 0  &&  !hasNamespaceDecls)
+			{
+				throw new XMPException("Invalid attributes of rdf:RDF element",
+					XMPError.BADRDF);
+			}
+			state = STATE_IN_RDF;
+			push(FRAME_RDF, xmp.getRoot(), true);
+			return;
+		}
+		outerDepth++;
+	}
+
+
+	/**
+	 * 7.2.11 nodeElement, see <code>ParseRDF#rdf_NodeElement()</code>.
+	 * Processes the attributes and opens the node element.
+	 *
+	 * @param xmpParent the parent xmp node
+	 * @param uri the namespace of the element
+	 * @param localName the local name of the element
+	 * @param attributes the attributes of the element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @return Returns the new frame.
+	 * @throws XMPException thown on parsing errors
+	 */
+	private Frame startNodeElement(XMPNode xmpParent, String uri, String localName,
+			Attributes attributes, boolean isTopLevel) throws XMPException
+	{
+		int nodeTerm = ParseRDF.getRDFTermKind(toNamespace(uri), localName);
+		if (nodeTerm != ParseRDF.RDFTERM_DESCRIPTION  &&
+			(isTopLevel  ||  nodeTerm != ParseRDF.RDFTERM_OTHER))
+		{
+			throw unsupportedXMP("Node element must be rdf:Description or typed node");
+		}
+
+		// Used to detect attributes that are mutually exclusive.
+		int exclusiveAttrs = 0;
+		for (int i = 0; i < attributes.getLength(); i++)
+		{
+			if (isNamespaceDecl(attributes, i))
+			{
+				continue;
+			}
+
+			int attrTerm = getRDFTermKind(attributes, i, uri);
+			switch (attrTerm)
+			{
+				case ParseRDF.RDFTERM_ID:
+				case ParseRDF.RDFTERM_NODE_ID:
+				case ParseRDF.RDFTERM_ABOUT:
+					if (exclusiveAttrs > 0)
+					{
+						throw unsupportedXMP("Mutally exclusive about, ID, nodeID attributes");
+					}
+					exclusiveAttrs++;
+
+					if (isTopLevel  &&  attrTerm == ParseRDF.RDFTERM_ABOUT)
+					{
+						String about = attributes.getValue(i);
+						if (xmpParent.getName() != null  &&  xmpParent.getName().length() > 0)
+						{
+							if (!xmpParent.getName().equals(about))
+							{
+								throw unsupportedXMP("Mismatched top level rdf:about values");
+							}
+						}
+						else
+						{
+							xmpParent.setName(about);
+						}
+					}
+					break;
+
+				case ParseRDF.RDFTERM_OTHER:
+					addChildNode(xmpParent, attributes, i, attributes.getValue(i), isTopLevel);
+					break;
+
+				default:
+					throw unsupportedXMP("Invalid nodeElement attribute");
+			}
+		}
+
+		return push(FRAME_NODE, xmpParent, isTopLevel);
+	}
+
+
+	/**
+	 * 7.2.14 propertyElt, see <code>ParseRDF#rdf_PropertyElement()</code>.
+	 * If the attributes tell the kind of the property element, the XMP node is created,
+	 * otherwise it is created at the first child element or at the end of the element.
+	 *
+	 * @param parent the frame of the node element
+	 * @param uri the namespace of the element
+	 * @param localName the local name of the element
+	 * @param qName the qualified name of the element
+	 * @param attributes the attributes of the element
+	 * @throws XMPException thown on parsing errors
+	 */
+	private void startPropertyElement(Frame parent, String uri, String localName, String qName,
+			Attributes attributes) throws XMPException
+	{
+		String namespace = toNamespace(uri);
+		if (!ParseRDF.isPropertyElementName(ParseRDF.getRDFTermKind(namespace, localName)))
+		{
+			throw unsupportedXMP("Invalid property element name");
+		}
+
+		Frame frame = push(FRAME_PENDING, parent.node, parent.isTopLevel);
+		frame.namespace = namespace;
+		frame.prefix = toPrefix(qName);
+		frame.localName = localName;
+		frame.qName = qName;
+
+		int attrCount = 0;
+		for (int i = 0; i < attributes.getLength(); i++)
+		{
+			if (!isNamespaceDecl(attributes, i))
+			{
+				attrCount++;
+			}
+		}
+
+		if (attrCount > 3)
+		{
+			// Only an emptyPropertyElt can have more than 3 attributes.
+			emptyPropertyElement(frame, attributes);
+			return;
+		}
+
+		// Look through the attributes for one that isn't rdf:ID or xml:lang,
+		// it will usually tell what we should be dealing with.
+		for (int i = 0; i < attributes.getLength(); i++)
+		{
+			if (isNamespaceDecl(attributes, i)  ||  XML_LANG.equals(attributes.getQName(i)))
+			{
+				continue;
+			}
+
+			String attrLocal = attributes.getLocalName(i);
+			boolean isRDF = NS_RDF.equals(attributes.getURI(i));
+			if (isRDF  &&  "datatype".equals(attrLocal))
+			{
+				frame.kind = FRAME_LITERAL;
+				frame.node = literalPropertyElement(frame, attributes);
+			}
+			else if (!(isRDF  &&  "parseType".equals(attrLocal)))
+			{
+				emptyPropertyElement(frame, attributes);
+			}
+			else if ("Resource".equals(attributes.getValue(i)))
+			{
+				parseTypeResourcePropertyElement(frame, attributes);
+			}
+			else
+			{
+				throw unsupportedXMP("ParseType Literal, Collection or Other property element");
+			}
+			return;
+		}
+
+		// Only rdf:ID and xml:lang, could be a resourcePropertyElt, a literalPropertyElt,
+		// or an emptyPropertyElt. Wait for the content to decide which.
+		frame.attributes = attrCount > 0 ? new AttributesImpl(attributes) : null;
+	}
+
+
+	/**
+	 * 7.2.15 resourcePropertyElt, see <code>ParseRDF#rdf_ResourcePropertyElement()</code>.
+	 * A pending property element has a child element, the compound node is created.
+	 *
+	 * @param frame the frame of the pending property element
+	 * @throws XMPException thown on parsing errors
+	 */
+	private void startResourcePropertyElement(Frame frame) throws XMPException
+	{
+		if (frame.text != null)
+		{
+			for (int i = 0; i < frame.text.length(); i++)
+			{
+				if (!Character.isWhitespace(frame.text.charAt(i)))
+				{
+					throw unsupportedXMP("Children of resource property element must be XML elements");
+				}
+			}
+			frame.text = null;
+		}
+		if (frame.isTopLevel  &&  "iX:changes".equals(frame.qName))
+		{
+			throw unsupportedXMP("Old \"punchcard\" chaff");
+		}
+
+		XMPNode newCompound = addChildNode(frame, "");
+		Attributes attributes = frame.attributes;
+		for (int i = 0; attributes != null  &&  i < attributes.getLength(); i++)
+		{
+			if (isNamespaceDecl(attributes, i))
+			{
+				continue;
+			}
+
+			if (XML_LANG.equals(attributes.getQName(i)))
+			{
+				ParseRDF.addQualifierNode(newCompound, XML_LANG, attributes.getValue(i));
+			}
+			else if (!(NS_RDF.equals(attributes.getURI(i))  &&
+					   "ID".equals(attributes.getLocalName(i))))
+			{
+				throw unsupportedXMP("Invalid attribute for resource property element");
+			}
+		}
+
+		frame.kind = FRAME_RESOURCE;
+		frame.node = newCompound;
+		frame.attributes = null;
+	}
+
+
+	/**
+	 * Opens the single node element of a resource property element,
+	 * that tells the kind of the compound node.
+	 *
+	 * @param frame the frame of the resource property element
+	 * @param uri the namespace of the element
+	 * @param localName the local name of the element
+	 * @param attributes the attributes of the element
+	 * @throws XMPException thown on parsing errors
+	 */
+	private void startResourceChild(Frame frame, String uri, String localName,
+			Attributes attributes) throws XMPException
+	{
+		if (frame.found)
+		{
+			throw unsupportedXMP("Invalid child of resource property element");
+		}
+		frame.found = true;
+
+		XMPNode newCompound = frame.node;
+		boolean isRDF = NS_RDF.equals(uri);
+		if (isRDF  &&  "Bag".equals(localName))
+		{
+			newCompound.getOptions().setArray(true);
+		}
+		else if (isRDF  &&  "Seq".equals(localName))
+		{
+			newCompound.getOptions().setArray(true).setArrayOrdered(true);
+		}
+		else if (isRDF  &&  "Alt".equals(localName))
+		{
+			newCompound.getOptions().setArray(true).setArrayOrdered(true)
+					.setArrayAlternate(true);
+		}
+		else
+		{
+			newCompound.getOptions().setStruct(true);
+			if (!isRDF  &&  !"Description".equals(localName))
+			{
+				String typeName = toNamespace(uri);
+				if (typeName == null)
+				{
+					throw unsupportedXMP("All XML elements must be in a namespace");
+				}
+				typeName += ':' + localName;
+				ParseRDF.addQualifierNode(newCompound, "rdf:type", typeName);
+			}
+		}
+
+		Frame nodeFrame = startNodeElement(newCompound, uri, localName, attributes, false);
+		nodeFrame.post = POST_RESOURCE;
+	}
+
+
+	/**
+	 * 7.2.16 literalPropertyElt, see <code>ParseRDF#rdf_LiteralPropertyElement()</code>.
+	 * Creates the node and its qualifiers, the value is set at the end of the element.
+	 *
+	 * @param frame the frame of the property element
+	 * @param attributes the attributes of the element, can be <code>null</code>
+	 * @return Returns the new node.
+	 * @throws XMPException thown on parsing errors
+	 */
+	private XMPNode literalPropertyElement(Frame frame, Attributes attributes)
+			throws XMPException
+	{
+		XMPNode newChild = addChildNode(frame, null);
+		for (int i = 0; attributes != null  &&  i < attributes.getLength(); i++)
+		{
+			if (isNamespaceDecl(attributes, i))
+			{
+				continue;
+			}
+
+			String attrLocal = attributes.getLocalName(i);
+			if (XML_LANG.equals(attributes.getQName(i)))
+			{
+				ParseRDF.addQualifierNode(newChild, XML_LANG, attributes.getValue(i));
+			}
+			else if (!(NS_RDF.equals(attributes.getURI(i))  &&
+					 ("ID".equals(attrLocal)  ||  "datatype".equals(attrLocal))))
+			{
+				throw unsupportedXMP("Invalid attribute for literal property element");
+			}
+		}
+		return newChild;
+	}
+
+
+	/**
+	 * A pending property element with text content is a literal property element.
+	 *
+	 * @param frame the frame of the pending property element
+	 * @throws XMPException thown on parsing errors
+	 */
+	private void endLiteralPropertyElement(Frame frame) throws XMPException
+	{
+		XMPNode newChild = literalPropertyElement(frame, frame.attributes);
+		newChild.setValue(frame.text.toString());
+	}
+
+
+	/**
+	 * 7.2.18 parseTypeResourcePropertyElt,
+	 * see <code>ParseRDF#rdf_ParseTypeResourcePropertyElement()</code>.
+	 * The frame becomes the node of the new struct, its content are property elements.
+	 *
+	 * @param frame the frame of the property element
+	 * @param attributes the attributes of the element
+	 * @throws XMPException thown on parsing errors
+	 */
+	private void parseTypeResourcePropertyElement(Frame frame, Attributes attributes)
+			throws XMPException
+	{
+		XMPNode newStruct = addChildNode(frame, "");
+		newStruct.getOptions().setStruct(true);
+
+		for (int i = 0; i < attributes.getLength(); i++)
+		{
+			if (isNamespaceDecl(attributes, i))
+			{
+				continue;
+			}
+
+			String attrLocal = attributes.getLocalName(i);
+			if (XML_LANG.equals(attributes.getQName(i)))
+			{
+				ParseRDF.addQualifierNode(newStruct, XML_LANG, attributes.getValue(i));
+			}
+			else if (!(NS_RDF.equals(attributes.getURI(i))  &&
+					 ("ID".equals(attrLocal)  ||  "parseType".equals(attrLocal))))
+			{
+				throw unsupportedXMP(
+					"Invalid attribute for ParseTypeResource property element");
+			}
+		}
+
+		frame.kind = FRAME_NODE;
+		frame.node = newStruct;
+		frame.isTopLevel = false;
+		frame.post = POST_FIXUP;
+	}
+
+
+	/**
+	 * 7.2.21 emptyPropertyElt, see <code>ParseRDF#rdf_EmptyPropertyElement()</code>.
+	 * Any content of the element stops the parsing.
+	 *
+	 * @param frame the frame of the property element
+	 * @param attributes the attributes of the element, can be <code>null</code>
+	 * @throws XMPException thown on parsing errors
+	 */
+	private void emptyPropertyElement(Frame frame, Attributes attributes) throws XMPException
+	{
+		boolean hasPropertyAttrs = false;
+		boolean hasResourceAttr = false;
+		boolean hasNodeIDAttr = false;
+		boolean hasValueAttr = false;
+
+		// ! Can come from rdf:value or rdf:resource.
+		int valueIndex = -1;
+		int attrLength = attributes != null ? attributes.getLength() : 0;
+
+		// First figure out what XMP this maps to and remember the XML node for a simple value.
+		for (int i = 0; i < attrLength; i++)
+		{
+			if (isNamespaceDecl(attributes, i))
+			{
+				continue;
+			}
+
+			switch (getRDFTermKind(attributes, i, frame.namespace))
+			{
+				case ParseRDF.RDFTERM_ID :
+					// Nothing to do.
+					break;
+
+				case ParseRDF.RDFTERM_RESOURCE :
+					if (hasNodeIDAttr  ||  hasValueAttr)
+					{
+						throw unsupportedXMP("Empty property element with rdf:resource and " +
+							"rdf:nodeID or rdf:value");
+					}
+					hasResourceAttr = true;
+					valueIndex = i;
+					break;
+
+				case ParseRDF.RDFTERM_NODE_ID:
+					if (hasResourceAttr)
+					{
+						throw unsupportedXMP(
+							"Empty property element can't have both rdf:resource and rdf:nodeID");
+					}
+					hasNodeIDAttr = true;
+					break;
+
+				case ParseRDF.RDFTERM_OTHER:
+					if ("value".equals(attributes.getLocalName(i))  &&
+						NS_RDF.equals(attributes.getURI(i)))
+					{
+						if (hasResourceAttr)
+						{
+							throw unsupportedXMP(
+								"Empty property element can't have both rdf:value and rdf:resource");
+						}
+						hasValueAttr = true;
+						valueIndex = i;
+					}
+					else if (!XML_LANG.equals(attributes.getQName(i)))
+					{
+						hasPropertyAttrs = true;
+					}
+					break;
+
+				default:
+					throw unsupportedXMP("Unrecognized attribute of empty property element");
+			}
+		}
+
+		// Create the right kind of child node and visit the attributes again
+		// to add the fields or qualifiers.
+		XMPNode childNode = addChildNode(frame, "");
+		boolean childIsStruct = false;
+
+		if (hasValueAttr  ||  hasResourceAttr)
+		{
+			childNode.setValue(valueIndex >= 0 ? attributes.getValue(valueIndex) : "");
+			if (!hasValueAttr)
+			{
+				// ! Might have both rdf:value and rdf:resource.
+				childNode.getOptions().setURI(true);
+			}
+		}
+		else if (hasPropertyAttrs)
+		{
+			childNode.getOptions().setStruct(true);
+			childIsStruct = true;
+		}
+
+		for (int i = 0; i < attrLength; i++)
+		{
+			if (i == valueIndex  ||  isNamespaceDecl(attributes, i))
+			{
+				continue;	// Skip the rdf:value or rdf:resource attribute holding the value.
+			}
+
+			switch (getRDFTermKind(attributes, i, frame.namespace))
+			{
+				case ParseRDF.RDFTERM_ID :
+				case ParseRDF.RDFTERM_NODE_ID :
+					break;	// Ignore all rdf:ID and rdf:nodeID attributes.
+
+				case ParseRDF.RDFTERM_RESOURCE :
+					ParseRDF.addQualifierNode(childNode, "rdf:resource", attributes.getValue(i));
+					break;
+
+				case ParseRDF.RDFTERM_OTHER :
+					if (!childIsStruct)
+					{
+						ParseRDF.addQualifierNode(
+							childNode, attributes.getQName(i), attributes.getValue(i));
+					}
+					else if (XML_LANG.equals(attributes.getQName(i)))
+					{
+						ParseRDF.addQualifierNode(childNode, XML_LANG, attributes.getValue(i));
+					}
+					else
+					{
+						addChildNode(childNode, attributes, i, attributes.getValue(i), false);
+					}
+					break;
+
+				default :
+					throw unsupportedXMP("Unrecognized attribute of empty property element");
+			}
+		}
+
+		frame.kind = FRAME_EMPTY;
+		frame.node = childNode;
+		frame.attributes = null;
+	}
+
+
+	/**
+	 * Adds the XMP node of a property element.
+	 *
+	 * @param frame the frame of the property element
+	 * @param value Node value
+	 * @return Returns the newly created child node.
+	 * @throws XMPException thown on parsing errors
+	 */
+	private XMPNode addChildNode(Frame frame, String value) throws XMPException
+	{
+		return ParseRDF.addChildNode(xmp, frame.node, frame.namespace, frame.prefix,
+			frame.localName, value, frame.isTopLevel);
+	}
+
+
+	/**
+	 * Adds the XMP node of a property attribute.
+	 *
+	 * @param xmpParent the parent xmp node
+	 * @param attributes the attributes of the element
+	 * @param index the index of the attribute
+	 * @param value Node value
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @return Returns the newly created child node.
+	 * @throws XMPException thown on parsing errors
+	 */
+	private XMPNode addChildNode(XMPNode xmpParent, Attributes attributes, int index,
+			String value, boolean isTopLevel) throws XMPException
+	{
+		return ParseRDF.addChildNode(xmp, xmpParent, toNamespace(attributes.getURI(index)),
+			toPrefix(attributes.getQName(index)), attributes.getLocalName(index), value,
+			isTopLevel);
+	}
+
+
+	/**
+	 * Opens a frame.
+	 *
+	 * @param kind one of the <code>FRAME_</code> constants
+	 * @param node the xmp node the children are added to
+	 * @param isTopLevel Flag if the children are top-level nodes
+	 * @return Returns the new frame.
+	 */
+	private Frame push(int kind, XMPNode node, boolean isTopLevel)
+	{
+		Frame frame = new Frame();
+		frame.kind = kind;
+		frame.node = node;
+		frame.isTopLevel = isTopLevel;
+		frames.add(frame);
+		return frame;
+	}
+
+
+	/**
+	 * Determines the ID for a certain RDF Term of an attribute,
+	 * see <code>ParseRDF#getRDFTermKind()</code>.
+	 *
+	 * @param attributes the attributes of the element
+	 * @param index the index of the attribute
+	 * @param ownerNS the namespace of the element of the attribute
+	 * @return Returns the term ID.
+	 */
+	private static int getRDFTermKind(Attributes attributes, int index, String ownerNS)
+	{
+		String localName = attributes.getLocalName(index);
+		String namespace = toNamespace(attributes.getURI(index));
+		if (namespace == null  &&
+			("about".equals(localName)  ||  "ID".equals(localName))  &&
+			NS_RDF.equals(ownerNS))
+		{
+			namespace = NS_RDF;
+		}
+		return ParseRDF.getRDFTermKind(namespace, localName);
+	}
+
+
+	/**
+	 * @param attributes the attributes of an element
+	 * @param index the index of an attribute
+	 * @return Returns true if the attribute is a namespace declaration,
+	 * 		which are reported by some SAX parsers.
+	 */
+	private static boolean isNamespaceDecl(Attributes attributes, int index)
+	{
+		String qName = attributes.getQName(index);
+		return qName.startsWith("xmlns")  &&
+			(qName.length() == 5  ||  qName.charAt(5) == ':');
+	}
+
+
+	/**
+	 * @param uri the namespace of an element or attribute
+	 * @param localName the local name of an element or attribute
+	 * @return Returns true if the element is x:xmpmeta or x:xapmeta.
+	 */
+	private static boolean isXmpmeta(String uri, String localName)
+	{
+		return NS_X.equals(uri)  &&
+			(TAG_XMPMETA.equals(localName)  ||  TAG_XAPMETA.equals(localName));
+	}
+
+
+	/**
+	 * @param uri a namespace reported by SAX
+	 * @return Returns the namespace like DOM reports it, <code>null</code> if there is none.
+	 */
+	private static String toNamespace(String uri)
+	{
+		return uri != null  &&  uri.length() > 0 ? uri : null;
+	}
+
+
+	/**
+	 * @param qName a qualified name
+	 * @return Returns the prefix of the name, <code>null</code> if there is none.
+	 */
+	private static String toPrefix(String qName)
+	{
+		int colon = qName.indexOf(':');
+		return colon > 0 ? qName.substring(0, colon) : null;
+	}
+
+
+	/**
+	 * @param reason the construct that is not supported
+	 * @return Returns the exception that stops the streaming parser.
+	 */
+	private static SAXException unsupported(String reason)
+	{
+		return new SAXException(unsupportedXMP(reason));
+	}
+
+
+	/**
+	 * @param reason the construct that is not supported
+	 * @return Returns the exception that stops the streaming parser.
+	 */
+	private static XMPException unsupportedXMP(String reason)
+	{
+		return new XMPException("Not supported by the streaming parser: " + reason,
+			XMPError.BADRDF);
+	}
+
+
+	/**
+	 * @return Creates, configures and returnes the SAX parser factory for
+	 *         the streaming Metadata Parser.
+	 */
+	private static SAXParserFactory createSAXParserFactory()
+	{
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+
+		try
+		{
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		}
+		catch (Exception e)
+		{
+			// Ignore SAXException and ParserConfigurationException
+			// in case the configured XML-Parser does not implement the feature.
+		}
+		return factory;
+	}
+}
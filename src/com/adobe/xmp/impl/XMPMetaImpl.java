@@ -12,6 +12,7 @@ package com.adobe.xmp.impl;
 import java.util.Calendar;
 import java.util.Iterator;
 
+import com.adobe.xmp.XMPCompiledPath;
 import com.adobe.xmp.XMPConst;
 import com.adobe.xmp.XMPDateTime;
 import com.adobe.xmp.XMPError;
@@ -56,6 +57,8 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 	private XMPNode tree;
 	/** the xpacket processing instructions content */ 
 	private String packetHeader = null;
+	/** flag if the parser had to register new namespaces */
+	private boolean hasUnknownNamespaces = false;
 	
 
 	/**
@@ -218,13 +221,23 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 			ParameterAsserts.assertSchemaNS(schemaNS);
 			ParameterAsserts.assertPropName(propName);
 
-			XMPPath expPath = XMPPathParser.expandXPath(schemaNS, propName);
+			deleteProperty(XMPPathParser.expandXPath(schemaNS, propName));
+		}
+		catch (XMPException e)
+		{
+			// EMPTY, exceptions are ignored within delete
+		}
+	}
 
-			XMPNode propNode = XMPNodeUtils.findNode(tree, expPath, false, null);
-			if (propNode != null)
-			{
-				XMPNodeUtils.deleteNode(propNode);
-			}
+
+	/**
+	 * @see XMPMeta#deleteProperty(XMPCompiledPath)
+	 */
+	public void deleteProperty(XMPCompiledPath path)
+	{
+		try
+		{
+			deleteProperty(toXMPPath(path));
 		}
 		catch (XMPException e)
 		{
@@ -233,6 +246,21 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 	}
 
 
+	/**
+	 * Deletes the property at an expanded path.
+	 * @param expPath the expanded path
+	 * @throws XMPException if the path is invalid
+	 */
+	private void deleteProperty(XMPPath expPath) throws XMPException
+	{
+		XMPNode propNode = XMPNodeUtils.findNode(tree, expPath, false, null);
+		if (propNode != null)
+		{
+			XMPNodeUtils.deleteNode(propNode);
+		}
+	}
+
+
 	/**
 	 * @see XMPMeta#deleteQualifier(String, String, String, String)
 	 */
@@ -287,9 +315,7 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 			ParameterAsserts.assertSchemaNS(schemaNS);
 			ParameterAsserts.assertPropName(propName);
 
-			XMPPath expPath = XMPPathParser.expandXPath(schemaNS, propName);
-			final XMPNode propNode = XMPNodeUtils.findNode(tree, expPath, false, null);
-			return propNode != null;
+			return doesPropertyExist(XMPPathParser.expandXPath(schemaNS, propName));
 		}
 		catch (XMPException e)
 		{
@@ -298,6 +324,33 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 	}
 
 
+	/**
+	 * @see XMPMeta#doesPropertyExist(XMPCompiledPath)
+	 */
+	public boolean doesPropertyExist(XMPCompiledPath path)
+	{
+		try
+		{
+			return doesPropertyExist(toXMPPath(path));
+		}
+		catch (XMPException e)
+		{
+			return false;
+		}
+	}
+
+
+	/**
+	 * @param expPath the expanded path
+	 * @return Returns true if the property at the expanded path exists.
+	 * @throws XMPException if the path is invalid
+	 */
+	private boolean doesPropertyExist(XMPPath expPath) throws XMPException
+	{
+		return XMPNodeUtils.findNode(tree, expPath, false, null) != null;
+	}
+
+
 	/**
 	 * @see XMPMeta#doesArrayItemExist(String, String, int)
 	 */
@@ -641,6 +694,16 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 	}
 
 
+	/**
+	 * @throws XMPException
+	 * @see XMPMeta#getProperty(XMPCompiledPath)
+	 */
+	public XMPProperty getProperty(XMPCompiledPath path) throws XMPException
+	{
+		return getProperty(toXMPPath(path), VALUE_STRING);
+	}
+
+
 	/**
 	 * Returns a property, but the result value can be requested. It can be one
 	 * of {@link XMPMetaImpl#VALUE_STRING}, {@link XMPMetaImpl#VALUE_BOOLEAN},
@@ -665,7 +728,24 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 		ParameterAsserts.assertSchemaNS(schemaNS);
 		ParameterAsserts.assertPropName(propName);
 
-		final XMPPath expPath = XMPPathParser.expandXPath(schemaNS, propName);
+		return getProperty(XMPPathParser.expandXPath(schemaNS, propName), valueType);
+	}
+
+
+	/**
+	 * Returns the property at an already expanded path.
+	 * 
+	 * @see XMPMetaImpl#getProperty(String, String, int)
+	 * @param expPath
+	 *            the expanded path of the property
+	 * @param valueType
+	 *            the type of the value, see VALUE_...
+	 * @return Returns an <code>XMPProperty</code>
+	 * @throws XMPException
+	 *             Collects any exception that occurs.
+	 */
+	private XMPProperty getProperty(XMPPath expPath, int valueType) throws XMPException
+	{
 		final XMPNode propNode = XMPNodeUtils.findNode(tree, expPath, false, null);
 
 		if (propNode != null)
@@ -1108,9 +1188,32 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 		ParameterAsserts.assertSchemaNS(schemaNS);
 		ParameterAsserts.assertPropName(propName);
 
-		options = XMPNodeUtils.verifySetOptions(options, propValue);
+		setProperty(XMPPathParser.expandXPath(schemaNS, propName), propValue, options);
+	}
 
-		XMPPath expPath = XMPPathParser.expandXPath(schemaNS, propName);
+	
+	/**
+	 * @throws XMPException
+	 * @see XMPMeta#setProperty(XMPCompiledPath, Object, PropertyOptions)
+	 */
+	public void setProperty(XMPCompiledPath path, Object propValue, PropertyOptions options)
+			throws XMPException
+	{
+		setProperty(toXMPPath(path), propValue, options);
+	}
+
+	
+	/**
+	 * Sets the property at an expanded path.
+	 * @param expPath the expanded path
+	 * @param propValue the value of the property
+	 * @param options the options of the property
+	 * @throws XMPException if the path or the value is invalid
+	 */
+	private void setProperty(XMPPath expPath, Object propValue, PropertyOptions options)
+			throws XMPException
+	{
+		options = XMPNodeUtils.verifySetOptions(options, propValue);
 
 		XMPNode propNode = XMPNodeUtils.findNode(tree, expPath, true, options);
 		if (propNode != null)
@@ -1131,6 +1234,26 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 	{
 		setProperty(schemaNS, propName, propValue, null);
 	}
+
+	
+	/**
+	 * @see XMPMeta#setProperty(XMPCompiledPath, Object)
+	 */
+	public void setProperty(XMPCompiledPath path, Object propValue) throws XMPException
+	{
+		setProperty(path, propValue, null);
+	}
+	
+	
+	/**
+	 * @param path a path compiled by {@link XMPPathFactory#compilePath(String, String)}
+	 * @return Returns the expanded path behind the handle.
+	 * @throws XMPException if the path has not been compiled by the toolkit
+	 */
+	private static XMPPath toXMPPath(XMPCompiledPath path) throws XMPException
+	{
+		return XMPPathParser.getExpandedXPath(path);
+	}
 	
 
 	/**
@@ -1225,6 +1348,25 @@ public class XMPMetaImpl implements XMPMeta, XMPConst
 	{
 		this.packetHeader = packetHeader;
 	}
+
+
+	/**
+	 * @return Returns true if the parser had to register new namespaces for the packet.
+	 */
+	public boolean getHasUnknownNamespaces()
+	{
+		return hasUnknownNamespaces;
+	}
+
+
+	/**
+	 * Sets the flag that the packet contains unknown namespaces, only used by the parser.
+	 * @param hasUnknownNamespaces the flag to set
+	 */
+	public void setHasUnknownNamespaces(boolean hasUnknownNamespaces)
+	{
+		this.hasUnknownNamespaces = hasUnknownNamespaces;
+	}
 	
 	
 	/**
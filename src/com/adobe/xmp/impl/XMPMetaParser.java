@@ -9,6 +9,7 @@
 
 package com.adobe.xmp.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -74,6 +75,41 @@ public class XMPMetaParser
 		ParameterAsserts.assertNotNull(input);
 		options = options != null ? options : new ParseOptions();
 
+		if (options.getStreaming())
+		{
+			if (input instanceof InputStream)
+			{
+				// load stream into bytebuffer, the DOM parser might have to read it again
+				try
+				{
+					input = new ByteBuffer((InputStream) input);
+				}
+				catch (IOException e)
+				{
+					throw new XMPException("Error reading the XML-file",
+							XMPError.BADSTREAM, e);
+				}
+			}
+
+			XMPMetaImpl xmp = null;
+			boolean parsed = false;
+			try
+			{
+				xmp = ParseRDFStream.parse(createInputSource(input), options.getRequireXMPMeta());
+				parsed = true;
+			}
+			catch (XMPException e)
+			{
+				// The packet is not supported by the streaming parser or it is invalid,
+				// the DOM parser parses it or reports the error.
+			}
+			
+			if (parsed)
+			{
+				return xmp != null ? normalize(xmp, options) : new XMPMetaImpl();
+			}
+		}
+
 		Document document = parseXml(input, options);
 
 		boolean xmpmetaRequired = options.getRequireXMPMeta();
@@ -84,16 +120,7 @@ public class XMPMetaParser
 		{
 			XMPMetaImpl xmp = ParseRDF.parse((Node) result[0]);
 			xmp.setPacketHeader((String) result[2]);
-			
-			// Check if the XMP object shall be normalized
-			if (!options.getOmitNormalization())
-			{
-				return XMPNormalizer.process(xmp, options);
-			}
-			else
-			{
-				return xmp;
-			}
+			return normalize(xmp, options);
 		}
 		else
 		{
@@ -103,6 +130,54 @@ public class XMPMetaParser
 	}
 
 	
+	/**
+	 * Normalises the parsed XMP object, unless the options tell to leave it as it is.
+	 * 
+	 * @param xmp the parsed XMP object
+	 * @param options the parse options
+	 * @return Returns the resulting XMP metadata object
+	 * @throws XMPException Thrown if the normalisation fails.
+	 */
+	private static XMPMeta normalize(XMPMetaImpl xmp, ParseOptions options) throws XMPException
+	{
+		// Check if the XMP object shall be normalized
+		if (options.getTrustedPacket()  &&  XMPNormalizer.isNormalized(xmp))
+		{
+			return xmp;
+		}
+		else if (!options.getOmitNormalization())
+		{
+			return XMPNormalizer.process(xmp, options);
+		}
+		else
+		{
+			return xmp;
+		}
+	}
+
+
+	/**
+	 * @param input the input can be a <code>ByteBuffer</code>, a byte buffer or 
+	 * 			a <code>String</code> containing the XMP packet.
+	 * @return Returns an <code>InputSource</code> that reads the input from the start.
+	 */
+	private static InputSource createInputSource(Object input)
+	{
+		if (input instanceof ByteBuffer)
+		{
+			return new InputSource(((ByteBuffer) input).getByteStream());
+		}
+		else if (input instanceof byte[])
+		{
+			return new InputSource(new ByteArrayInputStream((byte[]) input));
+		}
+		else
+		{
+			return new InputSource(new StringReader((String) input));
+		}
+	}
+
+	
 	/**
 	 * Parses the raw XML metadata packet considering the parsing options.
 	 * Latin-1/ISO-8859-1 can be accepted when the input is a byte stream 
@@ -131,6 +206,10 @@ public class XMPMetaParser
 		{
 			return parseXmlFromBytebuffer(new ByteBuffer((byte[]) input), options);
 		} 
+		else if (input instanceof ByteBuffer)
+		{
+			return parseXmlFromBytebuffer((ByteBuffer) input, options);
+		} 
 		else
 		{
 			return parseXmlFromString((String) input, options);
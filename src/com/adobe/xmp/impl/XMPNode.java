@@ -12,9 +12,11 @@ package com.adobe.xmp.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import com.adobe.xmp.XMPConst;
 import com.adobe.xmp.XMPError;
@@ -37,6 +39,9 @@ import com.adobe.xmp.options.PropertyOptions;
  */
 class XMPNode implements Comparable
 {
+	/** number of children or qualifier above which they are looked up through a name index */
+	private static final int INDEX_THRESHOLD = 8;
+
 	/** name of the node, contains different information depending of the node kind */
 	private String name;
 	/** value of the node, contains different information depending of the node kind */
@@ -47,6 +52,10 @@ class XMPNode implements Comparable
 	private List children = null; 
 	/** list of qualifier of the node, lazy initialized */
 	private List qualifier = null;
+	/** index of the children by name, lazy initialized, array items are not indexed */
+	private Map childIndex = null;
+	/** index of the qualifier by name, lazy initialized */
+	private Map qualifierIndex = null;
 	/** options describing the kind of the node */
 	private PropertyOptions options = null;
 	
@@ -100,6 +109,8 @@ class XMPNode implements Comparable
 		value = null;
 		children = null;
 		qualifier = null;
+		childIndex = null;
+		qualifierIndex = null;
 	}
 
 	
@@ -133,6 +144,7 @@ class XMPNode implements Comparable
 		assertChildNotExisting(node.getName());
 		node.setParent(this);
 		getChildren().add(node);
+		addToIndex(childIndex, node);
 	}
 
 	
@@ -149,6 +161,7 @@ class XMPNode implements Comparable
 		assertChildNotExisting(node.getName());
 		node.setParent(this);
 		getChildren().add(index - 1, node);
+		addToIndex(childIndex, node);
 	}
 
 	
@@ -162,6 +175,7 @@ class XMPNode implements Comparable
 	{
 		node.setParent(this);
 		getChildren().set(index - 1, node);
+		childIndex = null;
 	}
 	
 	
@@ -196,6 +210,7 @@ class XMPNode implements Comparable
 	 */
 	protected void cleanupChildren()
 	{
+		childIndex = null;
 		if (children.isEmpty())
 		{
 			children = null;
@@ -209,6 +224,7 @@ class XMPNode implements Comparable
 	public void removeChildren()
 	{
 		children = null;
+		childIndex = null;
 	}
 
 	
@@ -229,6 +245,15 @@ class XMPNode implements Comparable
 	 */
 	public XMPNode findChildByName(String expr)
 	{
+		if (children != null  &&  children.size() > INDEX_THRESHOLD  &&
+			!XMPConst.ARRAY_ITEM_NAME.equals(expr))
+		{
+			if (childIndex == null)
+			{
+				childIndex = createIndex(children);
+			}
+			return (XMPNode) childIndex.get(expr);
+		}
 		return find(getChildren(), expr);
 	}
 
@@ -286,6 +311,7 @@ class XMPNode implements Comparable
 			// other qualifiers are appended
 			getQualifier().add(qualNode);
 		}	
+		addToIndex(qualifierIndex, qualNode);
 	}
 
 	
@@ -308,6 +334,7 @@ class XMPNode implements Comparable
 		}
 		
 		getQualifier().remove(qualNode);
+		qualifierIndex = null;
 		if (qualifier.isEmpty())
 		{
 			opts.setHasQualifiers(false);
@@ -328,6 +355,7 @@ class XMPNode implements Comparable
 		opts.setHasLanguage(false);
 		opts.setHasType(false);
 		qualifier = null;
+		qualifierIndex = null;
 	}
 
 
@@ -338,6 +366,15 @@ class XMPNode implements Comparable
 	 */
 	public XMPNode findQualifierByName(String expr)
 	{
+		if (qualifier != null  &&  qualifier.size() > INDEX_THRESHOLD  &&
+			!XMPConst.ARRAY_ITEM_NAME.equals(expr))
+		{
+			if (qualifierIndex == null)
+			{
+				qualifierIndex = createIndex(qualifier);
+			}
+			return (XMPNode) qualifierIndex.get(expr);
+		}
 		return find(qualifier, expr);
 	}
 	
@@ -359,7 +396,26 @@ class XMPNode implements Comparable
 	{
 		if (children != null)
 		{
-			return getChildren().iterator();
+			final Iterator it = getChildren().iterator();
+			
+			return new Iterator()
+			{
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				public Object next()
+				{
+					return it.next();
+				}
+
+				public void remove()
+				{
+					it.remove();
+					childIndex = null;
+				}
+			};
 		}
 		else
 		{
@@ -513,7 +569,14 @@ class XMPNode implements Comparable
 	 */
 	public void setName(String name)
 	{
+		String oldName = this.name;
 		this.name = name;
+		if (parent != null)
+		{
+			// keep the name indexes of the parent up to date
+			parent.childIndex = renameInIndex(parent.childIndex, this, oldName);
+			parent.qualifierIndex = renameInIndex(parent.qualifierIndex, this, oldName);
+		}
 	}
 
 
@@ -889,6 +952,81 @@ class XMPNode implements Comparable
 	}
 	
 	
+	/**
+	 * Creates a name index of the nodes. Only the first node with a name is indexed, 
+	 * like <code>find()</code> does, and array items are not indexed.
+	 * 
+	 * @param list the list to index
+	 * @return Returns a map from the names to the nodes.
+	 */
+	private static Map createIndex(List list)
+	{
+		Map index = new HashMap(2 * list.size());
+		for (Iterator it = list.iterator(); it.hasNext();)
+		{
+			XMPNode node = (XMPNode) it.next();
+			if (node.getName() != null  &&  !index.containsKey(node.getName()))
+			{
+				addToIndex(index, node);
+			}
+		}
+		return index;
+	}
+	
+	
+	/**
+	 * Adds a node to an index, if the index exists. The callers have checked that
+	 * no other node has the same name.
+	 * 
+	 * @param index a name index or <code>null</code>
+	 * @param node the node to add
+	 */
+	private static void addToIndex(Map index, XMPNode node)
+	{
+		if (index != null  &&  node.getName() != null  &&
+			!XMPConst.ARRAY_ITEM_NAME.equals(node.getName()))
+		{
+			index.put(node.getName(), node);
+		}
+	}
+	
+	
+	/**
+	 * Updates an index after a node has been renamed.
+	 * 
+	 * @param index a name index or <code>null</code>
+	 * @param node the renamed node
+	 * @param oldName the previous name of the node
+	 * @return Returns the updated index, or <code>null</code> if it has to be recreated.
+	 */
+	private static Map renameInIndex(Map index, XMPNode node, String oldName)
+	{
+		if (index == null)
+		{
+			return null;
+		}
+		else if (oldName == null  ||  XMPConst.ARRAY_ITEM_NAME.equals(oldName))
+		{
+			// the node was not indexed, it is not known if it belongs to the indexed list
+			return null;
+		}
+		else if (index.get(oldName) != node)
+		{
+			// the node does not belong to the indexed list
+			return index;
+		}
+		
+		index.remove(oldName);
+		if (node.getName() != null  &&  index.containsKey(node.getName()))
+		{
+			// the first node with that name depends on the order
+			return null;
+		}
+		addToIndex(index, node);
+		return index;
+	}
+	
+	
 	/**
 	 * Checks that a node name is not existing on the same level, except for array items.
 	 * @param childName the node name to check
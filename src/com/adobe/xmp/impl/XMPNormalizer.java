@@ -72,6 +72,47 @@ public class XMPNormalizer
 	}
 	
 	
+	/**
+	 * Checks if a raw parsed XMPMeta-Object needs no normalization, so that 
+	 * {@link #process(XMPMetaImpl, ParseOptions)} would leave it as it is.
+	 * The tree must not contain aliases, namespaces that were unknown before parsing,
+	 * empty schemas, schemas with special case fixes or an old instance ID.
+	 * Only the schema nodes are visited.
+	 * 
+	 * @param xmp the raw metadata object
+	 * @return Returns true if the metadata object is already normalized
+	 */
+	static boolean isNormalized(XMPMetaImpl xmp)
+	{
+		XMPNode tree = xmp.getRoot();
+		if (tree.getHasAliases()  ||  xmp.getHasUnknownNamespaces())
+		{
+			return false;
+		}
+		
+		// see tweakOldXMP()
+		if (tree.getName() != null  &&  tree.getName().length() >= Utils.UUID_LENGTH)
+		{
+			return false;
+		}
+		
+		for (Iterator it = tree.iterateChildren(); it.hasNext();)
+		{
+			XMPNode schema = (XMPNode) it.next();
+			String namespace = schema.getName();
+			if (!schema.hasChildren()  ||
+				XMPConst.NS_DC.equals(namespace)  ||
+				XMPConst.NS_EXIF.equals(namespace)  ||
+				XMPConst.NS_DM.equals(namespace)  ||
+				XMPConst.NS_XMP_RIGHTS.equals(namespace))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
 	/**
 	 * Tweak old XMP: Move an instance ID from rdf:about to the
 	 * <em>xmpMM:InstanceID</em> property. An old instance ID usually looks
@@ -22,6 +22,7 @@ import com.adobe.xmp.XMPConst;
 import com.adobe.xmp.XMPError;
 import com.adobe.xmp.XMPException;
 import com.adobe.xmp.XMPSchemaRegistry;
+import com.adobe.xmp.impl.xpath.XMPPathParser;
 import com.adobe.xmp.options.AliasOptions;
 import com.adobe.xmp.properties.XMPAliasInfo;
 
@@ -29,22 +30,47 @@ import com.adobe.xmp.properties.XMPAliasInfo;
 /**
  * The schema registry handles the namespaces, aliases and global options for the XMP Toolkit. There
  * is only one single instance used by the toolkit.
+ * <p>
+ * The maps of the registry are never modified once they are published: the registering methods
+ * are synchronized and replace them by modified copies. So the lookups, which are called by
+ * parsing, path expansion and serialization, don't need any lock.
  * 
  * @since 27.01.2006
  */
 public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 {
-	/** a map from a namespace URI to its registered prefix */
-	private Map namespaceToPrefixMap = new HashMap();
-
-	/** a map from a prefix to the associated namespace URI */
-	private Map prefixToNamespaceMap = new HashMap();
-
-	/** a map of all registered aliases. 
-	 *  The map is a relationship from a qname to an <code>XMPAliasInfo</code>-object. */
-	private Map aliasMap = new HashMap();
+	/** the current maps of the registry */
+	private volatile Maps maps = new Maps(new HashMap(), new HashMap(), new HashMap());
 	/** The pattern that must not be contained in simple properties */
 	private Pattern p = Pattern.compile("[/*?\\[\\]]");
+	
+	
+	/**
+	 * An immutable state of the registry.
+	 */
+	private static final class Maps
+	{
+		/** a map from a namespace URI to its registered prefix */
+		final Map namespaceToPrefixMap;
+		/** a map from a prefix to the associated namespace URI */
+		final Map prefixToNamespaceMap;
+		/** a map of all registered aliases. 
+		 *  The map is a relationship from a qname to an <code>XMPAliasInfo</code>-object. */
+		final Map aliasMap;
+		
+		
+		/**
+		 * @param namespaceToPrefixMap the namespace URI to prefix map
+		 * @param prefixToNamespaceMap the prefix to namespace URI map
+		 * @param aliasMap the alias map
+		 */
+		Maps(Map namespaceToPrefixMap, Map prefixToNamespaceMap, Map aliasMap)
+		{
+			this.namespaceToPrefixMap = namespaceToPrefixMap;
+			this.prefixToNamespaceMap = prefixToNamespaceMap;
+			this.aliasMap = aliasMap;
+		}
+	}
 
 	
 	/**
@@ -89,8 +115,9 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 			throw new XMPException("The prefix is a bad XML name", XMPError.BADXML);
 		}
 		
-		String registeredPrefix = (String) namespaceToPrefixMap.get(namespaceURI);
-		String registeredNS = (String) prefixToNamespaceMap.get(suggestedPrefix);
+		Maps current = maps;
+		String registeredPrefix = (String) current.namespaceToPrefixMap.get(namespaceURI);
+		String registeredNS = (String) current.prefixToNamespaceMap.get(suggestedPrefix);
 		if (registeredPrefix != null)
 		{
 			// Return the actual prefix
@@ -103,7 +130,7 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 				// the namespace is new, but the prefix is already engaged,
 				// we generate a new prefix out of the suggested
 				String generatedPrefix = suggestedPrefix;
-				for (int i = 1; prefixToNamespaceMap.containsKey(generatedPrefix); i++)
+				for (int i = 1; current.prefixToNamespaceMap.containsKey(generatedPrefix); i++)
 				{
 					generatedPrefix = suggestedPrefix
 							.substring(0, suggestedPrefix.length() - 1)
@@ -111,8 +138,11 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 				}
 				suggestedPrefix = generatedPrefix;
 			}			
+			Map prefixToNamespaceMap = new HashMap(current.prefixToNamespaceMap);
+			Map namespaceToPrefixMap = new HashMap(current.namespaceToPrefixMap);
 			prefixToNamespaceMap.put(suggestedPrefix, namespaceURI);
 			namespaceToPrefixMap.put(namespaceURI, suggestedPrefix);
+			maps = new Maps(namespaceToPrefixMap, prefixToNamespaceMap, current.aliasMap);
 			
 			// Return the suggested prefix
 			return suggestedPrefix;
@@ -125,11 +155,16 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 	 */
 	public synchronized void deleteNamespace(String namespaceURI)
 	{
-		String prefixToDelete = getNamespacePrefix(namespaceURI);
+		Maps current = maps;
+		String prefixToDelete = (String) current.namespaceToPrefixMap.get(namespaceURI);
 		if (prefixToDelete != null)
 		{	
+			Map prefixToNamespaceMap = new HashMap(current.prefixToNamespaceMap);
+			Map namespaceToPrefixMap = new HashMap(current.namespaceToPrefixMap);
 			namespaceToPrefixMap.remove(namespaceURI);
 			prefixToNamespaceMap.remove(prefixToDelete);
+			maps = new Maps(namespaceToPrefixMap, prefixToNamespaceMap, current.aliasMap);
+			XMPPathParser.clearCache();
 		}	
 	}
 
@@ -137,40 +172,40 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 	/**
 	 * @see XMPSchemaRegistry#getNamespacePrefix(String)
 	 */
-	public synchronized String getNamespacePrefix(String namespaceURI)
+	public String getNamespacePrefix(String namespaceURI)
 	{
-		return (String) namespaceToPrefixMap.get(namespaceURI);
+		return (String) maps.namespaceToPrefixMap.get(namespaceURI);
 	}
 
 
 	/**
 	 * @see XMPSchemaRegistry#getNamespaceURI(String)
 	 */
-	public synchronized String getNamespaceURI(String namespacePrefix)
+	public String getNamespaceURI(String namespacePrefix)
 	{
 		if (namespacePrefix != null  &&  !namespacePrefix.endsWith(":"))
 		{
 			namespacePrefix += ":";
 		}
-		return (String) prefixToNamespaceMap.get(namespacePrefix);
+		return (String) maps.prefixToNamespaceMap.get(namespacePrefix);
 	}
 
 
 	/**
 	 * @see XMPSchemaRegistry#getNamespaces()
 	 */
-	public synchronized Map getNamespaces()
+	public Map getNamespaces()
 	{
-		return Collections.unmodifiableMap(new TreeMap(namespaceToPrefixMap));
+		return Collections.unmodifiableMap(new TreeMap(maps.namespaceToPrefixMap));
 	}
 	
 	
 	/**
 	 * @see XMPSchemaRegistry#getPrefixes()
 	 */
-	public synchronized Map getPrefixes()
+	public Map getPrefixes()
 	{
-		return Collections.unmodifiableMap(new TreeMap(prefixToNamespaceMap));
+		return Collections.unmodifiableMap(new TreeMap(maps.prefixToNamespaceMap));
 	}
 	
 	
@@ -259,42 +294,44 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 	/**
 	 * @see XMPSchemaRegistry#resolveAlias(String, String)
 	 */
-	public synchronized XMPAliasInfo resolveAlias(String aliasNS, String aliasProp)
+	public XMPAliasInfo resolveAlias(String aliasNS, String aliasProp)
 	{
-		String aliasPrefix = getNamespacePrefix(aliasNS);
+		Maps current = maps;
+		String aliasPrefix = (String) current.namespaceToPrefixMap.get(aliasNS);
 		if (aliasPrefix == null)
 		{	
 			return null;
 		}
 		
-		return (XMPAliasInfo) aliasMap.get(aliasPrefix + aliasProp);
+		return (XMPAliasInfo) current.aliasMap.get(aliasPrefix + aliasProp);
 	}
 
 
 	/**
 	 * @see XMPSchemaRegistry#findAlias(java.lang.String)
 	 */
-	public synchronized XMPAliasInfo findAlias(String qname)
+	public XMPAliasInfo findAlias(String qname)
 	{
-		return (XMPAliasInfo) aliasMap.get(qname);
+		return (XMPAliasInfo) maps.aliasMap.get(qname);
 	}
 
 	
 	/**
 	 * @see XMPSchemaRegistry#findAliases(String)
 	 */
-	public synchronized XMPAliasInfo[] findAliases(String aliasNS)
+	public XMPAliasInfo[] findAliases(String aliasNS)
 	{
-		String prefix = getNamespacePrefix(aliasNS);
+		Maps current = maps;
+		String prefix = (String) current.namespaceToPrefixMap.get(aliasNS);
 		List result = new ArrayList(); 
 		if (prefix != null)
 		{
-			for (Iterator it = aliasMap.keySet().iterator(); it.hasNext();)
+			for (Iterator it = current.aliasMap.entrySet().iterator(); it.hasNext();)
 			{
-				String qname = (String) it.next();
-				if (qname.startsWith(prefix))
+				Map.Entry entry = (Map.Entry) it.next();
+				if (((String) entry.getKey()).startsWith(prefix))
 				{
-					result.add(findAlias(qname));
+					result.add(entry.getValue());
 				}
 			}
 			
@@ -373,13 +410,14 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 		}
 		
 		String key = aliasPrefix + aliasProp;
+		Maps current = maps;
 		
 		// check if alias is already existing
-		if (aliasMap.containsKey(key))
+		if (current.aliasMap.containsKey(key))
 		{
 			throw new XMPException("Alias is already existing", XMPError.BADPARAM);
 		}
-		else if (aliasMap.containsKey(actualPrefix + actualProp))
+		else if (current.aliasMap.containsKey(actualPrefix + actualProp))
 		{	
 			throw new XMPException(
 					"Actual property is already an alias, use the base property",
@@ -427,16 +465,19 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 			}
 		};
 		
+		Map aliasMap = new HashMap(current.aliasMap);
 		aliasMap.put(key, aliasInfo);
+		maps = new Maps(current.namespaceToPrefixMap, current.prefixToNamespaceMap, aliasMap);
+		XMPPathParser.clearCache();
 	}
 
 		
 	/**
 	 * @see XMPSchemaRegistry#getAliases()
 	 */
-	public synchronized Map getAliases()
+	public Map getAliases()
 	{
-		return Collections.unmodifiableMap(new TreeMap(aliasMap));
+		return Collections.unmodifiableMap(new TreeMap(maps.aliasMap));
 	}
 	
 	
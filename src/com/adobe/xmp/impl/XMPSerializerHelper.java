@@ -50,6 +50,30 @@ public class XMPSerializerHelper
 	}		
 	
 
+	/**
+	 * Static method to serialize the metadata object UTF-8 encoded at the end of a buffer,
+	 * see {@link XMPSerializerRDF#serialize(com.adobe.xmp.XMPMeta, ByteBuffer, SerializeOptions)}.
+	 * 
+	 * @param xmp a metadata implementation object
+	 * @param buffer the buffer to append the serialized RDF to
+	 * @param options serialization options, can be <code>null</code> for default.
+	 * @throws XMPException
+	 */
+	public static void serialize(XMPMetaImpl xmp, ByteBuffer buffer, 
+		SerializeOptions options)
+		throws XMPException
+	{
+		options = options != null ? options : new SerializeOptions();		
+		
+		// sort the internal data model on demand
+		if (options.getSort())
+		{
+			xmp.sort();
+		}
+		new XMPSerializerRDF().serialize(xmp, buffer, options);
+	}		
+	
+
 	/**
 	 * Serializes an <code>XMPMeta</code>-object as RDF into a string.
 	 * <em>Note:</em> Encoding is forced to UTF-16 when serializing to a
@@ -12,6 +12,7 @@ package com.adobe.xmp.impl;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,8 +28,8 @@ import com.adobe.xmp.options.SerializeOptions;
 
 /**
  * Serializes the <code>XMPMeta</code>-object using the standard RDF serialization format. 
- * The output is written to an <code>OutputStream</code> 
- * according to the <code>SerializeOptions</code>. 
+ * The output is written to an <code>OutputStream</code> or appended UTF-8 encoded to a 
+ * <code>ByteBuffer</code>, according to the <code>SerializeOptions</code>. 
  * 
  * @since   11.07.2006
  */
@@ -70,10 +71,14 @@ public class XMPSerializerRDF
 	
 	/** the metadata object to be serialized. */ 
 	private XMPMetaImpl xmp; 
-	/** the output stream to serialize to */ 
+	/** the output stream to serialize to, <code>null</code> when serializing to a buffer */ 
 	private CountOutputStream outputStream;
+	/** the buffer to serialize to, <code>null</code> when serializing to a stream */ 
+	private ByteBuffer buffer;
+	/** the length of the buffer before the serialization */
+	private int bufferStart;
 	/** this writer is used to do the actual serialization */
-	private OutputStreamWriter writer;
+	private Writer writer;
 	/** the stored serialization options */
 	private SerializeOptions options;
 	/** the size of one unicode char, for UTF-8 set to 1 
@@ -102,25 +107,7 @@ public class XMPSerializerRDF
 			outputStream = new CountOutputStream(out); 
 			writer = new OutputStreamWriter(outputStream, options.getEncoding());
 			
-			this.xmp = (XMPMetaImpl) xmp;
-			this.options = options;
-			this.padding = options.getPadding();
-
-			writer = new OutputStreamWriter(outputStream, options.getEncoding());
-			
-			checkOptionsConsistence();
-			
-			// serializes the whole packet, but don't write the tail yet 
-			// and flush to make sure that the written bytes are calculated correctly
-			String tailStr = serializeAsRDF();
-			writer.flush();
-			
-			// adds padding
-			addPadding(tailStr.length());
-
-			// writes the tail
-			write(tailStr);
-			writer.flush();
+			serialize(xmp, options);
 			
 			outputStream.close();
 		}
@@ -131,6 +118,73 @@ public class XMPSerializerRDF
 	}
 
 
+	/**
+	 * Serializes to a buffer: the packet is UTF-8 encoded and appended to the buffer, 
+	 * so the caller can reserve a header by appending it first. 
+	 * Nothing but the buffer growth is allocated by the writing, so reusing the buffer
+	 * makes the serialization almost allocation free.
+	 * 
+	 * @param xmp the metadata object to be serialized
+	 * @param buffer the buffer to append the packet to
+	 * @param options the serialization options, the encoding must be UTF-8
+	 * 
+	 * @throws XMPException If case of wrong options or any other serialization error.
+	 */
+	public void serialize(XMPMeta xmp, ByteBuffer buffer, 
+			SerializeOptions options) throws XMPException
+	{
+		if (options.getEncodeUTF16BE() | options.getEncodeUTF16LE())
+		{
+			throw new XMPException("Only UTF-8 can be serialized to a buffer",
+					XMPError.BADOPTIONS);
+		}
+		
+		try
+		{
+			this.buffer = buffer;
+			bufferStart = buffer.length();
+			writer = new ByteBufferWriter(buffer);
+			
+			serialize(xmp, options);
+		}
+		catch (IOException e)
+		{
+			throw new XMPException("Error writing to the buffer", XMPError.UNKNOWN);
+		}
+	}
+
+
+	/**
+	 * Serializes the packet to the writer.
+	 * 
+	 * @param xmp the metadata object to be serialized
+	 * @param options the serialization options
+	 * @throws XMPException If case of wrong options or any other serialization error.
+	 * @throws IOException Forwarded writer exceptions.
+	 */
+	private void serialize(XMPMeta xmp, SerializeOptions options) 
+			throws XMPException, IOException
+	{
+		this.xmp = (XMPMetaImpl) xmp;
+		this.options = options;
+		this.padding = options.getPadding();
+
+		checkOptionsConsistence();
+		
+		// serializes the whole packet, but don't write the tail yet 
+		// and flush to make sure that the written bytes are calculated correctly
+		String tailStr = serializeAsRDF();
+		writer.flush();
+		
+		// adds padding
+		addPadding(tailStr.length());
+
+		// writes the tail
+		write(tailStr);
+		writer.flush();
+	}
+
+
 	/**
 	 * Calculates the padding according to the options and write it to the stream.
 	 * @param tailLength the length of the tail string 
@@ -142,7 +196,9 @@ public class XMPSerializerRDF
 		if (options.getExactPacketLength())
 		{
 			// the string length is equal to the length of the UTF-8 encoding
-			int minSize = outputStream.getBytesWritten() + tailLength * unicodeSize;
+			int bytesWritten = outputStream != null ? 
+				outputStream.getBytesWritten() : buffer.length() - bufferStart;
+			int minSize = bytesWritten + tailLength * unicodeSize;
 			if (minSize > padding)
 			{
 				throw new XMPException("Can't fit into specified packet size",
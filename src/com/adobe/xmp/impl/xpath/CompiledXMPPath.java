@@ -0,0 +1,77 @@
+// =================================================================================================
+// ADOBE SYSTEMS INCORPORATED
+// Copyright 2006 Adobe Systems Incorporated
+// All Rights Reserved
+//
+// NOTICE:  Adobe permits you to use, modify, and distribute this file in accordance with the terms
+// of the Adobe license agreement accompanying it.
+// =================================================================================================
+
+package com.adobe.xmp.impl.xpath;
+
+import com.adobe.xmp.XMPCompiledPath;
+
+
+/**
+ * Read-only handle of an expanded path, returned by 
+ * {@link XMPPathParser#compileXPath(String, String)}. 
+ * The expanded path is shared through the cache of the parser, so it is not exposed.
+ */
+final class CompiledXMPPath implements XMPCompiledPath
+{
+	/** the schema namespace the path has been expanded from */
+	private final String schemaNS;
+	/** the property path the path has been expanded from */
+	private final String propPath;
+	/** the expanded path */
+	private final XMPPath expandedPath;
+	
+	
+	/**
+	 * @param schemaNS the schema namespace
+	 * @param propPath the property path
+	 * @param expandedPath the path expanded from them
+	 */
+	CompiledXMPPath(String schemaNS, String propPath, XMPPath expandedPath)
+	{
+		this.schemaNS = schemaNS;
+		this.propPath = propPath;
+		this.expandedPath = expandedPath;
+	}
+	
+	
+	/**
+	 * @see XMPCompiledPath#getSchemaNS()
+	 */
+	public String getSchemaNS()
+	{
+		return schemaNS;
+	}
+	
+	
+	/**
+	 * @see XMPCompiledPath#getPropPath()
+	 */
+	public String getPropPath()
+	{
+		return propPath;
+	}
+	
+	
+	/**
+	 * @return Returns the expanded path, which must not be modified.
+	 */
+	XMPPath getExpandedPath()
+	{
+		return expandedPath;
+	}
+	
+	
+	/**
+	 * @see Object#toString()
+	 */
+	public String toString()
+	{
+		return expandedPath.toString();
+	}
+}
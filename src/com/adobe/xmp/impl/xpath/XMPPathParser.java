@@ -9,6 +9,11 @@
 
 package com.adobe.xmp.impl.xpath;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adobe.xmp.XMPCompiledPath;
 import com.adobe.xmp.XMPError;
 import com.adobe.xmp.XMPException;
 import com.adobe.xmp.XMPMetaFactory;
@@ -23,6 +28,27 @@ import com.adobe.xmp.properties.XMPAliasInfo;
  */
 public final class XMPPathParser
 {
+	/** maximum number of expanded paths in the cache, it is emptied when it is full */
+	private static final int MAX_CACHED_PATHS = 512;
+	/** 
+	 * cache of the expanded paths. The whole cache is replaced when it is cleared, 
+	 * so that a path expanded before cannot be stored into the new one. 
+	 */
+	private static volatile PathCache cache = new PathCache();
+	
+	
+	/**
+	 * The expanded paths, with their number.
+	 */
+	private static class PathCache
+	{
+		/** maps the schema namespaces to maps from the property paths to the XMPPaths */
+		final ConcurrentHashMap schemas = new ConcurrentHashMap();
+		/** number of paths in the cache */
+		final AtomicInteger size = new AtomicInteger();
+	}
+
+	
 	/**
 	 * Private constructor
 	 */
@@ -88,6 +114,84 @@ public final class XMPPathParser
 			throw new XMPException("Parameter must not be null", XMPError.BADPARAM);
 		}
 
+		// The expanded paths are never modified, so they are shared through the cache.
+		PathCache currentCache = cache;
+		Map paths = (Map) currentCache.schemas.get(schemaNS);
+		XMPPath expandedXPath = paths != null ? (XMPPath) paths.get(path) : null;
+		if (expandedXPath == null)
+		{
+			expandedXPath = parseXPath(schemaNS, path);
+			if (currentCache.size.incrementAndGet() > MAX_CACHED_PATHS)
+			{
+				clearCache();
+			}
+			else
+			{
+				if (paths == null)
+				{
+					paths = new ConcurrentHashMap();
+					Map previous = (Map) currentCache.schemas.putIfAbsent(schemaNS, paths);
+					paths = previous != null ? previous : paths;
+				}
+				paths.put(path, expandedXPath);
+			}
+		}
+		return expandedXPath;
+	}
+	
+	
+	/**
+	 * Expands a path once for {@link com.adobe.xmp.XMPPathFactory#compilePath(String, String)}.
+	 * The expanded path is hidden behind a read-only handle, as it is shared through the cache.
+	 * 
+	 * @param schemaNS schema namespace
+	 * @param path property name
+	 * @return Returns the handle of the expanded path.
+	 * @throws XMPException Thrown if the format is not correct somehow.
+	 */
+	public static XMPCompiledPath compileXPath(String schemaNS, String path) throws XMPException
+	{
+		return new CompiledXMPPath(schemaNS, path, expandXPath(schemaNS, path));
+	}
+	
+	
+	/**
+	 * @param path a path compiled by {@link #compileXPath(String, String)}
+	 * @return Returns the expanded path behind the handle, which must not be modified.
+	 * @throws XMPException if the path has not been compiled by the toolkit
+	 */
+	public static XMPPath getExpandedXPath(XMPCompiledPath path) throws XMPException
+	{
+		if (path instanceof CompiledXMPPath)
+		{
+			return ((CompiledXMPPath) path).getExpandedPath();
+		}
+		throw new XMPException("Path has not been compiled by XMPPathFactory",
+				XMPError.BADPARAM);
+	}
+	
+	
+	/**
+	 * Empties the cache of expanded paths. Has to be called when the schema registry 
+	 * changes in a way that modifies the expansion of paths that were valid before:
+	 * when an alias is registered or a namespace is deleted.
+	 */
+	public static void clearCache()
+	{
+		cache = new PathCache();
+	}
+	
+
+	/**
+	 * Parses a path, see {@link #expandXPath(String, String)}.
+	 * 
+	 * @param schemaNS schema namespace
+	 * @param path property name
+	 * @return Returns the expandet XMPPath.
+	 * @throws XMPException Thrown if the format is not correct somehow.
+	 */
+	private static XMPPath parseXPath(String schemaNS, String path) throws XMPException
+	{
 		XMPPath expandedXPath = new XMPPath();
 		PathPosition pos = new PathPosition();
 		pos.path = path;
@@ -31,6 +31,13 @@ public final class ParseOptions extends Options
 	public static final int ACCEPT_LATIN_1 = 0x0010;
 	/** Do not carry run the XMPNormalizer on a packet, leave it as it is. */
 	public static final int OMIT_NORMALIZATION = 0x0020;
+	/** Build the XMP tree directly from the SAX events, without a DOM. 
+	 *  Packets that the streaming parser does not support are parsed with the DOM. */
+	public static final int STREAMING = 0x0040;
+	/** The packet has been written by the toolkit and is already normalized. The XMPNormalizer 
+	 *  is skipped, unless the packet contains aliases, unknown schemas or other parts 
+	 *  that need to be normalized. */
+	public static final int TRUSTED_PACKET = 0x0080;
 
 	
 	/**
@@ -142,6 +149,46 @@ public final class ParseOptions extends Options
 	}
 
 	
+	/**
+	 * @return Returns the option "streaming".
+	 */
+	public boolean getStreaming()
+	{
+		return getOption(STREAMING);
+	}
+
+	
+	/**
+	 * @param value the value to set
+	 * @return Returns the instance to call more set-methods.
+	 */
+	public ParseOptions setStreaming(boolean value)
+	{
+		setOption(STREAMING, value);
+		return this;
+	}
+
+	
+	/**
+	 * @return Returns the option "trusted packet".
+	 */
+	public boolean getTrustedPacket()
+	{
+		return getOption(TRUSTED_PACKET);
+	}
+
+	
+	/**
+	 * @param value the value to set
+	 * @return Returns the instance to call more set-methods.
+	 */
+	public ParseOptions setTrustedPacket(boolean value)
+	{
+		setOption(TRUSTED_PACKET, value);
+		return this;
+	}
+
+	
 	/**
 	 * @see Options#defineOptionName(int)
 	 */
@@ -154,6 +201,8 @@ public final class ParseOptions extends Options
 			case FIX_CONTROL_CHARS:		return "FIX_CONTROL_CHARS";
 			case ACCEPT_LATIN_1:		return "ACCEPT_LATIN_1";
 			case OMIT_NORMALIZATION:	return "OMIT_NORMALIZATION";
+			case STREAMING:				return "STREAMING";
+			case TRUSTED_PACKET:		return "TRUSTED_PACKET";
 			default: 					return null;
 		}
 	}
@@ -169,6 +218,8 @@ public final class ParseOptions extends Options
 			STRICT_ALIASING |
 			FIX_CONTROL_CHARS |
 			ACCEPT_LATIN_1 |
-			OMIT_NORMALIZATION;
+			OMIT_NORMALIZATION |
+			STREAMING |
+			TRUSTED_PACKET;
 	}
 }
\ No newline at end of file
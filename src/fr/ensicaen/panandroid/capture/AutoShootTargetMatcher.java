@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.capture;
+
+import java.util.Arrays;
+import java.util.List;
+
+import fr.ensicaen.panandroid.tools.EulerAngles;
+
+/**
+ * Finds the auto shoot target the device points at, at the sensor rate.
+ * The targets are stored as unit vectors in a grid of cubic cells whose side is the chord of
+ * the threshold : a target close enough to the device orientation is in the cell of the
+ * orientation or in one of its 26 neighbours, so a lookup only checks a few targets, whatever
+ * their number. The grid is built once, a lookup allocates nothing.
+ * The distance is the one of Snapshot.getDistanceRoll(), targets having no roll.
+ * Taken targets are marked as done, they stay in the grid.
+ * Not thread safe.
+ * @author Nicolas THIERION.
+ */
+public class AutoShootTargetMatcher
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	/** smallest side of a cell, bounds the grid size for tiny thresholds **/
+	private static final double MIN_CELL_SIZE = 1.0 / 1024.0;
+	/** cells are a bit larger than the chord, against rounding errors **/
+	private static final double CELL_MARGIN = 1.001;
+	private static final long EMPTY_CELL = -1;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** normalized angles of the targets **/
+	private final float[] mPitch;			//[deg]
+	private final float[] mYaw;				//[deg]
+	/** cosine of the target pitch, as used by the distance **/
+	private final float[] mPitchCos;
+	/** unit vector of each target **/
+	private final double[] mX;
+	private final double[] mY;
+	private final double[] mZ;
+
+	private final boolean[] mDone;
+	private int mPendingCount;
+
+	/** distance under which a target is matched **/
+	private float mThreshold;				//[deg]
+
+	/** grid : cells per axis, and side of a cell **/
+	private int mCellsPerAxis;
+	private double mCellSize;
+	/** open addressing table of the non empty cells **/
+	private long[] mCellKeys;
+	private int[] mCellStart;
+	private int[] mCellEnd;
+	private int mTableMask;
+	/** targets, ordered by cell **/
+	private int[] mCellTargets;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param targets - orientations to shoot. Their roll is ignored.
+	 * @param threshold - distance under which a target is matched.
+	 */
+	public AutoShootTargetMatcher(List<EulerAngles> targets, float threshold)
+	{
+		int count = targets.size();
+		mPitch = new float[count];
+		mYaw = new float[count];
+		mPitchCos = new float[count];
+		mX = new double[count];
+		mY = new double[count];
+		mZ = new double[count];
+		mDone = new boolean[count];
+		mPendingCount = count;
+
+		int i = 0;
+		for (EulerAngles a : targets)
+		{
+			mPitch[i] = normalizePitch(a.getPitch());
+			mYaw[i] = normalizeYaw(a.getYaw());
+			mPitchCos[i] = (float) Math.cos(Math.toRadians(Math.abs(mPitch[i])));
+
+			double pitch = Math.toRadians(mPitch[i]);
+			double yaw = Math.toRadians(mYaw[i]);
+			mX[i] = Math.cos(pitch) * Math.cos(yaw);
+			mY[i] = Math.cos(pitch) * Math.sin(yaw);
+			mZ[i] = Math.sin(pitch);
+			i++;
+		}
+
+		setThreshold(threshold);
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Find the pending target nearest to the given orientation. Allocates nothing.
+	 * @param pitch - pitch of the device.
+	 * @param yaw - yaw of the device.
+	 * @param roll - roll of the device, relative to the screen orientation.
+	 * @return index of the nearest pending target closer than the threshold, or -1.
+	 */
+	public int findNearest(float pitch, float yaw, float roll)
+	{
+		if (mPendingCount == 0 || mThreshold <= 0)
+			return -1;
+
+		pitch = normalizePitch(pitch);
+		yaw = normalizeYaw(yaw);
+		if (roll > 180.0001f)
+			roll -= 360.0f;
+
+		double p = Math.toRadians(pitch);
+		double y = Math.toRadians(yaw);
+		double cosPitch = Math.cos(p);
+		int cx = getCell(cosPitch * Math.cos(y));
+		int cy = getCell(cosPitch * Math.sin(y));
+		int cz = getCell(Math.sin(p));
+
+		float pitchCos = (float) Math.cos(Math.toRadians(Math.abs(pitch)));
+		float dRoll = Math.abs(roll);
+		if (dRoll > 180.0f)
+			dRoll = 360.0f - dRoll;
+
+		int nearest = -1;
+		float nearestDistance = mThreshold;
+		for (int ix = Math.max(cx - 1, 0); ix <= Math.min(cx + 1, mCellsPerAxis - 1); ix++)
+		{
+			for (int iy = Math.max(cy - 1, 0); iy <= Math.min(cy + 1, mCellsPerAxis - 1); iy++)
+			{
+				for (int iz = Math.max(cz - 1, 0); iz <= Math.min(cz + 1, mCellsPerAxis - 1); iz++)
+				{
+					int slot = findSlot(getKey(ix, iy, iz));
+					if (mCellKeys[slot] == EMPTY_CELL)
+						continue;
+
+					for (int j = mCellStart[slot]; j < mCellEnd[slot]; j++)
+					{
+						int t = mCellTargets[j];
+						if (mDone[t])
+							continue;
+
+						float dPitch = Math.abs(pitch - mPitch[t]);
+						float dYaw = Math.abs(yaw - mYaw[t]);
+						if (dYaw > 180.0f)
+							dYaw = 360.0f - dYaw;
+
+						// cos(max(|a|, |b|)) is min(cos|a|, cos|b|).
+						float coef = Math.min(pitchCos, mPitchCos[t]);
+						float distance = dRoll * coef + dYaw * coef + dPitch;
+						if (distance < nearestDistance)
+						{
+							nearestDistance = distance;
+							nearest = t;
+						}
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Mark a target as shot. It is not matched anymore.
+	 * @param index - index of the target, as given by findNearest().
+	 */
+	public void markDone(int index)
+	{
+		if (!mDone[index])
+		{
+			mDone[index] = true;
+			mPendingCount--;
+		}
+	}
+
+	/**
+	 * Change the distance under which a target is matched. Builds the grid again.
+	 * @param threshold - distance, in degrees.
+	 */
+	public void setThreshold(float threshold)
+	{
+		mThreshold = threshold;
+
+		// the distance is never smaller than the angle between the two directions.
+		double angle = Math.toRadians(Math.min(Math.max(threshold, 0.0f), 180.0f));
+		mCellSize = Math.max(2.0 * Math.sin(angle / 2.0) * CELL_MARGIN, MIN_CELL_SIZE);
+		mCellsPerAxis = (int) Math.ceil(2.0 / mCellSize) + 1;
+		buildGrid();
+	}
+
+	/* *********
+	 * GETTERS
+	 * *********/
+	public int getTargetCount()
+	{
+		return mDone.length;
+	}
+
+	public int getPendingCount()
+	{
+		return mPendingCount;
+	}
+
+	public boolean isDone(int index)
+	{
+		return mDone[index];
+	}
+
+	public float getPitch(int index)
+	{
+		return mPitch[index];
+	}
+
+	public float getYaw(int index)
+	{
+		return mYaw[index];
+	}
+
+	public float getThreshold()
+	{
+		return mThreshold;
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * Sort the targets by cell, and index the non empty cells.
+	 */
+	private void buildGrid()
+	{
+		int count = mDone.length;
+		int capacity = 2;
+		while (capacity < 2 * count)
+			capacity <<= 1;
+		mTableMask = capacity - 1;
+		mCellKeys = new long[capacity];
+		mCellStart = new int[capacity];
+		mCellEnd = new int[capacity];
+		Arrays.fill(mCellKeys, EMPTY_CELL);
+
+		// count the targets of each cell.
+		int[] targetSlot = new int[count];
+		for (int t = 0; t < count; t++)
+		{
+			long key = getKey(getCell(mX[t]), getCell(mY[t]), getCell(mZ[t]));
+			int slot = findSlot(key);
+			mCellKeys[slot] = key;
+			mCellEnd[slot]++;
+			targetSlot[t] = slot;
+		}
+
+		// give each cell its range of targets.
+		int offset = 0;
+		for (int slot = 0; slot < capacity; slot++)
+		{
+			mCellStart[slot] = offset;
+			offset += mCellEnd[slot];
+			mCellEnd[slot] = mCellStart[slot];
+		}
+
+		mCellTargets = new int[count];
+		for (int t = 0; t < count; t++)
+			mCellTargets[mCellEnd[targetSlot[t]]++] = t;
+	}
+
+	private int getCell(double coordinate)
+	{
+		int cell = (int) ((coordinate + 1.0) / mCellSize);
+		return Math.min(Math.max(cell, 0), mCellsPerAxis - 1);
+	}
+
+	private long getKey(int ix, int iy, int iz)
+	{
+		return ((long) ix * mCellsPerAxis + iy) * mCellsPerAxis + iz;
+	}
+
+	/**
+	 * @return slot of the table holding the given cell, or the empty slot where it would be.
+	 */
+	private int findSlot(long key)
+	{
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mTableMask;
+		while (mCellKeys[slot] != EMPTY_CELL && mCellKeys[slot] != key)
+			slot = (slot + 1) & mTableMask;
+		return slot;
+	}
+
+	/**
+	 * Same normalization as the Snapshot constructor.
+	 */
+	private static float normalizePitch(float pitch)
+	{
+		pitch %= 180.0f;
+		if (pitch > 90.0001f)
+			pitch -= 180.0f;
+		return pitch;
+	}
+
+	private static float normalizeYaw(float yaw)
+	{
+		yaw %= 360.0f;
+		if (yaw > 180.0001f)
+			yaw -= 360.0f;
+		return yaw;
+	}
+}
@@ -24,12 +24,16 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import junit.framework.Assert;
 import fr.ensicaen.panandroid.snapshot.Snapshot;
 import fr.ensicaen.panandroid.snapshot.SnapshotEventListener;
-import fr.ensicaen.panandroid.stitcher.StitcherWrapper;
 import fr.ensicaen.panandroid.tools.EulerAngles;
 import fr.ensicaen.panandroid.tools.SensorFusionManager;
 import android.content.Context;
@@ -133,6 +137,15 @@ public class CameraManager /* implements SnapshotObserver */
 	private LinkedList<SnapshotEventListener> mListeners ;
 	private static ReentrantLock mListenersLock;
 
+	/** writes the pictures in background, and tells the listeners once they are on disk **/
+	private final SnapshotWriter mSnapshotWriter;
+
+	/**
+	 * tells the listeners about the snapshots, in order, out of the camera callback so that the
+	 * next shot isn't delayed. Bounded like the writer queue, as each event holds a picture.
+	 **/
+	private final ThreadPoolExecutor mListenerExecutor;
+
 
 
 
@@ -149,7 +162,7 @@ public class CameraManager /* implements SnapshotObserver */
 	private float mAutoShootThreshold = DEFAULT_AUTOSHOOT_THRESHOLD;
 
 	/** targeted points by auto shoot **/
-	private LinkedList<Snapshot> mAutoShootTargets;
+	private AutoShootTargetMatcher mAutoShootTargets;
 	private ReentrantLock mTargetsLock;
 
 	private final SensorListener mSensorListener;
@@ -187,6 +200,10 @@ public class CameraManager /* implements SnapshotObserver */
 		mListenersLock = new ReentrantLock();
 		mTargetsLock = new ReentrantLock();
 		mListeners = new LinkedList<SnapshotEventListener>();
+		mSnapshotWriter = new SnapshotWriter(new OnSnapshotSavedCallback());
+		mListenerExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(SnapshotWriter.DEFAULT_CAPACITY));
+		mListenerExecutor.prestartAllCoreThreads();
 
 	}
 
@@ -493,7 +510,7 @@ public class CameraManager /* implements SnapshotObserver */
 	 */
 	public boolean isAutoShootEnabled()
 	{
-		return (isSensorialCaptureEnabled() && mAutoShootTargets!=null && mAutoShootTargets.size() !=0);
+		return (isSensorialCaptureEnabled() && mAutoShootTargets!=null && mAutoShootTargets.getPendingCount() !=0);
 	}
 
 	/**
@@ -505,9 +522,10 @@ public class CameraManager /* implements SnapshotObserver */
 	{
 		mTargetsLock.lock();
 
-		mAutoShootTargets = new LinkedList<Snapshot>();
-		for(EulerAngles a : targets)
-			mAutoShootTargets.add(new Snapshot(a.getPitch(), a.getYaw()));
+		if(targets!=null)
+			mAutoShootTargets = new AutoShootTargetMatcher(targets, mAutoShootThreshold);
+		else
+			mAutoShootTargets = null;
 
 		mTargetsLock.unlock();
 
@@ -524,7 +542,11 @@ public class CameraManager /* implements SnapshotObserver */
 	 */
 	public void setAutoShootThreshold(float threshold)
 	{
+		mTargetsLock.lock();
 		mAutoShootThreshold = threshold;
+		if(mAutoShootTargets!=null)
+			mAutoShootTargets.setThreshold(threshold);
+		mTargetsLock.unlock();
 	}
 
 	/**
@@ -567,6 +589,28 @@ public class CameraManager /* implements SnapshotObserver */
 			mCamera = null;
 		}
 		mSensorFusionManager.onPauseOrStop();
+
+		//the project may be stitched next, all pictures must be on disk, and the listeners told.
+		try
+		{
+			mSnapshotWriter.flush();
+			FutureTask<Void> marker = new FutureTask<Void>(new Runnable()
+			{
+				@Override
+				public void run()
+				{}
+			}, null);
+			postToListeners(marker);
+			marker.get();
+		}
+		catch(InterruptedException e)
+		{
+			Log.e(TAG, "Interrupted while writing pending pictures");
+		}
+		catch(ExecutionException e)
+		{
+			Log.e(TAG, "Error while telling the listeners about pending pictures", e);
+		}
 	}
 
 	public void onClose()
@@ -766,6 +810,55 @@ public class CameraManager /* implements SnapshotObserver */
         }
 
 	}
+	/**
+	 * Queue an event for the listener thread. Blocks while too many events are waiting.
+	 * The core thread is always running, so the event is queued directly.
+	 */
+	private void postToListeners(Runnable event) throws InterruptedException
+	{
+		mListenerExecutor.getQueue().put(event);
+	}
+
+	/**
+	 * @return a copy of the listeners, safe to iterate while they unregister.
+	 */
+	private LinkedList<SnapshotEventListener> getListeners()
+	{
+		mListenersLock.lock();
+		LinkedList<SnapshotEventListener> listeners = new LinkedList<SnapshotEventListener>(mListeners);
+		mListenersLock.unlock();
+		return listeners;
+	}
+
+	/**
+	 * Tell the listeners that a picture is safe on disk. Called from the writer thread, the event is
+	 * handed to the listener thread, after the onSnapshotTaken event of the same snapshot.
+	 */
+	private class OnSnapshotSavedCallback implements SnapshotWriter.OnSnapshotSavedListener
+	{
+		@Override
+		public void onSnapshotSaved(final Snapshot snapshot)
+		{
+			try
+			{
+				postToListeners(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for (SnapshotEventListener listener : getListeners())
+							listener.onSnapshotSaved(snapshot);
+					}
+				});
+			}
+			catch(InterruptedException e)
+			{
+				//the snapshot is never reported saved : the project only persists saved snapshots.
+				Log.e(TAG, "Interrupted while telling the listeners about "+snapshot.getFilename());
+			}
+		}
+	}
+
 	/**
 	 * If capture is sensorial, get current pitch and current yaw, and fill mTempSnapshot with it.
 	 * @author Nicolas THIERION.
@@ -863,83 +956,20 @@ public class CameraManager /* implements SnapshotObserver */
 			{
 
 
-				try
-				{
-					//save to sd card
-					final String jpegFile = mTempFilename+".jpg";
-
-					try
-					{
-		        		Log.i(TAG, "Saving file at "+jpegFile);
-		        		Log.i(TAG, "setting file orientation at " +mTempSnapshot.getOrientation() + " degrees");
-
-
-		        		FileOutputStream fos = new FileOutputStream(jpegFile);
-						fos.write(data);
-						fos.close();
-
-						//perform image rotation in a separate thread
-						//since cameraParams.setRotation don't work the same on all device, we can only rely on ourselves and implement
-						//snapshot rotation by rotating Jpeg file.
-						//exif won't work with openCV, the only solution is to rotate raw data.
-						//Matrix rotation with java makes the heap to overflow, we hate to pass through JNI to rotate image.
-						//Java matrix cannot be converted to OpenCV matrix, we need to transit through a file.
-						//Matrix rotaion freeze the UI, need to launch processing on separate thread.... BUT
-						//What a bad day!!
-						final int orientation = mTempSnapshot.getOrientation();
-							new Thread(new Runnable()
-							{
-								public void run()
-								{
-									try{
-									int res = StitcherWrapper.rotateImage(jpegFile, orientation);
-									Assert.assertTrue(res==0);
-									}catch (Exception e)
-									{
-										e.printStackTrace();
-									}
-								}
-							}).start();
-
-
-						//StitcherWrapper.rotateImage(jpegFile, mTempSnapshot.getOrientation());
-
-						mTempSnapshot.setFileName(jpegFile);
-						takenSnapshot = mTempSnapshot;
-						mTempSnapshot = null;
-						mTempFilename = null;
-
-
-
-						//put exifs
-						//TODO : remove
-						/*
-						ExifInterface exif = new ExifInterface(jpegFile);
-		        		String exifOrientation = ""+mTempExifOrientation;
-		        		exif.setAttribute(ExifInterface.TAG_ORIENTATION, exifOrientation);
-		        		exif.saveAttributes();
-		        		exif = new ExifInterface(jpegFile);
-						*/
+				//the picture is written, rotated and synced by the writer thread.
+				//since cameraParams.setRotation don't work the same on all device, we can only rely on ourselves and implement
+				//snapshot rotation by rotating Jpeg file. exif won't work with openCV, the only solution is to rotate raw data.
+				final String jpegFile = mTempFilename+".jpg";
+        		Log.i(TAG, "Queuing file "+jpegFile+" at " +mTempSnapshot.getOrientation() + " degrees");
 
-
-				    }
-					catch (FileNotFoundException e)
-					{
-				        Log.d(TAG, "File not found: " + e.getMessage());
-				    }
-					catch (IOException e)
-					{
-				        Log.d(TAG, "Error accessing file: " + e.getMessage());
-				    }
-				}
-				catch(Exception e)
-				{
-		                e.getMessage();
-		                e.printStackTrace();
-				}
+				mTempSnapshot.setFileName(jpegFile);
+				takenSnapshot = mTempSnapshot;
+				mTempSnapshot = null;
+				mTempFilename = null;
 			}
 
-			//Reset camera preview : on some devices, camera preview sometimes stops.
+			//Reset camera preview before telling the listeners, so that they don't delay the next shot :
+			//on some devices, camera preview sometimes stops.
 			startPreview();
 
 
@@ -947,12 +977,35 @@ public class CameraManager /* implements SnapshotObserver */
 			mCameraIsBusy = false;
 
 			if(takenSnapshot!=null)
+				queueSnapshot(data, takenSnapshot);
+		}
+
+		/**
+		 * Hand the snapshot to the listener thread and to the writer.
+		 * Listeners add the snapshot to the project before the writer reports it saved,
+		 * as both events go through the listener thread, in order.
+		 */
+		private void queueSnapshot(final byte[] data, final Snapshot snapshot)
+		{
+			try
 			{
-				mListenersLock.lock();
-				for (SnapshotEventListener listener : new LinkedList<SnapshotEventListener>(mListeners))
-					listener.onSnapshotTaken(data, takenSnapshot);
-				mListenersLock.unlock();
+				postToListeners(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for (SnapshotEventListener listener : getListeners())
+							listener.onSnapshotTaken(data, snapshot);
+					}
+				});
 
+				//blocks while too many pictures are waiting to be written.
+				mSnapshotWriter.enqueue(data, snapshot);
+			}
+			catch(InterruptedException e)
+			{
+				//the snapshot is never reported saved : the project only persists saved snapshots.
+				Log.e(TAG, "Interrupted while queuing "+snapshot.getFilename());
 			}
 		}
 	}
@@ -975,32 +1028,32 @@ public class CameraManager /* implements SnapshotObserver */
 			if(!isOpen() || mCameraIsBusy)
 				return;
 
-			Assert.assertTrue(isAutoShootEnabled());
 			Assert.assertTrue(mCamera!=null);
 
 			float oPitch = mSensorFusionManager.getPitch();
 			float oYaw = mSensorFusionManager.getYaw();
 			float oRoll = mSensorFusionManager.getRelativeRoll();
 
-			float distance;
-			Snapshot os = new Snapshot(oPitch, oYaw, oRoll);
-			//seek targets of a near one
-			for (Snapshot snap: mAutoShootTargets)
+			//seek the nearest target in the grid, without allocating anything at the sensor rate.
+			mTargetsLock.lock();
+			try
 			{
+				//all targets may have been shot.
+				if(!isAutoShootEnabled())
+					return;
 
-				distance = os.getDistanceRoll(snap);
-
-		        if(distance<mAutoShootThreshold)
-		        {
-		        	if(mSensorFusionManager.isStable(mAutoShootPrecision))
-		        	{
-		        		Log.i(TAG, "taking snapshot at angle ("+oPitch+", "+oYaw+")");
+				int target = mAutoShootTargets.findNearest(oPitch, oYaw, oRoll);
+				if(target>=0 && mSensorFusionManager.isStable(mAutoShootPrecision))
+				{
+					Log.i(TAG, "taking snapshot at angle ("+oPitch+", "+oYaw+")");
 
-		        		mInstance.takeSnapshot();
-		        		mAutoShootTargets.remove(snap);
-		        		return;
-		        	}
-		        }
+					mInstance.takeSnapshot();
+					mAutoShootTargets.markDone(target);
+				}
+			}
+			finally
+			{
+				mTargetsLock.unlock();
 			}
 		}
 	}
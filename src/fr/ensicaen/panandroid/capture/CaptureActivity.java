@@ -170,6 +170,7 @@ public class CaptureActivity extends Activity implements OnSystemUiVisibilityCha
 												resX, resY ,hfov, vfov,
 												DEFAULT_PITCH_STEP, DEFAULT_YAW_STEP);
 
+		mSnapshotManager.setIncrementalStitchingEnabled(true);
 		mCameraManager.addSnapshotEventListener(mSnapshotManager);
 
 		//setup GL view & its renderer
@@ -269,6 +270,7 @@ public class CaptureActivity extends Activity implements OnSystemUiVisibilityCha
 			String res = mSnapshotManager.toJSON(SnapshotManager.DEFAULT_JSON_FILENAME);
 			Log.i(TAG,  "saving project to "+res);
 		}
+		mSnapshotManager.closeJournal();
 		//call parent
 		super.onPause();
 	}
@@ -173,6 +173,7 @@ public class CaptureFragment extends Fragment implements OnSystemUiVisibilityCha
         mSnapshotManager = new SnapshotManager(SnapshotManager.DEFAULT_JSON_FILENAME,
                 resX, resY ,hfov, vfov,
                 DEFAULT_PITCH_STEP, DEFAULT_YAW_STEP);
+        mSnapshotManager.setIncrementalStitchingEnabled(true);
         mCameraManager.addSnapshotEventListener(mSnapshotManager);
 
         // Setup OpenGL view & its renderer.
@@ -264,6 +265,7 @@ public class CaptureFragment extends Fragment implements OnSystemUiVisibilityCha
             String result = mSnapshotManager.toJSON(SnapshotManager.DEFAULT_JSON_FILENAME);
             Log.i(TAG, "Saving project to " + result);
         }
+        mSnapshotManager.closeJournal();
     }
 
     /**
@@ -346,9 +348,20 @@ public class CaptureFragment extends Fragment implements OnSystemUiVisibilityCha
 	public void onSnapshotTaken(byte[] pictureData, Snapshot snapshot)
 	{
 		mCameraManager.removeSnapshotEventListener(this);
-		mShutterButton.setVisibility(View.VISIBLE);
-		
+
+		//thrown from the listener thread of the camera.
+		mShutterButton.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				mShutterButton.setVisibility(View.VISIBLE);
+			}
+		});
 	}
+
+    @Override
+	public void onSnapshotSaved(Snapshot snapshot){/*NOP*/}
     
 
     /*******************
@@ -42,10 +42,12 @@ import fr.ensicaen.panandroid.R;
 import fr.ensicaen.panandroid.insideview.InsideRenderer;
 import fr.ensicaen.panandroid.meshs.Cube;
 import fr.ensicaen.panandroid.meshs.Snapshot3D;
+import fr.ensicaen.panandroid.meshs.TextureResidencyManager;
 import fr.ensicaen.panandroid.meshs.TexturedPlane;
 import fr.ensicaen.panandroid.snapshot.Snapshot;
 import fr.ensicaen.panandroid.snapshot.SnapshotEventListener;
 import fr.ensicaen.panandroid.tools.BitmapDecoder;
+import fr.ensicaen.panandroid.tools.DirectionVectors;
 import fr.ensicaen.panandroid.tools.EulerAngles;
 
 
@@ -69,16 +71,19 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
     public static final boolean USE_MARKERS = true;
     public static final boolean USE_CONTOUR = true;
     
-    public static final int MEMORY_CLEANUP_THRESHOLD = 1000 ;//[mB]
-    
     
     /* ********
 	 * CONSTANTS PARAMETERS
 	 * ********/
     
     /** memory usage parameter **/
-    private static final float AUTO_UNLOADTEXTURE_ANGLE = 150.0f;		//[deg]
     private static final float AUTO_LOADTEXTURE_ANGLE = 90.0f;			//[deg]
+
+    /** distance from the orientation under which snapshots and markers are drawn **/
+    private static final float SNAPSHOTS_MAX_DISTANCE = 120.0f;			//[deg]
+    private static final float MARKERS_MAX_DISTANCE = 60.0f;			//[deg]
+    /** margin of the cone containing the screen **/
+    private static final float VIEW_CONE_MARGIN = 5.0f;					//[deg]
     
     /** field of vision of the scene **/
     private static final float DEFAULT_FOV_DEG = 110;
@@ -150,8 +155,11 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 	private float mMarkersSize = MARKERS_SIZE;
 	private float mViewFinderSize = VIEWFINDER_SIZE;
 
-	/** toggle to true when memory is running low **/
-    public boolean mHasToFreeMemory = false;
+	/** keeps the textures of the snapshots and markers under a budget of bytes **/
+    private final TextureResidencyManager mTextureResidency;
+
+    /** current view direction, see DirectionVectors **/
+    private final float[] mViewDirection = new float[DirectionVectors.SIZE];
 
 
 
@@ -180,6 +188,8 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 	/** list of snapshot already taken **/
 	private List<Snapshot3D> mSnapshots;
 	private ReentrantLock mSnapshotsLock;
+	/** ...indexed by direction, to only visit those on screen **/
+	private ViewConeIndex mSnapshotsIndex;
 
 	/** snapshot quality **/
 	private int mSampleRate = DEFAULT_SNAPSHOTS_SAMPLING_RATE;
@@ -193,6 +203,12 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 	private List<Snapshot3D> mContours;
 	private List<Snapshot3D> mContours43;
 	private List<Snapshot3D> mContours34;
+	private ViewConeIndex mDotsIndex;
+	private ViewConeIndex mContoursIndex;
+	private ViewConeIndex mContours43Index;
+	private ViewConeIndex mContours34Index;
+	/** markers and contours removed from the scene, whose textures are unloaded on the GL thread **/
+	private List<Snapshot3D> mRemovedTargets;
 
 	/** plane holding viewFinder at the center of the view **/
 	private TexturedPlane mViewFinder;
@@ -243,8 +259,15 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		mContours43 = new LinkedList<Snapshot3D>();
 		mContours34 = new LinkedList<Snapshot3D>();
 		mContours = mContours43;
+		mSnapshotsIndex = new ViewConeIndex();
+		mDotsIndex = new ViewConeIndex();
+		mContours43Index = new ViewConeIndex();
+		mContours34Index = new ViewConeIndex();
+		mContoursIndex = mContours43Index;
+		mRemovedTargets = new ArrayList<Snapshot3D>();
 		mTargetsLock = new ReentrantLock();
 		mSnapshotsLock = new ReentrantLock();
+		mTextureResidency = new TextureResidencyManager();
 	}
     
 	/**
@@ -332,17 +355,24 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 	public void setMarkerList(LinkedList<EulerAngles> marks)
 	{
 		mTargetsLock.lock();
+		mRemovedTargets.addAll(mDots);
+		mRemovedTargets.addAll(mContours43);
+		mRemovedTargets.addAll(mContours34);
 		mDots = new LinkedList<Snapshot3D>();
+		mDotsIndex = new ViewConeIndex();
 		boolean is43=(mContours == mContours43?true:false);
 
 		mContours34 = new LinkedList<Snapshot3D>();
 		mContours43 = new LinkedList<Snapshot3D>();
+		mContours34Index = new ViewConeIndex();
+		mContours43Index = new ViewConeIndex();
 		for(EulerAngles a : marks)
 		{	
 			putMarker(a.getPitch(), a.getYaw());
 			putContour(a.getPitch(), a.getYaw());
 		}	
 		mContours = (is43?mContours43:mContours34);
+		mContoursIndex = (is43?mContours43Index:mContours34Index);
 		mTargetsLock.unlock();
 
 	}
@@ -352,6 +382,24 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		mSnapshotZoom = zoom;
 	}
 
+	/**
+	 * set how many bytes the textures of the snapshots and markers may use.
+	 * Farther textures are unloaded beyond, and reloaded when seen again.
+	 * @param budget - budget in bytes.
+	 */
+	public void setTextureBudget(long budget)
+	{
+		mTextureResidency.setBudget(budget);
+	}
+
+	/**
+	 * @return manager of the textures, with its hit, miss and eviction counters.
+	 */
+	public TextureResidencyManager getTextureResidency()
+	{
+		return mTextureResidency;
+	}
+
 
 
     
@@ -413,31 +461,30 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		//draw the viewFinder
 		mViewFinder.draw(gl, mViewMatrix);
 
-		//launch memory cleanup??
-		Runtime info = Runtime.getRuntime();
-		long freeMem = info.freeMemory()/1048576L;
-        if( freeMem<MEMORY_CLEANUP_THRESHOLD)
-        	mHasToFreeMemory = true;
-        else
-        	mHasToFreeMemory= false;
-
+		//only the planes in the cone that contains the screen, widened by their size, are visited.
+		DirectionVectors.set(mViewDirection, 0, super.getPitch(), super.getYaw());
+		//textures are unloaded when over budget, the farthest first.
+		mTextureResidency.beginFrame(mViewDirection);
+		unloadRemovedTargets(gl);
+		float viewCone = getViewConeAngle();
+		float maxAngle;
+		int count;
 
 		//the snapshots that are in FOV
 		mSnapshotsLock.lock();
-		for (Snapshot3D snap : mSnapshots)
+		maxAngle = viewCone + getPlaneRadius(mSnapshotsSize, CAMERA_RATIO, SNAPSHOTS_DISTANCE);
+		count = mSnapshotsIndex.select(mViewDirection, Math.min(SNAPSHOTS_MAX_DISTANCE, maxAngle));
+		for (int i = 0; i < count; ++i)
 		{
+			Snapshot3D snap = mSnapshotsIndex.getSelected(i);
 			float distance = this.getSnapshotDisnance(snap);
 
-			if(mHasToFreeMemory && distance>AUTO_UNLOADTEXTURE_ANGLE)
-			{
-				snap.unloadGLTexture(gl);
-			}
-			else if(this.getSnapshotDisnance(snap)<AUTO_LOADTEXTURE_ANGLE)
+			if(distance<AUTO_LOADTEXTURE_ANGLE)
 			{
 				snap.loadGLTexture(gl);
 			}
 
-			if(distance > 120.0f)
+			if(distance > SNAPSHOTS_MAX_DISTANCE)
 				snap.setVisible(false);
 			else
 			{
@@ -456,10 +503,13 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		if(mUseMarkers)
 		{
 			mTargetsLock.lock();
-			for (Snapshot3D dot : mDots)
+			maxAngle = viewCone + getPlaneRadius(mMarkersSize, 1.0f, MARKERS_DISTANCE);
+			count = mDotsIndex.select(mViewDirection, Math.min(MARKERS_MAX_DISTANCE, maxAngle));
+			for (int i = 0; i < count; ++i)
 			{		
+				Snapshot3D dot = mDotsIndex.getSelected(i);
 				d = getSnapshotDisnance(dot);
-				if(d>60.0f)
+				if(d>MARKERS_MAX_DISTANCE)
 				{
 					dot.setVisible(false);
 				}
@@ -478,11 +528,14 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		if(mUseContours)
 		{
 			mTargetsLock.lock();
-			for (Snapshot3D contour : mContours)
+			maxAngle = viewCone + getPlaneRadius(CAMERA_SIZE, CAMERA_RATIO, getContourDistance());
+			count = mContoursIndex.select(mViewDirection, Math.min(MARKERS_MAX_DISTANCE, maxAngle));
+			for (int i = 0; i < count; ++i)
 			{		
+				Snapshot3D contour = mContoursIndex.getSelected(i);
 				d = getSnapshotDisnance(contour);
 
-				if(d>60.0f)
+				if(d>MARKERS_MAX_DISTANCE)
 				{
 					contour.setVisible(false);
 				}
@@ -519,6 +572,9 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 
 	}
 
+	@Override
+	public void onSnapshotSaved(Snapshot snapshot){/*NOP*/}
+
 	/* **********
 	 * PRIVATE METHODS
 	 * *********/
@@ -589,18 +645,22 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 			case Surface.ROTATION_0:
 				mCameraRoll += 0.0f;
 				mContours = mContours34;
+				mContoursIndex = mContours34Index;
 				break;
 			case Surface.ROTATION_90:
 				mCameraRoll += 90.0f;
 				mContours = mContours43;
+				mContoursIndex = mContours43Index;
 				break;
 			case Surface.ROTATION_180:
 				mCameraRoll += 180.0f;
 				mContours = mContours34;
+				mContoursIndex = mContours34Index;
 				break;
 			default:
 				mCameraRoll += 270.0f;
 				mContours = mContours43;
+				mContoursIndex = mContours43Index;
 				break;
 		};
 		mTargetsLock.unlock();
@@ -628,9 +688,11 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 
 		Snapshot3D dot = new Snapshot3D(mMarkersSize, pitch, yaw);
 		dot.setTexture(mMarkerBitmap);
+		dot.setTextureResidency(mTextureResidency);
 		dot.translate(0.0f, 0.0f, MARKERS_DISTANCE);
 
 		mDots.add(dot);
+		mDotsIndex.add(dot);
 		return dot;
     }
 
@@ -647,15 +709,19 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		contour34.rotate(0, 0, 90.0f);
 
 		contour43.setTexture(mContourBitmap);
-		contour43.translate(0.0f, 0.0f, CAMERA_DISTANCE - CAMERA_DISTANCE/(CONTOUR_ZOOM_PERCENT -100.0f));
+		contour43.setTextureResidency(mTextureResidency);
+		contour43.translate(0.0f, 0.0f, getContourDistance());
 		contour43.setVisible(false);
 
 		contour34.setTexture(mContourBitmap);
-		contour34.translate(0.0f, 0.0f, CAMERA_DISTANCE - CAMERA_DISTANCE/(CONTOUR_ZOOM_PERCENT-100.0f));
+		contour34.setTextureResidency(mTextureResidency);
+		contour34.translate(0.0f, 0.0f, getContourDistance());
 		contour34.setVisible(false);
 
 		mContours43.add(contour43);
 		mContours34.add(contour34);
+		mContours43Index.add(contour43);
+		mContours34Index.add(contour34);
 	}
 
 	/**
@@ -674,12 +740,14 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		snap.setTexture(BitmapDecoder.safeDecodeBitmap(pictureData, mSampleRate));
 		snap.setZoom(mSnapshotZoom);
 		snap.recycleTexture();
+		snap.setTextureResidency(mTextureResidency);
 
 		//put the snapshot at its place.
 		snap.translate(0.0f, 0.0f, SNAPSHOTS_DISTANCE);
 		snap.setVisible(true);
 		mSnapshotsLock.lock();
 		mSnapshots.add(snap);
+		mSnapshotsIndex.add(snap);
 		mSnapshotsLock.unlock();
 
 
@@ -687,15 +755,51 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
     }
 
 	/**
-	 * get distance between current orientation and gven snapshot
+	 * get distance between current orientation and gven snapshot, without allocation.
 	 * @param snapshot
 	 * @return
 	 */
-	private float getSnapshotDisnance(EulerAngles a)
+	private float getSnapshotDisnance(Snapshot3D a)
 	{
+		return Snapshot.getDistance(super.getPitch(), super.getYaw(), a.getSnapshot());
+	}
 
-		Snapshot s = new Snapshot(super.getPitch(), super.getYaw());
-		return s.getDistance(a); 
+	/**
+	 * get half the angle of the cone that contains the screen.
+	 * @return angle in degrees, 180 if the surface isn't known yet.
+	 */
+	private float getViewConeAngle()
+	{
+		int width = super.getSurfaceWidth();
+		int height = super.getSurfaceHeight();
+		if(width<=0 || height<=0)
+			return 180.0f;
+
+		//the corners of the screen are the farthest from its center.
+		double tanV = Math.tan(Math.toRadians(super.getVFovDeg()/2.0f));
+		double ratio = (double) width/height;
+		double tanDiagonal = tanV*Math.sqrt(1.0 + ratio*ratio);
+		return (float) Math.toDegrees(Math.atan(tanDiagonal)) + VIEW_CONE_MARGIN;
+	}
+
+	/**
+	 * get the angle under which the center of a plane sees its corners.
+	 * @param size - size of the plane, as given to TexturedPlane.
+	 * @param ratio - ratio of the plane.
+	 * @param distance - distance of the plane.
+	 * @return angle in degrees.
+	 */
+	private static float getPlaneRadius(float size, float ratio, float distance)
+	{
+		float ratioX = Math.max(ratio, 1.0f);
+		float ratioY = Math.max(1.0f/ratio, 1.0f);
+		double halfDiagonal = size*Math.sqrt(ratioX*ratioX + ratioY*ratioY);
+		return (float) Math.toDegrees(Math.atan(halfDiagonal/distance));
+	}
+
+	private float getContourDistance()
+	{
+		return CAMERA_DISTANCE - CAMERA_DISTANCE/(CONTOUR_ZOOM_PERCENT - 100.0f);
 	}
 
 	/**
@@ -710,9 +814,11 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		mTargetsLock.lock();
 		for(Snapshot3D dot : mDots)
 		{
-			if(o.getDistance(dot)<TRESHOLD)
+			if(o.getDistance(dot.getSnapshot())<TRESHOLD)
 			{
 				mDots.remove(dot);
+				mDotsIndex.remove(dot);
+				mRemovedTargets.add(dot);
 				mTargetsLock.unlock();
 				return true;
 			}
@@ -734,10 +840,14 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		mTargetsLock.lock();
 		for(Snapshot3D contour : mContours)
 		{
-			if(o.getDistance(contour)<TRESHOLD)
+			if(o.getDistance(contour.getSnapshot())<TRESHOLD)
 			{
-				mContours43.remove(i);
-				mContours34.remove(i);
+				Snapshot3D contour43 = mContours43.remove(i);
+				Snapshot3D contour34 = mContours34.remove(i);
+				mContours43Index.remove(contour43);
+				mContours34Index.remove(contour34);
+				mRemovedTargets.add(contour43);
+				mRemovedTargets.add(contour34);
 				mTargetsLock.unlock();
 				return true;
 			}
@@ -748,6 +858,22 @@ public class CaptureRenderer extends InsideRenderer implements SnapshotEventList
 		return false;	
 	}
 
+	/**
+	 * Delete the textures of the removed markers and contours, so that they no longer count
+	 * in the texture budget. Called from the GL thread.
+	 */
+	private void unloadRemovedTargets(GL10 gl)
+	{
+		mTargetsLock.lock();
+		for(Snapshot3D target : mRemovedTargets)
+		{
+			target.unloadGLTexture(gl);
+			target.setTextureResidency(null);
+		}
+		mRemovedTargets.clear();
+		mTargetsLock.unlock();
+	}
+
 	private int ceilPowOf2(int val)
 	{
 		int i = 1;
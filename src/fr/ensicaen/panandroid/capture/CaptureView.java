@@ -391,13 +391,25 @@ public class CaptureView extends Inside3dView implements SensorEventListener, Sn
 	public void onSnapshotTaken(byte[] pictureData, Snapshot snapshot)
 	{
 		mCameraManager.removeSnapshotEventListener(this);
-		mStartingProgressSpinner.setVisibility(View.INVISIBLE);
 
-		//force layout redraw.
-		mStartingProgressSpinner.requestLayout();
-		super.setEnableYawRotation(true);
+		//thrown from the listener thread of the camera.
+		post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				mStartingProgressSpinner.setVisibility(View.INVISIBLE);
+
+				//force layout redraw.
+				mStartingProgressSpinner.requestLayout();
+				CaptureView.super.setEnableYawRotation(true);
+			}
+		});
 	}
 
+	@Override
+	public void onSnapshotSaved(Snapshot snapshot){/*NOP*/}
+
 
 }
 
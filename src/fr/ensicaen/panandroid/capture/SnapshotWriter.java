@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.capture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import android.util.Log;
+
+import fr.ensicaen.panandroid.snapshot.Snapshot;
+import fr.ensicaen.panandroid.stitcher.PostProcessing;
+
+/**
+ * Write-behind queue of captured pictures. The camera callback only queues the jpeg bytes,
+ * a dedicated thread writes them, rotates the picture to the snapshot orientation and syncs
+ * the file, in order. The queue is bounded : when too many pictures are waiting, queuing
+ * blocks until one is written, so that the capture never runs out of memory.
+ * The jpeg is written under a temporary name and renamed once complete, so a crash never
+ * leaves a partial picture.
+ * @author Nicolas THIERION.
+ */
+public class SnapshotWriter
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	private static final String TAG = SnapshotWriter.class.getSimpleName();
+	/** pictures waiting to be written **/
+	public static final int DEFAULT_CAPACITY = 3;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	private final BlockingQueue<Job> mQueue;
+	/** told once each picture is safe on disk **/
+	private final OnSnapshotSavedListener mListener;
+	private Thread mThread = null;
+
+	/** pictures queued and not written yet **/
+	private int mPending = 0;
+	private final Object mPendingLock = new Object();
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param capacity - pictures waiting to be written before queuing blocks.
+	 * @param listener - told from the writer thread each time a picture is safe on disk.
+	 */
+	public SnapshotWriter(int capacity, OnSnapshotSavedListener listener)
+	{
+		mQueue = new ArrayBlockingQueue<Job>(Math.max(1, capacity));
+		mListener = listener;
+	}
+
+	public SnapshotWriter(OnSnapshotSavedListener listener)
+	{
+		this(DEFAULT_CAPACITY, listener);
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Queue a picture, to be written at the filename of its snapshot. Blocks while the queue is full.
+	 * @param jpegData - jpeg bytes, not modified afterwards.
+	 * @param snapshot - snapshot of the picture, with its filename and orientation set.
+	 * @throws InterruptedException
+	 */
+	public void enqueue(byte[] jpegData, Snapshot snapshot) throws InterruptedException
+	{
+		synchronized (mPendingLock)
+		{
+			mPending++;
+		}
+		startThread();
+		try
+		{
+			mQueue.put(new Job(jpegData, snapshot));
+		}
+		catch (InterruptedException e)
+		{
+			//the picture isn't queued, so it will never be written.
+			synchronized (mPendingLock)
+			{
+				mPending--;
+				mPendingLock.notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait until all the queued pictures are written.
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException
+	{
+		synchronized (mPendingLock)
+		{
+			while (mPending > 0)
+				mPendingLock.wait();
+		}
+	}
+
+	/**
+	 * @return number of pictures queued and not written yet.
+	 */
+	public int getPendingCount()
+	{
+		synchronized (mPendingLock)
+		{
+			return mPending;
+		}
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	private synchronized void startThread()
+	{
+		if (mThread != null)
+			return;
+
+		mThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while (true)
+				{
+					Job job;
+					try
+					{
+						job = mQueue.take();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+
+					// the listener is told before flush() returns.
+					if (write(job) && mListener != null)
+						mListener.onSnapshotSaved(job.mSnapshot);
+
+					synchronized (mPendingLock)
+					{
+						mPending--;
+						mPendingLock.notifyAll();
+					}
+				}
+			}
+		}, TAG);
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/**
+	 * Write a picture, rotate it and sync it.
+	 * Since OpenCV ignores the exif orientation, the pixels are rotated, in the same pass
+	 * as the temporary file is moved to its final name.
+	 * @return true if the picture is safe on disk.
+	 */
+	private boolean write(Job job)
+	{
+		File jpegFile = new File(job.mSnapshot.getFilename());
+		File tmpFile = new File(jpegFile.getPath() + ".tmp");
+		int orientation = job.mSnapshot.getOrientation() % 360;
+		try
+		{
+			FileOutputStream fos = new FileOutputStream(tmpFile);
+			try
+			{
+				fos.write(job.mJpegData);
+				if (orientation == 0)
+					fos.getFD().sync();
+			}
+			finally
+			{
+				fos.close();
+			}
+
+			if (orientation == 0)
+			{
+				if (!tmpFile.renameTo(jpegFile))
+					throw new IOException("Can't rename " + tmpFile + " to " + jpegFile);
+			}
+			else
+			{
+				int res = new PostProcessing().rotate(orientation).run(tmpFile.getPath(), jpegFile.getPath());
+				tmpFile.delete();
+				if (res != 0)
+					throw new IOException("Can't rotate " + jpegFile + " by " + orientation + " degrees");
+				sync(jpegFile);
+			}
+			return true;
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Error writing " + jpegFile + " : " + e.getMessage());
+			tmpFile.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Flush to the storage a file written by the native code.
+	 */
+	private static void sync(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.getFD().sync();
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/* *********
+	 * PUBLIC INTERFACES
+	 * *********/
+	public interface OnSnapshotSavedListener
+	{
+		/**
+		 * Called from the writer thread once the picture of the snapshot is safe on disk.
+		 */
+		void onSnapshotSaved(Snapshot snapshot);
+	}
+
+	/* *********
+	 * PRIVATE CLASSES
+	 * *********/
+	private static class Job
+	{
+		final byte[] mJpegData;
+		final Snapshot mSnapshot;
+
+		Job(byte[] jpegData, Snapshot snapshot)
+		{
+			mJpegData = jpegData;
+			mSnapshot = snapshot;
+		}
+	}
+}
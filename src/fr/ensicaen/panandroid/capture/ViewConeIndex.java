@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.capture;
+
+import java.util.Arrays;
+
+import fr.ensicaen.panandroid.meshs.Snapshot3D;
+import fr.ensicaen.panandroid.tools.DirectionVectors;
+
+/**
+ * Spatial index of the planes drawn around the viewer, keyed on their direction.
+ * Answers "all planes within a given angle of the view direction", so that the renderer only
+ * visits the planes that may be on screen. The sphere is cut in rows of pitch, each row in
+ * cells of about the same width. Each cell is bounded by a cap : a cell whose cap is out of
+ * the view cone is skipped as a whole, with a single dot product. A selection allocates
+ * nothing, once the selection buffer is large enough.
+ * Not thread safe : the renderer calls it under the lock of its planes.
+ * @author Nicolas THIERION.
+ */
+public class ViewConeIndex
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	/** default size of a cell **/
+	public static final float DEFAULT_STEP = 30.0f;		//[deg]
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	private final int mNbRows;
+	/** cells of each row, and first cell of each row **/
+	private final int[] mRowCols;
+	private final int[] mRowFirstCell;
+	private final float mPitchStep;						//[deg]
+
+	/** bounding cap of each cell : direction of its center, cosine and sine of its radius **/
+	private final float[] mCellDirections;
+	private final float[] mCellRadiusCos;
+	private final float[] mCellRadiusSin;
+
+	/** planes of each cell, with their direction **/
+	private final Snapshot3D[][] mCellItems;
+	private final float[][] mCellItemDirections;
+	private final int[] mCellSizes;
+	private int mSize = 0;
+
+	/** last selection **/
+	private Snapshot3D[] mSelection = new Snapshot3D[16];
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param step - size of a cell, in degrees.
+	 */
+	public ViewConeIndex(float step)
+	{
+		mPitchStep = (step > 0 && step <= 90.0f ? step : DEFAULT_STEP);
+		mNbRows = (int) Math.ceil(180.0f / mPitchStep);
+		mRowCols = new int[mNbRows];
+		mRowFirstCell = new int[mNbRows];
+
+		int nbCells = 0;
+		for (int row = 0; row < mNbRows; ++row)
+		{
+			//cells are as wide as high on the edge of the row nearest to the equator.
+			double cos = Math.cos(Math.toRadians(getRowMinAbsPitch(row)));
+			mRowCols[row] = Math.max(1, (int) Math.ceil(360.0 * cos / mPitchStep));
+			mRowFirstCell[row] = nbCells;
+			nbCells += mRowCols[row];
+		}
+
+		mCellDirections = new float[nbCells * DirectionVectors.SIZE];
+		mCellRadiusCos = new float[nbCells];
+		mCellRadiusSin = new float[nbCells];
+		mCellItems = new Snapshot3D[nbCells][];
+		mCellItemDirections = new float[nbCells][];
+		mCellSizes = new int[nbCells];
+
+		for (int row = 0; row < mNbRows; ++row)
+		{
+			float minPitch = -90.0f + row * mPitchStep;
+			float maxPitch = Math.min(90.0f, minPitch + mPitchStep);
+			float yawStep = 360.0f / mRowCols[row];
+			double cos = Math.cos(Math.toRadians(getRowMinAbsPitch(row)));
+
+			//a point of the cell is at most half the height plus half the width from its center,
+			//the width being measured on the edge nearest to the equator.
+			double radius = Math.min(180.0, (maxPitch - minPitch) / 2.0 + cos * yawStep / 2.0);
+			for (int col = 0; col < mRowCols[row]; ++col)
+			{
+				int cell = mRowFirstCell[row] + col;
+				DirectionVectors.set(mCellDirections, cell, (minPitch + maxPitch) / 2.0f,
+						-180.0f + (col + 0.5f) * yawStep);
+				mCellRadiusCos[cell] = (float) Math.cos(Math.toRadians(radius));
+				mCellRadiusSin[cell] = (float) Math.sin(Math.toRadians(radius));
+			}
+		}
+	}
+
+	public ViewConeIndex()
+	{
+		this(DEFAULT_STEP);
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Add a plane to the index.
+	 */
+	public void add(Snapshot3D item)
+	{
+		float[] direction = item.getSnapshot().getDirection();
+		int cell = getCell(direction);
+		int size = mCellSizes[cell];
+		if (mCellItems[cell] == null)
+		{
+			mCellItems[cell] = new Snapshot3D[4];
+			mCellItemDirections[cell] = new float[4 * DirectionVectors.SIZE];
+		}
+		else if (size == mCellItems[cell].length)
+		{
+			mCellItems[cell] = Arrays.copyOf(mCellItems[cell], size * 2);
+			mCellItemDirections[cell] = Arrays.copyOf(mCellItemDirections[cell], size * 2 * DirectionVectors.SIZE);
+		}
+
+		mCellItems[cell][size] = item;
+		System.arraycopy(direction, 0, mCellItemDirections[cell], size * DirectionVectors.SIZE, DirectionVectors.SIZE);
+		mCellSizes[cell] = size + 1;
+		mSize++;
+	}
+
+	/**
+	 * Remove a plane from the index.
+	 * @return false if the plane wasn't indexed.
+	 */
+	public boolean remove(Snapshot3D item)
+	{
+		int cell = getCell(item.getSnapshot().getDirection());
+		Snapshot3D[] items = mCellItems[cell];
+		int last = mCellSizes[cell] - 1;
+		for (int i = 0; i <= last; ++i)
+		{
+			if (items[i] != item)
+				continue;
+
+			//the last plane of the cell takes its place.
+			items[i] = items[last];
+			items[last] = null;
+			System.arraycopy(mCellItemDirections[cell], last * DirectionVectors.SIZE,
+					mCellItemDirections[cell], i * DirectionVectors.SIZE, DirectionVectors.SIZE);
+			mCellSizes[cell] = last;
+			mSize--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Select the planes whose center is closer than an angle to a direction.
+	 * The selected planes are then given by getSelected().
+	 * @param direction - unit view direction, see DirectionVectors.
+	 * @param maxAngle - half angle of the view cone, in degrees.
+	 * @return number of selected planes.
+	 */
+	public int select(float[] direction, float maxAngle)
+	{
+		if (maxAngle <= 0.0f || mSize == 0)
+			return 0;
+		if (mSelection.length < mSize)
+			mSelection = new Snapshot3D[Math.max(mSize, mSelection.length * 2)];
+
+		float x = direction[0], y = direction[1], z = direction[2];
+		boolean all = (maxAngle >= 180.0f);
+		float cos = (all ? -1.0f : (float) Math.cos(Math.toRadians(maxAngle)));
+		float sin = (all ? 0.0f : (float) Math.sin(Math.toRadians(maxAngle)));
+
+		int count = 0;
+		for (int cell = 0, j = 0; cell < mCellSizes.length; ++cell, j += DirectionVectors.SIZE)
+		{
+			int size = mCellSizes[cell];
+			if (size == 0)
+				continue;
+
+			//the cap of the cell meets the cone if the angle between their centers is lower than
+			//the sum of their radius : cos(angle) > cos(maxAngle + radius), when the sum is under 180.
+			float cellCos = x * mCellDirections[j] + y * mCellDirections[j + 1] + z * mCellDirections[j + 2];
+			float sumSin = sin * mCellRadiusCos[cell] + cos * mCellRadiusSin[cell];
+			float sumCos = cos * mCellRadiusCos[cell] - sin * mCellRadiusSin[cell];
+			if (!all && sumSin > 0.0f && cellCos <= sumCos)
+				continue;
+
+			Snapshot3D[] items = mCellItems[cell];
+			float[] directions = mCellItemDirections[cell];
+			for (int i = 0, k = 0; i < size; ++i, k += DirectionVectors.SIZE)
+			{
+				if (all || x * directions[k] + y * directions[k + 1] + z * directions[k + 2] > cos)
+					mSelection[count++] = items[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param i - rank of the plane in the last selection.
+	 * @return the selected plane.
+	 */
+	public Snapshot3D getSelected(int i)
+	{
+		return mSelection[i];
+	}
+
+	/**
+	 * @return number of indexed planes.
+	 */
+	public int size()
+	{
+		return mSize;
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	private float getRowMinAbsPitch(int row)
+	{
+		float minPitch = -90.0f + row * mPitchStep;
+		float maxPitch = Math.min(90.0f, minPitch + mPitchStep);
+		if (minPitch <= 0.0f && maxPitch >= 0.0f)
+			return 0.0f;
+		return Math.min(Math.abs(minPitch), Math.abs(maxPitch));
+	}
+
+	/**
+	 * Cell of a direction. The angles are read back from the direction, so that a plane is
+	 * always put in the cell where it is seen.
+	 */
+	private int getCell(float[] direction)
+	{
+		float pitch = (float) Math.toDegrees(-Math.asin(Math.max(-1.0f, Math.min(1.0f, direction[1]))));
+		float yaw = (float) Math.toDegrees(Math.atan2(direction[0], direction[2]));
+
+		int row = (int) Math.floor((pitch + 90.0f) / mPitchStep);
+		row = Math.max(0, Math.min(mNbRows - 1, row));
+
+		float y = (yaw + 180.0f) % 360.0f;
+		if (y < 0)
+			y += 360.0f;
+		int col = (int) Math.floor(y * mRowCols[row] / 360.0f);
+		return mRowFirstCell[row] + Math.min(mRowCols[row] - 1, col);
+	}
+}
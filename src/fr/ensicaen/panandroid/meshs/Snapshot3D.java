@@ -96,6 +96,20 @@ public class Snapshot3D extends TexturedPlane implements EulerAngles
 		return mSnapshot.getRoll();
 	}
 	
+	/**
+	 * @return the snapshot drawn by this plane.
+	 */
+	public Snapshot getSnapshot()
+	{
+		return mSnapshot;
+	}
+	
+	@Override
+	public float[] getTextureDirection()
+	{
+		return mSnapshot.getDirection();
+	}
+	
 	@Override
 	public void draw(GL10 gl, float[] modelViewMatrix)
 	{
@@ -151,7 +165,8 @@ public class Snapshot3D extends TexturedPlane implements EulerAngles
 		if(mUsePersistentTexture)
 			return;
 		
-		mPostRotation = mSnapshot.getOrientation();
+		//the jpeg is already rotated by the SnapshotWriter : it is reloaded as it is.
+		mPostRotation = 0;
 		mUsePersistentTexture = true;
 	
 
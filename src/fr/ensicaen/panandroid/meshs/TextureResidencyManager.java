@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.meshs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Keeps the textures uploaded by TexturedPlanes under a budget of bytes.
+ * Each upload is accounted for. When the resident textures exceed the budget, textures are
+ * unloaded until they fit : among the least recently drawn ones, the farthest from the view
+ * direction goes first. A texture drawn during the current frame is never unloaded, and only
+ * the textures a plane can upload again are. Unloaded planes reload when drawn again.
+ * Counts the hits (draws of a resident texture), misses (uploads of a non resident texture)
+ * and evictions.
+ * Called from the GL thread.
+ * @author Nicolas THIERION.
+ */
+public class TextureResidencyManager
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	/** default budget of the resident textures **/
+	public static final long DEFAULT_BUDGET = 48L * 1024L * 1024L;		//[bytes]
+	/** least recently drawn textures among which the farthest one is unloaded **/
+	private static final int EVICTION_CANDIDATES = 8;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** resident textures, least recently drawn first **/
+	private final LinkedHashMap<TexturedPlane, Residency> mResidents;
+	private long mBudget;						//[bytes]
+	private long mResidentBytes = 0;			//[bytes]
+
+	/** current frame and view direction, see DirectionVectors **/
+	private long mFrame = 0;
+	private final float[] mViewDirection = {0.0f, 0.0f, 1.0f};
+
+	/** statistics **/
+	private long mHits = 0;
+	private long mMisses = 0;
+	private long mEvictions = 0;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param budget - bytes the resident textures may use.
+	 */
+	public TextureResidencyManager(long budget)
+	{
+		mResidents = new LinkedHashMap<TexturedPlane, Residency>(64, 0.75f, true);
+		mBudget = budget;
+	}
+
+	public TextureResidencyManager()
+	{
+		this(DEFAULT_BUDGET);
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Start a new frame. Textures drawn from now on are kept until the next frame.
+	 * @param viewDirection - unit view direction, see DirectionVectors.
+	 */
+	public synchronized void beginFrame(float[] viewDirection)
+	{
+		mFrame++;
+		System.arraycopy(viewDirection, 0, mViewDirection, 0, mViewDirection.length);
+	}
+
+	/**
+	 * Called by a plane about to draw its texture.
+	 */
+	public synchronized void onDraw(TexturedPlane plane)
+	{
+		Residency residency = mResidents.get(plane);
+		if (residency == null)
+			return;
+		residency.mFrame = mFrame;
+		mHits++;
+	}
+
+	/**
+	 * Called by a plane that uploaded a texture. Unloads other textures if the budget is exceeded.
+	 * @param plane - plane of the texture.
+	 * @param bytes - size of the texture.
+	 * @param gl - GL handle, to unload textures.
+	 */
+	public synchronized void onLoad(TexturedPlane plane, long bytes, GL10 gl)
+	{
+		Residency residency = mResidents.get(plane);
+		if (residency == null)
+		{
+			residency = new Residency();
+			mResidents.put(plane, residency);
+			mMisses++;
+		}
+		else
+		{
+			//a finer texture replaces the former one.
+			mResidentBytes -= residency.mBytes;
+		}
+		residency.mBytes = bytes;
+		residency.mFrame = mFrame;
+		mResidentBytes += bytes;
+
+		trim(gl);
+	}
+
+	/**
+	 * Called by a plane that deleted its texture.
+	 */
+	public synchronized void onUnload(TexturedPlane plane)
+	{
+		Residency residency = mResidents.remove(plane);
+		if (residency != null)
+			mResidentBytes -= residency.mBytes;
+	}
+
+	/**
+	 * Unload textures until the resident ones fit in the budget.
+	 * Stops when every remaining texture is drawn in the current frame or can't be uploaded again.
+	 * @param gl - GL handle.
+	 */
+	public synchronized void trim(GL10 gl)
+	{
+		while (mResidentBytes > mBudget)
+		{
+			TexturedPlane victim = findVictim();
+			if (victim == null)
+				return;
+
+			victim.unloadGLTexture(gl);
+			//in case the plane didn't report it.
+			onUnload(victim);
+			mEvictions++;
+		}
+	}
+
+	/**
+	 * Reset the statistics.
+	 */
+	public synchronized void resetCounters()
+	{
+		mHits = 0;
+		mMisses = 0;
+		mEvictions = 0;
+	}
+
+	/* *********
+	 * ACCESSORS
+	 * *********/
+	/**
+	 * Change the budget. Takes effect at the next upload, or at the next call to trim().
+	 * @param budget - bytes the resident textures may use.
+	 */
+	public synchronized void setBudget(long budget)
+	{
+		mBudget = budget;
+	}
+
+	public synchronized long getBudget()
+	{
+		return mBudget;
+	}
+
+	public synchronized long getResidentBytes()
+	{
+		return mResidentBytes;
+	}
+
+	public synchronized int getResidentCount()
+	{
+		return mResidents.size();
+	}
+
+	public synchronized long getHitCount()
+	{
+		return mHits;
+	}
+
+	public synchronized long getMissCount()
+	{
+		return mMisses;
+	}
+
+	public synchronized long getEvictionCount()
+	{
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "textures : " + mResidents.size() + " resident, " + (mResidentBytes >> 10) + "/" + (mBudget >> 10)
+				+ " kB, " + mHits + " hits, " + mMisses + " misses, " + mEvictions + " evictions";
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * @return among the least recently drawn textures that can be unloaded, the farthest from the
+	 * view direction. Null if none.
+	 */
+	private TexturedPlane findVictim()
+	{
+		TexturedPlane victim = null;
+		float victimCos = Float.MAX_VALUE;
+		int candidates = 0;
+
+		Iterator<Map.Entry<TexturedPlane, Residency>> it = mResidents.entrySet().iterator();
+		while (it.hasNext() && candidates < EVICTION_CANDIDATES)
+		{
+			Map.Entry<TexturedPlane, Residency> entry = it.next();
+			TexturedPlane plane = entry.getKey();
+			if (entry.getValue().mFrame == mFrame || !plane.isTextureReloadable())
+				continue;
+
+			//planes with no direction are taken as the farthest.
+			float[] direction = plane.getTextureDirection();
+			float cos = (direction == null ? -1.0f : mViewDirection[0] * direction[0]
+					+ mViewDirection[1] * direction[1] + mViewDirection[2] * direction[2]);
+			if (cos < victimCos)
+			{
+				victimCos = cos;
+				victim = plane;
+			}
+			candidates++;
+		}
+		return victim;
+	}
+
+	/* *********
+	 * PRIVATE CLASSES
+	 * *********/
+	private static class Residency
+	{
+		/** size of the texture **/
+		long mBytes;
+		/** last frame where the texture was drawn or uploaded **/
+		long mFrame;
+	}
+}
@@ -100,6 +100,12 @@ public class TexturedPlane extends Mesh
 	/** openGL texture ID applied to this plane **/
 	private int mImameTextureId;
 	
+	/** openGL texture generated by loadGLTexture(), 0 if none **/
+	private int mLoadedTextureId = 0;
+	
+	/** accounts the uploaded textures, if set **/
+	private TextureResidencyManager mResidency = null;
+	
 	/** Optional bitmap texture of the plane **/
 	protected Bitmap mBitmapTexture;
 	
@@ -283,6 +289,32 @@ public class TexturedPlane extends Mesh
 	}
 	
 	
+	/**
+	 * Account the textures of this plane in the given manager, that may unload them.
+	 * @param residency - manager, null to stop accounting.
+	 */
+	public void setTextureResidency(TextureResidencyManager residency)
+	{
+		mResidency = residency;
+	}
+	
+	/**
+	 * @return if the texture can be uploaded again once unloaded : from its jpeg, or from a bitmap kept by the plane.
+	 */
+	public boolean isTextureReloadable()
+	{
+		return mPersistentTexturePath != null
+				|| (mBitmapTexture != null && mBitmapTexture != mDummyBitmapTexture && !mBitmapTexture.isRecycled());
+	}
+	
+	/**
+	 * @return unit direction where the plane is seen, see DirectionVectors. Null if unknown.
+	 */
+	public float[] getTextureDirection()
+	{
+		return null;
+	}
+	
 	/**
 	 * Set the axis around which one the mesh rotate first.
 	 * @param axis
@@ -373,6 +405,10 @@ public class TexturedPlane extends Mesh
 		{
 		    loadGLTexture(gl);
 		}
+		if (mResidency != null && mLoadedTextureId != 0)
+		{
+			mResidency.onDraw(this);
+		}
 		
 		// bind the previously generated texture.
 		gl.glBindTexture(GL10.GL_TEXTURE_2D, mImameTextureId);
@@ -437,6 +473,14 @@ public class TexturedPlane extends Mesh
 		
 		// Load the snapshot bitmap as a texture to bind to our gl program
 		int texture[] = new int[1];
+		long bytes = mBitmapTexture.getByteCount();
+		
+		//a finer texture replaces the former one
+		if(mLoadedTextureId != 0)
+		{
+			texture[0] = mLoadedTextureId;
+			GLES10.glDeleteTextures(1, texture, 0);
+		}
 		
 		GLES10.glGenTextures(1, texture, 0);
 		GLES10.glBindTexture(GLES10.GL_TEXTURE_2D, texture[0]);
@@ -463,37 +507,36 @@ public class TexturedPlane extends Mesh
 		}
 		
 		mImameTextureId = texture[0];
+		mLoadedTextureId = texture[0];
 		mTextureToLoad = false;
 		
+		if(mResidency != null)
+			mResidency.onLoad(this, bytes, gl);
+		
 	}
 	
 	
+	/**
+	 * Delete the texture. Must be called from the GL thread, where the texture lives.
+	 * If the plane can upload it again, it will the next time it is drawn.
+	 */
 	@Override
 	public void unloadGLTexture(GL10 gl)
 	{
-		new Thread(new Runnable(){
+		if(mLoadedTextureId != 0)
+		{
+			int texture[] = new int[1];
+			texture[0] = mLoadedTextureId;
+			GLES10.glDeleteTextures(1, texture, 0);
+			mLoadedTextureId = 0;
 			
-			@Override
-			public void run() 
-			{
-				try{
-					int texture[] = new int[1];
-					texture[0] = mImameTextureId;
-					GLES10.glDeleteTextures(1, texture, 0);
-					
-					//if texture jpg has been given, will try to load it next time
-					if(mPersistentTexturePath!=null)
-						mTextureToLoad = true;
-					
-				}
-				catch(Exception e)
-				{
-					e.printStackTrace();
-				}
-			}		
-		}).start();
+			if(mResidency != null)
+				mResidency.onUnload(this);
+		}
 		
-	
+		//if texture jpg or bitmap has been given, will try to load it next time
+		if(isTextureReloadable())
+			mTextureToLoad = true;
 	}
 	
 	/* *******
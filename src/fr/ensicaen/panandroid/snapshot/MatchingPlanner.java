@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.snapshot;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+
+/**
+ * Choose which snapshots should be matched together before stitching.
+ * The overlap between two snapshots is the part of the footprint of the first one, given its pitch, yaw, roll
+ * and the camera field of view, that is seen by the second one.
+ * Only pairs above a minimal overlap are kept, the best first, and no snapshot gets more than K pairs,
+ * so the count of pairs grows linearly with the count of snapshots. Only snapshots whose centers are
+ * closer than two footprint radius on the sphere are compared.
+ * @author Nicolas THIERION.
+ *
+ */
+public class MatchingPlanner
+{
+	/* ******
+	 * PARAMETERS
+	 * *****/
+	/** default minimal overlap ratio for two snapshots to be matched **/
+	public static final float DEFAULT_MIN_OVERLAP = 0.1f;
+
+	/** default count of pairs kept for each snapshot **/
+	public static final int DEFAULT_MAX_NEIGHBORS = 6;
+
+	/** footprints are sampled by a grid of SAMPLES x SAMPLES directions **/
+	private static final int SAMPLES = 8;
+
+	/* ******
+	 * ATTRIBUTES
+	 * *****/
+	/** tangents of the camera half fields of view **/
+	private final float mTanH;
+	private final float mTanV;
+
+	/** angular radius of a snapshot footprint **/
+	private final float mRadius;	//[deg]
+
+	/** minimal overlap ratio for two snapshots to be matched **/
+	private float mMinOverlap = DEFAULT_MIN_OVERLAP;
+
+	/** count of pairs kept for each snapshot **/
+	private int mMaxNeighbors = DEFAULT_MAX_NEIGHBORS;
+
+	/** pairs given to each snapshot by getPreviousNeighbors(), by position **/
+	private int[] mPreviousDegrees = new int[16];
+
+	/* ******
+	 * CONSTRUCTOR
+	 * ******/
+	/**
+	 * @param hfov - horizontal field of view of the camera, in degrees.
+	 * @param vfov - vertical field of view of the camera, in degrees.
+	 */
+	public MatchingPlanner(float hfov, float vfov)
+	{
+		mTanH = (float) Math.tan(Math.toRadians(hfov / 2.0f));
+		mTanV = (float) Math.tan(Math.toRadians(vfov / 2.0f));
+		mRadius = (float) Math.toDegrees(Math.atan(Math.sqrt(mTanH * mTanH + mTanV * mTanV)));
+	}
+
+	/* *******
+	 * METHODS
+	 * *******/
+	/**
+	 * Group snapshots by list of neighbors to match, in the same layout as SnapshotManager.getNeighborsList() :
+	 * each list starts with a snapshot, followed by the kept neighbors added after it.
+	 * @param index - indexed snapshots.
+	 * @return neighbors list.
+	 */
+	public LinkedList<LinkedList<Snapshot>> plan(SnapshotIndex index)
+	{
+		int size = index.size();
+		float[][] frames = getFrames(index);
+
+		//overlaps of all candidate pairs, each pair once
+		int nbPairs = 0;
+		int[] firsts = new int[16];
+		int[] seconds = new int[16];
+		float[] overlaps = new float[16];
+		for (int i = 0; i < size; ++i)
+		{
+			for (int j : getCandidates(index, i, i))
+			{
+				float overlap = getOverlap(frames[i], frames[j]);
+				if (overlap < mMinOverlap)
+					continue;
+				if (nbPairs == firsts.length)
+				{
+					firsts = Arrays.copyOf(firsts, 2 * nbPairs);
+					seconds = Arrays.copyOf(seconds, 2 * nbPairs);
+					overlaps = Arrays.copyOf(overlaps, 2 * nbPairs);
+				}
+				firsts[nbPairs] = i;
+				seconds[nbPairs] = j;
+				overlaps[nbPairs] = overlap;
+				nbPairs++;
+			}
+		}
+
+		//best pairs first, as long as none of their snapshots has its K pairs
+		int[] degrees = new int[size];
+		boolean[] kept = new boolean[nbPairs];
+		for (int k : sortByOverlap(overlaps, nbPairs))
+		{
+			int i = firsts[k], j = seconds[k];
+			if (degrees[i] < mMaxNeighbors && degrees[j] < mMaxNeighbors)
+			{
+				kept[k] = true;
+				degrees[i]++;
+				degrees[j]++;
+			}
+		}
+
+		LinkedList<LinkedList<Snapshot>> neighborsList = new LinkedList<LinkedList<Snapshot>>();
+		int k = 0;
+		for (int i = 0; i < size; ++i)
+		{
+			LinkedList<Snapshot> currentList = new LinkedList<Snapshot>();
+			neighborsList.add(currentList);
+			currentList.add(index.get(i));
+
+			//pairs are sorted by first snapshot, then by second one
+			for (; k < nbPairs && firsts[k] == i; ++k)
+			{
+				if (kept[k])
+					currentList.add(index.get(seconds[k]));
+			}
+		}
+		return neighborsList;
+	}
+
+	/**
+	 * Find the best neighbors of a snapshot among the ones added before it.
+	 * Used when snapshots are matched while they are captured, in the order of their positions :
+	 * the pairs given are counted, so that no snapshot gets more than K of them.
+	 * @param index - indexed snapshots.
+	 * @param position - position of the snapshot in the index.
+	 * @return sorted positions of the neighbors to match with.
+	 */
+	public int[] getPreviousNeighbors(SnapshotIndex index, int position)
+	{
+		Snapshot snapshot = index.get(position);
+		float[] frame = getFrame(snapshot);
+		if (mPreviousDegrees.length < index.size())
+			mPreviousDegrees = Arrays.copyOf(mPreviousDegrees, Math.max(index.size(), 2 * mPreviousDegrees.length));
+
+		int[] candidates = getCandidates(index, position, -1);
+		int nbPrevious = 0;
+		for (int c : candidates)
+		{
+			if (c < position)
+				candidates[nbPrevious++] = c;
+		}
+
+		float[] overlaps = new float[nbPrevious];
+		for (int k = 0; k < nbPrevious; ++k)
+		{
+			overlaps[k] = getOverlap(frame, getFrame(index.get(candidates[k])));
+		}
+
+		int[] neighbors = new int[Math.min(mMaxNeighbors, nbPrevious)];
+		int count = 0;
+		for (int k : sortByOverlap(overlaps, nbPrevious))
+		{
+			if (count == neighbors.length || mPreviousDegrees[position] >= mMaxNeighbors)
+				break;
+			if (overlaps[k] < mMinOverlap)
+				break;
+			int c = candidates[k];
+			if (mPreviousDegrees[c] >= mMaxNeighbors)
+				continue;
+
+			neighbors[count++] = c;
+			mPreviousDegrees[c]++;
+			mPreviousDegrees[position]++;
+		}
+		neighbors = Arrays.copyOf(neighbors, count);
+		Arrays.sort(neighbors);
+		return neighbors;
+	}
+
+	/**
+	 * Part of the footprint of the first snapshot seen by the second one.
+	 * @return overlap ratio in [0, 1].
+	 */
+	public float getOverlap(Snapshot s1, Snapshot s2)
+	{
+		return getOverlap(getFrame(s1), getFrame(s2));
+	}
+
+	/* ******
+	 * SETTERS
+	 * ******/
+	/**
+	 * @param minOverlap - minimal overlap ratio for two snapshots to be matched.
+	 */
+	public void setMinOverlap(float minOverlap)
+	{
+		mMinOverlap = minOverlap;
+	}
+
+	/**
+	 * @param maxNeighbors - count of pairs kept for each snapshot.
+	 */
+	public void setMaxNeighbors(int maxNeighbors)
+	{
+		mMaxNeighbors = maxNeighbors;
+	}
+
+	/* *******
+	 * PRIVATE METHODS
+	 * *******/
+	/**
+	 * Positions of the snapshots that may overlap the one at the given position, above minPosition, sorted.
+	 * Footprints overlap only if their centers are closer than two radius on the sphere.
+	 */
+	private int[] getCandidates(SnapshotIndex index, int position, int minPosition)
+	{
+		int[] candidates = index.getNeighborsWithinAngle(index.get(position), minPosition,
+				Math.min(180.0f, 2.0f * mRadius));
+
+		int count = 0;
+		for (int c : candidates)
+		{
+			if (c != position)
+				candidates[count++] = c;
+		}
+		return Arrays.copyOf(candidates, count);
+	}
+
+	/**
+	 * Indices of the given overlaps, the best first. Equal overlaps keep their order.
+	 */
+	private static int[] sortByOverlap(final float[] overlaps, int count)
+	{
+		Integer[] order = new Integer[count];
+		for (int k = 0; k < count; ++k)
+		{
+			order[k] = k;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Float.compare(overlaps[b], overlaps[a]);
+			}
+		});
+
+		int[] result = new int[count];
+		for (int k = 0; k < count; ++k)
+		{
+			result[k] = order[k];
+		}
+		return result;
+	}
+
+	private float[][] getFrames(SnapshotIndex index)
+	{
+		float[][] frames = new float[index.size()][];
+		for (int i = 0; i < frames.length; ++i)
+		{
+			frames[i] = getFrame(index.get(i));
+		}
+		return frames;
+	}
+
+	/**
+	 * Axes of the camera in world frame : right, down and forward, flattened.
+	 */
+	private static float[] getFrame(Snapshot snapshot)
+	{
+		double p = Math.toRadians(snapshot.getPitch());
+		double y = Math.toRadians(snapshot.getYaw());
+		double r = Math.toRadians(snapshot.getRoll());
+
+		double cp = Math.cos(p), sp = Math.sin(p);
+		double cy = Math.cos(y), sy = Math.sin(y);
+		double cr = Math.cos(r), sr = Math.sin(r);
+
+		//columns of Ry(yaw) * Rx(pitch) * Rz(roll)
+		return new float[] {
+			(float) (cy * cr + sy * sp * sr), (float) (cp * sr), (float) (-sy * cr + cy * sp * sr),
+			(float) (-cy * sr + sy * sp * cr), (float) (cp * cr), (float) (sy * sr + cy * sp * cr),
+			(float) (sy * cp), (float) (-sp), (float) (cy * cp)
+		};
+	}
+
+	private float getOverlap(float[] f1, float[] f2)
+	{
+		int inside = 0;
+		for (int i = 0; i < SAMPLES; ++i)
+		{
+			float u = mTanH * ((2.0f * i + 1.0f) / SAMPLES - 1.0f);
+			for (int j = 0; j < SAMPLES; ++j)
+			{
+				float v = mTanV * ((2.0f * j + 1.0f) / SAMPLES - 1.0f);
+
+				//direction of the sample in world frame
+				float dx = f1[6] + u * f1[0] + v * f1[3];
+				float dy = f1[7] + u * f1[1] + v * f1[4];
+				float dz = f1[8] + u * f1[2] + v * f1[5];
+
+				//same direction in the frame of the second camera
+				float x = dx * f2[0] + dy * f2[1] + dz * f2[2];
+				float y = dx * f2[3] + dy * f2[4] + dz * f2[5];
+				float z = dx * f2[6] + dy * f2[7] + dz * f2[8];
+
+				if (z > 0 && Math.abs(x) <= mTanH * z && Math.abs(y) <= mTanV * z)
+					inside++;
+			}
+		}
+		return (float) inside / (SAMPLES * SAMPLES);
+	}
+}
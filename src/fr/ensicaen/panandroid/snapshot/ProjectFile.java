@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.adobe.xmp.XMPMeta;
+
+import fr.ensicaen.panandroid.tools.PhotoSphereXmp;
+import fr.ensicaen.panandroid.tools.PlainJson;
+
+/**
+ * Read-only view of a project file, as written by SnapshotManager.toJSON(). Only the project
+ * settings and the panorama properties are read, the snapshots are only counted. The journal
+ * isn't replayed : a stitched project has been saved in full.
+ * Doesn't depend on android, so the library tools run on a plain JVM.
+ * @see fr.ensicaen.panandroid.tools.PhotoSphereTagger
+ * @author Nicolas THIERION.
+ */
+public class ProjectFile
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	/** name of the project files. A constant : reading it doesn't load SnapshotManager. **/
+	public static final String FILENAME = SnapshotManager.DEFAULT_JSON_FILENAME;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	private final String mProjectName;
+	/** folder that contains the project file and all the jpegs **/
+	private final String mWorkingDir;
+	private final float mHeading;		//[deg]
+	private final int mPaddingL, mPaddingT;	//[px]
+	private final int mCropPanoW, mCropPanoH;	//[px]
+	private final int mFullPanoW, mFullPanoH;	//[px]
+	/** count of images used to stitch the panorama, 0 if unknown **/
+	private final int mImageCount;
+	private final int mSnapshotsCount;
+	/** first snapshot of the project, null if there is none **/
+	private final String mFirstSnapshot;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param jsonFile - project file.
+	 * @throws IOException if the file can't be read or isn't a project file.
+	 */
+	public ProjectFile(File jsonFile) throws IOException
+	{
+		Map<String, Object> jsonDoc = PlainJson.parseObject(jsonFile);
+		mProjectName = PlainJson.getString(jsonDoc, "panoName");
+		mWorkingDir = jsonFile.getAbsoluteFile().getParent();
+		mHeading = (float) PlainJson.getNumber(jsonDoc, "heading");
+
+		mPaddingL = (int) PlainJson.getNumber(jsonDoc, "paddingL");
+		mPaddingT = (int) PlainJson.getNumber(jsonDoc, "paddingT");
+		mCropPanoW = (int) PlainJson.getNumber(jsonDoc, "cropPanoW");
+		mCropPanoH = (int) PlainJson.getNumber(jsonDoc, "cropPanoH");
+		mFullPanoW = (int) PlainJson.getNumber(jsonDoc, "fullPanoW");
+		mFullPanoH = (int) PlainJson.getNumber(jsonDoc, "fullPanoH");
+		mImageCount = (int) PlainJson.optNumber(jsonDoc, "sourcePhotosCount", 0);
+
+		List<Object> panoData = PlainJson.getArray(jsonDoc, "panoData");
+		mSnapshotsCount = panoData.size();
+		String firstSnapshot = null;
+		if (mSnapshotsCount > 0 && panoData.get(0) instanceof Map)
+		{
+			@SuppressWarnings("unchecked")
+			Map<String, Object> jso = (Map<String, Object>) panoData.get(0);
+			firstSnapshot = mWorkingDir + File.separator + PlainJson.getString(jso, "filename");
+		}
+		mFirstSnapshot = firstSnapshot;
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Generate the PhotoSphere XMP data of the panorama.
+	 * @param softwareName - name of the capture software.
+	 * @param imageCount - count of images used to stitch the panorama.
+	 * @return RDF XML XMP metadata, or null if it can't be created.
+	 */
+	public XMPMeta generatePhotoSphereXMP(String softwareName, int imageCount)
+	{
+		return PhotoSphereXmp.generate(softwareName, mHeading, mPaddingL, mPaddingT,
+				mCropPanoW, mCropPanoH, mFullPanoW, mFullPanoH, imageCount);
+	}
+
+	/* *********
+	 * GETTERS
+	 * *********/
+	public String getProjectName()
+	{
+		return mProjectName;
+	}
+
+	public String getWorkingDir()
+	{
+		return mWorkingDir;
+	}
+
+	public String getPanoramaJpgPath()
+	{
+		return mWorkingDir + File.separator + mProjectName + ".jpg";
+	}
+
+	/**
+	 * @return count of images used to stitch the panorama, 0 if unknown.
+	 */
+	public int getNbUsedImages()
+	{
+		return mImageCount;
+	}
+
+	public int getSnapshotsCount()
+	{
+		return mSnapshotsCount;
+	}
+
+	/**
+	 * @return stitched preview of the project, otherwise its first snapshot, or null.
+	 */
+	public String getPreview()
+	{
+		File f = new File(mWorkingDir + File.separator + "preview.jpg");
+		if (f.exists())
+			return f.getAbsolutePath();
+		return mFirstSnapshot;
+	}
+}
@@ -18,6 +18,7 @@
  */
 package fr.ensicaen.panandroid.snapshot;
 
+import fr.ensicaen.panandroid.tools.DirectionVectors;
 import fr.ensicaen.panandroid.tools.EulerAngles;
 
 /**
@@ -47,6 +48,11 @@ public class Snapshot implements EulerAngles
 	
 	private float mRelativeRoll;
 
+	/** cosine of the pitch, weighting yaw and roll in getDistance() **/
+	private float mPitchCos;
+	/** unit vector of the direction, computed on first use. See DirectionVectors. **/
+	private float[] mDirection = null;
+
 	
 	private String mFileName = null;
 	
@@ -115,6 +121,7 @@ public class Snapshot implements EulerAngles
 				mRelativeRoll-=90;
 		}
 		
+		mPitchCos = getPitchCos(mPitch);
 		
 		mId = GLOBAL_ID;
 		GLOBAL_ID++;
@@ -173,65 +180,182 @@ public class Snapshot implements EulerAngles
 	/**
 	 * get the distance between this snapshot and the given eulerAngle, regardless of the roll.
 	 * See "getDistanceRoll()" for taking roll in account.
+	 * Allocates nothing. The distance to another snapshot needs no trigonometry.
 	 * @param eulerAngle
 	 * @return
 	 */
 	public float getDistance(EulerAngles eulerAngle) {
-		float d;
-		
-		Snapshot s = new Snapshot(eulerAngle.getPitch(), eulerAngle.getYaw(), eulerAngle.getRoll());
-		float dPitch, dYaw;
-		
-		
-		dPitch = Math.abs(mPitch - s.mPitch);
-		dYaw =  Math.abs(mYaw-s.mYaw);
-		if(dYaw>180.0f)
+		if(eulerAngle instanceof Snapshot)
 		{
-			dYaw = 360.0f - dYaw;
+			Snapshot s = (Snapshot) eulerAngle;
+			return getDistance(mPitch, mYaw, mPitchCos, s.mPitch, s.mYaw, s.mPitchCos);
 		}
 		
+		float pitch = normalizePitch(eulerAngle.getPitch());
+		float yaw = normalizeYaw(eulerAngle.getYaw());
+		return getDistance(mPitch, mYaw, mPitchCos, pitch, yaw, getPitchCos(pitch));
+	}
 
+	/**
+	 * get the distance between the given orientation and the given eulerAngle, regardless of the roll.
+	 * Same as new Snapshot(pitch, yaw).getDistance(eulerAngle), without creating a snapshot.
+	 * @param pitch
+	 * @param yaw
+	 * @param eulerAngle
+	 * @return
+	 */
+	public static float getDistance(float pitch, float yaw, EulerAngles eulerAngle)
+	{
+		pitch = normalizePitch(pitch);
+		yaw = normalizeYaw(yaw);
+		float pitchCos = getPitchCos(pitch);
 		
-		float pitchCoef = (float) Math.cos(Math.toRadians(Math.max(Math.abs(mPitch),  Math.abs(s.mPitch))));
-		d = (dYaw * pitchCoef + dPitch);
+		if(eulerAngle instanceof Snapshot)
+		{
+			Snapshot s = (Snapshot) eulerAngle;
+			return getDistance(pitch, yaw, pitchCos, s.mPitch, s.mYaw, s.mPitchCos);
+		}
 		
-		return d;
+		float pitch2 = normalizePitch(eulerAngle.getPitch());
+		float yaw2 = normalizeYaw(eulerAngle.getYaw());
+		return getDistance(pitch, yaw, pitchCos, pitch2, yaw2, getPitchCos(pitch2));
 	}
 
 	/**
 	 * get the distance between this snapshot and the given eulerAngle, taking the roll in account.
+	 * Allocates nothing.
 	 * @param eulerAngle
 	 * @return
 	 */
 	public float getDistanceRoll(EulerAngles eulerAngle)
 	{
-		float d;
+		float pitch, yaw, roll, pitchCos;
+		if(eulerAngle instanceof Snapshot)
+		{
+			Snapshot s = (Snapshot) eulerAngle;
+			pitch = s.mPitch;
+			yaw = s.mYaw;
+			roll = s.mRoll;
+			pitchCos = s.mPitchCos;
+		}
+		else
+		{
+			pitch = normalizePitch(eulerAngle.getPitch());
+			yaw = normalizeYaw(eulerAngle.getYaw());
+			roll = eulerAngle.getRoll();
+			if(roll>180.0001f)
+				roll-=360.0f;
+			pitchCos = getPitchCos(pitch);
+		}
 		
-		Snapshot s = new Snapshot(eulerAngle.getPitch(), eulerAngle.getYaw(), eulerAngle.getRoll());
 		float dPitch, dYaw, dRoll;
 		
-		
-		dPitch = Math.abs(mPitch - s.mPitch);
-		dYaw =  Math.abs(mYaw-s.mYaw);
+		dPitch = Math.abs(mPitch - pitch);
+		dYaw =  Math.abs(mYaw-yaw);
 		if(dYaw>180.0f)
 		{
 			dYaw = 360.0f - dYaw;
 		}
 		
-		dRoll = Math.abs(mRoll - s.mRoll);
+		dRoll = Math.abs(mRoll - roll);
 		if(dRoll>180.0f)
 		{
-			dRoll = 360.0f - dRoll;;
+			dRoll = 360.0f - dRoll;
 		}
 		
-		float pitchCoef = (float) Math.cos(Math.toRadians(Math.max(Math.abs(mPitch),  Math.abs(s.mPitch))));
-		d = (dRoll*pitchCoef + dYaw * pitchCoef + dPitch);
-		
-		return d;
+		float pitchCoef = Math.min(mPitchCos, pitchCos);
+		return (dRoll*pitchCoef + dYaw * pitchCoef + dPitch);
+	}
+
+	/**
+	 * get the unit vector of the direction of this snapshot, computed once. Must not be modified.
+	 * See DirectionVectors for the batch methods on packed directions.
+	 * @return
+	 */
+	public float[] getDirection()
+	{
+		if(mDirection==null)
+			mDirection = DirectionVectors.create(mPitch, mYaw);
+		return mDirection;
+	}
+
+	/**
+	 * get the angle between the directions of this snapshot and the given one, regardless of the roll.
+	 * Unlike getDistance(), it is the actual angle on the sphere.
+	 * @param snapshot
+	 * @return angle in degrees.
+	 */
+	public float getAngle(Snapshot snapshot)
+	{
+		return DirectionVectors.toAngle(getCosAngle(snapshot));
+	}
+
+	/**
+	 * get the cosine of the angle between the directions of this snapshot and the given one.
+	 * Cheaper than getAngle() for comparing against a threshold.
+	 * @param snapshot
+	 * @return
+	 */
+	public float getCosAngle(Snapshot snapshot)
+	{
+		return DirectionVectors.dot(getDirection(), 0, snapshot.getDirection(), 0);
+	}
+
+	/**
+	 * get the cosine of the absolute pitch, as used by getDistance().
+	 * @return
+	 */
+	public float getPitchCos()
+	{
+		return mPitchCos;
 	}
 
 	public void setId(int id)
 	{
 		mId = id;		
 	}
+
+	/* *******
+	 * PRIVATE METHODS
+	 * ******/
+	/**
+	 * distance of getDistance() between two normalized orientations.
+	 */
+	private static float getDistance(float pitch1, float yaw1, float pitchCos1, float pitch2, float yaw2, float pitchCos2)
+	{
+		float dPitch = Math.abs(pitch1 - pitch2);
+		float dYaw = Math.abs(yaw1 - yaw2);
+		if(dYaw>180.0f)
+		{
+			dYaw = 360.0f - dYaw;
+		}
+		
+		//cos(max(|p1|, |p2|)) is min(cos|p1|, cos|p2|).
+		float pitchCoef = Math.min(pitchCos1, pitchCos2);
+		return (dYaw * pitchCoef + dPitch);
+	}
+
+	/**
+	 * same normalization as the constructor.
+	 */
+	private static float normalizePitch(float pitch)
+	{
+		pitch%=180.0f;
+		if(pitch>90.0001f)
+			pitch-=180.0f;
+		return pitch;
+	}
+
+	private static float normalizeYaw(float yaw)
+	{
+		yaw%=360.0f;
+		if(yaw>180.0001f)
+			yaw-=360.0f;
+		return yaw;
+	}
+
+	private static float getPitchCos(float pitch)
+	{
+		return (float) Math.cos(Math.toRadians(Math.abs(pitch)));
+	}
 }
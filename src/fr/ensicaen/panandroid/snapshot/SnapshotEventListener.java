@@ -20,12 +20,20 @@ package fr.ensicaen.panandroid.snapshot;
 
 /**
  * When the camera build a snapshot object from a picture it has just taken, it throw the event onSnapshotTaken.
+ * The picture is written in background, the event onSnapshotSaved is thrown once it is safe on disk.
+ * Both events are thrown from the listener thread of the camera, not from the UI thread, in the order
+ * the snapshots were taken. onSnapshotTaken of a snapshot is always thrown before its onSnapshotSaved.
  * @author Nicolas
  *
  */
 public interface SnapshotEventListener
 {
 	abstract void onSnapshotTaken(byte[] pictureData, Snapshot snapshot);
+
+	/**
+	 * Not thrown if the picture couldn't be written.
+	 */
+	abstract void onSnapshotSaved(Snapshot snapshot);
 }
 
 
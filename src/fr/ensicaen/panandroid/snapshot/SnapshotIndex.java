@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Spherical grid of snapshots, bucketed by pitch and yaw steps.
+ * Answers "all snapshots within a given distance" by only visiting the cells that
+ * may contain a neighbor, instead of comparing every snapshot with all others.
+ * Distances are the ones given by Snapshot.getDistance().
+ * Yaw wraps around at +/-180 degrees, and a query that reaches a pole scans the whole pole row.
+ * @author Nicolas THIERION.
+ *
+ */
+public class SnapshotIndex
+{
+	/* ******
+	 * PARAMETERS
+	 * *****/
+	/** cell size used when the given step is not usable **/
+	private static final float DEFAULT_STEP = 10.0f;	//[deg]
+
+	/** below this pitch coefficient, the whole row of cells is scanned **/
+	private static final float MIN_PITCH_COEF = 0.0001f;
+
+	/** widens the yaw range of angle queries, against rounding errors **/
+	private static final float ANGLE_MARGIN = 0.001f;	//[deg]
+
+	/* ******
+	 * ATTRIBUTES
+	 * *****/
+	/** size of a cell, in pitch and yaw **/
+	private final float mPitchStep;		//[deg]
+	private final float mYawStep;		//[deg]
+
+	/** grid dimensions **/
+	private final int mNbRows;
+	private final int mNbCols;
+
+	/** indexed snapshots, by insertion position **/
+	private final ArrayList<Snapshot> mSnapshots;
+
+	/** positions of the snapshots lying in each cell, flattened row by row **/
+	private final int[][] mCells;
+	private final int[] mCellSizes;
+
+	/* ******
+	 * CONSTRUCTOR
+	 * ******/
+	/**
+	 * Create an empty index, with cells sized by the given steps.
+	 * @param pitchStep - step angle between each snapshot in pitch axis.
+	 * @param yawStep - step angle between each snapshot in yaw axis.
+	 */
+	public SnapshotIndex(float pitchStep, float yawStep)
+	{
+		mPitchStep = (pitchStep > 0 ? pitchStep : DEFAULT_STEP);
+		mYawStep = (yawStep > 0 ? yawStep : DEFAULT_STEP);
+
+		mNbRows = (int) Math.ceil(180.0f / mPitchStep) + 1;
+		mNbCols = Math.max(1, (int) Math.ceil(360.0f / mYawStep));
+
+		mSnapshots = new ArrayList<Snapshot>();
+		mCells = new int[mNbRows * mNbCols][];
+		mCellSizes = new int[mNbRows * mNbCols];
+	}
+
+	/* *******
+	 * METHODS
+	 * *******/
+	/**
+	 * add a snapshot to the index. Its position is the number of snapshots added before it.
+	 * @param snapshot
+	 * @return position of the snapshot in the index.
+	 */
+	public int add(Snapshot snapshot)
+	{
+		int position = mSnapshots.size();
+		mSnapshots.add(snapshot);
+
+		int cell = getRow(snapshot.getPitch()) * mNbCols + getCol(snapshot.getYaw());
+		int[] content = mCells[cell];
+		int size = mCellSizes[cell];
+		if (content == null)
+		{
+			content = new int[4];
+		}
+		else if (size == content.length)
+		{
+			content = Arrays.copyOf(content, size * 2);
+		}
+		content[size] = position;
+		mCells[cell] = content;
+		mCellSizes[cell] = size + 1;
+
+		return position;
+	}
+
+	/**
+	 * @return number of indexed snapshots.
+	 */
+	public int size()
+	{
+		return mSnapshots.size();
+	}
+
+	/**
+	 * @param position - position of the snapshot in the index.
+	 * @return the snapshot at the given position.
+	 */
+	public Snapshot get(int position)
+	{
+		return mSnapshots.get(position);
+	}
+
+	/**
+	 * Find all snapshots closer than maxDistance from the snapshot at the given position,
+	 * which have been added after it.
+	 * @param position - position of the reference snapshot.
+	 * @param maxDistance - exclusive distance threshold.
+	 * @return sorted positions of the neighbors.
+	 */
+	public int[] getNextNeighbors(int position, float maxDistance)
+	{
+		return getNeighbors(mSnapshots.get(position), position, maxDistance);
+	}
+
+	/**
+	 * Find all snapshots closer than maxDistance from the given snapshot, whose position
+	 * is strictly greater than minPosition.
+	 * @param snapshot - reference snapshot.
+	 * @param minPosition - exclusive lower bound on neighbors positions. -1 to get all of them.
+	 * @param maxDistance - exclusive distance threshold.
+	 * @return sorted positions of the neighbors.
+	 */
+	public int[] getNeighbors(Snapshot snapshot, int minPosition, float maxDistance)
+	{
+		float pitch = snapshot.getPitch();
+
+		//the farther from the equator, the wider a neighborhood in yaw.
+		float maxAbsPitch = Math.min(90.0f, Math.max(Math.abs(pitch - maxDistance), Math.abs(pitch + maxDistance)));
+		float pitchCoef = (float) Math.cos(Math.toRadians(maxAbsPitch));
+		float yawRange = (pitchCoef > MIN_PITCH_COEF ? maxDistance / pitchCoef : 360.0f);
+
+		return collect(snapshot, minPosition, maxDistance, yawRange, false, maxDistance);
+	}
+
+	/**
+	 * Find all snapshots whose direction is closer than maxAngle from the one of the given snapshot,
+	 * on the sphere, and whose position is strictly greater than minPosition.
+	 * Unlike getNeighbors(), the distance is the actual angle between the directions, see Snapshot.getAngle().
+	 * @param snapshot - reference snapshot.
+	 * @param minPosition - exclusive lower bound on neighbors positions. -1 to get all of them.
+	 * @param maxAngle - exclusive angle threshold, in degrees.
+	 * @return sorted positions of the neighbors.
+	 */
+	public int[] getNeighborsWithinAngle(Snapshot snapshot, int minPosition, float maxAngle)
+	{
+		float pitch = snapshot.getPitch();
+
+		//half width in yaw of the cap of radius maxAngle, unless it contains a pole.
+		float yawRange = 360.0f;
+		if (Math.abs(pitch) + maxAngle < 90.0f)
+		{
+			double sin = Math.sin(Math.toRadians(maxAngle)) / Math.cos(Math.toRadians(pitch));
+			yawRange = (float) Math.toDegrees(Math.asin(Math.min(1.0, sin))) + ANGLE_MARGIN;
+		}
+		float minCos = (maxAngle >= 180.0f ? -2.0f : (float) Math.cos(Math.toRadians(maxAngle)));
+
+		return collect(snapshot, minPosition, maxAngle, yawRange, true, minCos);
+	}
+
+	/* *******
+	 * PRIVATE METHODS
+	 * *******/
+	/**
+	 * Scan the cells around the given snapshot.
+	 * @param pitchRange - half height of the scanned cells, in pitch.
+	 * @param yawRange - half width of the scanned cells, in yaw.
+	 * @param byAngle - if neighbors are filtered by the cosine of their angle, or by their distance.
+	 * @param threshold - minimal cosine, or exclusive maximal distance.
+	 * @return sorted positions of the neighbors.
+	 */
+	private int[] collect(Snapshot snapshot, int minPosition, float pitchRange, float yawRange, boolean byAngle,
+			float threshold)
+	{
+		float pitch = snapshot.getPitch();
+		float yaw = snapshot.getYaw();
+
+		int minRow = getRow(pitch - pitchRange);
+		int maxRow = getRow(pitch + pitchRange);
+
+		int firstCol, nbCols;
+		if (2.0f * yawRange + mYawStep >= 360.0f)
+		{
+			firstCol = 0;
+			nbCols = mNbCols;
+		}
+		else
+		{
+			firstCol = getCol(yaw - yawRange);
+			nbCols = getCol(yaw + yawRange) - firstCol;
+			if (nbCols < 0)
+				nbCols += mNbCols;
+			nbCols = Math.min(mNbCols, nbCols + 1);
+		}
+
+		int[] result = new int[8];
+		int count = 0;
+		for (int row = minRow; row <= maxRow; ++row)
+		{
+			for (int c = 0; c < nbCols; ++c)
+			{
+				int cell = row * mNbCols + (firstCol + c) % mNbCols;
+				int[] content = mCells[cell];
+				int size = mCellSizes[cell];
+				for (int k = 0; k < size; ++k)
+				{
+					int candidate = content[k];
+					if (candidate <= minPosition)
+						continue;
+
+					Snapshot other = mSnapshots.get(candidate);
+					boolean close = (byAngle ? snapshot.getCosAngle(other) > threshold
+							: snapshot.getDistance(other) < threshold);
+					if (close)
+					{
+						if (count == result.length)
+							result = Arrays.copyOf(result, count * 2);
+						result[count++] = candidate;
+					}
+				}
+			}
+		}
+
+		result = Arrays.copyOf(result, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private int getRow(float pitch)
+	{
+		int row = (int) Math.floor((pitch + 90.0f) / mPitchStep);
+		return Math.max(0, Math.min(mNbRows - 1, row));
+	}
+
+	private int getCol(float yaw)
+	{
+		float y = (yaw + 180.0f) % 360.0f;
+		if (y < 0)
+			y += 360.0f;
+		int col = (int) Math.floor(y / mYawStep);
+		return Math.min(mNbCols - 1, col);
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the snapshots taken since the project file was last written.
+ * Each snapshot is one fixed-size record (id, pitch, yaw, roll, filename offset), synced to
+ * the storage as soon as it is appended, so that a capture survives a crash. The filenames are
+ * appended to a second file, the record gives their offset and length in it.
+ * A checksum over the record and its filename tells a complete record from a torn one.
+ * The journal is cleared each time the project file is rewritten, see SnapshotManager.
+ * @author Nicolas THIERION.
+ *
+ */
+public class SnapshotJournal
+{
+	/* ******
+	 * PARAMETERS
+	 * *****/
+	public static final String DEFAULT_JOURNAL_FILENAME = "PanoData.journal";
+	public static final String DEFAULT_NAMES_FILENAME = "PanoData.names";
+
+	/** first bytes of the journal file **/
+	private static final int MAGIC = 0x504e4a31;	// "PNJ1"
+	private static final int HEADER_SIZE = 4;		//[byte]
+	/** id, pitch, yaw, roll, filename offset, filename length, checksum **/
+	private static final int RECORD_SIZE = 7 * 4;	//[byte]
+	private static final String CHARSET = "UTF-8";
+
+	/* ******
+	 * ATTRIBUTES
+	 * *****/
+	/** Folder that contains the journal, the project file and all the jpegs. **/
+	private final String mWorkingDir;
+
+	/** open journal and filenames files **/
+	private RandomAccessFile mJournalFile = null;
+	private RandomAccessFile mNamesFile = null;
+	private FileChannel mJournalChannel;
+	private FileChannel mNamesChannel;
+
+	/** end of the valid part of each file **/
+	private long mJournalEnd;	//[byte]
+	private long mNamesEnd;		//[byte]
+
+	/** record being written, reused for each snapshot **/
+	private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+	private final CRC32 mCrc = new CRC32();
+
+	/* ******
+	 * CONSTRUCTOR
+	 * ******/
+	/**
+	 * Create the journal of the project stored in the given folder. Nothing is opened
+	 * before the first snapshot is appended.
+	 * @param workingDir - folder of the project.
+	 */
+	public SnapshotJournal(String workingDir)
+	{
+		mWorkingDir = workingDir;
+	}
+
+	/* *******
+	 * METHODS
+	 * *******/
+	/**
+	 * Append a snapshot to the journal, and sync it to the storage before returning.
+	 * @param snapshot - snapshot to append. Its filename must be in the working dir.
+	 * @throws IOException
+	 */
+	public synchronized void append(Snapshot snapshot) throws IOException
+	{
+		open();
+
+		byte[] name = getRelativeName(snapshot.getFilename()).getBytes(CHARSET);
+		mRecord.clear();
+		mRecord.putInt(snapshot.getId());
+		mRecord.putFloat(snapshot.getPitch());
+		mRecord.putFloat(snapshot.getYaw());
+		mRecord.putFloat(snapshot.getRoll());
+		mRecord.putInt((int) mNamesEnd);
+		mRecord.putInt(name.length);
+		mRecord.putInt(checksum(mRecord.array(), name));
+		mRecord.flip();
+
+		writeFully(mNamesChannel, ByteBuffer.wrap(name), mNamesEnd);
+		writeFully(mJournalChannel, mRecord, mJournalEnd);
+		mNamesChannel.force(false);
+		mJournalChannel.force(false);
+
+		mNamesEnd += name.length;
+		mJournalEnd += RECORD_SIZE;
+	}
+
+	/**
+	 * @return folder of the project.
+	 */
+	public String getWorkingDir()
+	{
+		return mWorkingDir;
+	}
+
+	/**
+	 * @return number of snapshots in the journal.
+	 */
+	public synchronized int getRecordCount()
+	{
+		return (mJournalFile == null ? 0 : (int) ((mJournalEnd - HEADER_SIZE) / RECORD_SIZE));
+	}
+
+	/**
+	 * Empty the journal, once all its snapshots have been written to the project file.
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException
+	{
+		if (mJournalFile == null)
+		{
+			delete(mWorkingDir);
+			return;
+		}
+		mJournalChannel.truncate(HEADER_SIZE);
+		mNamesChannel.truncate(0);
+		mJournalChannel.force(false);
+		mNamesChannel.force(false);
+		mJournalEnd = HEADER_SIZE;
+		mNamesEnd = 0;
+	}
+
+	/**
+	 * Close the journal files. The journal is opened again by the next append.
+	 */
+	public synchronized void close()
+	{
+		if (mJournalFile == null)
+			return;
+		try
+		{
+			mJournalFile.close();
+			mNamesFile.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		mJournalFile = null;
+		mNamesFile = null;
+	}
+
+	/**
+	 * Add the snapshots of the journal stored in the given folder to a list of snapshots.
+	 * Snapshots whose id is already in the list are skipped, as well as a torn last record.
+	 * @param workingDir - folder of the project.
+	 * @param snapshots - snapshots loaded from the project file.
+	 * @return number of added snapshots.
+	 * @throws IOException
+	 */
+	public static int replay(String workingDir, LinkedList<Snapshot> snapshots) throws IOException
+	{
+		File journal = new File(workingDir, DEFAULT_JOURNAL_FILENAME);
+		File names = new File(workingDir, DEFAULT_NAMES_FILENAME);
+		if (!journal.isFile() || !names.isFile())
+			return 0;
+
+		byte[] journalData = readFully(journal);
+		byte[] namesData = readFully(names);
+		ByteBuffer records = ByteBuffer.wrap(journalData);
+		if (journalData.length < HEADER_SIZE || records.getInt() != MAGIC)
+			return 0;
+
+		HashSet<Integer> ids = new HashSet<Integer>();
+		for (Snapshot s : snapshots)
+			ids.add(s.getId());
+
+		CRC32 crc = new CRC32();
+		int count = 0;
+		while (records.remaining() >= RECORD_SIZE)
+		{
+			int start = records.position();
+			int id = records.getInt();
+			float pitch = records.getFloat();
+			float yaw = records.getFloat();
+			float roll = records.getFloat();
+			int nameOffset = records.getInt();
+			int nameLength = records.getInt();
+			int checksum = records.getInt();
+
+			if (nameOffset < 0 || nameLength < 0 || nameOffset > namesData.length - nameLength)
+				break;
+			crc.reset();
+			crc.update(journalData, start, RECORD_SIZE - 4);
+			crc.update(namesData, nameOffset, nameLength);
+			if ((int) crc.getValue() != checksum)
+				break;
+
+			if (ids.add(id))
+			{
+				Snapshot snapshot = new Snapshot(pitch, yaw, roll);
+				snapshot.setFileName(workingDir + File.separator
+						+ new String(namesData, nameOffset, nameLength, CHARSET));
+				snapshot.setId(id);
+				snapshots.add(snapshot);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Delete the journal stored in the given folder.
+	 * @param workingDir - folder of the project.
+	 */
+	public static void delete(String workingDir)
+	{
+		new File(workingDir, DEFAULT_JOURNAL_FILENAME).delete();
+		new File(workingDir, DEFAULT_NAMES_FILENAME).delete();
+	}
+
+	/* *******
+	 * PRIVATE METHODS
+	 * *******/
+	/**
+	 * Open the journal files if needed. The records after the last valid one are dropped,
+	 * they are the remains of a crash.
+	 */
+	private void open() throws IOException
+	{
+		if (mJournalFile != null)
+			return;
+
+		long[] valid = scan(mWorkingDir);
+		long validCount = valid[0];
+
+		mJournalFile = new RandomAccessFile(new File(mWorkingDir, DEFAULT_JOURNAL_FILENAME), "rw");
+		mNamesFile = new RandomAccessFile(new File(mWorkingDir, DEFAULT_NAMES_FILENAME), "rw");
+		mJournalChannel = mJournalFile.getChannel();
+		mNamesChannel = mNamesFile.getChannel();
+
+		if (validCount == 0)
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.flip();
+			mJournalChannel.truncate(0);
+			writeFully(mJournalChannel, header, 0);
+			mNamesChannel.truncate(0);
+			mJournalEnd = HEADER_SIZE;
+			mNamesEnd = 0;
+		}
+		else
+		{
+			// records are valid up to the first torn one, their names are in the same order.
+			mJournalEnd = HEADER_SIZE + validCount * RECORD_SIZE;
+			mNamesEnd = valid[1];
+			mJournalChannel.truncate(mJournalEnd);
+			mNamesChannel.truncate(mNamesEnd);
+		}
+	}
+
+	/**
+	 * Count the valid records of the journal stored in the given folder, repeated ids included.
+	 * @param workingDir - folder of the project.
+	 * @return number of valid records, and the end of their names in the names file.
+	 * @throws IOException
+	 */
+	private static long[] scan(String workingDir) throws IOException
+	{
+		long[] valid = {0, 0};
+		File journal = new File(workingDir, DEFAULT_JOURNAL_FILENAME);
+		File names = new File(workingDir, DEFAULT_NAMES_FILENAME);
+		if (!journal.isFile() || !names.isFile())
+			return valid;
+
+		byte[] journalData = readFully(journal);
+		byte[] namesData = readFully(names);
+		ByteBuffer records = ByteBuffer.wrap(journalData);
+		if (journalData.length < HEADER_SIZE || records.getInt() != MAGIC)
+			return valid;
+
+		CRC32 crc = new CRC32();
+		while (records.remaining() >= RECORD_SIZE)
+		{
+			int start = records.position();
+			records.position(start + RECORD_SIZE - 12);
+			int nameOffset = records.getInt();
+			int nameLength = records.getInt();
+			int checksum = records.getInt();
+
+			if (nameOffset < 0 || nameLength < 0 || nameOffset > namesData.length - nameLength)
+				break;
+			crc.reset();
+			crc.update(journalData, start, RECORD_SIZE - 4);
+			crc.update(namesData, nameOffset, nameLength);
+			if ((int) crc.getValue() != checksum)
+				break;
+
+			valid[0]++;
+			valid[1] = nameOffset + nameLength;
+		}
+		return valid;
+	}
+
+	private String getRelativeName(String filename)
+	{
+		return filename.substring(mWorkingDir.length() + 1);
+	}
+
+	private int checksum(byte[] record, byte[] name)
+	{
+		mCrc.reset();
+		mCrc.update(record, 0, RECORD_SIZE - 4);
+		mCrc.update(name, 0, name.length);
+		return (int) mCrc.getValue();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer data, long position)
+			throws IOException
+	{
+		while (data.hasRemaining())
+			position += channel.write(data, position);
+	}
+
+	private static byte[] readFully(File file) throws IOException
+	{
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try
+		{
+			byte[] data = new byte[(int) input.length()];
+			input.readFully(data);
+			return data;
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+}
@@ -18,10 +18,12 @@
  */
 package fr.ensicaen.panandroid.snapshot;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.LinkedList;
 
 import junit.framework.Assert;
@@ -30,12 +32,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.adobe.xmp.XMPException;
 import com.adobe.xmp.XMPMeta;
-import com.adobe.xmp.XMPMetaFactory;
 
 import fr.ensicaen.panandroid.PanandroidApplication;
 import fr.ensicaen.panandroid.R;
+import fr.ensicaen.panandroid.stitcher.StitcherWrapper;
+import fr.ensicaen.panandroid.tools.PhotoSphereXmp;
 import fr.ensicaen.panandroid.tools.XmpUtil;
 
 
@@ -52,6 +54,10 @@ public class SnapshotManager implements SnapshotEventListener
 	/* ******
 	 * PARAMETERS
 	 * *****/	
+	/** PhotoSphere XMP namespace **/
+	public static final String GPANO_NAMESPACE = PhotoSphereXmp.GPANO_NAMESPACE;
+	/** snapshots journaled before the project file is written again **/
+	private static final int JOURNAL_COMPACTION_INTERVAL = 16;
 	
 	
 	/* ******
@@ -62,6 +68,8 @@ public class SnapshotManager implements SnapshotEventListener
 	 * ***/
 	/** list of snapshots that compose the project **/
 	private LinkedList<Snapshot> mSnapshots;
+	/** spatial index of the snapshots, used for neighbor lookup. Lazily built. **/
+	private SnapshotIndex mIndex = null;
 	/** project name **/
 	private String mProjectName="";
 	/** Folder that contain the json project file and all the jpegs. **/
@@ -76,6 +84,16 @@ public class SnapshotManager implements SnapshotEventListener
 	private int mImageCount;
 	/** where the result jpeg panorama is stored **/
 	private String mPanoFilePath;
+	/** chooses which snapshots are matched together. Lazily built. **/
+	private MatchingPlanner mPlanner = null;
+	/** if snapshots are pushed to the stitcher while they are taken **/
+	private boolean mIncrementalStitching = false;
+	/** snapshots taken since the project file was last written. Opened by the first snapshot. **/
+	private SnapshotJournal mJournal = null;
+	/** if the project file has been written, with the project settings **/
+	private boolean mProjectSaved = false;
+	/** snapshots taken whose picture isn't on disk yet. They are never persisted. **/
+	private final HashSet<Snapshot> mUnsavedSnapshots = new HashSet<Snapshot>();
 	/** angle range covered by the panorama **/
 	private float mMinPitch = -91;
 	private float mMinYaw = -181;
@@ -141,7 +159,7 @@ public class SnapshotManager implements SnapshotEventListener
 	 * add a snapshot to the list of snapshots.
 	 * @param snapshot
 	 */
-	public void addSnapshot(Snapshot snapshot)
+	public synchronized void addSnapshot(Snapshot snapshot)
 	{
 		String filename = snapshot.getFilename();
 		String workingDir = filename.substring(0, filename.lastIndexOf(File.separator));
@@ -159,17 +177,20 @@ public class SnapshotManager implements SnapshotEventListener
 		}
 		snapshot.setId(mSnapshots.size());
 		mSnapshots.add(snapshot);
+		if(mIndex!=null)
+			mIndex.add(snapshot);
 	}
 
 
 	
 	/**
 	 * save the snapshot collection to a JSON file, at the current working dir.
+	 * The file is replaced atomically. Saving to the default project file empties the journal.
 	 * @param directory Directory to save the JSON file. Directories will be created if don't exists.
 	 * @param filename name of the JSON file.
 	 * @return absolute path + filename of the created JSon file.
 	 */
-	public String toJSON(String filename)
+	public synchronized String toJSON(String filename)
 	{
 		JSONObject jsonDoc = new JSONObject();
 		JSONArray jsonArray = new JSONArray();
@@ -203,8 +224,16 @@ public class SnapshotManager implements SnapshotEventListener
 			jsonDoc.put("paddingL", mPaddingL);
 			jsonDoc.put("paddingT", mPaddingT);
 			
+			//only known once the panorama is stitched.
+			if(mImageCount>0)
+				jsonDoc.put("sourcePhotosCount", mImageCount);
+			
 			for(Snapshot s : mSnapshots)
 			{
+				//the project never refers to a picture that may never be written.
+				if(mUnsavedSnapshots.contains(s))
+					continue;
+				
 				JSONObject jso = new JSONObject();
 				try 
 				{
@@ -226,10 +255,25 @@ public class SnapshotManager implements SnapshotEventListener
 			try
 			{
 				absoluteFilename =  mWorkingDir+File.separator+filename;
-				FileWriter file = new FileWriter(absoluteFilename);
-				file.write(jsonDoc.toString());
-				file.flush();
-				file.close();
+				File tmpFile = new File(absoluteFilename+".tmp");
+				BufferedWriter file = new BufferedWriter(new FileWriter(tmpFile));
+				try
+				{
+					file.write(jsonDoc.toString());
+				}
+				finally
+				{
+					file.close();
+				}
+				if(!tmpFile.renameTo(new File(absoluteFilename)))
+					throw new IOException("Can't rename "+tmpFile+" to "+absoluteFilename);
+				
+				//all the journaled snapshots are in the project file now.
+				if(new File(filename).getName().equals(DEFAULT_JSON_FILENAME))
+				{
+					mProjectSaved = true;
+					clearJournal();
+				}
 			}
 			catch (IOException e)
 			{
@@ -251,7 +295,126 @@ public class SnapshotManager implements SnapshotEventListener
 	@Override
 	public void onSnapshotTaken(byte[] pictureData, Snapshot snapshot)
 	{
-		addSnapshot(snapshot);
+		synchronized(this)
+		{
+			addSnapshot(snapshot);
+			mUnsavedSnapshots.add(snapshot);
+		}
+		
+		if(mIncrementalStitching && pictureData!=null)
+		{
+			StitcherWrapper stitcher = StitcherWrapper.getInstance();
+			if(mSnapshots.size()==1)
+				stitcher.startSession(mWorkingDir);
+			
+			//match the new snapshot against its best already taken neighbors
+			int[] neighbors = getPlanner().getPreviousNeighbors(getIndex(), snapshot.getId());
+			stitcher.addToSession(pictureData, snapshot, neighbors);
+		}
+	}
+	
+	/**
+	 * Push each snapshot to the stitcher as soon as it is taken, so features are found
+	 * and matched during the capture. See StitcherWrapper.startSession().
+	 * @param enabled
+	 */
+	public void setIncrementalStitchingEnabled(boolean enabled)
+	{
+		mIncrementalStitching = enabled;
+	}
+	
+	/**
+	 * Journal the snapshot once its picture is on disk, so that the project never refers
+	 * to a missing picture after a crash.
+	 */
+	@Override
+	public void onSnapshotSaved(Snapshot snapshot)
+	{
+		journalSnapshot(snapshot);
+	}
+	
+	/**
+	 * Append the snapshot to the journal, so that persisting a snapshot doesn't rewrite
+	 * the whole project file. The first snapshot writes the project file, with the project
+	 * settings, and the journal is compacted into it every JOURNAL_COMPACTION_INTERVAL snapshots.
+	 * Nothing is persisted until the working dir is known.
+	 * @param snapshot - snapshot just saved.
+	 */
+	private synchronized void journalSnapshot(Snapshot snapshot)
+	{
+		mUnsavedSnapshots.remove(snapshot);
+		SnapshotJournal journal = getJournal();
+		if(journal==null)
+		{
+			Log.w(TAG, "No working dir yet, snapshot "+snapshot.getId()+" not journaled");
+			return;
+		}
+		if(!mProjectSaved || journal.getRecordCount()+1 >= JOURNAL_COMPACTION_INTERVAL)
+		{
+			toJSON(DEFAULT_JSON_FILENAME);
+			return;
+		}
+		
+		try
+		{
+			journal.append(snapshot);
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Can't journal snapshot "+snapshot.getId()+", saving the project file instead", e);
+			toJSON(DEFAULT_JSON_FILENAME);
+		}
+	}
+	
+	/**
+	 * Close the journal files, once no more snapshots will be taken.
+	 */
+	public synchronized void closeJournal()
+	{
+		if(mJournal!=null)
+		{
+			mJournal.close();
+			mJournal = null;
+		}
+	}
+	
+	/**
+	 * Empty the journal. A journal that can't be emptied is harmless, its snapshots are
+	 * skipped when the project is loaded, as they are already in the project file.
+	 */
+	private void clearJournal()
+	{
+		SnapshotJournal journal = getJournal();
+		if(journal==null)
+			return;
+		try
+		{
+			journal.clear();
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "Can't clear the journal", e);
+		}
+	}
+	
+	/**
+	 * @return the journal of the current working dir, opened lazily. Null while the working dir
+	 * isn't known.
+	 */
+	private SnapshotJournal getJournal()
+	{
+		if(mWorkingDir==null || mWorkingDir.length()==0)
+			return null;
+		
+		//the working dir changed : the journal follows it.
+		if(mJournal!=null && !mJournal.getWorkingDir().equals(mWorkingDir))
+			closeJournal();
+		
+		if(mJournal==null)
+		{
+			mJournal = new SnapshotJournal(mWorkingDir);
+		}
+		return mJournal;
 	}
 	
 	
@@ -266,23 +429,18 @@ public class SnapshotManager implements SnapshotEventListener
 	{
 		LinkedList<LinkedList<Snapshot>> neighborsList = new LinkedList<LinkedList<Snapshot>>();
 	
-		float maxDistance = mPitchStep + mYawStep;
-		maxDistance+=maxDistance/2;
+		SnapshotIndex index = getIndex();
+		float maxDistance = getNeighborsMaxDistance();
 		
-		for( int i = 0; i < mSnapshots.size(); i++ )
+		for( int i = 0; i < index.size(); i++ )
 		{
 			LinkedList<Snapshot> currentList = new LinkedList<Snapshot>();
 			neighborsList.add(currentList);		
 			
-			Snapshot currentSnapshot = mSnapshots.get(i);
-			currentList.add(currentSnapshot);	
-			for (int j = i+1; j < mSnapshots.size(); j++)
+			currentList.add(index.get(i));	
+			for (int j : index.getNextNeighbors(i, maxDistance))
 			{
-				Snapshot currentNeighbor = mSnapshots.get(j);
-				if(currentSnapshot.getDistance(currentNeighbor) < maxDistance )
-				{
-					currentList.add(currentNeighbor);
-				}
+				currentList.add(index.get(j));
 			}
 		}	
 		return neighborsList;
@@ -297,30 +455,76 @@ public class SnapshotManager implements SnapshotEventListener
 	{
 		LinkedList<LinkedList<Integer>> neighborsList = new LinkedList<LinkedList<Integer>>();
 		
-		float maxDistance = mPitchStep + mYawStep;
-		maxDistance+=maxDistance/2;
-		for( int i = 0; i < mSnapshots.size(); i++ )
+		SnapshotIndex index = getIndex();
+		float maxDistance = getNeighborsMaxDistance();
+		
+		for( int i = 0; i < index.size(); i++ )
 		{
 			LinkedList<Integer> currentList = new LinkedList<Integer>();
 			neighborsList.add(currentList);		
 			
-			Snapshot currentSnapshot = mSnapshots.get(i);
 			currentList.add(i);	
-			for (int j = i+1; j < mSnapshots.size(); j++)
+			for (int j : index.getNextNeighbors(i, maxDistance))
 			{
-				Snapshot currentNeighbor = mSnapshots.get(j);
-				if(currentSnapshot.getDistance(currentNeighbor) < maxDistance )
-				{
-					currentList.add(j);
-				}
+				currentList.add(j);
 			}
 		}	
 		return neighborsList;
 	}
 	
+	/**
+	 * Group snapshots by list of neighbors to match, keeping only the pairs whose footprints
+	 * really overlap, and at most the best ones for each snapshot. See MatchingPlanner.
+	 * @return
+	 */
+	public LinkedList<LinkedList<Snapshot>> getPlannedNeighborsList()
+	{
+		return getPlanner().plan(getIndex());
+	}
+	
+	/**
+	 * Get the matching planner of the project, building it if needed.
+	 * @return
+	 */
+	public MatchingPlanner getPlanner()
+	{
+		if(mPlanner==null)
+		{
+			mPlanner = new MatchingPlanner(mHFov, mVFov);
+		}
+		return mPlanner;
+	}
+	
+	/**
+	 * Get the spatial index of the snapshots, building it if needed.
+	 * @return
+	 */
+	public SnapshotIndex getIndex()
+	{
+		if(mIndex==null)
+		{
+			mIndex = new SnapshotIndex(mPitchStep, mYawStep);
+			for(Snapshot s : mSnapshots)
+				mIndex.add(s);
+		}
+		return mIndex;
+	}
+	
+	/**
+	 * Distance under which two snapshots are considered as neighbors.
+	 * @return
+	 */
+	private float getNeighborsMaxDistance()
+	{
+		float maxDistance = mPitchStep + mYawStep;
+		maxDistance+=maxDistance/2;
+		return maxDistance;
+	}
+	
 	/**
 	 * load a project from the given JSON config file.
-	 * Loads snapshots list, pano name, etc...
+	 * Loads snapshots list, pano name, etc... then the snapshots journaled after the file
+	 * was written, if the capture was interrupted.
 	 * @param filename - project filename
 	 * @throws JSONException 
 	 * @throws IOException 
@@ -338,6 +542,8 @@ public class SnapshotManager implements SnapshotEventListener
 		
 		//parse JSON and build list
 		mSnapshots = new LinkedList<Snapshot>();
+		mIndex = null;
+		mPlanner = null;
 		mProjectName = jsonSnapshots.getString("panoName");			
 		mWorkingDir = filename.substring(0, filename.lastIndexOf(File.separator));
 		mHeading = jsonSnapshots.getInt("heading");
@@ -365,6 +571,9 @@ public class SnapshotManager implements SnapshotEventListener
 		mMaxPitch = (float) jsonSnapshots.getDouble("maxPitch");
 		mMaxYaw = (float) jsonSnapshots.getDouble("maxYaw");	
 		
+		//images used by the stitcher, 0 if the project hasn't been stitched yet.
+		mImageCount = jsonSnapshots.optInt("sourcePhotosCount", 0);
+		
 		Log.i(TAG, "setting working dir : " +mWorkingDir);
 		
 		JSONArray panoDataArray = jsonSnapshots.getJSONArray("panoData");
@@ -387,7 +596,13 @@ public class SnapshotManager implements SnapshotEventListener
 			currentSnapshot.setId(snapshotId);
 			mSnapshots.add(currentSnapshot);			
 		}
+		
+		closeJournal();
+		int journaled = SnapshotJournal.replay(mWorkingDir, mSnapshots);
+		if(journaled>0)
+			Log.i(TAG, "Recovered "+journaled+" snapshots from journal");
 		mPanoFilePath = mWorkingDir+File.separator + mProjectName+".jpg";
+		mProjectSaved = true;
 		return true; 
 	}
 	
@@ -508,54 +723,38 @@ public class SnapshotManager implements SnapshotEventListener
 	
 	
 	/**
-     * Generate PhotoSphere XMP data file to apply on panorama images
-     * https://developers.google.com/photo-sphere/metadata/
-     *
-     * @param width The width of the panorama
-     * @param height The height of the panorama
-     * @return RDF XML XMP metadata
-     */
-    private XMPMeta generatePhotoSphereXMP() {
- 	    	
-    	String xmpData =  "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
-                "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">\n" +
-                "    <GPano:UsePanoramaViewer>True</GPano:UsePanoramaViewer>\n" +
-                "    <GPano:CaptureSoftware>"+ PanandroidApplication.getContext().getString(R.string.app_name)+"</GPano:CaptureSoftware>\n" +
-                "    <GPano:StitchingSoftware>" + PanandroidApplication.getContext().getString(R.string.app_name) + " with OpenCV</GPano:StitchingSoftware>\n" +
-                "    <GPano:ProjectionType>equirectangular</GPano:ProjectionType>\n" +
-                "    <GPano:PoseHeadingDegrees>350.0</GPano:PoseHeadingDegrees>\n" +
-                "    <GPano:InitialViewHeadingDegrees>"+mHeading+"</GPano:InitialViewHeadingDegrees>\n" +
-                "    <GPano:InitialViewPitchDegrees>"+0+"</GPano:InitialViewPitchDegrees>\n" +
-                "    <GPano:InitialViewRollDegrees>"+0+"</GPano:InitialViewRollDegrees>\n" +
-                "    <GPano:InitialHorizontalFOVDegrees>"+45+"</GPano:InitialHorizontalFOVDegrees>\n" +
-                "    <GPano:CroppedAreaLeftPixels>"+mPaddingL+"</GPano:CroppedAreaLeftPixels>\n" +
-                "    <GPano:CroppedAreaTopPixels>"+mPaddingT+"</GPano:CroppedAreaTopPixels>\n" +
-                "    <GPano:CroppedAreaImageWidthPixels>"+(mCropPanoW)+"</GPano:CroppedAreaImageWidthPixels>\n" +
-                "    <GPano:CroppedAreaImageHeightPixels>"+(mCropPanoH)+"</GPano:CroppedAreaImageHeightPixels>\n" +
-                "    <GPano:FullPanoWidthPixels>"+mFullPanoW+"</GPano:FullPanoWidthPixels>\n" +
-                "    <GPano:FullPanoHeightPixels>"+mFullPanoH+"</GPano:FullPanoHeightPixels>\n" +
-                //"    <GPano:FirstPhotoDate>2012-11-07T21:03:13.465Z</GPano:FirstPhotoDate>\n" +
-                //"    <GPano:LastPhotoDate>2012-11-07T21:04:10.897Z</GPano:LastPhotoDate>\n" +
-                "    <GPano:SourcePhotosCount>"+mImageCount+"</GPano:SourcePhotosCount>\n" +
-                "    <GPano:ExposureLockUsed>False</GPano:ExposureLockUsed>\n" +
-                "</rdf:Description></rdf:RDF>";
-    	
-    	XMPMeta xmpMeta;
-		try {
-			xmpMeta = XMPMetaFactory.parseFromString(xmpData);
-	    	return xmpMeta;
+	 * Generate PhotoSphere XMP data file to apply on panorama images
+	 * https://developers.google.com/photo-sphere/metadata/
+	 *
+	 * @return RDF XML XMP metadata
+	 */
+	public XMPMeta generatePhotoSphereXMP()
+	{
+		return generatePhotoSphereXMP(PanandroidApplication.getContext().getString(R.string.app_name));
+	}
 
-		} catch (XMPException e) {
-			e.printStackTrace();
-		}
-    	
-		return null;
-    }
+	/**
+	 * Generate PhotoSphere XMP data, without needing the application context.
+	 * @param softwareName - name of the capture software.
+	 * @return RDF XML XMP metadata, or null if it can't be created.
+	 */
+	public XMPMeta generatePhotoSphereXMP(String softwareName)
+	{
+		return PhotoSphereXmp.generate(softwareName, mHeading, mPaddingL, mPaddingT,
+				mCropPanoW, mCropPanoH, mFullPanoW, mFullPanoH, mImageCount);
+	}
 
 	public void setNbUsedImages(int imagesGount) {
 		mImageCount = imagesGount;
 		
 	}
+	
+	/**
+	 * @return count of images used to stitch the panorama, 0 if unknown.
+	 */
+	public int getNbUsedImages() {
+		return mImageCount;
+	}
 
 	public float getMinPitch() {
 		return mMinPitch;
@@ -586,5 +785,6 @@ public class SnapshotManager implements SnapshotEventListener
 		return null;
 	}
 	
+	
 }
 
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.stitcher;
+
+import java.util.Arrays;
+
+import com.adobe.xmp.XMPMeta;
+
+import fr.ensicaen.panandroid.tools.XmpUtil;
+
+/**
+ * List of operations applied to a jpeg image in a single pass :
+ * the image is decoded once, transformed by each operation in order, and encoded once
+ * together with its XMP metadata.
+ * Usage :
+ * new PostProcessing().resize(w, h).pad(l, t, r, b).setXMPMeta(meta).run(src, dst);
+ * @author Nicolas THIERION.
+ */
+public class PostProcessing
+{
+	/* *********
+	 * CONSTANTS
+	 * *********/
+	/** operation codes, as understood by the native pipeline. Each one is followed by its arguments **/
+	public static final int OP_PAD = 1;		//left, top, right, bottom
+	public static final int OP_RESIZE = 2;	//width, height
+	public static final int OP_ROTATE = 3;	//angle
+	public static final int OP_CROP = 4;	//x, y, width, height
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** operations codes and arguments, flattened **/
+	private int[] mOperations = new int[16];
+	private int mLength = 0;
+
+	/** content of the XMP APP1 segment, or null **/
+	private byte[] mXmpSection = null;
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Add black borders around the image. Used to extend a cropped panorama to the full sphere.
+	 */
+	public PostProcessing pad(int left, int top, int right, int bottom)
+	{
+		return add(OP_PAD, left, top, right, bottom);
+	}
+
+	/**
+	 * Resize the image. Does nothing if the image already has the given size.
+	 */
+	public PostProcessing resize(int width, int height)
+	{
+		return add(OP_RESIZE, width, height);
+	}
+
+	/**
+	 * Rotate the image. Only multiples of 90 degrees are supported.
+	 */
+	public PostProcessing rotate(int angle)
+	{
+		return add(OP_ROTATE, angle);
+	}
+
+	/**
+	 * Keep only the given area of the image. The area is clipped to the image bounds.
+	 */
+	public PostProcessing crop(int x, int y, int width, int height)
+	{
+		return add(OP_CROP, x, y, width, height);
+	}
+
+	/**
+	 * Write the given XMP metadata in the output jpeg.
+	 * @param meta - metadata, or null to write none.
+	 * @return false if the metadata can't be serialized in a single jpeg segment.
+	 */
+	public boolean setXMPMeta(XMPMeta meta)
+	{
+		if (meta == null)
+		{
+			mXmpSection = null;
+			return true;
+		}
+		mXmpSection = XmpUtil.getXMPSectionData(meta, XmpUtil.XMP_PADDING);
+		return mXmpSection != null;
+	}
+
+	/**
+	 * Apply the operations to the source image, and write the result.
+	 * The source may be the same file as the destination.
+	 * @return 0 on success.
+	 */
+	public int run(String srcJpeg, String dstJpeg)
+	{
+		return StitcherWrapper.postProcess(srcJpeg, dstJpeg, Arrays.copyOf(mOperations, mLength), mXmpSection);
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	private PostProcessing add(int... values)
+	{
+		if (mLength + values.length > mOperations.length)
+			mOperations = Arrays.copyOf(mOperations, 2 * (mLength + values.length));
+		System.arraycopy(values, 0, mOperations, mLength, values.length);
+		mLength += values.length;
+		return this;
+	}
+}
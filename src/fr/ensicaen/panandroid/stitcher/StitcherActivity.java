@@ -59,6 +59,18 @@ public class StitcherActivity extends Activity {
     private static final int MAX_PANO_WIDTH = 4096;
 	public static final int PREVIEW_SIZE = 768;
 
+    /**
+     * resolution of each snapshot in the panorama, in megapixels.
+     * Compositing by bands doesn't bound the whole panorama held in memory : keep the native default.
+     */
+    private static final double COMPOSE_MEGAPIX = 1.2;
+
+    /** height of the bands the panorama is composited by, in pixels */
+    private static final int COMPOSE_BAND_HEIGHT = 512;
+
+    /** if cameras are also initialized from the sensors. The native stitcher keeps them only if they fit better */
+    private static final boolean USE_SENSOR_PRIORS = true;
+
     /**************
      * ATTRIBUTES *
      **************/
@@ -134,8 +146,10 @@ public class StitcherActivity extends Activity {
     /**
      * StitcherTask class provides treatments on the set of images.
      */
-    class StitcherTask extends AsyncTask<Void, Integer, Integer> {
+    class StitcherTask extends AsyncTask<Void, Integer, Integer> implements StitcherListener {
         public final int SUCCESS = 0;
+        /** the panorama is stitched, but couldn't be tagged or written. The stitched file is kept */
+        public final int ERR_POST_PROCESSING = -2;
         private ProgressDialog mProgress;
 
         /**
@@ -187,65 +201,70 @@ public class StitcherActivity extends Activity {
             dialog.show();
         }
 
+        /**
+         * Updates the progress bar.
+         * It runs on the UI thread.
+         */
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgress.setProgress(values[0]);
+        }
+
+        /**
+         * Called from the stitching thread each time the native progress changes.
+         */
+        @Override
+        public void onProgress(int progress) {
+            publishProgress(progress);
+        }
+
+        /**
+         * Called from the stitching thread at the end of each native stage.
+         */
+        @Override
+        public void onStageDone(int stage, StitcherTelemetry telemetry) {
+            Log.i(TAG, "Stage " + StitcherTelemetry.getStageName(stage) + " done in "
+                    + telemetry.getStageTime(stage) + "s");
+        }
+
         /**
          * Stitches images with OpenCV features through JNI.
          */
         @Override
         protected Integer doInBackground(Void... params) {
             mStitcher = StitcherWrapper.getInstance();
-            mStitcher.setSnapshotList(mSnapshotManager.getNeighborsList());
-
-            try {
-                new Thread(new Runnable() {
-                    public void run() {
-                        String panoJpeg = mSnapshotManager.getPanoramaJpgPath();
-                        mTempFilenames.add(genTempFilename("__tmp", panoJpeg));
+            mStitcher.setSnapshotList(mSnapshotManager.getPlannedNeighborsList());
+            mStitcher.setFinderThreads(Runtime.getRuntime().availableProcessors());
+            mStitcher.setSensorPriorsEnabled(USE_SENSOR_PRIORS, mSnapshotManager.getCameraHFov());
+            mStitcher.setComposeBands(COMPOSE_MEGAPIX, COMPOSE_BAND_HEIGHT);
 
-                        // Run stitcher Run !
-                	mStitcher.stitch(mTempFilenames.getLast());
-                    }
-                }).start();
-            } catch (Exception e) {
-                return -1;
-            }
+            mStitcher.setListener(this);
 
-            // Poll status and update progress bar
-            while (mStitcher.getStatus() == StitcherWrapper.Status.OK
-                    && mStitcher.getProgress() < 100) {
-                mProgress.setProgress(mStitcher.getProgress());
+            String panoJpeg = mSnapshotManager.getPanoramaJpgPath();
+            mTempFilenames.add(genTempFilename("__tmp", panoJpeg));
 
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            // Run stitcher Run ! Snapshots already registered during capture are not processed again.
+            // Progress is pushed by the native stitcher through onProgress().
+            if (mStitcher.hasSession(mSnapshotManager.getWorkingDir(),
+                    mSnapshotManager.getSnapshotsList().size())) {
+                mStitcher.stitchSession(mTempFilenames.getLast());
+            } else {
+                mStitcher.stitch(mTempFilenames.getLast());
             }
+            mStitcher.setListener(null);
 
-            mProgress.setProgress(100);
+            publishProgress(100);
+            Log.i(TAG, "Stitching telemetry : " + mStitcher.getTelemetry());
 
             // Panorama succeed?
             if (mStitcher.getStatus() == StitcherWrapper.Status.DONE
                     || mStitcher.getStatus() == StitcherWrapper.Status.OK) {
-                String panoJpeg = mSnapshotManager.getPanoramaJpgPath();
                 String tempFilename = mTempFilenames.getLast();
 
                 // Get actual size of created image
                 BitmapFactory.Options opts = new BitmapFactory.Options();
                 opts.inJustDecodeBounds = true;
 
-                // Wait for the file to be well written
-                File f;
-
-                do {
-                    f = new File(tempFilename);
-
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                } while (!f.exists() || !f.canRead());
-
                 BitmapFactory.decodeFile(tempFilename, opts);
                 int croppedWidth = opts.outWidth;
                 int croppedHeight = opts.outHeight;
@@ -304,6 +323,9 @@ public class StitcherActivity extends Activity {
 
                 mSnapshotManager.setNbUsedImages(mStitcher.getUsedIndices().length);
 
+                // Resize, pad and tag the panorama in a single decode/encode pass
+                PostProcessing postProcessing = new PostProcessing();
+
             	if (fullResX > MAX_PANO_WIDTH) {
             	    double r = ((double)fullResX) / ((double)MAX_PANO_WIDTH);
 
@@ -316,10 +338,7 @@ public class StitcherActivity extends Activity {
             	    croppedHeight = (croppedHeight >> 3) << 3;
             	    croppedWidth = (croppedWidth >> 3) << 3;
 
-            	    // For an unknown reason, resize fail the first time.
-            	    mTempFilenames.add(genTempFilename("__tmpRSZ1", panoJpeg));
-            	    StitcherWrapper.resizeImg(tempFilename, mTempFilenames.getLast(), croppedWidth,croppedHeight);
-            	    StitcherWrapper.resizeImg(tempFilename, tempFilename, croppedWidth,croppedHeight);
+            	    postProcessing.resize(croppedWidth, croppedHeight);
 
             	    // Ensure resolution is still multiple of 4
             	    fullResX = (fullResX >> 3) << 3;
@@ -344,13 +363,19 @@ public class StitcherActivity extends Activity {
                	mSnapshotManager.setBounds(bounds);
             	mSnapshotManager.setHeading(heading);
 
-               	StitcherWrapper.setPadding(tempFilename, tempFilename, paddX, paddY, paddX, paddY );
-
-               	StitcherWrapper.resizeImg(tempFilename, panoJpeg, fullResX, fullResY);
+               	postProcessing.pad(paddX, paddY, paddX, paddY).resize(fullResX, fullResY);
+               	if (!postProcessing.setXMPMeta(mSnapshotManager.generatePhotoSphereXMP())) {
+               	    Log.e(TAG, "Can't serialize the PhotoSphere XMP, stitched panorama kept in " + tempFilename);
+               	    return ERR_POST_PROCESSING;
+               	}
+               	int res = postProcessing.run(tempFilename, panoJpeg);
+               	if (res != 0) {
+               	    Log.e(TAG, "Post processing failed (" + res + "), stitched panorama kept in " + tempFilename);
+               	    return ERR_POST_PROCESSING;
+               	}
                	while(mTempFilenames.size()>0)
                		new File(mTempFilenames.removeFirst()).delete();
 
-            	mSnapshotManager.doPhotoSphereTagging();
             	mSnapshotManager.toJSON(mProjectFilename);
             	
             	// make a preview downscaled jpeg/
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.stitcher;
+
+/**
+ * While stitching, the native stitcher throws onProgress each time the progress changes, and onStageDone
+ * at the end of each stage. Both events are thrown from the stitching thread.
+ * @author Nicolas THIERION.
+ *
+ */
+public interface StitcherListener
+{
+	/**
+	 * @param progress - progress of the stitching, in percent.
+	 */
+	abstract void onProgress(int progress);
+
+	/**
+	 * @param stage - stage that just ended, one of the StitcherTelemetry.STAGE_* constants.
+	 * @param telemetry - measures taken so far.
+	 */
+	abstract void onStageDone(int stage, StitcherTelemetry telemetry);
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.stitcher;
+
+/**
+ * Measures of the native stitcher, taken at the end of a stage.
+ * Used to find which stage dominates the stitching time on a device, and to tune the working resolutions.
+ * @author Nicolas THIERION.
+ */
+public class StitcherTelemetry
+{
+	/* *********
+	 * CONSTANTS
+	 * *********/
+	/** stitching stages, in order, as numbered by the native stitcher **/
+	public static final int STAGE_FINDER = 0;
+	public static final int STAGE_MATCHER = 1;
+	public static final int STAGE_ESTIMATOR = 2;
+	public static final int STAGE_ADJUSTER = 3;
+	public static final int STAGE_WARPER = 4;
+	public static final int STAGE_COMPENSATOR = 5;
+	public static final int STAGE_SEAM = 6;
+	public static final int STAGE_COMPOSITOR = 7;
+	public static final int NB_STAGES = 8;
+
+	private static final String[] STAGE_NAMES = {
+		"finder", "matcher", "estimator", "adjuster", "warper", "compensator", "seam", "compositor"
+	};
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** wall time of each stage **/
+	private final double[] mStageTimes;		//[s]
+
+	/** number of features found in each input image **/
+	private final int[] mFeatureCounts;
+
+	/** number of image pairs matched with enough confidence **/
+	private final int mMatchedPairs;
+
+	/** number of iterations of the bundle adjuster **/
+	private final int mBundleAdjusterIterations;
+
+	/** high water mark of the resident memory of the whole process (VmHWM), -1 if unknown **/
+	private final int mProcessPeakMemory;	//[kB]
+
+	/* *********
+	 * CONSTRUCTOR
+	 * *********/
+	StitcherTelemetry(double[] stageTimes, int[] featureCounts, int matchedPairs,
+			int bundleAdjusterIterations, int processPeakMemory)
+	{
+		mStageTimes = stageTimes;
+		mFeatureCounts = featureCounts;
+		mMatchedPairs = matchedPairs;
+		mBundleAdjusterIterations = bundleAdjusterIterations;
+		mProcessPeakMemory = processPeakMemory;
+	}
+
+	/* *********
+	 * ACCESSORS
+	 * *********/
+	/**
+	 * @param stage - one of the STAGE_* constants.
+	 * @return wall time spent in the given stage, in seconds. 0 if it hasn't run yet.
+	 */
+	public double getStageTime(int stage)
+	{
+		return mStageTimes[stage];
+	}
+
+	/**
+	 * @return wall time spent in all the stages, in seconds.
+	 */
+	public double getTotalTime()
+	{
+		double total = 0;
+		for (double t : mStageTimes)
+			total += t;
+		return total;
+	}
+
+	/**
+	 * @return name of the given stage.
+	 */
+	public static String getStageName(int stage)
+	{
+		return STAGE_NAMES[stage];
+	}
+
+	/**
+	 * @return number of features found in each input image, by index.
+	 */
+	public int[] getFeatureCounts()
+	{
+		return mFeatureCounts.clone();
+	}
+
+	/**
+	 * @return number of image pairs matched with enough confidence to be registered together.
+	 */
+	public int getMatchedPairs()
+	{
+		return mMatchedPairs;
+	}
+
+	/**
+	 * @return number of iterations done by the bundle adjuster.
+	 */
+	public int getBundleAdjusterIterations()
+	{
+		return mBundleAdjusterIterations;
+	}
+
+	/**
+	 * High water mark of the resident memory of the whole process since it started, as read from VmHWM.
+	 * It includes the java heap and everything loaded before the stitching, so it is an upper bound
+	 * of the stitcher memory, not a measure of it.
+	 * @return peak memory in kB. -1 if unknown.
+	 */
+	public int getProcessPeakMemory()
+	{
+		return mProcessPeakMemory;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < NB_STAGES; ++i)
+		{
+			builder.append(STAGE_NAMES[i]).append(" : ").append(String.format("%.3f", mStageTimes[i])).append("s, ");
+		}
+		builder.append("total : ").append(String.format("%.3f", getTotalTime())).append("s, ");
+
+		long features = 0;
+		for (int c : mFeatureCounts)
+			features += c;
+		builder.append("features : ").append(features).append(" in ").append(mFeatureCounts.length).append(" images, ");
+		builder.append("matched pairs : ").append(mMatchedPairs).append(", ");
+		builder.append("BA iterations : ").append(mBundleAdjusterIterations).append(", ");
+		builder.append("process peak memory (VmHWM) : ").append(mProcessPeakMemory).append("kB");
+		return builder.toString();
+	}
+}
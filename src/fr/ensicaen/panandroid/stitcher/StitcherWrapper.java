@@ -21,6 +21,13 @@ package fr.ensicaen.panandroid.stitcher;
 
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 import android.annotation.SuppressLint;
@@ -38,6 +45,8 @@ public class StitcherWrapper
 {
 	
 	private static final String TAG = StitcherWrapper.class.getSimpleName();
+	/** snapshots of the incremental session waiting for the worker, each one holds a full jpeg **/
+	private static final int SESSION_CAPACITY = 4;
 	/* *********
      * ATTRIBUTES
      * *********/
@@ -52,12 +61,28 @@ public class StitcherWrapper
 	private String mFilenames[];
 
 
+	/** pitch, yaw and relative roll of each snapshot, by id **/
 	private float[][] mOrientations;
+	
+	/** if cameras are initialized from the sensors orientations **/
+	private boolean mSensorPriorsEnabled = false;
+	/** horizontal field of view of the camera **/
+	private float mHFov = 0;	//[deg]
 
 	private String mPanoFile;
 	private LinkedList<LinkedList<Snapshot>> mNeighborList;
 	private HashMap<Integer, Snapshot> mSnapshotMap;
-	private int mMatchingMask[][];
+	/** pairs of images to match together, flattened as {i0, j0, i1, j1, ...} **/
+	private int mMatchingPairs[];
+	
+	/** told about the progress of the native stitcher **/
+	private StitcherListener mListener;
+	
+	/** incremental session : single worker feeding the native session, and the directory of its images **/
+	private ThreadPoolExecutor mSessionExecutor;
+	private String mSessionDir;
+	/** snapshots of the session that failed or were dropped. The session can't be stitched if any. **/
+	private AtomicInteger mSessionErrors = new AtomicInteger();
 	
     /**
      * Load JNI library.
@@ -70,7 +95,9 @@ public class StitcherWrapper
      * CONSTRUCTOR
      * *********/    
     private StitcherWrapper()
-    {}
+    {
+    	registerListener();
+    }
     
     public static StitcherWrapper getInstance()
     {
@@ -113,17 +140,26 @@ public class StitcherWrapper
 			Log.i(TAG, "loading "+s.getFilename());
     		mOrientations[i][0] = s.getPitch();
     		mOrientations[i][1] = s.getYaw();
-    		mOrientations[i][2] = s.getRoll();
+    		//images are rotated by their orientation before stitching, only the relative roll remains.
+    		mOrientations[i][2] = s.getRelativeRoll();
     	}
     	
     	
-    	mMatchingMask = new int[size][size];
+    	//only real neighbor pairs are sent to the native stitcher
+    	int nbPairs = 0;
+    	for(LinkedList<Snapshot>list : neighborsList)
+    	{
+    		nbPairs += list.size();
+    	}
+    	mMatchingPairs = new int[2*nbPairs];
+    	int p=0;
     	for(LinkedList<Snapshot>list : neighborsList)
     	{
     		int currId = list.get(0).getId();
     		for(Snapshot s : list)
     		{
-    			mMatchingMask[currId][s.getId()]=1;
+    			mMatchingPairs[p++] = currId;
+    			mMatchingPairs[p++] = s.getId();
     		}
     	}
     	
@@ -139,7 +175,8 @@ public class StitcherWrapper
     	
     	
     	
-    	status = newStitcher(mPanoFile, mFilenames, mMatchingMask);
+    	status = newStitcher(mPanoFile, mFilenames, mMatchingPairs);
+    	sendCameraPriors();
     	if(status!=0)
     	{
     		mMessage = "stitcher creation failed";
@@ -165,6 +202,189 @@ public class StitcherWrapper
 		return Status.DONE;
     }	
     
+    /* **********
+	 * INCREMENTAL SESSION
+	 * *********/
+    /**
+     * Start an incremental session : snapshots are registered while they are captured,
+     * so only bundle adjustment, warping and blending remain when stitchSession() is called.
+     * Any previous session is dropped.
+     * @param workingDir - directory where the snapshots of the session are stored.
+     */
+    public synchronized void startSession(String workingDir)
+    {
+    	if(mSessionExecutor!=null)
+    		mSessionExecutor.shutdownNow();
+    	
+    	mSessionDir = workingDir;
+    	//a new counter, so that the worker of a dropped session can't count in this one.
+    	mSessionErrors = new AtomicInteger();
+    	//bounded, so that a worker slower than the shutter can't pile up jpegs until the heap is full.
+    	mSessionExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+    			new ArrayBlockingQueue<Runnable>(SESSION_CAPACITY));
+    	mSessionExecutor.prestartAllCoreThreads();
+    	mSessionExecutor.execute(new Runnable()
+    	{
+			@Override
+			public void run()
+			{
+				newSession();
+			}
+    	});
+    }
+    
+    /**
+     * Push a snapshot in the current session. Its features are found and matched in background.
+     * Snapshots must be pushed in the order of their ids.
+     * Never blocks : if SESSION_CAPACITY snapshots are already waiting, the snapshot is dropped
+     * and the session is abandoned, the panorama is then stitched from the files.
+     * @param jpegData - jpeg bytes of the snapshot, as given by the camera.
+     * @param snapshot - the snapshot.
+     * @param neighbors - ids of the previously pushed snapshots to match with.
+     */
+    public synchronized void addToSession(final byte[] jpegData, final Snapshot snapshot, final int[] neighbors)
+    {
+    	if(mSessionExecutor==null)
+    	{
+    		Log.e(TAG, "trying to add a snapshot while no session has been started");
+    		return;
+    	}
+    	//an abandoned session doesn't need more snapshots.
+    	if(mSessionErrors.get()!=0)
+    		return;
+    	
+    	final AtomicInteger errors = mSessionErrors;
+    	try
+    	{
+	    	mSessionExecutor.execute(new Runnable()
+	    	{
+				@Override
+				public void run()
+				{
+					int res = addSessionImage(jpegData, snapshot.getOrientation(), snapshot.getFilename(), neighbors);
+					if(res!=0)
+					{
+						Log.e(TAG, "failed to add "+snapshot.getFilename()+" to the session");
+						errors.incrementAndGet();
+					}
+				}
+	    	});
+    	}
+    	catch(RejectedExecutionException e)
+    	{
+    		Log.w(TAG, "session is late, dropping "+snapshot.getFilename()+" : the panorama will be stitched from the files");
+    		mSessionErrors.incrementAndGet();
+    	}
+    }
+    
+    /**
+     * Tell if the current session holds the given project, and can be stitched.
+     * @param workingDir - directory of the project.
+     * @param nbSnapshots - count of snapshots of the project.
+     * @return true if stitchSession() can be used.
+     */
+    public synchronized boolean hasSession(String workingDir, int nbSnapshots)
+    {
+    	if(mSessionExecutor==null || mSessionErrors.get()!=0 || !workingDir.equals(mSessionDir))
+    		return false;
+    	
+    	waitSession();
+    	return mSessionErrors.get()==0 && getSessionSize()==nbSnapshots;
+    }
+    
+    /**
+     * Compose the panorama from the current session, then close it.
+     * setSnapshotList() must have been called with the snapshots of the session.
+     * @param resultFile - where to store the panorama.
+     * @return status of the operation.
+     */
+    public synchronized Status stitchSession(String resultFile)
+    {
+    	mStatus = Status.OK;
+    	mPanoFile = resultFile;
+    	
+    	waitSession();
+    	sendCameraPriors();
+    	mSessionExecutor.shutdown();
+    	mSessionExecutor = null;
+    	mSessionDir = null;
+    	
+    	int status = composeSession(mPanoFile);
+    	if(status!=0)
+    	{
+    		mMessage = "composeSession failed";
+    		Log.e(TAG, mMessage );
+    		mStatus = Status.ERR;
+    		return Status.ERR;
+    	}
+    	Log.i(TAG, "Stitching done!!");
+    	
+		mStatus = Status.DONE;
+		return Status.DONE;
+    }
+    
+    /**
+     * Initialize cameras from the snapshots orientations and the camera field of view, in addition to
+     * estimating them from the features homographies. The signs of the angles are checked against the
+     * matches, and the adjustment from the priors is only kept if its reprojection error is not worse
+     * than the one from the homography estimate, which makes low-texture scenes more robust.
+     * Disabled by default.
+     * @param enabled
+     * @param hfov - horizontal field of view of the camera, in degrees.
+     */
+    public void setSensorPriorsEnabled(boolean enabled, float hfov)
+    {
+    	mSensorPriorsEnabled = enabled;
+    	mHFov = hfov;
+    }
+    
+    /**
+     * Give the orientations of the snapshots to the native stitcher, if sensor priors are enabled.
+     */
+    private void sendCameraPriors()
+    {
+    	if(!mSensorPriorsEnabled || mOrientations==null)
+    	{
+    		setCameraPriors(new float[0], 0);
+    		return;
+    	}
+    	
+    	float[] priors = new float[3*mOrientations.length];
+    	for(int i=0; i<mOrientations.length; ++i)
+    	{
+    		priors[3*i] = mOrientations[i][0];
+    		priors[3*i+1] = mOrientations[i][1];
+    		priors[3*i+2] = mOrientations[i][2];
+    	}
+    	setCameraPriors(priors, mHFov);
+    }
+    
+    /**
+     * Wait until all pushed snapshots have been processed.
+     * The marker task is put in the queue directly, so it waits for room instead of being rejected.
+     */
+    private void waitSession()
+    {
+    	try
+    	{
+    		FutureTask<Void> marker = new FutureTask<Void>(new Runnable()
+    		{
+    			@Override
+    			public void run()
+    			{}
+    		}, null);
+    		mSessionExecutor.getQueue().put(marker);
+    		marker.get();
+    	}
+    	catch (InterruptedException e)
+    	{
+    		e.printStackTrace();
+    	}
+    	catch (ExecutionException e)
+    	{
+    		e.printStackTrace();
+    	}
+    }
 
   
 
@@ -215,12 +435,69 @@ public class StitcherWrapper
     	return bounds;
     }
 
+    /**
+     * Set the listener told about the progress and the end of each stage of the native stitcher.
+     * @param listener - listener, or null.
+     */
+    public void setListener(StitcherListener listener)
+    {
+    	mListener = listener;
+    }
+    
+    /**
+     * @return measures of the last stitching.
+     */
+    public StitcherTelemetry getTelemetry()
+    {
+    	return new StitcherTelemetry(getStageTimes(), getFeatureCounts(), getMatchedPairs(),
+    			getBundleAdjusterIterations(), getProcessPeakMemory());
+    }
+    
+    /**
+     * Called by the native stitcher, from the stitching thread, when the progress changes.
+     */
+    private void onNativeProgress(int progress)
+    {
+    	StitcherListener listener = mListener;
+    	if(listener!=null)
+    		listener.onProgress(progress);
+    }
+    
+    /**
+     * Called by the native stitcher, from the stitching thread, when a stage ends.
+     */
+    private void onNativeStageDone(int stage)
+    {
+    	StitcherListener listener = mListener;
+    	if(listener!=null)
+    		listener.onStageDone(stage, getTelemetry());
+    }
+
     /**
      * Get average progress (in percent) of all the stitching operations;
      * @return
      */
 	public native int getProgress();
 	
+	/**
+	 * Set how many images are processed at the same time when finding features.
+	 * 1 means serial mode. The native stitcher bounds this value to limit memory usage.
+	 * The resulting panorama doesn't depend on this value.
+	 * @param nbThreads - number of workers.
+	 */
+	public native void setFinderThreads(int nbThreads);
+	
+	/**
+	 * Set the resolution of the panorama, and composite it by horizontal bands of the given height.
+	 * The 16 bits blending buffers are bounded by the band height instead of by the panorama size.
+	 * The 8 bits result still holds the whole panorama, and the images crossing the current band are
+	 * kept warped in full.
+	 * Bands are made at least 4 blending margins high.
+	 * @param megapix - resolution of each image in the panorama, in megapixels.
+	 * @param bandHeight - height of the bands, in pixels. 0 composites the whole panorama at once.
+	 */
+	public native void setComposeBands(double megapix, int bandHeight);
+	
 	
 	/* **********
 	 * STATIC METHODS
@@ -232,6 +509,15 @@ public class StitcherWrapper
 
 	 public static native void resizeImg(String panoJpeg, String panoJpeg2,
 				int newWidth, int newHeight);
+
+	 /**
+	  * Decode a jpeg once, apply a list of operations, and encode it once with the given XMP segment.
+	  * @see PostProcessing
+	  * @param operations - operation codes and arguments, flattened.
+	  * @param xmpSection - content of the XMP APP1 segment, or null.
+	  * @return 0 on success.
+	  */
+	 static native int postProcess(String srcJpeg, String dstJpeg, int[] operations, byte[] xmpSection);
 	 
 	/* **********
 	 * PRIVATE NATIVE PROTOTYPES DECLARATION
@@ -285,13 +571,58 @@ public class StitcherWrapper
 	 /**
      * Store images path for OpenCV.
      * @param files Path to all images in the current folder.
+     * @param matchingPairs Pairs of images to match, flattened as {i0, j0, i1, j1, ...}.
      * @return Result of images storage.
      */
-	 private native int newStitcher(String panoFilename, Object[] files, int[][] matchingMask);
+	 private native int newStitcher(String panoFilename, Object[] files, int[] matchingPairs);
 
 	 public native int[] getUsedIndices();
 
+	 /**
+	  * Set the orientations used to initialize cameras.
+	  * @param orientations - pitch, yaw and roll of each image, flattened. Empty to estimate cameras from features.
+	  * @param hfov - horizontal field of view of the camera.
+	  */
+	 private native void setCameraPriors(float[] orientations, float hfov);
+
+	 /**
+	  * Start a new native session.
+	  */
+	 private native void newSession();
+
+	 /**
+	  * Decode a jpeg, find its features and match them with the given previously added images.
+	  * @return zero if all is ok.
+	  */
+	 private native int addSessionImage(byte[] jpegData, int orientation, String filename, int[] neighbors);
+
+	 /**
+	  * @return count of images added to the native session.
+	  */
+	 private native int getSessionSize();
+
+	 /**
+	  * Compose panorama from the native session.
+	  * @return Result of compose panorama.
+	  */
+	 private native int composeSession(String panoFilename);
+
 	 public native double getWorkingResolution();
+	 
+	 /**
+	  * Register this object to be called back by the native stitcher.
+	  */
+	 private native void registerListener();
+	 
+	 private native double[] getStageTimes();
+	 
+	 private native int[] getFeatureCounts();
+	 
+	 private native int getMatchedPairs();
+	 
+	 private native int getBundleAdjusterIterations();
+	 
+	 private native int getProcessPeakMemory();
 
 	
 
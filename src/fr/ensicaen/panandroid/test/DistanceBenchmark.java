@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.test;
+
+import java.util.Random;
+
+import fr.ensicaen.panandroid.snapshot.Snapshot;
+import fr.ensicaen.panandroid.test.XmpBenchmark.Task;
+import fr.ensicaen.panandroid.tools.DirectionVectors;
+import fr.ensicaen.panandroid.tools.EulerAngles;
+
+/**
+ * Benchmarks of the distances between orientations, as computed for each snapshot at each
+ * frame of the capture : the former getDistance(), which created a snapshot and computed
+ * a cosine per call, the current one, and the batch methods of DirectionVectors.
+ * Each operation compares one orientation with all the snapshots.
+ * Runs headless on a plain JVM :
+ * java fr.ensicaen.panandroid.test.DistanceBenchmark [iterations] [snapshots]
+ * @author Nicolas THIERION.
+ */
+public class DistanceBenchmark
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	private static final int DEFAULT_ITERATIONS = 20000;
+	private static final int DEFAULT_SNAPSHOTS = 400;
+	/** threshold of the neighbor searches **/
+	private static final float MAX_ANGLE = 60.0f;	//[deg]
+
+	/** keeps the results alive, so that the JIT doesn't remove the computations **/
+	private static volatile float sSink;
+
+	/* *********
+	 * MAIN
+	 * *********/
+	public static void main(String[] args) throws Exception
+	{
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS);
+		final int count = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SNAPSHOTS);
+
+		Random random = new Random(42);
+		final Snapshot[] snapshots = new Snapshot[count];
+		final float[] pitches = new float[count];
+		final float[] yaws = new float[count];
+		final float[] pitchCosines = new float[count];
+		final float[] directions = new float[count * DirectionVectors.SIZE];
+		for (int i = 0; i < count; ++i)
+		{
+			snapshots[i] = new Snapshot(random.nextFloat() * 180.0f - 90.0f, random.nextFloat() * 360.0f - 180.0f);
+			pitches[i] = snapshots[i].getPitch();
+			yaws[i] = snapshots[i].getYaw();
+			pitchCosines[i] = snapshots[i].getPitchCos();
+			DirectionVectors.set(directions, i, pitches[i], yaws[i]);
+		}
+
+		final Snapshot orientation = new Snapshot(12.5f, -42.0f);
+		final EulerAngles angles = new EulerAngles()
+		{
+			public float getPitch()
+			{
+				return 12.5f;
+			}
+
+			public float getYaw()
+			{
+				return -42.0f;
+			}
+
+			public float getRoll()
+			{
+				return 0.0f;
+			}
+		};
+		final float[] results = new float[count];
+		final int[] indices = new int[count];
+
+		System.out.println("Distance benchmark, " + iterations + " iterations, " + count + " snapshots");
+		System.out.println(XmpBenchmark.measure("getDistance, former", iterations, new Task()
+		{
+			public void run()
+			{
+				float sum = 0;
+				for (Snapshot s : snapshots)
+					sum += getFormerDistance(orientation, s);
+				sSink = sum;
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("getDistance, snapshot", iterations, new Task()
+		{
+			public void run()
+			{
+				float sum = 0;
+				for (Snapshot s : snapshots)
+					sum += orientation.getDistance(s);
+				sSink = sum;
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("getDistance, euler angles", iterations, new Task()
+		{
+			public void run()
+			{
+				float sum = 0;
+				for (Snapshot s : snapshots)
+					sum += s.getDistance(angles);
+				sSink = sum;
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("getAngle", iterations, new Task()
+		{
+			public void run()
+			{
+				float sum = 0;
+				for (Snapshot s : snapshots)
+					sum += orientation.getAngle(s);
+				sSink = sum;
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("batch getDistances", iterations, new Task()
+		{
+			public void run()
+			{
+				DirectionVectors.getDistances(pitches, yaws, pitchCosines, count, orientation.getPitch(),
+						orientation.getYaw(), orientation.getPitchCos(), results);
+				sSink = results[count - 1];
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("batch getAngles", iterations, new Task()
+		{
+			public void run()
+			{
+				DirectionVectors.getAngles(directions, count, orientation.getDirection(), results);
+				sSink = results[count - 1];
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("batch getWithin", iterations, new Task()
+		{
+			public void run()
+			{
+				sSink = DirectionVectors.getWithin(directions, count, orientation.getDirection(), MAX_ANGLE, indices);
+			}
+		}));
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * Snapshot.getDistance(), as it was before the cosines were cached.
+	 */
+	private static float getFormerDistance(Snapshot snapshot, EulerAngles eulerAngle)
+	{
+		Snapshot s = new Snapshot(eulerAngle.getPitch(), eulerAngle.getYaw(), eulerAngle.getRoll());
+		float dPitch = Math.abs(snapshot.getPitch() - s.getPitch());
+		float dYaw = Math.abs(snapshot.getYaw() - s.getYaw());
+		if (dYaw > 180.0f)
+			dYaw = 360.0f - dYaw;
+
+		float pitchCoef = (float) Math.cos(Math.toRadians(Math.max(Math.abs(snapshot.getPitch()), Math.abs(s.getPitch()))));
+		return dYaw * pitchCoef + dPitch;
+	}
+}
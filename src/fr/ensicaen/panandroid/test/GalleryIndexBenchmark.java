@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import fr.ensicaen.panandroid.snapshot.ProjectFile;
+import fr.ensicaen.panandroid.test.XmpBenchmark.Task;
+import fr.ensicaen.panandroid.tools.PlainJson;
+import fr.ensicaen.panandroid.viewer.GalleryIndex;
+
+/**
+ * Benchmarks of the gallery index on a generated library : building the index from scratch,
+ * as on the first run, and loading then revalidating a stored index, as on the next runs.
+ * Runs headless on a plain JVM :
+ * java fr.ensicaen.panandroid.test.GalleryIndexBenchmark [iterations] [projects] [snapshots]
+ * @author Nicolas THIERION.
+ */
+public class GalleryIndexBenchmark
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	private static final int DEFAULT_ITERATIONS = 20;
+	private static final int DEFAULT_PROJECTS = 300;
+	/** snapshots of each project **/
+	private static final int DEFAULT_SNAPSHOTS = 30;
+
+	/* *********
+	 * MAIN
+	 * *********/
+	public static void main(String[] args) throws Exception
+	{
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS);
+		int projects = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PROJECTS);
+		int snapshots = (args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SNAPSHOTS);
+
+		final File library = createLibrary(projects, snapshots);
+		final File indexFile = new File(library, GalleryIndex.DEFAULT_INDEX_FILENAME);
+
+		System.out.println("Gallery index benchmark, " + iterations + " iterations, " + projects
+				+ " projects of " + snapshots + " snapshots");
+		System.out.println(XmpBenchmark.measure("cold build", iterations, new Task()
+		{
+			public void run()
+			{
+				indexFile.delete();
+				GalleryIndex index = new GalleryIndex(library.getPath());
+				index.load();
+				index.revalidate();
+				if (!index.save())
+					throw new IllegalStateException("index not saved");
+			}
+		}));
+		System.out.println(XmpBenchmark.measure("warm load and revalidation", iterations, new Task()
+		{
+			public void run()
+			{
+				GalleryIndex index = new GalleryIndex(library.getPath());
+				index.load();
+				index.revalidate();
+				index.save();
+			}
+		}));
+
+		delete(library);
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * Create a library of stitched projects, with their project file and their preview.
+	 * The project files are written as SnapshotManager.toJSON() does, without the android classes.
+	 */
+	private static File createLibrary(int projects, int snapshots) throws IOException
+	{
+		File library = File.createTempFile("gallery", "");
+		library.delete();
+		library.mkdir();
+
+		for (int p = 0; p < projects; ++p)
+		{
+			File dir = new File(library, String.format("pano%04d", p));
+			dir.mkdir();
+
+			StringBuilder jsonDoc = new StringBuilder();
+			PlainJson.quote(jsonDoc.append("{\"panoName\":"), "pano" + p);
+			jsonDoc.append(",\"heading\":0,\"pitchStep\":20,\"yawStep\":20,\"cameraWidth\":640,\"cameraHeight\":480")
+					.append(",\"cropPanoW\":0,\"cropPanoH\":0,\"fullPanoW\":0,\"fullPanoH\":0")
+					.append(",\"minPitch\":-91,\"minYaw\":-181,\"maxPitch\":91,\"maxYaw\":181")
+					.append(",\"HFov\":50,\"VFov\":40,\"paddingL\":0,\"paddingT\":0,\"panoData\":[");
+			for (int s = 0; s < snapshots; ++s)
+			{
+				if (s > 0)
+					jsonDoc.append(',');
+				jsonDoc.append("{\"roll\":0,\"yaw\":").append(s * 360.0f / snapshots).append(",\"pitch\":0");
+				PlainJson.quote(jsonDoc.append(",\"filename\":"), s + ".jpg");
+				jsonDoc.append(",\"snapshotId\":").append(s).append('}');
+			}
+			jsonDoc.append("]}");
+
+			FileOutputStream project = new FileOutputStream(new File(dir, ProjectFile.FILENAME));
+			project.write(jsonDoc.toString().getBytes("UTF-8"));
+			project.close();
+
+			FileOutputStream preview = new FileOutputStream(new File(dir, "preview.jpg"));
+			preview.write(new byte[1024]);
+			preview.close();
+		}
+		return library;
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+		{
+			for (File f : files)
+				delete(f);
+		}
+		file.delete();
+	}
+}
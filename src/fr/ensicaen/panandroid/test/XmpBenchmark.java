@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package fr.ensicaen.panandroid.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.Random;
+
+import com.adobe.xmp.XMPCompiledPath;
+import com.adobe.xmp.XMPMeta;
+import com.adobe.xmp.XMPMetaFactory;
+import com.adobe.xmp.XMPPathFactory;
+import com.adobe.xmp.XMPSchemaRegistry;
+import com.adobe.xmp.impl.ByteBuffer;
+import com.adobe.xmp.options.ParseOptions;
+import com.adobe.xmp.options.SerializeOptions;
+import com.adobe.xmp.properties.XMPAliasInfo;
+
+import fr.ensicaen.panandroid.tools.XmpUtil;
+
+/**
+ * Benchmarks of the XMP path used by PhotoSphere tagging : parsing and serializing GPano packets,
+ * and extracting XMP from large jpeg files.
+ * Runs headless on a plain JVM :
+ * java fr.ensicaen.panandroid.test.XmpBenchmark [iterations] [jpeg size in MB] [threads]
+ * Allocation rates are reported when the JVM exposes per-thread allocation counters (HotSpot).
+ * @author Nicolas THIERION.
+ */
+public class XmpBenchmark
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	private static final int DEFAULT_ITERATIONS = 2000;
+	private static final int DEFAULT_JPEG_SIZE = 20;	//[MB]
+	private static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/** iterations run before measuring, so the JIT has compiled the code **/
+	private static final int WARMUP_RATIO = 2;
+
+	private static final int M_SOI = 0xd8;
+	private static final int M_APP0 = 0xe0;
+	private static final int M_APP1 = 0xe1;
+	private static final int M_SOS = 0xda;
+	private static final int M_EOI = 0xd9;
+	private static final String XMP_HEADER = "http://ns.adobe.com/xap/1.0/\0";
+
+	/** GPano packet, as written after stitching **/
+	public static final String GPANO_PACKET =
+			"<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
+			"<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">\n" +
+			"    <GPano:UsePanoramaViewer>True</GPano:UsePanoramaViewer>\n" +
+			"    <GPano:CaptureSoftware>Panandroid</GPano:CaptureSoftware>\n" +
+			"    <GPano:StitchingSoftware>Panandroid with OpenCV</GPano:StitchingSoftware>\n" +
+			"    <GPano:ProjectionType>equirectangular</GPano:ProjectionType>\n" +
+			"    <GPano:PoseHeadingDegrees>350.0</GPano:PoseHeadingDegrees>\n" +
+			"    <GPano:InitialViewHeadingDegrees>42.5</GPano:InitialViewHeadingDegrees>\n" +
+			"    <GPano:InitialViewPitchDegrees>0</GPano:InitialViewPitchDegrees>\n" +
+			"    <GPano:InitialViewRollDegrees>0</GPano:InitialViewRollDegrees>\n" +
+			"    <GPano:InitialHorizontalFOVDegrees>45</GPano:InitialHorizontalFOVDegrees>\n" +
+			"    <GPano:CroppedAreaLeftPixels>512</GPano:CroppedAreaLeftPixels>\n" +
+			"    <GPano:CroppedAreaTopPixels>1024</GPano:CroppedAreaTopPixels>\n" +
+			"    <GPano:CroppedAreaImageWidthPixels>7168</GPano:CroppedAreaImageWidthPixels>\n" +
+			"    <GPano:CroppedAreaImageHeightPixels>2048</GPano:CroppedAreaImageHeightPixels>\n" +
+			"    <GPano:FullPanoWidthPixels>8192</GPano:FullPanoWidthPixels>\n" +
+			"    <GPano:FullPanoHeightPixels>4096</GPano:FullPanoHeightPixels>\n" +
+			"    <GPano:SourcePhotosCount>42</GPano:SourcePhotosCount>\n" +
+			"    <GPano:ExposureLockUsed>False</GPano:ExposureLockUsed>\n" +
+			"</rdf:Description></rdf:RDF>";
+
+	/** namespace and properties of the GPano packet **/
+	public static final String GPANO_NAMESPACE = "http://ns.google.com/photos/1.0/panorama/";
+	private static final String[] GPANO_PROPERTIES = {
+			"UsePanoramaViewer", "CaptureSoftware", "StitchingSoftware", "ProjectionType",
+			"PoseHeadingDegrees", "InitialViewHeadingDegrees", "InitialViewPitchDegrees",
+			"InitialViewRollDegrees", "InitialHorizontalFOVDegrees", "CroppedAreaLeftPixels",
+			"CroppedAreaTopPixels", "CroppedAreaImageWidthPixels", "CroppedAreaImageHeightPixels",
+			"FullPanoWidthPixels", "FullPanoHeightPixels", "SourcePhotosCount",
+			"ExposureLockUsed" };
+
+	/** GPano packet with the usual Dublin Core, EXIF and TIFF properties of a camera jpeg **/
+	public static final String LARGE_PACKET = createLargePacket();
+
+	/* *********
+	 * BENCHMARK
+	 * *********/
+	/**
+	 * Operation measured by the benchmark.
+	 */
+	public static abstract class Task
+	{
+		public abstract void run() throws Exception;
+	}
+
+	/**
+	 * Lookups of the registry under a monitor, as the registry did before its lookups were
+	 * lock-free. Baseline of the multi-threaded registry lookups.
+	 */
+	public static class SynchronizedRegistry
+	{
+		private final XMPSchemaRegistry mRegistry;
+
+		public SynchronizedRegistry(XMPSchemaRegistry registry)
+		{
+			mRegistry = registry;
+		}
+
+		public synchronized String getNamespacePrefix(String namespaceURI)
+		{
+			return mRegistry.getNamespacePrefix(namespaceURI);
+		}
+
+		public synchronized String getNamespaceURI(String namespacePrefix)
+		{
+			return mRegistry.getNamespaceURI(namespacePrefix);
+		}
+
+		public synchronized XMPAliasInfo findAlias(String qname)
+		{
+			return mRegistry.findAlias(qname);
+		}
+	}
+
+	/**
+	 * Measures of a benchmarked operation.
+	 */
+	public static class Result
+	{
+		public final String name;
+		public final double nsPerOp;
+		/** allocated bytes per operation, -1 if unknown **/
+		public final double bytesPerOp;
+
+		Result(String name, double nsPerOp, double bytesPerOp)
+		{
+			this.name = name;
+			this.nsPerOp = nsPerOp;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		@Override
+		public String toString()
+		{
+			String line = String.format("%-32s %12.1f ns/op %12.1f ops/s", name, nsPerOp, 1e9 / nsPerOp);
+			if (bytesPerOp >= 0)
+			{
+				double mbPerSec = bytesPerOp * (1e9 / nsPerOp) / (1024.0 * 1024.0);
+				line += String.format(" %12.0f B/op %10.1f MB/s alloc", bytesPerOp, mbPerSec);
+			}
+			return line;
+		}
+	}
+
+	/**
+	 * Run the given task, first to warm up, then measuring time and allocations.
+	 */
+	public static Result measure(String name, int iterations, Task task) throws Exception
+	{
+		for (int i = 0; i < iterations * WARMUP_RATIO; ++i)
+			task.run();
+
+		long bytes = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i)
+			task.run();
+		long time = System.nanoTime() - start;
+		long allocated = getAllocatedBytes();
+
+		double bytesPerOp = (bytes < 0 || allocated < 0) ? -1 : (double) (allocated - bytes) / iterations;
+		return new Result(name, (double) time / iterations, bytesPerOp);
+	}
+
+	/**
+	 * Run the given task concurrently in several threads, each one warming up then running the
+	 * given number of iterations. The time per operation is the wall time divided by the total
+	 * number of operations, so it gives the throughput of all the threads.
+	 */
+	public static Result measureThreads(String name, int threads, final int iterations,
+			final Task task) throws Exception
+	{
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final Exception[] error = new Exception[1];
+
+		for (int t = 0; t < threads; ++t)
+		{
+			new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < iterations * WARMUP_RATIO; ++i)
+							task.run();
+						ready.countDown();
+						start.await();
+						for (int i = 0; i < iterations; ++i)
+							task.run();
+					}
+					catch (Exception e)
+					{
+						error[0] = e;
+						ready.countDown();
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+
+		ready.await();
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long time = System.nanoTime() - begin;
+
+		if (error[0] != null)
+			throw error[0];
+		return new Result(name, (double) time / (iterations * threads), -1);
+	}
+
+	/**
+	 * Bytes allocated by the current thread so far, through the HotSpot management bean.
+	 * Reflection is used since java.lang.management doesn't exist on Android.
+	 * @return -1 if the JVM doesn't count allocations.
+	 */
+	public static long getAllocatedBytes()
+	{
+		try
+		{
+			Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+			Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+			Class<?> hotspotBean = Class.forName("com.sun.management.ThreadMXBean");
+			Method method = hotspotBean.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) method.invoke(bean, Thread.currentThread().getId());
+		}
+		catch (Exception e)
+		{
+			return -1;
+		}
+	}
+
+	/* *********
+	 * MAIN
+	 * *********/
+	public static void main(String[] args) throws Exception
+	{
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS);
+		int jpegSize = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_JPEG_SIZE);
+		int threads = (args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS);
+
+		final SerializeOptions options = new SerializeOptions();
+		options.setUseCompactFormat(true);
+		options.setOmitPacketWrapper(true);
+		final ParseOptions streaming = new ParseOptions().setStreaming(true);
+		final ParseOptions trusted = new ParseOptions().setStreaming(true).setTrustedPacket(true);
+
+		final XMPMeta gpano = XMPMetaFactory.parseFromString(GPANO_PACKET);
+		final XMPMeta large = XMPMetaFactory.parseFromString(LARGE_PACKET);
+		final XMPCompiledPath[] gpanoPaths = new XMPCompiledPath[GPANO_PROPERTIES.length];
+		for (int i = 0; i < gpanoPaths.length; ++i)
+			gpanoPaths[i] = XMPPathFactory.compilePath(GPANO_NAMESPACE, GPANO_PROPERTIES[i]);
+		final ByteBuffer buffer = new ByteBuffer(4096);
+		final File jpeg = createJpeg(XMPMetaFactory.serializeToBuffer(large, options), jpegSize);
+		jpeg.deleteOnExit();
+
+		final SynchronizedRegistry lockedRegistry = new SynchronizedRegistry(XMPMetaFactory.getSchemaRegistry());
+
+		System.out.println("XMP benchmark, " + iterations + " iterations, " + jpegSize + "MB jpeg, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		System.out.println(measure("parse GPano packet", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(GPANO_PACKET);
+			}
+		}));
+		System.out.println(measure("parse large packet", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(LARGE_PACKET);
+			}
+		}));
+		System.out.println(measure("parse GPano packet, streaming", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(GPANO_PACKET, streaming);
+			}
+		}));
+		System.out.println(measure("parse large packet, streaming", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(LARGE_PACKET, streaming);
+			}
+		}));
+		System.out.println(measure("parse GPano packet, trusted", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(GPANO_PACKET, trusted);
+			}
+		}));
+		System.out.println(measure("parse large packet, trusted", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(LARGE_PACKET, trusted);
+			}
+		}));
+		System.out.println(measure("serialize GPano packet", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.serializeToBuffer(gpano, options);
+			}
+		}));
+		System.out.println(measure("serialize large packet", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.serializeToBuffer(large, options);
+			}
+		}));
+		System.out.println(measure("serialize GPano to buffer", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				buffer.truncate(0);
+				XMPMetaFactory.serializeToBuffer(gpano, buffer, options);
+			}
+		}));
+		System.out.println(measure("serialize large to buffer", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				buffer.truncate(0);
+				XMPMetaFactory.serializeToBuffer(large, buffer, options);
+			}
+		}));
+		System.out.println(measure("set GPano properties", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMeta meta = XMPMetaFactory.create();
+				for (int i = 0; i < GPANO_PROPERTIES.length; ++i)
+					meta.setProperty(GPANO_NAMESPACE, GPANO_PROPERTIES[i], "0");
+			}
+		}));
+		System.out.println(measure("set GPano, compiled paths", iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMeta meta = XMPMetaFactory.create();
+				for (int i = 0; i < gpanoPaths.length; ++i)
+					meta.setProperty(gpanoPaths[i], "0");
+			}
+		}));
+		System.out.println(measureThreads("registry lookups, " + threads + " threads", threads,
+				iterations * 10, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPSchemaRegistry registry = XMPMetaFactory.getSchemaRegistry();
+				if (registry.getNamespacePrefix(GPANO_NAMESPACE) == null
+						|| registry.getNamespaceURI("GPano") == null)
+					throw new IllegalStateException("GPano namespace not registered");
+				registry.findAlias("xmp:Author");
+			}
+		}));
+		System.out.println(measureThreads("registry lookups, locked, " + threads + " threads", threads,
+				iterations * 10, new Task()
+		{
+			public void run() throws Exception
+			{
+				if (lockedRegistry.getNamespacePrefix(GPANO_NAMESPACE) == null
+						|| lockedRegistry.getNamespaceURI("GPano") == null)
+					throw new IllegalStateException("GPano namespace not registered");
+				lockedRegistry.findAlias("xmp:Author");
+			}
+		}));
+		System.out.println(measureThreads("parse GPano, " + threads + " threads", threads,
+				iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.parseFromString(GPANO_PACKET, streaming);
+			}
+		}));
+		System.out.println(measureThreads("serialize GPano, " + threads + " threads", threads,
+				iterations, new Task()
+		{
+			public void run() throws Exception
+			{
+				XMPMetaFactory.serializeToBuffer(gpano, options);
+			}
+		}));
+		System.out.println(measure("extract XMP from jpeg", Math.max(1, iterations / 100), new Task()
+		{
+			public void run() throws Exception
+			{
+				if (XmpUtil.extractXMPMeta(jpeg.getPath()) == null)
+					throw new IllegalStateException("no XMP found");
+			}
+		}));
+		System.out.println(measure("write XMP in jpeg", Math.max(1, iterations / 100), new Task()
+		{
+			public void run() throws Exception
+			{
+				if (!XmpUtil.writeXMPMeta(jpeg.getPath(), large))
+					throw new IllegalStateException("XMP not written");
+			}
+		}));
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	private static String createLargePacket()
+	{
+		StringBuilder subjects = new StringBuilder();
+		for (int i = 0; i < 50; ++i)
+			subjects.append("<rdf:li>keyword").append(i).append("</rdf:li>");
+
+		return "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
+				"<rdf:Description rdf:about=\"\"\n" +
+				"    xmlns:dc=\"http://purl.org/dc/elements/1.1/\"\n" +
+				"    xmlns:xmp=\"http://ns.adobe.com/xap/1.0/\"\n" +
+				"    xmlns:tiff=\"http://ns.adobe.com/tiff/1.0/\"\n" +
+				"    xmlns:exif=\"http://ns.adobe.com/exif/1.0/\"\n" +
+				"    xmp:CreatorTool=\"Panandroid\" xmp:CreateDate=\"2014-03-21T10:12:42Z\"\n" +
+				"    tiff:Make=\"LGE\" tiff:Model=\"Nexus 4\" tiff:Orientation=\"1\"\n" +
+				"    exif:ExposureTime=\"1/120\" exif:FNumber=\"27/10\" exif:ISOSpeedRatings=\"100\"\n" +
+				"    exif:GPSLatitude=\"49,12.5N\" exif:GPSLongitude=\"0,22.1W\">\n" +
+				"  <dc:title><rdf:Alt><rdf:li xml:lang=\"x-default\">Panorama</rdf:li></rdf:Alt></dc:title>\n" +
+				"  <dc:creator><rdf:Seq><rdf:li>Panandroid</rdf:li></rdf:Seq></dc:creator>\n" +
+				"  <dc:subject><rdf:Bag>" + subjects + "</rdf:Bag></dc:subject>\n" +
+				"</rdf:Description>\n" +
+				GPANO_PACKET.substring(GPANO_PACKET.indexOf("<rdf:Description", 1));
+	}
+
+	/**
+	 * Write a jpeg-like file of the given size : headers, an XMP segment, and random scan data.
+	 */
+	private static File createJpeg(byte[] xmp, int sizeMB) throws IOException
+	{
+		File file = File.createTempFile("xmpbench", ".jpg");
+		FileOutputStream os = new FileOutputStream(file);
+		try
+		{
+			os.write(0xff);
+			os.write(M_SOI);
+
+			byte[] jfif = { 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0 };
+			writeSegment(os, M_APP0, jfif);
+
+			byte[] header = XMP_HEADER.getBytes("ISO-8859-1");
+			byte[] data = new byte[header.length + xmp.length];
+			System.arraycopy(header, 0, data, 0, header.length);
+			System.arraycopy(xmp, 0, data, header.length, xmp.length);
+			writeSegment(os, M_APP1, data);
+
+			writeSegment(os, M_SOS, new byte[10]);
+			Random random = new Random(42);
+			byte[] chunk = new byte[1 << 16];
+			for (int i = 0; i < sizeMB * 16; ++i)
+			{
+				random.nextBytes(chunk);
+				os.write(chunk);
+			}
+			os.write(0xff);
+			os.write(M_EOI);
+		}
+		finally
+		{
+			os.close();
+		}
+		return file;
+	}
+
+	private static void writeSegment(FileOutputStream os, int marker, byte[] data) throws IOException
+	{
+		int length = data.length + 2;
+		os.write(0xff);
+		os.write(marker);
+		os.write(length >> 8);
+		os.write(length & 0xff);
+		os.write(data);
+	}
+}
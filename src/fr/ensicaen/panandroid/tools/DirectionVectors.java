@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.tools;
+
+/**
+ * Unit direction vectors of pitch/yaw orientations, packed in float arrays : the direction at
+ * index i is (x, y, z) = (a[3i], a[3i+1], a[3i+2]), the viewing axis of a camera rotated by
+ * yaw then pitch, as in MatchingPlanner. The angle between two directions is given by their dot
+ * product, so that once the directions are computed, comparing orientations needs no
+ * trigonometry. The batch methods work on whole arrays and allocate nothing.
+ * @author Nicolas THIERION.
+ */
+public final class DirectionVectors
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	/** floats of a direction **/
+	public static final int SIZE = 3;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	private DirectionVectors()
+	{
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * @return the unit direction of the given orientation.
+	 */
+	public static float[] create(float pitch, float yaw)
+	{
+		float[] direction = new float[SIZE];
+		set(direction, 0, pitch, yaw);
+		return direction;
+	}
+
+	/**
+	 * Store the unit direction of an orientation.
+	 * @param directions - packed directions.
+	 * @param index - index of the direction in the array.
+	 * @param pitch - pitch, in degrees.
+	 * @param yaw - yaw, in degrees.
+	 */
+	public static void set(float[] directions, int index, float pitch, float yaw)
+	{
+		double p = Math.toRadians(pitch);
+		double y = Math.toRadians(yaw);
+		double cp = Math.cos(p);
+		int i = index * SIZE;
+		directions[i] = (float) (Math.sin(y) * cp);
+		directions[i + 1] = (float) -Math.sin(p);
+		directions[i + 2] = (float) (Math.cos(y) * cp);
+	}
+
+	/**
+	 * @return cosine of the angle between two directions.
+	 */
+	public static float dot(float[] a, int ia, float[] b, int ib)
+	{
+		ia *= SIZE;
+		ib *= SIZE;
+		return a[ia] * b[ib] + a[ia + 1] * b[ib + 1] + a[ia + 2] * b[ib + 2];
+	}
+
+	/**
+	 * @return the angle whose cosine is given, in degrees. Rounding errors are clamped.
+	 */
+	public static float toAngle(float cos)
+	{
+		return (float) Math.toDegrees(Math.acos(Math.max(-1.0f, Math.min(1.0f, cos))));
+	}
+
+	/**
+	 * @return the angle between two directions, in degrees.
+	 */
+	public static float getAngle(float[] a, int ia, float[] b, int ib)
+	{
+		return toAngle(dot(a, ia, b, ib));
+	}
+
+	/**
+	 * Compute the cosine of the angle between a direction and each direction of an array.
+	 * @param directions - packed directions.
+	 * @param count - number of directions to compare.
+	 * @param direction - reference direction, at index 0.
+	 * @param cosines - receives one cosine per direction.
+	 */
+	public static void getCosines(float[] directions, int count, float[] direction, float[] cosines)
+	{
+		float x = direction[0], y = direction[1], z = direction[2];
+		for (int i = 0, j = 0; i < count; ++i, j += SIZE)
+			cosines[i] = x * directions[j] + y * directions[j + 1] + z * directions[j + 2];
+	}
+
+	/**
+	 * Compute the angle between a direction and each direction of an array.
+	 * @param directions - packed directions.
+	 * @param count - number of directions to compare.
+	 * @param direction - reference direction, at index 0.
+	 * @param angles - receives one angle per direction, in degrees.
+	 */
+	public static void getAngles(float[] directions, int count, float[] direction, float[] angles)
+	{
+		getCosines(directions, count, direction, angles);
+		for (int i = 0; i < count; ++i)
+			angles[i] = toAngle(angles[i]);
+	}
+
+	/**
+	 * Find the directions of an array closer than an angle to a given direction.
+	 * The angle is compared through its cosine, no angle is computed.
+	 * @param directions - packed directions.
+	 * @param count - number of directions to compare.
+	 * @param direction - reference direction, at index 0.
+	 * @param maxAngle - exclusive angle threshold, in degrees.
+	 * @param result - receives the sorted indices of the close directions. Must hold count indices.
+	 * @return number of close directions.
+	 */
+	public static int getWithin(float[] directions, int count, float[] direction, float maxAngle,
+			int[] result)
+	{
+		if (maxAngle <= 0.0f)
+			return 0;
+		float minCos = (maxAngle >= 180.0f ? -2.0f : (float) Math.cos(Math.toRadians(maxAngle)));
+		float x = direction[0], y = direction[1], z = direction[2];
+
+		int found = 0;
+		for (int i = 0, j = 0; i < count; ++i, j += SIZE)
+		{
+			if (x * directions[j] + y * directions[j + 1] + z * directions[j + 2] > minCos)
+				result[found++] = i;
+		}
+		return found;
+	}
+
+	/**
+	 * Compute the distance of Snapshot.getDistance() between an orientation and each orientation
+	 * of an array, without allocation nor trigonometry.
+	 * @param pitches - normalized pitches, in degrees.
+	 * @param yaws - normalized yaws, in degrees.
+	 * @param pitchCosines - cosine of the absolute value of each pitch.
+	 * @param count - number of orientations to compare.
+	 * @param pitch - normalized pitch of the reference orientation.
+	 * @param yaw - normalized yaw of the reference orientation.
+	 * @param pitchCos - cosine of the absolute value of the reference pitch.
+	 * @param distances - receives one distance per orientation.
+	 */
+	public static void getDistances(float[] pitches, float[] yaws, float[] pitchCosines, int count,
+			float pitch, float yaw, float pitchCos, float[] distances)
+	{
+		for (int i = 0; i < count; ++i)
+		{
+			float dPitch = Math.abs(pitch - pitches[i]);
+			float dYaw = Math.abs(yaw - yaws[i]);
+			if (dYaw > 180.0f)
+				dYaw = 360.0f - dYaw;
+			// cos(max(|a|, |b|)) is min(cos|a|, cos|b|).
+			distances[i] = dYaw * Math.min(pitchCos, pitchCosines[i]) + dPitch;
+		}
+	}
+}
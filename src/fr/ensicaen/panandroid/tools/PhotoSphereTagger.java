@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.tools;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.adobe.xmp.XMPException;
+import com.adobe.xmp.XMPMeta;
+
+import fr.ensicaen.panandroid.snapshot.ProjectFile;
+
+/**
+ * Tags all the panoramas of a library with PhotoSphere XMP metadata, generated again from their
+ * project file. Used to update a whole library after changing the GPano fields.
+ * Each panorama goes through three stages : loading the project, generating and serializing
+ * the XMP, writing it in the jpeg. Loading and writing run in a pool of I/O threads, serializing
+ * in a pool of CPU threads, so that the disk and the CPU are busy at the same time. The number
+ * of panoramas in flight is bounded, so the library is never loaded in memory.
+ * Projects are read through ProjectFile, and errors logged through java.util.logging, so that
+ * it runs headless on a plain JVM, without the android classes :
+ * java fr.ensicaen.panandroid.tools.PhotoSphereTagger library_directory [I/O threads]
+ * @author Nicolas THIERION.
+ */
+public class PhotoSphereTagger
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	private static final Logger LOGGER = Logger.getLogger(PhotoSphereTagger.class.getSimpleName());
+	private static final String DEFAULT_SOFTWARE_NAME = "Panandroid";
+	private static final int DEFAULT_IO_THREADS = 4;
+	/** panoramas in flight for each thread **/
+	private static final int IN_FLIGHT_RATIO = 2;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** software written in the GPano fields **/
+	private final String mSoftwareName;
+	/** size of the thread pools **/
+	private final int mIoThreads;
+	private final int mCpuThreads;
+
+	/** results of the last run **/
+	private final AtomicInteger mTagged = new AtomicInteger();
+	private final AtomicInteger mFailed = new AtomicInteger();
+	private final AtomicInteger mSkipped = new AtomicInteger();
+	private long mElapsedTime;		//[ms]
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param softwareName - software written in the CaptureSoftware and StitchingSoftware fields.
+	 * @param ioThreads - threads reading the projects and writing the jpegs.
+	 * @param cpuThreads - threads serializing the XMP.
+	 */
+	public PhotoSphereTagger(String softwareName, int ioThreads, int cpuThreads)
+	{
+		mSoftwareName = softwareName;
+		mIoThreads = Math.max(1, ioThreads);
+		mCpuThreads = Math.max(1, cpuThreads);
+	}
+
+	public PhotoSphereTagger(String softwareName)
+	{
+		this(softwareName, DEFAULT_IO_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Tag the panorama of each project found under the given directory. Projects whose
+	 * panorama hasn't been stitched are skipped. Blocks until all panoramas are written.
+	 * @param root - library directory, PanandroidApplication.APP_DIRECTORY on the device.
+	 * @return number of tagged panoramas.
+	 */
+	public int tagAll(File root) throws InterruptedException
+	{
+		int maxInFlight = IN_FLIGHT_RATIO * (mIoThreads + mCpuThreads);
+		Semaphore inFlight = new Semaphore(maxInFlight);
+		ExecutorService ioPool = Executors.newFixedThreadPool(mIoThreads);
+		ExecutorService cpuPool = Executors.newFixedThreadPool(mCpuThreads);
+
+		mTagged.set(0);
+		mFailed.set(0);
+		mSkipped.set(0);
+		long start = System.currentTimeMillis();
+		try
+		{
+			walk(root, inFlight, ioPool, cpuPool);
+
+			// all permits are back once the last panorama is done.
+			inFlight.acquire(maxInFlight);
+		}
+		finally
+		{
+			ioPool.shutdown();
+			cpuPool.shutdown();
+		}
+		mElapsedTime = System.currentTimeMillis() - start;
+		return mTagged.get();
+	}
+
+	/* *********
+	 * GETTERS
+	 * *********/
+	public int getTaggedCount()
+	{
+		return mTagged.get();
+	}
+
+	public int getFailedCount()
+	{
+		return mFailed.get();
+	}
+
+	public int getSkippedCount()
+	{
+		return mSkipped.get();
+	}
+
+	/**
+	 * @return duration of the last run, in ms.
+	 */
+	public long getElapsedTime()
+	{
+		return mElapsedTime;
+	}
+
+	/**
+	 * @return tagged panoramas per second during the last run.
+	 */
+	public double getImagesPerSecond()
+	{
+		return mElapsedTime > 0 ? mTagged.get() * 1000.0 / mElapsedTime : 0;
+	}
+
+	/* *********
+	 * MAIN
+	 * *********/
+	public static void main(String[] args) throws InterruptedException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("usage : java " + PhotoSphereTagger.class.getName()
+					+ " library_directory [I/O threads]");
+			System.exit(2);
+		}
+		File root = new File(args[0]);
+		if (!root.isDirectory())
+		{
+			System.err.println(root + " is not a directory");
+			System.exit(2);
+		}
+		int ioThreads = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_IO_THREADS);
+		int cpuThreads = Runtime.getRuntime().availableProcessors();
+
+		PhotoSphereTagger tagger = new PhotoSphereTagger(DEFAULT_SOFTWARE_NAME, ioThreads, cpuThreads);
+		System.out.println("Tagging " + root + ", " + ioThreads + " I/O threads, " + cpuThreads + " CPU threads");
+		tagger.tagAll(root);
+		System.out.println(String.format("%d tagged, %d failed, %d skipped in %.3f s : %.1f images/s",
+				tagger.getTaggedCount(), tagger.getFailedCount(), tagger.getSkippedCount(),
+				tagger.getElapsedTime() / 1000.0, tagger.getImagesPerSecond()));
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * Look for project files in the directory tree, and push each one to the pipeline
+	 * as soon as it is found. Blocks while too many panoramas are in flight.
+	 */
+	private void walk(File dir, Semaphore inFlight, ExecutorService ioPool, ExecutorService cpuPool)
+			throws InterruptedException
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			if (file.isDirectory())
+			{
+				walk(file, inFlight, ioPool, cpuPool);
+			}
+			else if (file.getName().equals(ProjectFile.FILENAME))
+			{
+				inFlight.acquire();
+				ioPool.execute(new LoadStage(file, inFlight, ioPool, cpuPool));
+			}
+		}
+	}
+
+	/**
+	 * @return SourcePhotosCount of the XMP already in the given jpeg, 0 if there is none.
+	 */
+	private static int readSourcePhotosCount(String jpegPath)
+	{
+		XMPMeta meta = XmpUtil.extractXMPMeta(jpegPath);
+		if (meta == null)
+			return 0;
+		try
+		{
+			Integer count = meta.getPropertyInteger(PhotoSphereXmp.GPANO_NAMESPACE, "SourcePhotosCount");
+			return (count != null ? count : 0);
+		}
+		catch (XMPException e)
+		{
+			return 0;
+		}
+	}
+
+	/* *********
+	 * PRIVATE CLASSES
+	 * *********/
+	/**
+	 * A stage of the pipeline for one panorama. The panorama leaves the pipeline, and releases
+	 * its permit, when a stage doesn't hand it to the next one.
+	 */
+	private abstract class Stage implements Runnable
+	{
+		protected final Semaphore mInFlight;
+		protected final ExecutorService mIoPool;
+		protected final ExecutorService mCpuPool;
+
+		Stage(Semaphore inFlight, ExecutorService ioPool, ExecutorService cpuPool)
+		{
+			mInFlight = inFlight;
+			mIoPool = ioPool;
+			mCpuPool = cpuPool;
+		}
+
+		@Override
+		public void run()
+		{
+			boolean handed = false;
+			try
+			{
+				handed = process();
+			}
+			catch (Exception e)
+			{
+				LOGGER.log(Level.WARNING, "Tagging failed", e);
+				mFailed.incrementAndGet();
+			}
+			finally
+			{
+				if (!handed)
+					mInFlight.release();
+			}
+		}
+
+		/**
+		 * @return true if the panorama has been handed to the next stage.
+		 */
+		protected abstract boolean process() throws Exception;
+	}
+
+	/**
+	 * Load the project file, on an I/O thread.
+	 */
+	private class LoadStage extends Stage
+	{
+		private final File mJsonFile;
+
+		LoadStage(File jsonFile, Semaphore inFlight, ExecutorService ioPool, ExecutorService cpuPool)
+		{
+			super(inFlight, ioPool, cpuPool);
+			mJsonFile = jsonFile;
+		}
+
+		@Override
+		protected boolean process() throws Exception
+		{
+			ProjectFile project = new ProjectFile(mJsonFile);
+			if (!new File(project.getPanoramaJpgPath()).isFile())
+			{
+				mSkipped.incrementAndGet();
+				return false;
+			}
+			//projects stitched before the count was saved : keep the one written at stitch time.
+			int imageCount = project.getNbUsedImages();
+			if (imageCount <= 0)
+			{
+				imageCount = readSourcePhotosCount(project.getPanoramaJpgPath());
+				if (imageCount <= 0)
+					imageCount = project.getSnapshotsCount();
+			}
+			mCpuPool.execute(new SerializeStage(project, imageCount, mInFlight, mIoPool, mCpuPool));
+			return true;
+		}
+	}
+
+	/**
+	 * Generate and serialize the XMP, on a CPU thread.
+	 */
+	private class SerializeStage extends Stage
+	{
+		private final ProjectFile mProject;
+		private final int mImageCount;
+
+		SerializeStage(ProjectFile project, int imageCount, Semaphore inFlight, ExecutorService ioPool,
+				ExecutorService cpuPool)
+		{
+			super(inFlight, ioPool, cpuPool);
+			mProject = project;
+			mImageCount = imageCount;
+		}
+
+		@Override
+		protected boolean process()
+		{
+			XMPMeta meta = mProject.generatePhotoSphereXMP(mSoftwareName, mImageCount);
+			byte[] xmpData = (meta != null ? XmpUtil.getXMPSectionData(meta) : null);
+			if (xmpData == null)
+			{
+				mFailed.incrementAndGet();
+				return false;
+			}
+			mIoPool.execute(new WriteStage(mProject.getPanoramaJpgPath(), xmpData, mInFlight, mIoPool, mCpuPool));
+			return true;
+		}
+	}
+
+	/**
+	 * Write the XMP in the panorama jpeg, on an I/O thread.
+	 */
+	private class WriteStage extends Stage
+	{
+		private final String mJpegPath;
+		private final byte[] mXmpData;
+
+		WriteStage(String jpegPath, byte[] xmpData, Semaphore inFlight, ExecutorService ioPool, ExecutorService cpuPool)
+		{
+			super(inFlight, ioPool, cpuPool);
+			mJpegPath = jpegPath;
+			mXmpData = xmpData;
+		}
+
+		@Override
+		protected boolean process()
+		{
+			if (XmpUtil.writeXMPSectionData(mJpegPath, mXmpData))
+				mTagged.incrementAndGet();
+			else
+				mFailed.incrementAndGet();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.tools;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.adobe.xmp.XMPCompiledPath;
+import com.adobe.xmp.XMPException;
+import com.adobe.xmp.XMPMeta;
+import com.adobe.xmp.XMPPathFactory;
+
+/**
+ * Generates the PhotoSphere XMP data of a panorama, without needing the application context,
+ * so that it runs both in the application and in the headless library tools.
+ * https://developers.google.com/photo-sphere/metadata/
+ * @author Nicolas THIERION.
+ */
+public final class PhotoSphereXmp
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	/** PhotoSphere XMP namespace **/
+	public static final String GPANO_NAMESPACE = "http://ns.google.com/photos/1.0/panorama/";
+	/** PhotoSphere properties written by generate(), in this order **/
+	private static final String[] GPANO_PROPERTIES = {
+		"UsePanoramaViewer", "CaptureSoftware", "StitchingSoftware", "ProjectionType",
+		"PoseHeadingDegrees", "InitialViewHeadingDegrees", "InitialViewPitchDegrees",
+		"InitialViewRollDegrees", "InitialHorizontalFOVDegrees", "CroppedAreaLeftPixels",
+		"CroppedAreaTopPixels", "CroppedAreaImageWidthPixels", "CroppedAreaImageHeightPixels",
+		"FullPanoWidthPixels", "FullPanoHeightPixels", "SourcePhotosCount", "ExposureLockUsed"
+	};
+	private static final Logger LOGGER = Logger.getLogger(PhotoSphereXmp.class.getSimpleName());
+
+	private PhotoSphereXmp()
+	{
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Generate the PhotoSphere XMP data of a panorama.
+	 * The properties are set through paths compiled once, so it is cheap enough to tag
+	 * whole libraries, from any thread.
+	 * @param softwareName - name of the capture software.
+	 * @param heading - initial yaw angle where the panorama is pointing [deg].
+	 * @param paddingL, paddingT - position of the cropped area in the full panorama [px].
+	 * @param cropW, cropH - size of the cropped area [px].
+	 * @param fullW, fullH - size of the full panorama [px].
+	 * @param sourcePhotosCount - count of images used to stitch the panorama.
+	 * @return RDF XML XMP metadata, or null if it can't be created.
+	 */
+	public static XMPMeta generate(String softwareName, float heading, int paddingL, int paddingT,
+			int cropW, int cropH, int fullW, int fullH, int sourcePhotosCount)
+	{
+		Object[] values = {
+				Boolean.TRUE, softwareName, softwareName + " with OpenCV", "equirectangular",
+				"350.0", heading, 0, 0, 45, paddingL,
+				paddingT, cropW, cropH,
+				fullW, fullH, sourcePhotosCount, Boolean.FALSE
+		};
+
+		XMPMeta xmpMeta = XmpUtil.createXMPMeta();
+		try
+		{
+			XMPCompiledPath[] paths = GPanoPaths.PATHS;
+			for (int i = 0; i < paths.length; ++i)
+				xmpMeta.setProperty(paths[i], values[i]);
+			return xmpMeta;
+		}
+		catch (XMPException e)
+		{
+			LOGGER.log(Level.WARNING, "Can't generate PhotoSphere XMP", e);
+		}
+		return null;
+	}
+
+	/* *********
+	 * PRIVATE CLASSES
+	 * *********/
+	/**
+	 * Compiled paths of the PhotoSphere properties, created by the first thread that needs them.
+	 * XmpUtil is loaded first, as it registers the GPano namespace.
+	 */
+	private static class GPanoPaths
+	{
+		static final XMPCompiledPath[] PATHS = compile();
+
+		private static XMPCompiledPath[] compile()
+		{
+			XmpUtil.createXMPMeta();
+			XMPCompiledPath[] paths = new XMPCompiledPath[GPANO_PROPERTIES.length];
+			try
+			{
+				for (int i = 0; i < paths.length; ++i)
+					paths[i] = XMPPathFactory.compilePath(GPANO_NAMESPACE, GPANO_PROPERTIES[i]);
+			}
+			catch (XMPException e)
+			{
+				throw new IllegalStateException("GPano namespace is not registered", e);
+			}
+			return paths;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2013 Nicolas THIERION, Saloua BENSEDDIK, Jean Marguerite.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer, without any android dependency, so that the library tools
+ * also run on a plain JVM. Objects are read as maps, arrays as lists, numbers as doubles.
+ * @author Nicolas THIERION.
+ */
+public final class PlainJson
+{
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	private final String mText;
+	private int mPos = 0;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	private PlainJson(String text)
+	{
+		mText = text;
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * @return the value held by the given text : a Map, a List, a String, a Double, a Boolean or null.
+	 * @throws IOException if the text isn't a single valid JSON value.
+	 */
+	public static Object parse(String text) throws IOException
+	{
+		PlainJson parser = new PlainJson(text);
+		Object value = parser.readValue();
+		parser.skipSpaces();
+		if (parser.mPos != text.length())
+			throw parser.error("trailing characters");
+		return value;
+	}
+
+	/**
+	 * @return the object held by the given UTF-8 file.
+	 * @throws IOException if the file can't be read or isn't a JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(File file) throws IOException
+	{
+		byte[] buffer = new byte[(int) file.length()];
+		FileInputStream inputStream = new FileInputStream(file);
+		try
+		{
+			int length = 0;
+			while (length < buffer.length)
+			{
+				int read = inputStream.read(buffer, length, buffer.length - length);
+				if (read < 0)
+					throw new IOException("Truncated file " + file);
+				length += read;
+			}
+		}
+		finally
+		{
+			inputStream.close();
+		}
+
+		Object value = parse(new String(buffer, "UTF-8"));
+		if (!(value instanceof Map))
+			throw new IOException(file + " doesn't hold a JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	/**
+	 * @return the number stored under the given key.
+	 * @throws IOException if there is none.
+	 */
+	public static double getNumber(Map<String, Object> object, String key) throws IOException
+	{
+		Object value = object.get(key);
+		if (!(value instanceof Double))
+			throw new IOException("No number " + key);
+		return (Double) value;
+	}
+
+	/**
+	 * @return the number stored under the given key, or the fallback if there is none.
+	 */
+	public static double optNumber(Map<String, Object> object, String key, double fallback)
+	{
+		Object value = object.get(key);
+		return (value instanceof Double ? (Double) value : fallback);
+	}
+
+	/**
+	 * @return the string stored under the given key.
+	 * @throws IOException if there is none.
+	 */
+	public static String getString(Map<String, Object> object, String key) throws IOException
+	{
+		Object value = object.get(key);
+		if (!(value instanceof String))
+			throw new IOException("No string " + key);
+		return (String) value;
+	}
+
+	/**
+	 * @return the array stored under the given key.
+	 * @throws IOException if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Object> getArray(Map<String, Object> object, String key) throws IOException
+	{
+		Object value = object.get(key);
+		if (!(value instanceof List))
+			throw new IOException("No array " + key);
+		return (List<Object>) value;
+	}
+
+	/**
+	 * Append the given string to the builder, quoted and escaped.
+	 */
+	public static StringBuilder quote(StringBuilder builder, String value)
+	{
+		builder.append('"');
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char c = value.charAt(i);
+			switch (c)
+			{
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					builder.append(String.format("\\u%04x", (int) c));
+				else
+					builder.append(c);
+			}
+		}
+		return builder.append('"');
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	private Object readValue() throws IOException
+	{
+		skipSpaces();
+		if (mPos >= mText.length())
+			throw error("unexpected end");
+
+		char c = mText.charAt(mPos);
+		switch (c)
+		{
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			readWord("true");
+			return Boolean.TRUE;
+		case 'f':
+			readWord("false");
+			return Boolean.FALSE;
+		case 'n':
+			readWord("null");
+			return null;
+		default:
+			return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject() throws IOException
+	{
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		++mPos;
+		skipSpaces();
+		if (peek() == '}')
+		{
+			++mPos;
+			return object;
+		}
+		while (true)
+		{
+			skipSpaces();
+			if (peek() != '"')
+				throw error("key expected");
+			String key = readString();
+			skipSpaces();
+			expect(':');
+			object.put(key, readValue());
+			skipSpaces();
+			if (peek() == ',')
+			{
+				++mPos;
+				continue;
+			}
+			expect('}');
+			return object;
+		}
+	}
+
+	private List<Object> readArray() throws IOException
+	{
+		List<Object> array = new ArrayList<Object>();
+		++mPos;
+		skipSpaces();
+		if (peek() == ']')
+		{
+			++mPos;
+			return array;
+		}
+		while (true)
+		{
+			array.add(readValue());
+			skipSpaces();
+			if (peek() == ',')
+			{
+				++mPos;
+				continue;
+			}
+			expect(']');
+			return array;
+		}
+	}
+
+	private String readString() throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		++mPos;
+		while (true)
+		{
+			if (mPos >= mText.length())
+				throw error("unterminated string");
+			char c = mText.charAt(mPos++);
+			if (c == '"')
+				return builder.toString();
+			if (c != '\\')
+			{
+				builder.append(c);
+				continue;
+			}
+
+			if (mPos >= mText.length())
+				throw error("unterminated string");
+			c = mText.charAt(mPos++);
+			switch (c)
+			{
+			case 'b':
+				builder.append('\b');
+				break;
+			case 'f':
+				builder.append('\f');
+				break;
+			case 'n':
+				builder.append('\n');
+				break;
+			case 'r':
+				builder.append('\r');
+				break;
+			case 't':
+				builder.append('\t');
+				break;
+			case 'u':
+				if (mPos + 4 > mText.length())
+					throw error("truncated escape");
+				try
+				{
+					builder.append((char) Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+				}
+				catch (NumberFormatException e)
+				{
+					throw error("invalid escape");
+				}
+				mPos += 4;
+				break;
+			default:
+				//quote, backslash and slash stand for themselves.
+				builder.append(c);
+			}
+		}
+	}
+
+	private Double readNumber() throws IOException
+	{
+		int start = mPos;
+		while (mPos < mText.length() && "+-0123456789.eE".indexOf(mText.charAt(mPos)) >= 0)
+			++mPos;
+		try
+		{
+			return Double.valueOf(mText.substring(start, mPos));
+		}
+		catch (NumberFormatException e)
+		{
+			mPos = start;
+			throw error("invalid value");
+		}
+	}
+
+	private void readWord(String word) throws IOException
+	{
+		if (!mText.startsWith(word, mPos))
+			throw error("invalid value");
+		mPos += word.length();
+	}
+
+	private void expect(char c) throws IOException
+	{
+		if (peek() != c)
+			throw error("'" + c + "' expected");
+		++mPos;
+	}
+
+	private char peek()
+	{
+		return (mPos < mText.length() ? mText.charAt(mPos) : 0);
+	}
+
+	private void skipSpaces()
+	{
+		while (mPos < mText.length() && Character.isWhitespace(mText.charAt(mPos)))
+			++mPos;
+	}
+
+	private IOException error(String message)
+	{
+		return new IOException("Invalid JSON at " + mPos + " : " + message);
+	}
+}
@@ -16,22 +16,28 @@
 
 package fr.ensicaen.panandroid.tools;
 
-import android.util.Log;
-
 import com.adobe.xmp.XMPException;
 import com.adobe.xmp.XMPMeta;
 import com.adobe.xmp.XMPMetaFactory;
+import com.adobe.xmp.options.ParseOptions;
 import com.adobe.xmp.options.SerializeOptions;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Util class to read/write xmp from a jpeg image file. It only supports jpeg
@@ -48,9 +54,37 @@ import java.util.List;
  */
 public class XmpUtil {
   private static final String TAG = "XmpUtil";
+  // java.util.logging rather than android.util.Log, so that the library
+  // tools using this class also run on a plain JVM.
+  private static final Logger LOGGER = Logger.getLogger(TAG);
   private static final int XMP_HEADER_SIZE = 29;
   private static final String XMP_HEADER = "http://ns.adobe.com/xap/1.0/\0";
   private static final int MAX_XMP_BUFFER_SIZE = 65502;
+  // Packets are parsed from the SAX events, without building a DOM. The
+  // normalizer only runs on packets that need it, the ones we write don't.
+  private static final ParseOptions PARSE_OPTIONS = new ParseOptions()
+      .setStreaming(true).setTrustedPacket(true);
+  // Packets are written without the packet wrapper and compact, because
+  // javax.xml.parsers.DocumentBuilder fails to parse the packet end
+  // <?xpacket end="w"?> in android.
+  private static final SerializeOptions SERIALIZE_OPTIONS = new SerializeOptions()
+      .setUseCompactFormat(true).setOmitPacketWrapper(true);
+  // Whitespace reserved after the xmp data of a new XMP section, so that the
+  // next updates can be written in place.
+  public static final int XMP_PADDING = 2048;
+  // Size of the section marker and length, before XMP_HEADER.
+  private static final int SECTION_PREFIX_SIZE = 4;
+  // Section marker, length place and XMP_HEADER, reserved at the start of
+  // the serialization buffer.
+  private static final byte[] SECTION_HEADER = createSectionHeader();
+  // Serialization buffer of each thread, reused for every section it writes.
+  private static final ThreadLocal<com.adobe.xmp.impl.ByteBuffer> SECTION_BUFFER =
+      new ThreadLocal<com.adobe.xmp.impl.ByteBuffer>() {
+        @Override
+        protected com.adobe.xmp.impl.ByteBuffer initialValue() {
+          return new com.adobe.xmp.impl.ByteBuffer(SECTION_HEADER.length + 2 * XMP_PADDING);
+        }
+      };
 
   private static final String GOOGLE_PANO_NAMESPACE = "http://ns.google.com/photos/1.0/panorama/";
   private static final String PANO_PREFIX = "GPano";
@@ -67,6 +101,19 @@ public class XmpUtil {
     public byte[] data;
   }
 
+  // Positions of the metadata in a jpeg file, found without reading the
+  // image data.
+  private static class JpegLayout {
+    // Position of the XMP section marker, -1 if there is no XMP section.
+    public long xmpStart = -1;
+    // Position and length of the XMP section content (XMP_HEADER included).
+    public long xmpContent;
+    public int xmpLength;
+    // Position where a new XMP section is inserted: after the Exif section
+    // if it is the first one, otherwise right after the SOI marker.
+    public long insertPosition = 2;
+  }
+
   static {
     try {
       XMPMetaFactory.getSchemaRegistry().registerNamespace(
@@ -85,15 +132,30 @@ public class XmpUtil {
   public static XMPMeta extractXMPMeta(String filename) {
     if (!filename.toLowerCase().endsWith(".jpg")
         && !filename.toLowerCase().endsWith(".jpeg")) {
-      Log.d(TAG, "XMP parse: only jpeg file is supported");
+      LOGGER.log(Level.FINE, "XMP parse: only jpeg file is supported");
       return null;
     }
 
+    RandomAccessFile file = null;
     try {
-      return extractXMPMeta(new FileInputStream(filename));
+      // Only the XMP section is read, not the image data.
+      file = new RandomAccessFile(filename, "r");
+      FileChannel channel = file.getChannel();
+      JpegLayout layout = scanJpeg(channel);
+      if (layout == null || layout.xmpStart < 0) {
+        return null;
+      }
+      byte[] data = new byte[layout.xmpLength];
+      readFully(channel, ByteBuffer.wrap(data), layout.xmpContent);
+      return parseXMPSection(data);
     } catch (FileNotFoundException e) {
-      Log.e(TAG, "Could not read file: " + filename, e);
+      LOGGER.log(Level.SEVERE, "Could not read file: " + filename, e);
+      return null;
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Could not parse file.", e);
       return null;
+    } finally {
+      close(file);
     }
   }
 
@@ -111,22 +173,31 @@ public class XmpUtil {
     // Now we don't support extended xmp.
     for (Section section : sections) {
       if (hasXMPHeader(section.data)) {
-        int end = getXMPContentEnd(section.data);
-        byte[] buffer = new byte[end - XMP_HEADER_SIZE];
-        System.arraycopy(
-            section.data, XMP_HEADER_SIZE, buffer, 0, buffer.length);
-        try {
-          XMPMeta result = XMPMetaFactory.parseFromBuffer(buffer);
-          return result;
-        } catch (XMPException e) {
-          Log.d(TAG, "XMP parse error", e);
-          return null;
-        }
+        return parseXMPSection(section.data);
       }
     }
     return null;
   }
 
+  /**
+   * Parses the content of a jpeg XMP section.
+   *
+   * @param data XMP_HEADER followed by the xmp data.
+   * @return Extracted XMPMeta or null.
+   */
+  private static XMPMeta parseXMPSection(byte[] data) {
+    int end = getXMPContentEnd(data);
+    byte[] buffer = new byte[end - XMP_HEADER_SIZE];
+    System.arraycopy(data, XMP_HEADER_SIZE, buffer, 0, buffer.length);
+    try {
+      XMPMeta result = XMPMetaFactory.parseFromBuffer(buffer, PARSE_OPTIONS);
+      return result;
+    } catch (XMPException e) {
+      LOGGER.log(Level.FINE, "XMP parse error", e);
+      return null;
+    }
+  }
+
   /**
    * Creates a new XMPMeta.
    */
@@ -143,41 +214,94 @@ public class XmpUtil {
   }
 
   /**
-   * Writes the XMPMeta to the jpeg image file.
+   * Writes the XMPMeta to the jpeg image file. If the new xmp data fits in the
+   * existing XMP section, the section is overwritten in place and the rest of
+   * the file is left untouched. Otherwise the file is copied with a new XMP
+   * section, that has XMP_PADDING bytes reserved for the next updates.
    */
   public static boolean writeXMPMeta(String filename, XMPMeta meta) {
     if (!filename.toLowerCase().endsWith(".jpg")
         && !filename.toLowerCase().endsWith(".jpeg")) {
-      Log.d(TAG, "XMP parse: only jpeg file is supported");
+      LOGGER.log(Level.FINE, "XMP parse: only jpeg file is supported");
+      return false;
+    }
+    com.adobe.xmp.impl.ByteBuffer section = serializeXMPSection(meta);
+    if (section == null) {
       return false;
     }
-    List<Section> sections = null;
+    return writeXMPSection(filename, section);
+  }
+
+  /**
+   * Writes a section content made by getXMPSectionData to the jpeg image file,
+   * like writeXMPMeta does. This lets the serialization and the file update
+   * run in different threads. The padding of the content is dropped and
+   * computed again for the file.
+   *
+   * @param filename JPEG image file name.
+   * @param xmpdata XMP_HEADER followed by the xmp data and the padding.
+   */
+  public static boolean writeXMPSectionData(String filename, byte[] xmpdata) {
+    if (!filename.toLowerCase().endsWith(".jpg")
+        && !filename.toLowerCase().endsWith(".jpeg")) {
+      LOGGER.log(Level.FINE, "XMP parse: only jpeg file is supported");
+      return false;
+    }
+    if (!hasXMPHeader(xmpdata)) {
+      return false;
+    }
+    int length = xmpdata.length;
+    while (length > XMP_HEADER_SIZE && xmpdata[length - 1] == ' ') {
+      --length;
+    }
+    com.adobe.xmp.impl.ByteBuffer section = SECTION_BUFFER.get();
+    section.truncate(0);
+    section.append(SECTION_HEADER, 0, SECTION_PREFIX_SIZE);
+    section.append(xmpdata, 0, length);
+    return writeXMPSection(filename, section);
+  }
+
+  /**
+   * Writes a section serialized by serializeXMPSection, not padded yet, in
+   * place of the existing XMP section if it fits, or in a copy of the file.
+   */
+  private static boolean writeXMPSection(String filename,
+      com.adobe.xmp.impl.ByteBuffer section) {
+    int contentLength = section.length() - SECTION_PREFIX_SIZE;
+    File tmp = new File(filename + ".tmp");
+    RandomAccessFile file = null;
     try {
-      sections = parse(new FileInputStream(filename), false);
-      sections = insertXMPSection(sections, meta);
-      if (sections == null) {
+      file = new RandomAccessFile(filename, "rw");
+      FileChannel channel = file.getChannel();
+      JpegLayout layout = scanJpeg(channel);
+      if (layout == null) {
         return false;
       }
+      if (layout.xmpStart >= 0 && contentLength <= layout.xmpLength) {
+        // Pads the new xmp data with whitespace up to the section length.
+        padXMPSection(section, layout.xmpLength - contentLength);
+        writeFully(channel, ByteBuffer.wrap(section.getBuffer(), SECTION_PREFIX_SIZE,
+            layout.xmpLength), layout.xmpContent);
+        return true;
+      }
+      padXMPSection(section, Math.min(XMP_PADDING, getMaxPadding(section)));
+      writeJpegFile(channel, layout,
+          ByteBuffer.wrap(section.getBuffer(), 0, section.length()), tmp);
     } catch (FileNotFoundException e) {
-      Log.e(TAG, "Could not read file: " + filename, e);
+      LOGGER.log(Level.SEVERE, "Could not read file: " + filename, e);
       return false;
-    }
-    FileOutputStream os = null;
-    try {
-      // Overwrite the image file with the new meta data.
-      os = new FileOutputStream(filename);
-      writeJpegFile(os, sections);
     } catch (IOException e) {
-      Log.d(TAG, "Write file failed:" + filename, e);
+      LOGGER.log(Level.FINE, "Write file failed:" + filename, e);
+      tmp.delete();
       return false;
     } finally {
-      if (os != null) {
-        try {
-          os.close();
-        } catch (IOException e) {
-          // Ignore.
-        }
-      }
+      close(file);
+    }
+    // Replace the image file with the new one.
+    if (!tmp.renameTo(new File(filename))) {
+      LOGGER.log(Level.FINE, "Write file failed:" + filename);
+      tmp.delete();
+      return false;
     }
     return true;
   }
@@ -196,7 +320,7 @@ public class XmpUtil {
       // Overwrite the image file with the new meta data.
       writeJpegFile(outputStream, sections);
     } catch (IOException e) {
-      Log.d(TAG, "Write to stream failed", e);
+      LOGGER.log(Level.FINE, "Write to stream failed", e);
       return false;
     } finally {
       if (outputStream != null) {
@@ -232,32 +356,136 @@ public class XmpUtil {
     }
   }
 
-  private static List<Section> insertXMPSection(
-      List<Section> sections, XMPMeta meta) {
-    if (sections == null || sections.size() <= 1) {
+  /**
+   * Copies a jpeg file with a new XMP section, that replaces the existing
+   * one if any. The image data is copied by the channel, not read in memory.
+   *
+   * @param channel The jpeg file.
+   * @param layout The layout of the jpeg file.
+   * @param section The new XMP section, marker and length included.
+   * @param dst The new jpeg file.
+   */
+  private static void writeJpegFile(FileChannel channel, JpegLayout layout,
+      ByteBuffer section, File dst) throws IOException {
+    long head = layout.xmpStart >= 0 ? layout.xmpStart : layout.insertPosition;
+    long tail = layout.xmpStart >= 0
+        ? layout.xmpContent + layout.xmpLength : head;
+    FileOutputStream os = new FileOutputStream(dst);
+    try {
+      FileChannel out = os.getChannel();
+      transferFully(channel, 0, head, out);
+      while (section.hasRemaining()) {
+        out.write(section);
+      }
+      transferFully(channel, tail, channel.size() - tail, out);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Serializes the XMPMeta as the content of a jpeg XMP section: XMP_HEADER
+   * followed by the xmp data, without the marker and the length.
+   *
+   * @param meta Xmp metadata.
+   * @return The section content, or null if it can't be serialized in a
+   *         single section.
+   */
+  public static byte[] getXMPSectionData(XMPMeta meta) {
+    return getXMPSectionData(meta, 0);
+  }
+
+  /**
+   * Serializes the XMPMeta as the content of a jpeg XMP section, followed by
+   * whitespace padding, so that the section can be updated in place later.
+   * The padding is reduced if the section would be too large.
+   *
+   * @param meta Xmp metadata.
+   * @param padding Number of whitespace bytes after the xmp data.
+   * @return The section content, or null if it can't be serialized in a
+   *         single section.
+   */
+  public static byte[] getXMPSectionData(XMPMeta meta, int padding) {
+    com.adobe.xmp.impl.ByteBuffer section = serializeXMPSection(meta);
+    if (section == null) {
       return null;
     }
-    byte[] buffer;
+    padXMPSection(section, Math.max(0, Math.min(padding, getMaxPadding(section))));
+    byte[] xmpdata = new byte[section.length() - SECTION_PREFIX_SIZE];
+    System.arraycopy(section.getBuffer(), SECTION_PREFIX_SIZE, xmpdata, 0, xmpdata.length);
+    return xmpdata;
+  }
+
+  /**
+   * Serializes the XMPMeta as a jpeg XMP section in the buffer of the current
+   * thread: the section marker and length, XMP_HEADER, then the xmp data
+   * written straight after it. The length is set by padXMPSection.
+   *
+   * @param meta Xmp metadata.
+   * @return The buffer holding the section, or null if it can't be
+   *         serialized in a single section.
+   */
+  private static com.adobe.xmp.impl.ByteBuffer serializeXMPSection(XMPMeta meta) {
+    com.adobe.xmp.impl.ByteBuffer section = SECTION_BUFFER.get();
+    section.truncate(0);
+    section.append(SECTION_HEADER);
     try {
-      SerializeOptions options = new SerializeOptions();
-      options.setUseCompactFormat(true);
-      // We have to omit packet wrapper here because
-      // javax.xml.parsers.DocumentBuilder
-      // fails to parse the packet end <?xpacket end="w"?> in android.
-      options.setOmitPacketWrapper(true);
-      buffer = XMPMetaFactory.serializeToBuffer(meta, options);
+      XMPMetaFactory.serializeToBuffer(meta, section, SERIALIZE_OPTIONS);
     } catch (XMPException e) {
-      Log.d(TAG, "Serialize xmp failed", e);
+      LOGGER.log(Level.FINE, "Serialize xmp failed", e);
       return null;
     }
-    if (buffer.length > MAX_XMP_BUFFER_SIZE) {
+    if (section.length() - SECTION_HEADER.length > MAX_XMP_BUFFER_SIZE) {
       // Do not support extended xmp now.
       return null;
     }
-    // The XMP section starts with XMP_HEADER and then the real xmp data.
-    byte[] xmpdata = new byte[buffer.length + XMP_HEADER_SIZE];
-    System.arraycopy(XMP_HEADER.getBytes(), 0, xmpdata, 0, XMP_HEADER_SIZE);
-    System.arraycopy(buffer, 0, xmpdata, XMP_HEADER_SIZE, buffer.length);
+    return section;
+  }
+
+  /**
+   * Appends whitespace padding to a section serialized by serializeXMPSection,
+   * and sets its length.
+   *
+   * @param section The serialized section.
+   * @param padding Number of whitespace bytes after the xmp data.
+   */
+  private static void padXMPSection(com.adobe.xmp.impl.ByteBuffer section, int padding) {
+    for (int i = 0; i < padding; ++i) {
+      section.append((byte) ' ');
+    }
+    // Adds the length place (2 bytes) to the section length.
+    int length = section.length() - SECTION_PREFIX_SIZE + 2;
+    section.getBuffer()[2] = (byte) (length >> 8);
+    section.getBuffer()[3] = (byte) length;
+  }
+
+  /**
+   * @return The largest padding a new section serialized by
+   *         serializeXMPSection can have.
+   */
+  private static int getMaxPadding(com.adobe.xmp.impl.ByteBuffer section) {
+    return MAX_XMP_BUFFER_SIZE - (section.length() - SECTION_HEADER.length);
+  }
+
+  private static byte[] createSectionHeader() {
+    byte[] header = new byte[SECTION_PREFIX_SIZE + XMP_HEADER_SIZE];
+    header[0] = (byte) 0xff;
+    header[1] = (byte) M_APP1;
+    for (int i = 0; i < XMP_HEADER_SIZE; ++i) {
+      header[SECTION_PREFIX_SIZE + i] = (byte) XMP_HEADER.charAt(i);
+    }
+    return header;
+  }
+
+  private static List<Section> insertXMPSection(
+      List<Section> sections, XMPMeta meta) {
+    if (sections == null || sections.size() <= 1) {
+      return null;
+    }
+    byte[] xmpdata = getXMPSectionData(meta);
+    if (xmpdata == null) {
+      return null;
+    }
     Section xmpSection = new Section();
     xmpSection.marker = M_APP1;
     // Adds the length place (2 bytes) to the section length.
@@ -305,6 +533,25 @@ public class XmpUtil {
     return false;
   }
 
+  /**
+   * Checks whether the bytes at the given position are the XMP header.
+   *
+   * @param buffer Jpeg file content.
+   * @param position Position of a section content.
+   * @param length Length of the section content.
+   */
+  private static boolean hasXMPHeader(ByteBuffer buffer, int position, int length) {
+    if (length < XMP_HEADER_SIZE) {
+      return false;
+    }
+    for (int i = 0; i < XMP_HEADER_SIZE; ++i) {
+      if (buffer.get(position + i) != XMP_HEADER.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Gets the end of the xmp meta content. If there is no packet wrapper,
    * return data.length, otherwise return 1 + the position of last '>'
@@ -388,7 +635,7 @@ public class XmpUtil {
       }
       return sections;
     } catch (IOException e) {
-      Log.d(TAG, "Could not parse file.", e);
+      LOGGER.log(Level.FINE, "Could not parse file.", e);
       return null;
     } finally {
       if (is != null) {
@@ -401,5 +648,102 @@ public class XmpUtil {
     }
   }
 
+  /**
+   * Scans the sections of a jpeg file up to the image data, through a memory
+   * mapping: only the section headers are read, not the sections content nor
+   * the image data.
+   *
+   * @param channel The jpeg file.
+   * @return The layout of the file, or null if it isn't a valid jpeg file.
+   */
+  private static JpegLayout scanJpeg(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size < 4 || size > Integer.MAX_VALUE) {
+      return null;
+    }
+    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    int limit = map.limit();
+    if ((map.get(0) & 0xff) != 0xff || (map.get(1) & 0xff) != M_SOI) {
+      return null;
+    }
+    JpegLayout layout = new JpegLayout();
+    int position = 2;
+    boolean first = true;
+    while (position < limit) {
+      if ((map.get(position) & 0xff) != 0xff) {
+        return null;
+      }
+      int start = position;
+      // Skip padding bytes.
+      while (position < limit && (map.get(position) & 0xff) == 0xff) {
+        ++position;
+      }
+      if (position + 2 >= limit) {
+        return null;
+      }
+      int marker = map.get(position++) & 0xff;
+      if (marker == M_SOS) {
+        // No metadata after the image data.
+        return layout;
+      }
+      int length = (map.get(position) & 0xff) << 8 | (map.get(position + 1) & 0xff);
+      if (length < 2 || position + length > limit) {
+        return null;
+      }
+      if (marker == M_APP1) {
+        if (layout.xmpStart < 0 && hasXMPHeader(map, position + 2, length - 2)) {
+          layout.xmpStart = start;
+          layout.xmpContent = position + 2;
+          layout.xmpLength = length - 2;
+        } else if (first) {
+          layout.insertPosition = position + length;
+        }
+      }
+      first = false;
+      position += length;
+    }
+    return layout;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer,
+      long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      position += read;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer,
+      long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void transferFully(FileChannel src, long position, long count,
+      FileChannel dst) throws IOException {
+    while (count > 0) {
+      long transferred = src.transferTo(position, count, dst);
+      if (transferred <= 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      position += transferred;
+      count -= transferred;
+    }
+  }
+
+  private static void close(RandomAccessFile file) {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        // Ignore.
+      }
+    }
+  }
+
   private XmpUtil() {}
 }
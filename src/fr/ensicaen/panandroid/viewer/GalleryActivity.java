@@ -1,7 +1,6 @@
 package fr.ensicaen.panandroid.viewer;
  
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
  
@@ -16,11 +15,8 @@ import java.util.HashMap;
 
 
 
-import org.json.JSONException;
-
 import fr.ensicaen.panandroid.PanandroidApplication;
 import fr.ensicaen.panandroid.R;
-import fr.ensicaen.panandroid.snapshot.SnapshotManager;
 import fr.ensicaen.panandroid.stitcher.StitcherActivity;
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -37,6 +33,12 @@ import android.widget.AdapterView.OnItemClickListener;
 public class GalleryActivity extends Activity {
  
 	private ListView mPanoListView;
+	/** decodes the previews of the projects **/
+	private ThumbnailLoader mThumbnailLoader;
+	/** fills the list from the gallery index **/
+	private GalleryIndexTask mIndexTask;
+	/** width of the previews in the list, in dp **/
+	private static final int THUMBNAIL_WIDTH = 160;
 	private String mCurrentFolderName;
 	private static final String WORKING_DIR = PanandroidApplication.APP_DIRECTORY;
 	private static final String TAG = GalleryActivity.class.getSimpleName();
@@ -53,10 +55,6 @@ public class GalleryActivity extends Activity {
         //Création de la ArrayList qui nous permettra de remplir la listView
         ArrayList<HashMap<String, String>> listItem = new ArrayList<HashMap<String, String>>();
  
-        //On déclare la HashMap qui contiendra les informations pour un item
-        HashMap<String, String> map ;
-        
-        
         File workingDir = new File(this.WORKING_DIR);
         if(!workingDir.exists() || !workingDir.isDirectory())
         {
@@ -64,46 +62,21 @@ public class GalleryActivity extends Activity {
         	return;
         }
         
-        File[] files = workingDir.listFiles();
-        
-        
-        SnapshotManager manager;
-        for(File dir : files)
-        {
-        	if(dir.isDirectory())
-        	{
-        		File jsonFile = new File(dir.getAbsolutePath()+File.separator+SnapshotManager.DEFAULT_JSON_FILENAME);
-        		if(jsonFile.exists())
-        		{
-        			map = new HashMap<String, String>();
-        			try {
-						manager = new SnapshotManager(jsonFile.getAbsolutePath());
-						//lecture du jsonfile
-	        			map.put("name", manager.getProjectName());
-	        			map.put("preview", manager.getSnapshotsList().get(0).getFilename());
-	        			map.put("projectFilename", jsonFile.getAbsolutePath());
-	        		    listItem.add(map);
-					} catch (JSONException e) {
-						e.printStackTrace();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-        			map.put("directory",dir.getAbsolutePath());
-        			
-        			
-        		}
-        			
-        		
-        	}
-        }
-        
- 
+        //the previews are decoded in background, at the size of the preview view.
+        int thumbnailWidth = (int) (THUMBNAIL_WIDTH * getResources().getDisplayMetrics().density);
+        mThumbnailLoader = new ThumbnailLoader(WORKING_DIR+File.separator+ThumbnailLoader.DEFAULT_CACHE_DIRNAME,
+        		thumbnailWidth);
  
         //Création d'un SimpleAdapter qui se chargera de mettre les items présent dans notre list (listItem) dans la vue affichageitem
         SimpleAdapter adapter = new SimpleAdapter (this.getBaseContext(),
         		listItem, R.layout.gallery_item,
                 new String[] {"preview", "name"}, 
                 new int[] {R.id.preview, R.id.name});
+        adapter.setViewBinder(mThumbnailLoader.getViewBinder());
+        
+        //the list is filled from the gallery index, without parsing the unchanged projects.
+        mIndexTask = new GalleryIndexTask(new GalleryIndex(WORKING_DIR), listItem, adapter);
+        mIndexTask.execute();
  
         //On attribut à notre listView l'adapter que l'on vient de créer
         mPanoListView.setAdapter(adapter);
@@ -124,4 +97,14 @@ public class GalleryActivity extends Activity {
          });
  
     }
+
+    @Override
+    protected void onDestroy()
+    {
+    	super.onDestroy();
+    	if(mIndexTask != null)
+    		mIndexTask.cancel(false);
+    	if(mThumbnailLoader != null)
+    		mThumbnailLoader.shutdown();
+    }
 }
\ No newline at end of file
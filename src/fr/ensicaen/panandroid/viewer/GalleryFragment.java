@@ -20,7 +20,6 @@
 package fr.ensicaen.panandroid.viewer;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -39,12 +38,9 @@ import java.util.HashMap;
 
 
 
-import org.json.JSONException;
-
 import fr.ensicaen.panandroid.PanandroidApplication;
 import fr.ensicaen.panandroid.R;
 import fr.ensicaen.panandroid.capture.CaptureFragment;
-import fr.ensicaen.panandroid.snapshot.SnapshotManager;
 import fr.ensicaen.panandroid.stitcher.StitcherActivity;
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -57,7 +53,6 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
 import android.widget.AdapterView.OnItemClickListener;
@@ -74,6 +69,12 @@ public class GalleryFragment extends Fragment {
     /** View of the fragment */
     private View mRoot;
     private ListView mPanoListView;
+    /** decodes the previews of the projects **/
+    private ThumbnailLoader mThumbnailLoader;
+    /** fills the list from the gallery index **/
+    private GalleryIndexTask mIndexTask;
+    /** width of the previews in the list, in dp **/
+    private static final int THUMBNAIL_WIDTH = 160;
     private static final String WORKING_DIR = PanandroidApplication.APP_DIRECTORY;
     public static final String TAG = GalleryActivity.class.getSimpleName();
 
@@ -91,10 +92,6 @@ public class GalleryFragment extends Fragment {
         //Cration de la ArrayList qui nous permettra de remplir la listView
         ArrayList<HashMap<String, String>> listItem = new ArrayList<HashMap<String, String>>();
 
-        //On dclare la HashMap qui contiendra les informations pour un item
-        HashMap<String, String> map ;
-
-
         File workingDir = new File(this.WORKING_DIR);
         if(!workingDir.exists() || !workingDir.isDirectory())
         {
@@ -102,45 +99,21 @@ public class GalleryFragment extends Fragment {
                 return null;
         }
 
-        File[] files = workingDir.listFiles();
-
-
-        SnapshotManager manager;
-        for(File dir : files)
-        {
-            if(dir.isDirectory())
-            {
-                File jsonFile = new File(dir.getAbsolutePath()+File.separator+SnapshotManager.DEFAULT_JSON_FILENAME);
-                if(jsonFile.exists())
-                {
-                    map = new HashMap<String, String>();
-                    try 
-                    {
-						manager = new SnapshotManager(jsonFile.getAbsolutePath());
-						//lecture du jsonfile
-						map.put("name", manager.getProjectName());
-						map.put("preview", manager.getPreview());
-						map.put("projectFilename", jsonFile.getAbsolutePath());
-					    listItem.add(map);
-			        } 
-                    catch (JSONException e) 
-			        {
-		                e.printStackTrace();
-			        }
-                    catch (IOException e)
-                    {
-		                e.printStackTrace();
-			        }
-					map.put("directory",dir.getAbsolutePath());
-                }
-            }
-        }
+        //the previews are decoded in background, at the size of the preview view.
+        int thumbnailWidth = (int) (THUMBNAIL_WIDTH * getResources().getDisplayMetrics().density);
+        mThumbnailLoader = new ThumbnailLoader(WORKING_DIR+File.separator+ThumbnailLoader.DEFAULT_CACHE_DIRNAME,
+                thumbnailWidth);
 
         //Cration d'un SimpleAdapter qui se chargera de mettre les items prsent dans notre list (listItem) dans la vue affichageitem
-        ListAdapter adapter = new SimpleAdapter (getActivity().getBaseContext(),
+        SimpleAdapter adapter = new SimpleAdapter (getActivity().getBaseContext(),
                         listItem, R.layout.gallery_item,
                 new String[] {"preview", "name"},
                 new int[] {R.id.preview, R.id.name});
+        adapter.setViewBinder(mThumbnailLoader.getViewBinder());
+
+        //the list is filled from the gallery index, without parsing the unchanged projects.
+        mIndexTask = new GalleryIndexTask(new GalleryIndex(WORKING_DIR), listItem, adapter);
+        mIndexTask.execute();
 
         //On attribut notre listView l'adapter que l'on vient de crer
         mPanoListView.setAdapter(adapter);
@@ -171,4 +144,14 @@ public class GalleryFragment extends Fragment {
             mRoot.requestLayout();
         }
 
+        @Override
+        public void onDestroyView()
+        {
+            super.onDestroyView();
+            if(mIndexTask != null)
+                mIndexTask.cancel(false);
+            if(mThumbnailLoader != null)
+                mThumbnailLoader.shutdown();
+        }
+
 }
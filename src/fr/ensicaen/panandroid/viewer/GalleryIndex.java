@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2013 Saloua BENSEDDIK, Jean MARGUERITE, Nicolas THIERION
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.viewer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.ensicaen.panandroid.snapshot.ProjectFile;
+import fr.ensicaen.panandroid.tools.PlainJson;
+
+/**
+ * Persistent index of the projects of the panorama library : name, preview and modification
+ * dates of each project file and preview. The gallery shows the index as soon as it is loaded,
+ * then revalidates it : only the projects whose file changed since the last run are parsed again.
+ * Doesn't depend on android, so that it can be benchmarked on a plain JVM.
+ * @author Nicolas THIERION.
+ */
+public class GalleryIndex
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	public static final String DEFAULT_INDEX_FILENAME = ".gallery.json";
+	private static final Logger LOGGER = Logger.getLogger(GalleryIndex.class.getSimpleName());
+	private static final int VERSION = 2;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** folder that contains a folder for each project **/
+	private final File mLibraryDir;
+	/** where the index is stored **/
+	private final File mIndexFile;
+	/** indexed projects, in the order of their folder name **/
+	private ArrayList<Entry> mEntries = new ArrayList<Entry>();
+	/** if the index differs from the stored one **/
+	private boolean mDirty = false;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param libraryDir - folder that contains a folder for each project.
+	 */
+	public GalleryIndex(String libraryDir)
+	{
+		mLibraryDir = new File(libraryDir);
+		mIndexFile = new File(libraryDir, DEFAULT_INDEX_FILENAME);
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Load the stored index. An index that can't be read is considered as empty.
+	 * @return indexed projects, maybe out of date.
+	 */
+	public synchronized List<Entry> load()
+	{
+		mEntries = new ArrayList<Entry>();
+		mDirty = true;
+		if (!mIndexFile.isFile())
+			return getEntries();
+
+		try
+		{
+			Map<String, Object> jsonDoc = PlainJson.parseObject(mIndexFile);
+			if (PlainJson.optNumber(jsonDoc, "version", 0) == VERSION)
+			{
+				for (Object project : PlainJson.getArray(jsonDoc, "projects"))
+				{
+					if (!(project instanceof Map))
+						throw new IOException("Invalid project entry");
+					@SuppressWarnings("unchecked")
+					Map<String, Object> jso = (Map<String, Object>) project;
+					Object preview = jso.get("preview");
+					mEntries.add(new Entry(PlainJson.getString(jso, "projectFile"),
+							PlainJson.getString(jso, "name"),
+							(preview instanceof String ? (String) preview : null),
+							(long) PlainJson.getNumber(jso, "lastModified"),
+							(long) PlainJson.getNumber(jso, "previewModified")));
+				}
+				mDirty = false;
+			}
+		}
+		catch (IOException e)
+		{
+			LOGGER.log(Level.WARNING, "Can't read gallery index", e);
+			mEntries.clear();
+		}
+		return getEntries();
+	}
+
+	/**
+	 * Bring the index up to date with the library. Projects whose file hasn't been modified
+	 * since they were indexed are kept as they are, the other ones are parsed again. The preview
+	 * of the kept ones is checked again, as it is written after the project file.
+	 * @return indexed projects.
+	 */
+	public synchronized List<Entry> revalidate()
+	{
+		HashMap<String, Entry> known = new HashMap<String, Entry>();
+		for (Entry e : mEntries)
+			known.put(e.getProjectFile(), e);
+
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		File[] dirs = mLibraryDir.listFiles();
+		if (dirs != null)
+		{
+			Arrays.sort(dirs);
+			for (File dir : dirs)
+			{
+				File jsonFile = new File(dir, ProjectFile.FILENAME);
+				if (!dir.isDirectory() || !jsonFile.isFile())
+					continue;
+
+				Entry entry = known.remove(jsonFile.getAbsolutePath());
+				if (entry == null || entry.getLastModified() != jsonFile.lastModified())
+				{
+					entry = createEntry(jsonFile);
+					mDirty = true;
+				}
+				else
+				{
+					Entry updated = entry.withPreview(findPreview(dir, entry.getPreview()));
+					if (updated != entry)
+					{
+						entry = updated;
+						mDirty = true;
+					}
+				}
+
+				if (entry != null)
+					entries.add(entry);
+			}
+		}
+
+		if (!known.isEmpty())
+			mDirty = true;
+		mEntries = entries;
+		return getEntries();
+	}
+
+	/**
+	 * Store the index if it has changed since it was loaded.
+	 * @return false if the index can't be stored.
+	 */
+	public synchronized boolean save()
+	{
+		if (!mDirty)
+			return true;
+
+		try
+		{
+			StringBuilder jsonDoc = new StringBuilder();
+			jsonDoc.append("{\"version\":").append(VERSION).append(",\"projects\":[");
+			for (int i = 0; i < mEntries.size(); ++i)
+			{
+				Entry e = mEntries.get(i);
+				if (i > 0)
+					jsonDoc.append(',');
+				PlainJson.quote(jsonDoc.append("{\"projectFile\":"), e.getProjectFile());
+				PlainJson.quote(jsonDoc.append(",\"name\":"), e.getName());
+				if (e.getPreview() != null)
+					PlainJson.quote(jsonDoc.append(",\"preview\":"), e.getPreview());
+				jsonDoc.append(",\"lastModified\":").append(e.getLastModified());
+				jsonDoc.append(",\"previewModified\":").append(e.getPreviewModified()).append('}');
+			}
+			jsonDoc.append("]}");
+
+			File tmpFile = new File(mIndexFile.getPath() + ".tmp");
+			BufferedWriter file = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmpFile), "UTF-8"));
+			try
+			{
+				file.write(jsonDoc.toString());
+			}
+			finally
+			{
+				file.close();
+			}
+			if (!tmpFile.renameTo(mIndexFile))
+				throw new IOException("Can't rename " + tmpFile + " to " + mIndexFile);
+		}
+		catch (IOException e)
+		{
+			LOGGER.log(Level.WARNING, "Can't store gallery index", e);
+			return false;
+		}
+		mDirty = false;
+		return true;
+	}
+
+	/* *********
+	 * GETTERS
+	 * *********/
+	/**
+	 * @return a copy of the indexed projects.
+	 */
+	public synchronized List<Entry> getEntries()
+	{
+		return new ArrayList<Entry>(mEntries);
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * Parse a project file, and index it.
+	 * @return the new entry, or null if the project can't be loaded.
+	 */
+	private Entry createEntry(File jsonFile)
+	{
+		try
+		{
+			ProjectFile project = new ProjectFile(jsonFile);
+			String preview = project.getPreview();
+			return new Entry(jsonFile.getAbsolutePath(), project.getProjectName(), preview,
+					jsonFile.lastModified(), getLastModified(preview));
+		}
+		catch (IOException e)
+		{
+			LOGGER.log(Level.WARNING, "Can't index project " + jsonFile, e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the stitched preview of the project if there is one, otherwise the given preview.
+	 */
+	private static String findPreview(File dir, String preview)
+	{
+		File stitched = new File(dir, "preview.jpg");
+		if (stitched.isFile())
+			return stitched.getAbsolutePath();
+		return preview;
+	}
+
+	/**
+	 * @return modification date of the given file, 0 if there is none.
+	 */
+	private static long getLastModified(String filename)
+	{
+		return (filename == null ? 0 : new File(filename).lastModified());
+	}
+
+	/* *********
+	 * PUBLIC CLASSES
+	 * *********/
+	/**
+	 * A project of the library, as stored in the index.
+	 */
+	public static class Entry
+	{
+		private final String mProjectFile;
+		private final String mName;
+		/** image shown in the gallery, or null **/
+		private final String mPreview;
+		/** modification date of the project file when it was indexed **/
+		private final long mLastModified;	//[ms]
+		/** modification date of the preview when it was indexed, 0 if there is none **/
+		private final long mPreviewModified;	//[ms]
+
+		public Entry(String projectFile, String name, String preview, long lastModified,
+				long previewModified)
+		{
+			mProjectFile = projectFile;
+			mName = name;
+			mPreview = preview;
+			mLastModified = lastModified;
+			mPreviewModified = previewModified;
+		}
+
+		public String getProjectFile()
+		{
+			return mProjectFile;
+		}
+
+		public String getDirectory()
+		{
+			return new File(mProjectFile).getParent();
+		}
+
+		public String getName()
+		{
+			return mName;
+		}
+
+		public String getPreview()
+		{
+			return mPreview;
+		}
+
+		public long getLastModified()
+		{
+			return mLastModified;
+		}
+
+		public long getPreviewModified()
+		{
+			return mPreviewModified;
+		}
+
+		/**
+		 * @return this entry if the given preview is the indexed one and wasn't modified since,
+		 * otherwise an entry with the given preview.
+		 */
+		private Entry withPreview(String preview)
+		{
+			long previewModified = GalleryIndex.getLastModified(preview);
+			if (previewModified == mPreviewModified
+					&& (preview == null ? mPreview == null : preview.equals(mPreview)))
+				return this;
+			return new Entry(mProjectFile, mName, preview, mLastModified, previewModified);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 Saloua BENSEDDIK, Jean MARGUERITE, Nicolas THIERION
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.viewer;
+
+import java.util.HashMap;
+import java.util.List;
+
+import android.os.AsyncTask;
+import android.widget.BaseAdapter;
+
+/**
+ * Fills the gallery list in background : first with the stored index, so that the list
+ * shows up at once, then with the index brought up to date with the library.
+ * Each item of the list holds the "name", "preview", "projectFilename" and "directory"
+ * of a project.
+ * @author Nicolas THIERION.
+ */
+public class GalleryIndexTask extends AsyncTask<Void, List<GalleryIndex.Entry>, Void>
+{
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	private final GalleryIndex mIndex;
+	/** items of the list, only modified from the UI thread **/
+	private final List<HashMap<String, String>> mListItems;
+	private final BaseAdapter mAdapter;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param index - index of the library.
+	 * @param listItems - items shown by the adapter.
+	 * @param adapter - adapter notified each time the items change.
+	 */
+	public GalleryIndexTask(GalleryIndex index, List<HashMap<String, String>> listItems, BaseAdapter adapter)
+	{
+		mIndex = index;
+		mListItems = listItems;
+		mAdapter = adapter;
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Void doInBackground(Void... params)
+	{
+		List<GalleryIndex.Entry> entries = mIndex.load();
+		if (!entries.isEmpty())
+			publishProgress(entries);
+		if (isCancelled())
+			return null;
+
+		publishProgress(mIndex.revalidate());
+		mIndex.save();
+		return null;
+	}
+
+	@Override
+	protected void onProgressUpdate(List<GalleryIndex.Entry>... progress)
+	{
+		mListItems.clear();
+		for (GalleryIndex.Entry entry : progress[progress.length - 1])
+		{
+			HashMap<String, String> map = new HashMap<String, String>();
+			map.put("name", entry.getName());
+			map.put("preview", entry.getPreview());
+			map.put("projectFilename", entry.getProjectFile());
+			map.put("directory", entry.getDirectory());
+			mListItems.add(map);
+		}
+		mAdapter.notifyDataSetChanged();
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 Saloua BENSEDDIK, Jean MARGUERITE, Nicolas THIERION
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+
+package fr.ensicaen.panandroid.viewer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.SimpleAdapter;
+
+/**
+ * Decodes the gallery thumbnails in background threads. The thumbnails are kept in a memory
+ * cache bounded in bytes, and stored downscaled in a disk cache, so that a preview is only
+ * decoded at full size once. A view that has been bound to another image in the meantime,
+ * as list rows are recycled, is not updated.
+ * @author Nicolas THIERION.
+ */
+public class ThumbnailLoader
+{
+	/* *********
+	 * PARAMETERS
+	 * *********/
+	public static final String DEFAULT_CACHE_DIRNAME = ".thumbnails";
+	private static final String TAG = ThumbnailLoader.class.getSimpleName();
+	private static final int DEFAULT_THREADS = 2;
+	/** part of the heap used by the memory cache **/
+	private static final int MEMORY_CACHE_RATIO = 8;
+	private static final int JPEG_QUALITY = 85;
+
+	/* *********
+	 * ATTRIBUTES
+	 * *********/
+	/** width of the thumbnails **/
+	private final int mThumbnailWidth;		//[px]
+	/** folder of the downscaled previews **/
+	private final File mCacheDir;
+	/** decoded thumbnails, by image path **/
+	private final LruCache<String, Bitmap> mMemoryCache;
+	/** image each view waits for **/
+	private final Map<ImageView, String> mRequests =
+			Collections.synchronizedMap(new WeakHashMap<ImageView, String>());
+
+	private final ExecutorService mExecutor;
+	private final Handler mHandler;
+
+	/* *********
+	 * CONSTRUCTORS
+	 * *********/
+	/**
+	 * @param cacheDir - folder of the disk cache. Created if it doesn't exist.
+	 * @param thumbnailWidth - width of the thumbnails, in pixels.
+	 * @param memoryCacheSize - size of the memory cache, in bytes.
+	 */
+	public ThumbnailLoader(String cacheDir, int thumbnailWidth, int memoryCacheSize)
+	{
+		mThumbnailWidth = Math.max(1, thumbnailWidth);
+		mCacheDir = new File(cacheDir);
+		mCacheDir.mkdirs();
+		mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize)
+		{
+			@Override
+			protected int sizeOf(String path, Bitmap bitmap)
+			{
+				return bitmap.getRowBytes() * bitmap.getHeight();
+			}
+		};
+		mExecutor = Executors.newFixedThreadPool(DEFAULT_THREADS);
+		mHandler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Create a loader whose memory cache uses an eighth of the heap.
+	 * @param cacheDir - folder of the disk cache. Created if it doesn't exist.
+	 * @param thumbnailWidth - width of the thumbnails, in pixels.
+	 */
+	public ThumbnailLoader(String cacheDir, int thumbnailWidth)
+	{
+		this(cacheDir, thumbnailWidth, (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_RATIO));
+	}
+
+	/* *********
+	 * METHODS
+	 * *********/
+	/**
+	 * Show the thumbnail of an image in a view. Must be called from the UI thread.
+	 * The view is cleared until the thumbnail is decoded.
+	 * @param path - image to show, or null to clear the view.
+	 * @param view - view showing the thumbnail.
+	 */
+	public void load(final String path, final ImageView view)
+	{
+		Bitmap bitmap = (path != null ? mMemoryCache.get(path) : null);
+		if (bitmap != null || path == null)
+		{
+			mRequests.remove(view);
+			view.setImageBitmap(bitmap);
+			return;
+		}
+
+		view.setImageBitmap(null);
+		if (mExecutor.isShutdown())
+			return;
+		mRequests.put(view, path);
+		mExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// the view may show another image now.
+				if (!path.equals(mRequests.get(view)))
+					return;
+
+				final Bitmap thumbnail = getThumbnail(path);
+				if (thumbnail == null)
+					return;
+				mMemoryCache.put(path, thumbnail);
+
+				mHandler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (path.equals(mRequests.get(view)))
+						{
+							mRequests.remove(view);
+							view.setImageBitmap(thumbnail);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @return a binder that makes a SimpleAdapter show its images through this loader,
+	 * instead of decoding them in the UI thread.
+	 */
+	public SimpleAdapter.ViewBinder getViewBinder()
+	{
+		return new SimpleAdapter.ViewBinder()
+		{
+			@Override
+			public boolean setViewValue(View view, Object data, String textRepresentation)
+			{
+				if (!(view instanceof ImageView))
+					return false;
+				load((String) data, (ImageView) view);
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Get the thumbnail of an image, from the disk cache if it is up to date,
+	 * otherwise by decoding the image and storing its thumbnail. Blocking.
+	 * @param path - image file.
+	 * @return the thumbnail, or null if the image can't be decoded.
+	 */
+	public Bitmap getThumbnail(String path)
+	{
+		File image = new File(path);
+		File cached = getCacheFile(path);
+		if (cached.isFile() && cached.lastModified() >= image.lastModified())
+		{
+			Bitmap bitmap = BitmapFactory.decodeFile(cached.getPath());
+			if (bitmap != null)
+				return bitmap;
+		}
+
+		Bitmap thumbnail = decodeThumbnail(path);
+		if (thumbnail != null)
+			store(thumbnail, cached);
+		return thumbnail;
+	}
+
+	/**
+	 * Stop the decoding threads and empty the memory cache. The disk cache is kept.
+	 */
+	public void shutdown()
+	{
+		mExecutor.shutdownNow();
+		mRequests.clear();
+		mMemoryCache.evictAll();
+	}
+
+	/* *********
+	 * PRIVATE METHODS
+	 * *********/
+	/**
+	 * Decode an image subsampled to about the thumbnail width, then scale it to that width.
+	 */
+	private Bitmap decodeThumbnail(String path)
+	{
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+			return null;
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = 1;
+		while (options.outWidth / (options.inSampleSize * 2) >= mThumbnailWidth)
+			options.inSampleSize *= 2;
+
+		Bitmap bitmap;
+		try
+		{
+			bitmap = BitmapFactory.decodeFile(path, options);
+		}
+		catch (OutOfMemoryError e)
+		{
+			Log.w(TAG, "Not enough memory to decode " + path);
+			return null;
+		}
+		if (bitmap == null || bitmap.getWidth() <= mThumbnailWidth)
+			return bitmap;
+
+		int height = Math.max(1, bitmap.getHeight() * mThumbnailWidth / bitmap.getWidth());
+		Bitmap thumbnail = Bitmap.createScaledBitmap(bitmap, mThumbnailWidth, height, true);
+		if (thumbnail != bitmap)
+			bitmap.recycle();
+		return thumbnail;
+	}
+
+	/**
+	 * Write a thumbnail in the disk cache. The file is renamed once complete, so that
+	 * a reader never sees a partial thumbnail.
+	 */
+	private void store(Bitmap thumbnail, File cached)
+	{
+		File tmpFile = new File(cached.getPath() + ".tmp");
+		try
+		{
+			OutputStream out = new FileOutputStream(tmpFile);
+			try
+			{
+				thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+			}
+			finally
+			{
+				out.close();
+			}
+			if (!tmpFile.renameTo(cached))
+				tmpFile.delete();
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "Can't store thumbnail " + cached, e);
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * @return file of the disk cache that stores the thumbnail of the given image.
+	 */
+	private File getCacheFile(String path)
+	{
+		String name;
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+				hex.append(String.format("%02x", b & 0xff));
+			name = hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			name = Integer.toHexString(path.hashCode());
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			name = Integer.toHexString(path.hashCode());
+		}
+		return new File(mCacheDir, name + ".jpg");
+	}
+}